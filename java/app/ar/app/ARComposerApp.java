@@ -17,6 +17,7 @@ import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 
 import ar.Aggregates;
+import ar.Renderer;
 import ar.aggregates.AggregateUtils;
 import ar.app.components.*;
 import ar.app.components.sequentialComposer.SequentialComposer;
@@ -31,7 +32,7 @@ import ar.util.Util;
 //TODO: Add "Specialize From Here"
 public class ARComposerApp implements ARComponent.Holder, ar.util.HasViewTransform {
 	//private final EnhanceHost display = new EnhanceHost(new AggregatingDisplay(new ForkJoinRenderer()));
-	private final EnhanceHost display = new EnhanceHost(new AggregatingDisplay(new ThreadpoolRenderer()));
+	private final EnhanceHost display = new EnhanceHost(cachingDisplay(new ThreadpoolRenderer()));
 	private final JFrame frame = new JFrame();
 
 	private final RegionOptions enhanceOptions = new RegionOptions();
@@ -152,6 +153,17 @@ public class ARComposerApp implements ARComponent.Holder, ar.util.HasViewTransfo
 		}
 	}
 	
+	/**Aggregator changes are frequent in the composer, so projected glyph positions may be kept around.
+	 * Opt-in, since projections take roughly 12 bytes per glyph-bin pair: 
+	 * set a memory budget as a system parameter (-DPROJECTION_CACHE_MB=x) to enable.
+	 */
+	private static AggregatingDisplay cachingDisplay(Renderer renderer) {
+		AggregatingDisplay display = new AggregatingDisplay(renderer);
+		long megabytes = Long.getLong("PROJECTION_CACHE_MB", 0);
+		display.cacheProjections(megabytes << 20);
+		return display;
+	}
+	
 	public static <A,B> void loadInstances(JComboBox<B> target, Class<A> source) {
 		Class<?>[] clss = source.getClasses();
 		for (Class<?> cls:clss) {
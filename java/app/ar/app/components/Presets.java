@@ -34,6 +34,7 @@ import ar.glyphsets.implicitgeometry.Indexed;
 import ar.glyphsets.implicitgeometry.MathValuers;
 import ar.glyphsets.implicitgeometry.Valuer;
 import ar.rules.CategoricalCounts;
+import ar.rules.CategoryDictionary;
 import ar.rules.Categories;
 import ar.rules.Categories.HighDefAlpha;
 import ar.rules.Categories.Rekey;
@@ -585,7 +586,7 @@ public class Presets extends JPanel {
 		try {census_temp = GlyphsetUtils.memMap(
 				"US Census Tracts", CENSUS_TRACTS, 
 				new Indexed.ToPoint(true, 0, 1),
-				new Valuer.CategoryCount<>(new Util.ComparableComparator<String>(), 3,2),
+				new Valuer.CategoryCount<>(new CategoryDictionary<String>(), 3,2),
 				1, null);
 		} catch (Exception e) {
 			System.err.printf("## Error loading data from %s.  Related presets are unavailable.\n", CENSUS);
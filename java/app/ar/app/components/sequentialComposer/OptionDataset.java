@@ -16,7 +16,7 @@ import ar.glyphsets.implicitgeometry.Valuer;
 import ar.glyphsets.implicitgeometry.Indexed.ToValue;
 import ar.glyphsets.implicitgeometry.Valuer.Binary;
 import ar.rules.CategoricalCounts;
-import ar.util.Util;
+import ar.rules.CategoryDictionary;
 
 public final class OptionDataset<G,I> {	
 	public final String name;
@@ -104,7 +104,7 @@ public final class OptionDataset<G,I> {
 				"US Census Tracts", 
 				new File("../data/2010Census_RaceTract.hbin"), 
 				new Indexed.ToPoint(true, 0, 1),
-				new Valuer.CategoryCount<>(new Util.ComparableComparator<String>(), 3,2),
+				new Valuer.CategoryCount<>(new CategoryDictionary<String>(), 3,2),
 				OptionAggregator.MERGE_CATS,
 				new OptionTransfer.Spread(),
 				new OptionTransfer.ToCount(),
@@ -5,12 +5,19 @@ import java.awt.event.ActionListener;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import ar.*;
 import ar.app.util.ActionProvider;
 import ar.app.util.MostRecentOnlyExecutor;
 import ar.app.util.ZoomPanHandler;
+import ar.glyphsets.SampledGlyphs;
+import ar.renderers.ProgressRecorder;
+import ar.renderers.ProjectionCache;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.Numbers;
 import ar.selectors.TouchesPixel;
+import ar.util.NamedThreadFactory;
 import ar.util.Util;
 import ar.util.axis.Axis;
 import ar.util.axis.DescriptorPair;
@@ -33,9 +40,30 @@ public class AggregatingDisplay extends ARComponent.Aggregating {
 	protected volatile boolean renderError = false;
 	protected volatile Aggregates<?> aggregates;
 	protected ExecutorService renderPool = new MostRecentOnlyExecutor(1,"FullDisplay Render Thread");
+	protected ExecutorService previewPool = new MostRecentOnlyExecutor(1,"FullDisplay Preview Thread");
+	private volatile AggregateRender currentRender;
 		
 	protected final Renderer renderer;
 	
+	/**If non-null, random-access datasets are aggregated through this cache of projected glyph positions.**/
+	protected ProjectionCache projections = null;
+
+	/**Glyphs in the preview sample, rendered alongside the full render (zero or less to disable previews).
+	 * Only random-access datasets much larger than the sample are previewed.
+	 * 
+	 * The default aims at a preview within 100ms: counting a 2^18 glyph stratified sample of points 
+	 * into an 800x600 grid takes 55-85ms on one warm core (about 175ms for the first, cold, render).
+	 */
+	protected long previewSize = 1<<18;
+
+	/**Renders previews on a single thread of its own, so the full render keeps the shared renderer (and its progress recorder).
+	 * Not the previewPool: preview tasks run there and wait on the renderer's tasks.**/
+	private final ExecutorService previewRenderPool = Executors.newFixedThreadPool(1, new NamedThreadFactory("FullDisplay Preview Renderer", true));
+	protected final Renderer previewRenderer = new ThreadpoolRenderer(previewRenderPool, 1, new ProgressRecorder.NOP());
+
+	/**Sample size must be this many times smaller than the dataset for a preview to be rendered.**/
+	private static final int PREVIEW_MIN_RATIO = 8;
+	
 	public AggregatingDisplay(Renderer renderer) {
 		super();
 		this.renderer = renderer;
@@ -57,7 +85,21 @@ public class AggregatingDisplay extends ARComponent.Aggregating {
 		ZoomPanHandler.installOn(this);
 	}
 	
-	@Override protected void finalize() {renderPool.shutdown();}
+	@Override protected void finalize() {renderPool.shutdown(); previewPool.shutdown(); previewRenderPool.shutdown();}
+	
+	/**Enable/disable caching of projected glyph positions (off by default).
+	 * When enabled, changing the aggregator on the same dataset at the same view 
+	 * re-aggregates without re-projecting geometry (at the cost of roughly 12 bytes per glyph-bin pair).
+	 * Uses the default memory budget (see ProjectionCache.DEFAULT_MAX_BYTES).
+	 */
+	public void cacheProjections(boolean cache) {cacheProjections(cache ? ProjectionCache.DEFAULT_MAX_BYTES : 0);}
+
+	/**Cache projected glyph positions within a memory budget (zero or less disables caching).**/
+	public void cacheProjections(long maxBytes) {this.projections = maxBytes > 0 ? new ProjectionCache(0, maxBytes) : null;}
+
+	/**Set the number of glyphs sampled for the quick preview render (zero or less to disable previews).**/
+	public void previewSize(long size) {this.previewSize = size;}
+
 	public void addAggregatesChangedListener(ActionListener l) {aggregatesChangedProvider.addActionListener(l);}
 
 	@Override public Aggregates<?> refAggregates() {return display.refAggregates();}
@@ -70,6 +112,7 @@ public class AggregatingDisplay extends ARComponent.Aggregating {
 
 	public void dataset(Glyphset<?,?> data, Aggregator<?,?> aggregator, Transfer<?,?> transfer) {dataset(data,aggregator, transfer, true);}
 	public void dataset(Glyphset<?,?> data, Aggregator<?,?> aggregator, Transfer<?,?> transfer, boolean rerender) {
+		if (projections != null && data != this.dataset) {projections.clear();}
 		this.dataset = data;
 		this.aggregator = aggregator;
 		this.transfer(transfer);
@@ -113,7 +156,9 @@ public class AggregatingDisplay extends ARComponent.Aggregating {
 			g.setColor(Color.GRAY);
 			g.fillRect(0, 0, this.getWidth(), this.getHeight());
  		} else if (fullRender) {
-			action = new AggregateRender();
+			AggregateRender render = new AggregateRender();
+			currentRender = render;
+			action = render;
 			renderPool.execute(action);
 			fullRender = false;
 		} 
@@ -160,7 +205,11 @@ public class AggregatingDisplay extends ARComponent.Aggregating {
 	
 	public Rectangle2D dataBounds() {return dataset.bounds();}
 	
+	/**Full render of the dataset (with a concurrent preview of a sample, see previewSize).
+	 * A preview is only shown if its full render has not finished and no newer render has started.
+	 */
 	private final class AggregateRender implements Runnable {
+		private boolean finished = false;
 		
 		public void run() {
 			try {
@@ -172,10 +221,25 @@ public class AggregatingDisplay extends ARComponent.Aggregating {
 				@SuppressWarnings({"rawtypes"})
 				Selector selector = TouchesPixel.make(dataset);
 				
-				@SuppressWarnings({"unchecked","rawtypes"})
-				Aggregates<?> a = renderer.aggregate(dataset, selector, (Aggregator) aggregator, rt);
+				if (previewSize > 0 && dataset instanceof Glyphset.RandomAccess && dataset.size() > previewSize*PREVIEW_MIN_RATIO) {
+					previewPool.execute(() -> preview(selector, rt));
+				}
+
+				Aggregates<?> a;
+				if (projections != null && dataset instanceof Glyphset.RandomAccess) {
+					@SuppressWarnings({"unchecked","rawtypes"})
+					Aggregates<?> projected = projections.aggregate(renderer, (Glyphset.RandomAccess) dataset, selector, (Aggregator) aggregator, rt);
+					a = projected;
+				} else {
+					@SuppressWarnings({"unchecked","rawtypes"})
+					Aggregates<?> rendered = renderer.aggregate(dataset, selector, (Aggregator) aggregator, rt);
+					a = rendered;
+				}
 				
-				AggregatingDisplay.this.aggregates(a, rt, dataset.axisDescriptors());
+				synchronized(this) {
+					finished = true;
+					AggregatingDisplay.this.aggregates(a, rt, dataset.axisDescriptors());
+				}
 				if (PERFORMANCE_REPORTING) {
 					System.out.printf("%d ms (Base aggregates render on %d x %d grid)\n",
 							renderer.recorder().elapse(), 
@@ -192,5 +256,41 @@ public class AggregatingDisplay extends ARComponent.Aggregating {
 			
 			AggregatingDisplay.this.repaint();
 		}
+
+		/**Render a stratified sample of the dataset on the preview renderer, so something is shown while the full render runs.
+		 * Counts and sums are upscaled to estimate the full values.
+		 */
+		@SuppressWarnings({"unchecked","rawtypes"})
+		private void preview(Selector selector, AffineTransform rt) {
+			try {
+				long start = System.currentTimeMillis();
+				SampledGlyphs.Stratified<?,?> sample = new SampledGlyphs.Stratified<>((Glyphset.RandomAccess) dataset, previewSize, 0);
+				Aggregates a = previewRenderer.aggregate(sample, selector, (Aggregator) aggregator, rt);
+				if (additive(aggregator) && a.defaultValue() instanceof Number) {
+					a = Numbers.Scale.make((Number) a.defaultValue(), sample.scale()).process(a, previewRenderer);
+				}
+
+				synchronized(this) {
+					if (finished || currentRender != this) {return;}
+					AggregatingDisplay.this.aggregates(a, rt, dataset.axisDescriptors());
+				}
+				AggregatingDisplay.this.repaint();
+				if (PERFORMANCE_REPORTING) {
+					System.out.printf("%d ms (Preview render of %,d glyphs)\n", System.currentTimeMillis()-start, sample.size());
+				}
+			} catch (Exception e) {
+				//Previews are best-effort; the full render reports any errors
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**Do aggregates of a sample scale up to estimates of the full aggregates?**/
+	private static boolean additive(Aggregator<?,?> aggregator) {
+		return aggregator instanceof Numbers.Count
+				|| aggregator instanceof Numbers.Sum.Double
+				|| aggregator instanceof Numbers.Sum.Float
+				|| aggregator instanceof Numbers.Sum.Integer
+				|| aggregator instanceof Numbers.Sum.Long;
 	}
 }
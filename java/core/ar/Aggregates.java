@@ -89,4 +89,14 @@ public interface Aggregates<A> extends Serializable, Iterable<A> {
 	 * By default, always assume a set of aggregates is not empty.   
 	 */
 	public default boolean empty() {return false;}
+	
+	/**DESTRUCTIVELY combine a value into the aggregate at the given position.
+	 * 
+	 * By default, this gets the current value, combines and sets the result.
+	 * Implementations that can update in place (e.g., primitive arrays or mutable accumulators) override this.
+	 * As with set, positions outside of the bounds are ignored.
+	 */
+	public default <I> void accumulate(int x, int y, I value, Aggregator<I,A> op) {
+		set(x, y, op.combine(get(x,y), value));
+	}
 }
@@ -51,4 +51,31 @@ public interface Aggregator<IN,OUT> extends Serializable {
 	 * property (for example, pixel-serial rendering just uses it for the ag).
 	 **/
 	public OUT identity();
+	
+	
+	/**Optional protocol for aggregators whose values are objects that combine would copy on every update.
+	 * 
+	 * Renderers that find this interface keep a mutable accumulator per bin in a task's private
+	 * target (see AccumulatingAggregates), update and merge the accumulators in place, 
+	 * and freeze them into OUT values before the aggregates are returned.  
+	 * Everywhere else the immutable combine/rollup/identity contract above still holds,
+	 * so the two must agree: freeze(create()) equals identity(), accumulating a value matches combine
+	 * and merging matches rollup.
+	 * 
+	 * @param <M> Type of the mutable accumulator
+	 */
+	public static interface Accumulating<IN,OUT,M> extends Aggregator<IN,OUT> {
+		/**New accumulator holding the identity value.**/
+		public M create();
+		
+		/**DESTRUCTIVELY add an input value to the accumulator.**/
+		public void accumulate(M accumulator, IN update);
+		
+		/**DESTRUCTIVELY add the contents of source to target.  The source is not modified.**/
+		public void merge(M target, M source);
+		
+		/**Immutable value of the accumulator.  
+		 * The accumulator may still be updated afterwards, so the value must not share its mutable state.**/
+		public OUT freeze(M accumulator);
+	}
 }
@@ -2,6 +2,9 @@ package ar;
 
 import java.awt.geom.AffineTransform;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -75,4 +78,23 @@ public interface Renderer extends Serializable {
 	 * @return The percent of predicted work that has been completed.
 	 */
 	public ProgressRecorder recorder();
+	
+	
+	/**How many independent tasks this renderer can usefully run at once (see invokeAll).
+	 * Transfers that split their own work (e.g., General.Spread) use this to pick a task count.
+	 * The default of one indicates that tasks are run serially.
+	 */
+	public default int parallelism() {return 1;}
+
+	/**Run independent tasks, in parallel on the renderer's thread pool where it has one.
+	 * Returns once all tasks have completed, with results in task order.
+	 * 
+	 * The default runs the tasks one after another on the calling thread.
+	 */
+	public default <A> List<A> invokeAll(List<? extends Callable<A>> tasks) {
+		List<A> results = new ArrayList<>();
+		try {for (Callable<A> task: tasks) {results.add(task.call());}}
+		catch (Exception e) {throw new RuntimeException("Error completing tasks", e);}
+		return results;
+	}
 }
@@ -11,6 +11,8 @@ import java.util.function.BiFunction;
 import ar.Aggregates;
 import ar.Aggregator;
 import ar.aggregates.implementations.*;
+import ar.aggregates.wrappers.TouchedBoundsWrapper;
+import ar.rules.CategoricalCounts;
 import ar.util.Util;
 
 /**Utilities for working with aggregates.
@@ -96,6 +98,14 @@ public class AggregateUtils {
 		return target;
 	}
 	
+	private static <T> Aggregates<T> selfTracking(Aggregates<T> aggs) {
+		if (aggs instanceof TouchedBoundsWrapper) {
+			Aggregates<T> base = ((TouchedBoundsWrapper<T>) aggs).base();
+			if (base instanceof CategoricalPlanes || base instanceof MomentAggregates) {return base;}
+		}
+		return aggs;
+	}
+
 	/**FOR INTERNAL USE ONLY.  Aligned merge two sets of aggregaets...possibly modifying one of them.
 	 * Can only be used if BOTH sets of aggregates are only held in the current scope AND
 	 * going out of scope immediately after the merge.  
@@ -122,6 +132,10 @@ public class AggregateUtils {
 		if ((left instanceof ConstantAggregates) && Util.isEqual(identity, left.defaultValue())) {return right;}
 		if ((right instanceof ConstantAggregates) && Util.isEqual(identity, right.defaultValue())) {return left;}
 
+		//Planes and moments track their own touched regions; merging the bases keeps the bulk paths below
+		left = selfTracking(left);
+		right = selfTracking(right);
+
 		List<Aggregates<T> >sources = new ArrayList<Aggregates<T>>();
 		Aggregates<T> target;
 		Rectangle rb = new Rectangle(right.lowX(), right.lowY(), right.highX()-right.lowX(), right.highY()-right.lowY());
@@ -140,6 +154,16 @@ public class AggregateUtils {
 			target = AggregateUtils.make((int) bounds.getMinX(), (int) bounds.getMinY(), 
 					(int) bounds.getMaxX(), (int) bounds.getMaxY(), identity);
 		}
+		
+		if (target instanceof CategoricalPlanes && samePlanes((CategoricalPlanes<?>) target, sources)) {
+			for (Aggregates<T> source: sources) {addPlanes(target, source);}
+			return target;
+		}
+		
+		if (target instanceof MomentAggregates && allMoments(sources)) {
+			for (Aggregates<T> source: sources) {((MomentAggregates) target).addAll((MomentAggregates) source);}
+			return target;
+		}
 	
 		for (Aggregates<T> source: sources) {
 			for (int x=source.lowX(); x<source.highX(); x++) {
@@ -154,6 +178,27 @@ public class AggregateUtils {
 		return target;
 	}
 	
+	/**Are all of the sources planes over the same dictionary as the target?**/
+	private static boolean samePlanes(CategoricalPlanes<?> target, List<? extends Aggregates<?>> sources) {
+		for (Aggregates<?> source: sources) {
+			if (!(source instanceof CategoricalPlanes)
+					|| ((CategoricalPlanes<?>) source).dictionary() != target.dictionary()) {return false;}
+		}
+		return true;
+	}
+	
+	private static boolean allMoments(List<? extends Aggregates<?>> sources) {
+		for (Aggregates<?> source: sources) {
+			if (!(source instanceof MomentAggregates)) {return false;}
+		}
+		return true;
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static void addPlanes(Aggregates<?> target, Aggregates<?> source) {
+		((CategoricalPlanes) target).addAll((CategoricalPlanes) source);
+	}
+	
 	/**Create a new set of aggregates with smaller bounds
 	 * by making each cell in the new aggregates cover multiple cells
 	 * in the old aggregates. 
@@ -201,6 +246,19 @@ public class AggregateUtils {
 
 	public static <A> Aggregates<A> make(int width, int height, A defVal) {return make(0,0,width,height,defVal);}
 
+	/**Create a set of aggregates to aggregate into (see Renderer.aggregate).
+	 * Like make, except that an empty dictionary-backed CategoricalCounts default value gets CategoricalPlanes,
+	 * which counting aggregators update in place.  (Planes are not made for other uses, such as transfer outputs,
+	 * where every set would rewrite all planes of a bin.)
+	 */
+	@SuppressWarnings("unchecked")
+	public static <A> Aggregates<A> target(int lowX, int lowY, int highX, int highY, A defVal) {
+		if (CategoricalPlanes.holds(defVal) && size(lowX,lowY,highX,highY) <= Integer.MAX_VALUE) {
+			return (Aggregates<A>) new CategoricalPlanes<>(lowX, lowY, highX, highY, ((CategoricalCounts<?>) defVal).dictionary());
+		}
+		return make(lowX, lowY, highX, highY, defVal);
+	}
+
 	/**Create a set of aggregates for the given type.*/
 	@SuppressWarnings("unchecked")
 	public static <A> Aggregates<A> make(int lowX, int lowY, int highX, int highY, A defVal) {
@@ -214,6 +272,8 @@ public class AggregateUtils {
 			return (Aggregates<A>) new BooleanAggregates(lowX, lowY, highX, highY, (Boolean) defVal);
 		} else if (size(lowX,lowY,highX,highY) > Integer.MAX_VALUE){
 			return new Ref2DAggregates<>(lowX, lowY, highX, highY, defVal);
+		} else if (MomentAggregates.holds(defVal)) {
+			return (Aggregates<A>) new MomentAggregates(lowX, lowY, highX, highY);
 		} else {
 			return new RefFlatAggregates<>(lowX, lowY, highX, highY, defVal);
 		}
@@ -0,0 +1,141 @@
+package ar.aggregates.implementations;
+
+import java.util.Iterator;
+
+import ar.Aggregates;
+import ar.Aggregator;
+import ar.aggregates.AggregateUtils;
+import ar.aggregates.BoundsInversionException;
+import ar.aggregates.Iterator2D;
+
+/**Mutable accumulators (see Aggregator.Accumulating), one per bin, for a renderer task's private target.
+ *
+ * Selectors add values to the accumulators in place (see Aggregates.accumulate) and
+ * merges absorb one set into another, so an instance must only be used by one task at a time.
+ * freeze() produces the regular aggregates to publish.
+ *
+ * get(x,y) freezes the bin's accumulator (bins that were never touched hold the identity);
+ * set is not supported, since values cannot be turned back into accumulators.
+ *
+ * @param <A> Type of the (frozen) aggregate values
+ * @param <M> Type of the accumulators
+ */
+public class AccumulatingAggregates<A,M> implements Aggregates<A> {
+	private static final long serialVersionUID = 3047562385095617703L;
+
+	private final Aggregator.Accumulating<?,A,M> op;
+	private final A identity;
+	private final Object[] accumulators;	//Null until a bin is touched
+	private final int lowX, lowY, highX, highY;
+	private int touchedLowX = Integer.MAX_VALUE, touchedLowY = Integer.MAX_VALUE;
+	private int touchedHighX = Integer.MIN_VALUE, touchedHighY = Integer.MIN_VALUE;
+
+	public AccumulatingAggregates(int lowX, int lowY, int highX, int highY, Aggregator.Accumulating<?,A,M> op) {
+		if (lowX > highX) {throw new BoundsInversionException(lowX, highX, "X");}
+		if (lowY > highY) {throw new BoundsInversionException(lowY, highY, "Y");}
+		long size = AggregateUtils.size(lowX, lowY, highX, highY);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Aggregates of size %dx%d exceeds the implementation capacity.", (highX-lowX), (highY-lowY)));
+		}
+
+		this.op = op;
+		this.identity = op.identity();
+		this.lowX = lowX;
+		this.lowY = lowY;
+		this.highX = highX;
+		this.highY = highY;
+		this.accumulators = new Object[(int) size];
+	}
+
+	/**DESTRUCTIVELY add a value to the accumulator of a bin.  Bins outside of the bounds are ignored.
+	 * The value must be of the aggregator's input type.**/
+	@SuppressWarnings("unchecked")
+	public void accumulate(int x, int y, Object value) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return;}
+		int idx = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+		M acc = (M) accumulators[idx];
+		if (acc == null) {
+			acc = op.create();
+			accumulators[idx] = acc;
+			touch(x,y);
+		}
+		((Aggregator.Accumulating<Object,A,M>) op).accumulate(acc, value);
+	}
+
+	/**Values always go to the accumulators (the aggregator is the one these were made with).**/
+	@Override
+	public <I> void accumulate(int x, int y, I value, Aggregator<I,A> op) {accumulate(x, y, value);}
+
+	/**DESTRUCTIVELY merge another set of accumulators into this one.
+	 * Accumulators of the other set may be taken over, so it must not be used afterwards.
+	 * @throws IllegalArgumentException If the other set touched bins outside of these bounds
+	 */
+	@SuppressWarnings("unchecked")
+	public void absorb(AccumulatingAggregates<A,M> other) {
+		if (other.empty()) {return;}
+		if (other.touchedLowX < lowX || other.touchedLowY < lowY || other.touchedHighX > highX || other.touchedHighY > highY) {
+			throw new IllegalArgumentException(String.format("Cannot absorb accumulators touched outside of %s.", AggregateUtils.bounds(this)));
+		}
+
+		for (int y=other.touchedLowY; y<other.touchedHighY; y++) {
+			for (int x=other.touchedLowX; x<other.touchedHighX; x++) {
+				M source = (M) other.accumulators[AggregateUtils.idx(x, y, other.lowX, other.lowY, other.highX, other.highY)];
+				if (source == null) {continue;}
+				int idx = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+				M target = (M) accumulators[idx];
+				if (target == null) {accumulators[idx] = source;}
+				else {op.merge(target, source);}
+			}
+		}
+		touch(other.touchedLowX, other.touchedLowY);
+		touch(other.touchedHighX-1, other.touchedHighY-1);
+	}
+
+	/**Regular aggregates holding the frozen accumulators, over the touched region (or the full bounds if nothing was touched).**/
+	@SuppressWarnings("unchecked")
+	public Aggregates<A> freeze() {
+		if (empty()) {return AggregateUtils.make(lowX, lowY, highX, highY, identity);}
+		Aggregates<A> frozen = AggregateUtils.make(touchedLowX, touchedLowY, touchedHighX, touchedHighY, identity);
+		for (int y=touchedLowY; y<touchedHighY; y++) {
+			for (int x=touchedLowX; x<touchedHighX; x++) {
+				M acc = (M) accumulators[AggregateUtils.idx(x, y, lowX, lowY, highX, highY)];
+				if (acc != null) {frozen.set(x, y, op.freeze(acc));}
+			}
+		}
+		return frozen;
+	}
+
+	/**Freeze the aggregates if they are accumulators, otherwise return them as they are.**/
+	public static <A> Aggregates<A> freeze(Aggregates<A> aggregates) {
+		if (aggregates instanceof AccumulatingAggregates) {return ((AccumulatingAggregates<A,?>) aggregates).freeze();}
+		return aggregates;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public A get(int x, int y) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return identity;}
+		M acc = (M) accumulators[AggregateUtils.idx(x, y, lowX, lowY, highX, highY)];
+		return acc == null ? identity : op.freeze(acc);
+	}
+
+	@Override
+	public void set(int x, int y, A val) {throw new UnsupportedOperationException("Accumulators can only be updated through accumulate and absorb.");}
+
+	@Override public A defaultValue() {return identity;}
+	@Override public boolean empty() {return touchedLowX == Integer.MAX_VALUE;}
+	@Override public int lowX() {return lowX;}
+	@Override public int lowY() {return lowY;}
+	@Override public int highX() {return highX;}
+	@Override public int highY() {return highY;}
+	@Override public Iterator<A> iterator() {return new Iterator2D<>(this);}
+
+	@Override public String toString() {return String.format("Accumulators from %d,%d to %d,%d.", lowX, lowY, highX, highY);}
+
+	private void touch(int x, int y) {
+		touchedLowX = Math.min(touchedLowX, x);
+		touchedLowY = Math.min(touchedLowY, y);
+		touchedHighX = Math.max(touchedHighX, x+1);
+		touchedHighY = Math.max(touchedHighY, y+1);
+	}
+}
@@ -0,0 +1,330 @@
+package ar.aggregates.implementations;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import ar.Aggregates;
+import ar.Aggregator;
+import ar.aggregates.AggregateUtils;
+import ar.aggregates.BoundsInversionException;
+import ar.aggregates.Iterator2D;
+import ar.rules.Categories;
+import ar.rules.CategoricalCounts;
+import ar.rules.CategoryDictionary;
+
+/**Categorical counts stored as one plane of counts per category id (instead of one CategoricalCounts per bin).
+ *
+ * A category's plane starts sparse (a hash of bin to count) and becomes a dense int[] once
+ * it holds more than 1/DENSE_RATIO of the bins, so rare categories stay small.
+ * A dense plane of totals is kept alongside.
+ * Counting into the planes (see add and accumulate) allocates nothing per item, where
+ * CategoricalCounts copies the bin's arrays on every combine.
+ *
+ * get(x,y) builds a CategoricalCounts view of the bin (ordered by id) for transfers that need one;
+ * merges (see AggregateUtils.__unsafeMerge) and Categories.ToCount, NthCount, KeyPercent and HighDefAlpha
+ * work on the planes directly.  Zero counts are not stored, so they do not appear in the views.
+ *
+ * AggregateUtils.target creates planes for an empty dictionary-backed CategoricalCounts default value
+ * (only for aggregation targets; a transfer's output, e.g. from Categories.NthEntry, is made with AggregateUtils.make).
+ * Updates are not synchronized: like other aggregates, a set of planes is updated by one task at a time
+ * (renderers give each task its own target).  addAll locks the planes being added to (only), so several
+ * merges into the same planes may run at once, but the planes being added must not be updated during the merge.
+ * Reads should follow the updates (as transfers follow aggregation).
+ * @param <T> The type of the category labels
+ */
+public class CategoricalPlanes<T> implements Aggregates<CategoricalCounts<T>> {
+	private static final long serialVersionUID = -2104934829263516093L;
+
+	/**A sparse plane becomes dense when it holds more than 1/DENSE_RATIO of the bins.**/
+	public static final int DENSE_RATIO = 8;
+
+	private final CategoryDictionary<T> dictionary;
+	private final CategoricalCounts<T> defVal;
+	private final int lowX, lowY, highX, highY;
+	private final int[] totals;
+	private Plane[] planes = new Plane[0];
+	private int touchedLowX = Integer.MAX_VALUE, touchedLowY = Integer.MAX_VALUE;
+	private int touchedHighX = Integer.MIN_VALUE, touchedHighY = Integer.MIN_VALUE;
+
+	public CategoricalPlanes(int lowX, int lowY, int highX, int highY, CategoryDictionary<T> dictionary) {
+		if (lowX > highX) {throw new BoundsInversionException(lowX, highX, "X");}
+		if (lowY > highY) {throw new BoundsInversionException(lowY, highY, "Y");}
+		long size = AggregateUtils.size(lowX, lowY, highX, highY);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Aggregates of size %dx%d exceeds the implementation capacity.", (highX-lowX), (highY-lowY)));
+		}
+
+		this.lowX = lowX;
+		this.lowY = lowY;
+		this.highX = highX;
+		this.highY = highY;
+		this.dictionary = dictionary;
+		this.defVal = new CategoricalCounts<>(dictionary);
+		this.totals = new int[(int) size];
+	}
+
+	/**Is the value a default that planes can hold (an empty, dictionary-backed CategoricalCounts)?**/
+	public static boolean holds(Object defVal) {
+		return defVal instanceof CategoricalCounts
+				&& ((CategoricalCounts<?>) defVal).dictionary() != null
+				&& ((CategoricalCounts<?>) defVal).size() == 0;
+	}
+
+	/**Dictionary the plane ids refer to.**/
+	public CategoryDictionary<T> dictionary() {return dictionary;}
+
+	/**Number of planes (one more than the largest category id counted so far).**/
+	public int categories() {return planes.length;}
+
+	/**Add to the count of a category in a bin.  Bins outside of the bounds are ignored.**/
+	public void add(int x, int y, int id, int count) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY || count == 0) {return;}
+		int idx = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+		plane(id).add(idx, count, totals.length);
+		totals[idx] += count;
+		touch(x,y);
+	}
+
+	/**DESTRUCTIVELY combine a value into a bin.
+	 *
+	 * Counting aggregators over this dictionary (Categories.CountIds and dictionary-backed Categories.CountCategories)
+	 * update the planes in place; any other aggregator goes through get, combine and set.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <I> void accumulate(int x, int y, I value, Aggregator<I, CategoricalCounts<T>> op) {
+		Object counter = op;
+		if (counter instanceof Categories.CountIds && ((Categories.CountIds<?>) counter).dictionary() == dictionary) {
+			add(x, y, (Integer) value, 1);
+		} else if (counter instanceof Categories.CountCategories && ((Categories.CountCategories<?>) counter).dictionary() == dictionary) {
+			add(x, y, dictionary.id((T) value), 1);
+		} else {
+			set(x, y, op.combine(get(x,y), value));
+		}
+	}
+
+	/**Count of a category in a bin.**/
+	public int count(int x, int y, int id) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY || id < 0 || id >= planes.length || planes[id] == null) {return 0;}
+		return planes[id].get(AggregateUtils.idx(x, y, lowX, lowY, highX, highY));
+	}
+
+	/**Total of all categories in a bin.**/
+	public int total(int x, int y) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return 0;}
+		return totals[AggregateUtils.idx(x, y, lowX, lowY, highX, highY)];
+	}
+
+	/**Id of the n-th category (in the dictionary's stable order, see CategoryDictionary.compareIds) with a count in the bin, 
+	 * or -1 if there are not that many.**/
+	public int nthId(int x, int y, int n) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY || n < 0) {return -1;}
+		int idx = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+		if (totals[idx] == 0) {return -1;}
+		int[] present = ids(idx);
+		if (n >= present.length) {return -1;}
+		dictionary.sortIds(present, 0, present.length);
+		return present[n];
+	}
+
+	/**Largest total in any bin (0 if empty).**/
+	public int maxTotal() {
+		int max = 0;
+		for (int total: totals) {max = Math.max(max, total);}
+		return max;
+	}
+
+	/**DESTRUCTIVELY add the counts of another set of planes over the same dictionary to this one.
+	 * Only the bins of the other set that are within these bounds are added.
+	 * Locks this set of planes (only), so the other set must not be updated during the merge.
+	 */
+	public void addAll(CategoricalPlanes<T> other) {
+		if (other.dictionary != dictionary) {throw new IllegalArgumentException("Can only add planes over the same dictionary.");}
+		if (other == this) {throw new IllegalArgumentException("Cannot add planes to themselves.");}
+		synchronized(this) {
+			boolean aligned = other.lowX == lowX && other.lowY == lowY && other.highX == highX && other.highY == highY;
+			for (int id=0; id<other.planes.length; id++) {
+				Plane source = other.planes[id];
+				if (source == null) {continue;}
+				Plane target = plane(id);
+				if (aligned && source.dense != null) {
+					if (target.dense == null) {target.promote(totals.length);}
+					for (int y=other.touchedLowY; y<other.touchedHighY; y++) {
+						int start = AggregateUtils.idx(other.touchedLowX, y, lowX, lowY, highX, highY);
+						int end = start + (other.touchedHighX-other.touchedLowX);
+						for (int idx=start; idx<end; idx++) {
+							target.dense[idx] += source.dense[idx];
+							totals[idx] += source.dense[idx];
+						}
+					}
+				} else {
+					source.forEach((idx, count) -> {
+						int x = other.lowX + (idx % (other.highX-other.lowX));
+						int y = other.lowY + (idx / (other.highX-other.lowX));
+						if (x<lowX || x>=highX || y<lowY || y>=highY) {return;}
+						int at = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+						target.add(at, count, totals.length);
+						totals[at] += count;
+					});
+				}
+			}
+			if (!other.empty()) {
+				touch(Math.max(lowX, other.touchedLowX), Math.max(lowY, other.touchedLowY));
+				touch(Math.min(highX, other.touchedHighX)-1, Math.min(highY, other.touchedHighY)-1);
+			}
+		}
+	}
+
+	/**View of a bin as categorical counts (built on each call).**/
+	@Override
+	public CategoricalCounts<T> get(int x, int y) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return defVal;}
+		int idx = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+		if (totals[idx] == 0) {return defVal;}
+
+		int[] ids = ids(idx);
+		int[] counts = new int[ids.length];
+		for (int i=0; i<ids.length; i++) {counts[i] = planes[ids[i]].get(idx);}
+		return CategoricalCounts.ofIds(dictionary, ids, counts);
+	}
+
+	/**Ids with a count in the bin (ascending).  Counts first, so only the result is allocated.**/
+	private int[] ids(int idx) {
+		int size = 0;
+		for (Plane plane: planes) {
+			if (plane != null && plane.get(idx) != 0) {size++;}
+		}
+		int[] ids = new int[size];
+		for (int id=0, at=0; at<size; id++) {
+			if (planes[id] != null && planes[id].get(idx) != 0) {ids[at++] = id;}
+		}
+		return ids;
+	}
+
+	/**Replace the counts of a bin.  Labels of counts from a different dictionary are added to this one.**/
+	@Override
+	public void set(int x, int y, CategoricalCounts<T> val) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return;}
+		int idx = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+		for (Plane plane: planes) {
+			if (plane != null) {plane.clear(idx);}
+		}
+		totals[idx] = 0;
+
+		boolean ids = val.dictionary() == dictionary;
+		for (int i=0; i<val.size(); i++) {
+			int count = val.count(i);
+			if (count == 0) {continue;}
+			plane(ids ? val.id(i) : dictionary.id(val.key(i))).add(idx, count, totals.length);
+			totals[idx] += count;
+		}
+		touch(x,y);
+	}
+
+	@Override public CategoricalCounts<T> defaultValue() {return defVal;}
+	@Override public boolean empty() {return touchedLowX == Integer.MAX_VALUE;}
+	@Override public int lowX() {return lowX;}
+	@Override public int lowY() {return lowY;}
+	@Override public int highX() {return highX;}
+	@Override public int highY() {return highY;}
+	@Override public Iterator<CategoricalCounts<T>> iterator() {return new Iterator2D<>(this);}
+
+	@Override
+	public String toString() {
+		return String.format("Categorical planes (%d categories) from %d,%d to %d,%d.", categories(), lowX, lowY, highX, highY);
+	}
+
+	private void touch(int x, int y) {
+		touchedLowX = Math.min(touchedLowX, x);
+		touchedLowY = Math.min(touchedLowY, y);
+		touchedHighX = Math.max(touchedHighX, x+1);
+		touchedHighY = Math.max(touchedHighY, y+1);
+	}
+
+	/**Plane for the id, created (sparse) if needed.**/
+	private Plane plane(int id) {
+		if (id < 0) {throw new IllegalArgumentException("Category ids must be non-negative; received " + id);}
+		if (id >= planes.length) {planes = Arrays.copyOf(planes, Math.max(id+1, dictionary.size()));}
+		if (planes[id] == null) {planes[id] = new Plane();}
+		return planes[id];
+	}
+
+	private static interface EntryConsumer {public void accept(int idx, int count);}
+
+	/**Counts of one category: dense (by bin index) or an open-addressed hash of bin index to count.**/
+	private static final class Plane implements Serializable {
+		private static final long serialVersionUID = 5770226316736536318L;
+		private int[] dense;	//Null while sparse
+		private int[] keys = new int[16];	//Bin index+1 (0 marks an empty slot)
+		private int[] values = new int[16];
+		private int entries;
+
+		public int get(int idx) {
+			if (dense != null) {return dense[idx];}
+			int slot = slot(keys, idx);
+			return keys[slot] == 0 ? 0 : values[slot];
+		}
+
+		public void add(int idx, int count, int bins) {
+			if (dense != null) {dense[idx] += count; return;}
+			int slot = slot(keys, idx);
+			if (keys[slot] != 0) {values[slot] += count; return;}
+
+			keys[slot] = idx+1;
+			values[slot] = count;
+			entries++;
+			if (entries > bins/DENSE_RATIO) {promote(bins);}
+			else if (entries*2 > keys.length) {rehash(keys.length*2);}
+		}
+
+		/**Set the count of a bin to zero.**/
+		public void clear(int idx) {
+			if (dense != null) {dense[idx] = 0; return;}
+			int slot = slot(keys, idx);
+			if (keys[slot] != 0) {values[slot] = 0;}	//Entry kept (removal would break probe chains)
+		}
+
+		public void promote(int bins) {
+			if (dense != null) {return;}
+			int[] counts = new int[bins];
+			forEach((idx, count) -> counts[idx] = count);
+			dense = counts;
+			keys = null;
+			values = null;
+		}
+
+		public void forEach(EntryConsumer action) {
+			if (dense != null) {
+				for (int idx=0; idx<dense.length; idx++) {
+					if (dense[idx] != 0) {action.accept(idx, dense[idx]);}
+				}
+			} else {
+				for (int slot=0; slot<keys.length; slot++) {
+					if (keys[slot] != 0 && values[slot] != 0) {action.accept(keys[slot]-1, values[slot]);}
+				}
+			}
+		}
+
+		private void rehash(int capacity) {
+			int[] oldKeys = keys, oldValues = values;
+			keys = new int[capacity];
+			values = new int[capacity];
+			for (int i=0; i<oldKeys.length; i++) {
+				if (oldKeys[i] == 0) {continue;}
+				int slot = slot(keys, oldKeys[i]-1);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+
+		/**Slot holding the bin index, or the empty slot where it would go (linear probing).**/
+		private static int slot(int[] keys, int idx) {
+			int mask = keys.length-1;
+			int h = (idx+1) * 0x9E3779B9;
+			int slot = (h ^ (h >>> 16)) & mask;
+			while (keys[slot] != 0 && keys[slot] != idx+1) {slot = (slot+1) & mask;}
+			return slot;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package ar.aggregates.implementations;
+
+import java.util.Iterator;
+
+import ar.Aggregates;
+import ar.Aggregator;
+import ar.aggregates.AggregateUtils;
+import ar.aggregates.BoundsInversionException;
+import ar.aggregates.Iterator2D;
+import ar.rules.Moments;
+import ar.rules.Numbers;
+
+/**Moments (count, mean and M2) stored as three parallel primitive arrays instead of one object per bin.
+ *
+ * Adding values (see add and accumulate) updates the arrays in place with Welford's update, and
+ * merges (see addAll and AggregateUtils.__unsafeMerge) combine bins with Chan et al.'s parallel formula,
+ * so neither allocates per item.
+ * get(x,y) builds a Moments for the bin; the Numbers mean/variance transfers read the arrays directly.
+ *
+ * AggregateUtils.make creates these for an empty Moments default value.
+ * Cell updates are not synchronized: each aggregation task owns its target, as the renderers allocate them.
+ * addAll locks only the target (so two crossed merges cannot deadlock); the other set must not be updated during the merge.
+ */
+public class MomentAggregates implements Aggregates<Moments> {
+	private static final long serialVersionUID = -6190382554167303342L;
+
+	private final int lowX, lowY, highX, highY;
+	private final long[] counts;
+	private final double[] means;
+	private final double[] m2s;
+	private int touchedLowX = Integer.MAX_VALUE, touchedLowY = Integer.MAX_VALUE;
+	private int touchedHighX = Integer.MIN_VALUE, touchedHighY = Integer.MIN_VALUE;
+
+	public MomentAggregates(int lowX, int lowY, int highX, int highY) {
+		if (lowX > highX) {throw new BoundsInversionException(lowX, highX, "X");}
+		if (lowY > highY) {throw new BoundsInversionException(lowY, highY, "Y");}
+		long size = AggregateUtils.size(lowX, lowY, highX, highY);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Aggregates of size %dx%d exceeds the implementation capacity.", (highX-lowX), (highY-lowY)));
+		}
+
+		this.lowX = lowX;
+		this.lowY = lowY;
+		this.highX = highX;
+		this.highY = highY;
+		this.counts = new long[(int) size];
+		this.means = new double[(int) size];
+		this.m2s = new double[(int) size];
+	}
+
+	/**Is the value a default these aggregates can hold (empty moments)?**/
+	public static boolean holds(Object defVal) {return defVal instanceof Moments && ((Moments) defVal).count() == 0;}
+
+	/**Add a value to a bin (Welford's update).  Bins outside of the bounds are ignored.**/
+	public void add(int x, int y, double value) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return;}
+		int idx = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+		long n = ++counts[idx];
+		double delta = value - means[idx];
+		means[idx] += delta/n;
+		m2s[idx] += delta*(value-means[idx]);
+		touch(x,y);
+	}
+
+	/**DESTRUCTIVELY combine a value into a bin.
+	 * Numbers.MeanVariance updates the arrays in place; any other aggregator goes through get, combine and set.
+	 */
+	@Override
+	public <I> void accumulate(int x, int y, I value, Aggregator<I, Moments> op) {
+		if (op instanceof Numbers.MeanVariance) {add(x, y, ((Number) value).doubleValue());}
+		else {set(x, y, op.combine(get(x,y), value));}
+	}
+
+	/**DESTRUCTIVELY add the moments of another set to this one (Chan et al.'s parallel combination).
+	 * Only the bins of the other set that are within these bounds are added.
+	 */
+	public void addAll(MomentAggregates other) {
+		if (other == this) {throw new IllegalArgumentException("Cannot add moments to themselves.");}
+		synchronized(this) {
+			if (other.empty()) {return;}
+			int fromX = Math.max(lowX, other.touchedLowX), toX = Math.min(highX, other.touchedHighX);
+			int fromY = Math.max(lowY, other.touchedLowY), toY = Math.min(highY, other.touchedHighY);
+			int mergedLowX = Integer.MAX_VALUE, mergedHighX = Integer.MIN_VALUE;
+			int mergedLowY = Integer.MAX_VALUE, mergedHighY = Integer.MIN_VALUE;
+			for (int y=fromY; y<toY; y++) {
+				int source = AggregateUtils.idx(fromX, y, other.lowX, other.lowY, other.highX, other.highY);
+				int target = AggregateUtils.idx(fromX, y, lowX, lowY, highX, highY);
+				for (int x=fromX; x<toX; x++, source++, target++) {
+					long right = other.counts[source];
+					if (right == 0) {continue;}
+					long left = counts[target];
+					long n = left + right;
+					double delta = other.means[source] - means[target];
+					means[target] += delta * right/n;
+					m2s[target] += other.m2s[source] + delta*delta * ((double) left*right/n);
+					counts[target] = n;
+					mergedLowX = Math.min(mergedLowX, x);
+					mergedHighX = Math.max(mergedHighX, x);
+					mergedLowY = Math.min(mergedLowY, y);
+					mergedHighY = y;
+				}
+			}
+			if (mergedLowX <= mergedHighX) {
+				touch(mergedLowX, mergedLowY);
+				touch(mergedHighX, mergedHighY);
+			}
+		}
+	}
+
+	/**Number of values in a bin.**/
+	public long count(int x, int y) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return 0;}
+		return counts[AggregateUtils.idx(x, y, lowX, lowY, highX, highY)];
+	}
+
+	/**Mean of the values in a bin (0 if there are none).**/
+	public double mean(int x, int y) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return 0;}
+		return means[AggregateUtils.idx(x, y, lowX, lowY, highX, highY)];
+	}
+
+	/**Sum of squared deviations from the mean in a bin.**/
+	public double m2(int x, int y) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return 0;}
+		return m2s[AggregateUtils.idx(x, y, lowX, lowY, highX, highY)];
+	}
+
+	@Override
+	public Moments get(int x, int y) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return Moments.EMPTY;}
+		int idx = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+		if (counts[idx] == 0) {return Moments.EMPTY;}
+		return new Moments(counts[idx], means[idx], m2s[idx]);
+	}
+
+	/**Replace the moments of a bin.  Setting empty moments clears the bin without marking it touched.**/
+	@Override
+	public void set(int x, int y, Moments val) {
+		if (x<lowX || x>=highX || y<lowY || y>=highY) {return;}
+		int idx = AggregateUtils.idx(x, y, lowX, lowY, highX, highY);
+		counts[idx] = val.count();
+		means[idx] = val.mean();
+		m2s[idx] = val.m2();
+		if (val.count() != 0) {touch(x,y);}
+	}
+
+	@Override public Moments defaultValue() {return Moments.EMPTY;}
+	@Override public boolean empty() {return touchedLowX == Integer.MAX_VALUE;}
+	@Override public int lowX() {return lowX;}
+	@Override public int lowY() {return lowY;}
+	@Override public int highX() {return highX;}
+	@Override public int highY() {return highY;}
+	@Override public Iterator<Moments> iterator() {return new Iterator2D<>(this);}
+
+	@Override public String toString() {return String.format("Moments from %d,%d to %d,%d.", lowX, lowY, highX, highY);}
+
+	private void touch(int x, int y) {
+		touchedLowX = Math.min(touchedLowX, x);
+		touchedLowY = Math.min(touchedLowY, y);
+		touchedHighX = Math.max(touchedHighX, x+1);
+		touchedHighY = Math.max(touchedHighY, y+1);
+	}
+}
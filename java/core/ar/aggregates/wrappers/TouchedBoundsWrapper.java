@@ -3,6 +3,7 @@ package ar.aggregates.wrappers;
 import java.util.Iterator;
 
 import ar.Aggregates;
+import ar.Aggregator;
 import ar.aggregates.Iterator2D;
 import ar.util.Util;
 
@@ -46,7 +47,10 @@ public class TouchedBoundsWrapper<A> implements Aggregates<A> {
 
 	@Override public void set(int x, int y, A val) {
 		base.set(x,y, val);
-		
+		touch(x, y);
+	}
+
+	private void touch(int x, int y) {
 		if (x >= base.lowX() && x < base.highX()
 				&& y >= base.lowY() && y < base.highY()) {
 			lowX = Math.min(x, lowX);
@@ -56,6 +60,12 @@ public class TouchedBoundsWrapper<A> implements Aggregates<A> {
 		}
 	}
 
+	/**Combines through the base (so in-place updates stay in place) and tracks the touched bounds.**/
+	@Override public <I> void accumulate(int x, int y, I value, Aggregator<I,A> op) {
+		base.accumulate(x, y, value, op);
+		touch(x, y);
+	}
+
 	@Override public A defaultValue() {return base.defaultValue();}
 	
 	@Override public int lowX() {return Math.max(lowX, base.lowX());}
@@ -14,6 +14,7 @@ import ar.util.axis.DescriptorPair;
 public class BoundingWrapper<G,I> implements Glyphset<G,I> {
 
 	protected final Glyphset<G,I> base;
+	protected final Glyphset<G,I> candidates;
 	protected final Rectangle2D limitBound;
 	protected final boolean lazy;
 	protected Rectangle2D bounds;
@@ -24,9 +25,13 @@ public class BoundingWrapper<G,I> implements Glyphset<G,I> {
 	 * If lazy is set to false, the return from bounds() will be the maximum bound
 	 *   of data within the bounds of the the limitbound. Otherwise, bounds()
 	 *   is computed as the intersection of the limitbound and base.bounds(). 
+	 *   
+	 * If the base is a spatially indexed MemMapList, only the records the index
+	 * reports near the limit bound are visited.
 	 */
 	public BoundingWrapper(Glyphset<G,I> base, Rectangle2D limitBound, boolean lazy) {
 		this.base = base;
+		this.candidates = base instanceof MemMapList ? ((MemMapList<G,I>) base).within(limitBound) : base;
 		this.limitBound = limitBound;
 		this.lazy = lazy;
 	}
@@ -34,10 +39,10 @@ public class BoundingWrapper<G,I> implements Glyphset<G,I> {
 	public BoundingWrapper(Glyphset<G,I> base, Rectangle2D bound) {this(base, bound, true);}
 	
 	@Override
-	public Iterator<Glyph<G, I>> iterator() {return new BoundedIterator<>(base.iterator(), limitBound);}
+	public Iterator<Glyph<G, I>> iterator() {return new BoundedIterator<>(candidates.iterator(), limitBound);}
 
 	@Override
-	public boolean isEmpty() {return base.isEmpty() || !base.bounds().intersects(limitBound);}
+	public boolean isEmpty() {return candidates.isEmpty() || !base.bounds().intersects(limitBound);}
 
 	@Override
 	public Rectangle2D bounds() {
@@ -54,8 +59,8 @@ public class BoundingWrapper<G,I> implements Glyphset<G,I> {
 	}
 
 	@Override
-	/** Approximate size!  Returns 0 if empty, otherwise returns the base size.*/
-	public long size() {return isEmpty() ? 0 : base.size();}
+	/** Approximate size!  Returns 0 if empty, otherwise returns the size of the base (or of the index candidates).*/
+	public long size() {return isEmpty() ? 0 : candidates.size();}
 
 
 	/**Approximate!  Returns the descriptor for the base...**/
@@ -64,7 +69,7 @@ public class BoundingWrapper<G,I> implements Glyphset<G,I> {
 	
 	@Override
 	public List<Glyphset<G, I>> segment(int count) throws IllegalArgumentException {
-		return base.segment(count).stream()
+		return candidates.segment(count).stream()
 				.map((s) -> new BoundingWrapper<>(s, limitBound))
 				.collect(Collectors.toList());
 	}
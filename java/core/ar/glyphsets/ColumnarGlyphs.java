@@ -0,0 +1,441 @@
+package ar.glyphsets;
+
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.implicitgeometry.Indexed;
+import ar.glyphsets.implicitgeometry.Shaper;
+import ar.glyphsets.implicitgeometry.Valuer;
+import ar.util.DelimitedReader;
+import ar.util.Util;
+import ar.util.axis.Axis;
+import ar.util.axis.DescriptorPair;
+
+/**Explicit geometry stored column-wise in primitive arrays.
+ *
+ * GlyphList keeps one SimpleGlyph (plus a Point2D/Rectangle2D and a boxed value) per item.
+ * This glyphset instead keeps x, y (and width/height for non-point geometry) in double arrays
+ * and the values in a single column (see Column), so iteration is a linear scan of arrays.
+ * Glyph objects are only built when requested through get/iterator; the point and rectangle
+ * selectors read the columns directly (see fill).
+ *
+ * Segments are views on the same arrays (no copying).
+ * Item count is limited to Integer.MAX_VALUE.
+ *
+ * @param <G> Geometry type (Point2D, Rectangle2D or Ellipse2D depending on the Geometry flag)
+ * @param <I> Value type
+ */
+public class ColumnarGlyphs<G,I> implements Glyphset.RandomAccess<G,I>, Serializable {
+	private static final long serialVersionUID = -1859218736512042736L;
+
+	/**Geometry kinds that can be stored column-wise.**/
+	public enum Geometry {
+		POINT(1), RECTANGLE(2), ELLIPSE(2);
+
+		/**How many x/y pairs describe an item of this geometry (as used in fill).**/
+		public final int points;
+		private Geometry(int points) {this.points = points;}
+
+		/**Geometry kind for a shape instance.**/
+		public static Geometry of(Object shape) {
+			if (shape instanceof Point2D) {return POINT;}
+			if (shape instanceof Rectangle2D) {return RECTANGLE;}
+			if (shape instanceof Ellipse2D) {return ELLIPSE;}
+			throw new IllegalArgumentException("No columnar representation for " + (shape == null ? "null" : shape.getClass().getName()));
+		}
+	}
+
+	private final Geometry geometry;
+	private final double[] xs, ys, ws, hs;
+	private final Column<I> values;
+	private final int low, high;
+	private Rectangle2D bounds;
+	private DescriptorPair<?,?> axisDescriptor;
+
+	/**Points at x/y with the given values.**/
+	public ColumnarGlyphs(double[] xs, double[] ys, Column<I> values) {
+		this(Geometry.POINT, xs, ys, null, null, values, 0, xs.length);
+	}
+
+	/**Rectangles/ellipses framed by x/y/w/h with the given values.**/
+	public ColumnarGlyphs(Geometry geometry, double[] xs, double[] ys, double[] ws, double[] hs, Column<I> values) {
+		this(geometry, xs, ys, ws, hs, values, 0, xs.length);
+	}
+
+	private ColumnarGlyphs(Geometry geometry, double[] xs, double[] ys, double[] ws, double[] hs, Column<I> values, int low, int high) {
+		if (xs.length != ys.length || xs.length != values.size()) {throw new IllegalArgumentException("Columns must be the same length.");}
+		if (geometry != Geometry.POINT && (ws == null || hs == null || ws.length != xs.length || hs.length != xs.length)) {
+			throw new IllegalArgumentException("Width and height columns required (and same length as x/y) for " + geometry);
+		}
+		this.geometry = geometry;
+		this.xs = xs;
+		this.ys = ys;
+		this.ws = ws;
+		this.hs = hs;
+		this.values = values;
+		this.low = low;
+		this.high = high;
+	}
+
+	public Geometry geometry() {return geometry;}
+	public Column<I> values() {return values;}
+
+	@Override public boolean isEmpty() {return high <= low;}
+	@Override public long size() {return high-low;}
+	@Override public Iterator<Glyph<G,I>> iterator() {return new GlyphsetIterator<>(this);}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Glyph<G,I> get(long l) {
+		int i = (int) (l+low);
+		Object shape;
+		switch (geometry) {
+			case POINT: shape = new Point2D.Double(xs[i], ys[i]); break;
+			case RECTANGLE: shape = new Rectangle2D.Double(xs[i], ys[i], ws[i], hs[i]); break;
+			case ELLIPSE: shape = new Ellipse2D.Double(xs[i], ys[i], ws[i], hs[i]); break;
+			default: throw new IllegalStateException("Unhandled geometry " + geometry);
+		}
+		return new SimpleGlyph<>((G) shape, values.get(i));
+	}
+
+	/**Copy coordinates and values for items [from, from+count) into the passed arrays.
+	 *
+	 * Coordinates are packed x/y pairs: one pair per item for points,
+	 * two pairs (min corner then max corner) for rectangles and ellipses.
+	 *
+	 * @return Number of items copied (may be less than count at the end of the set)
+	 */
+	public int fill(long from, int count, double[] coords, Object[] into) {
+		int start = (int) (from+low);
+		int n = Math.max(0, Math.min(count, high-start));
+		if (geometry == Geometry.POINT) {
+			for (int i=0; i<n; i++) {
+				coords[i*2] = xs[start+i];
+				coords[i*2+1] = ys[start+i];
+			}
+		} else {
+			for (int i=0; i<n; i++) {
+				int at = start+i;
+				coords[i*4] = xs[at];
+				coords[i*4+1] = ys[at];
+				coords[i*4+2] = xs[at]+ws[at];
+				coords[i*4+3] = ys[at]+hs[at];
+			}
+		}
+		for (int i=0; i<n; i++) {into[i] = values.get(start+i);}
+		return n;
+	}
+
+	@Override
+	public Rectangle2D bounds() {
+		if (bounds == null) {
+			if (isEmpty()) {return new Rectangle2D.Double(Double.NaN, Double.NaN, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);}
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for (int i=low; i<high; i++) {
+				minX = Math.min(minX, xs[i]);
+				minY = Math.min(minY, ys[i]);
+				maxX = Math.max(maxX, ws == null ? xs[i] : xs[i]+ws[i]);
+				maxY = Math.max(maxY, hs == null ? ys[i] : ys[i]+hs[i]);
+			}
+
+			//Points follow Util.boundOne: a zero-area point still gets a (tiny) extent
+			double w = geometry == Geometry.POINT && maxX == minX ? Double.MIN_VALUE : maxX-minX;
+			double h = geometry == Geometry.POINT && maxY == minY ? Double.MIN_VALUE : maxY-minY;
+			bounds = new Rectangle2D.Double(minX, minY, w, h);
+		}
+		return bounds;
+	}
+
+	/**Segments are views onto the backing columns.**/
+	@Override
+	public List<Glyphset<G,I>> segment(int count) throws IllegalArgumentException {
+		long stride = (size()/count)+1; //+1 for the round-down
+		List<Glyphset<G,I>> segments = new ArrayList<>();
+		for (long offset=low; offset<high; offset+=stride) {
+			int end = (int) Math.min(offset+stride, high);
+			segments.add(new ColumnarGlyphs<>(geometry, xs, ys, ws, hs, values, (int) offset, end));
+		}
+		return segments;
+	}
+
+	@Override public DescriptorPair<?,?> axisDescriptors() {return axisDescriptor != null ? axisDescriptor : Axis.coordinantDescriptors(this);}
+	@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {this.axisDescriptor = descriptor;}
+
+
+	/**Load a delimited file into columns.
+	 *
+	 * Lines are read sequentially, but conversion (converter, shaper and valuer) is done
+	 * in parallel batches (see Util.invokeAll).  The geometry kind is determined by the first shape produced.
+	 *
+	 * @param reader Source of the glyph data
+	 * @param converter Convert read entries to indexed entries
+	 * @param shaper Convert the read item into a shape (must produce Point2D, Rectangle2D or Ellipse2D)
+	 * @param valuer Convert the read item into a value
+	 * @param dictionary Should values be dictionary-encoded (good for low-cardinality categories)
+	 */
+	public static <G,I> ColumnarGlyphs<G,I> load(
+			DelimitedReader reader,
+			Indexed.Converter converter,
+			Shaper<Indexed, G> shaper,
+			Valuer<Indexed, I> valuer,
+			boolean dictionary) {
+		return builder(reader, converter, shaper, valuer).build(dictionary);
+	}
+
+	/**Load a delimited file into columns, with integer values kept as primitives (see Ints).**/
+	public static <G> ColumnarGlyphs<G,Integer> loadInts(
+			DelimitedReader reader,
+			Indexed.Converter converter,
+			Shaper<Indexed, G> shaper,
+			Valuer<Indexed, ? extends Number> valuer) {
+		return builder(reader, converter, shaper, valuer).buildInts();
+	}
+
+	/**Load a delimited file into columns, with numeric values kept as primitive doubles (see Doubles).**/
+	public static <G> ColumnarGlyphs<G,Double> loadDoubles(
+			DelimitedReader reader,
+			Indexed.Converter converter,
+			Shaper<Indexed, G> shaper,
+			Valuer<Indexed, ? extends Number> valuer) {
+		return builder(reader, converter, shaper, valuer).buildDoubles();
+	}
+
+	/**Lines converted per task.**/
+	private static final int BATCH_LINES = 10000;
+
+	private static <G,I> Builder<I> builder(
+			DelimitedReader reader,
+			Indexed.Converter converter,
+			Shaper<Indexed, G> shaper,
+			Valuer<Indexed, I> valuer) {
+
+		List<Builder<I>> parts = new ArrayList<>();
+		List<Callable<Builder<I>>> batches = new ArrayList<>();
+		List<String[]> lines = new ArrayList<>(BATCH_LINES);
+		while (reader.hasNext()) {
+			String[] entry = reader.next();
+			if (entry != null) {lines.add(entry);}
+			if (lines.size() >= BATCH_LINES || (!reader.hasNext() && lines.size() > 0)) {
+				final List<String[]> batch = lines;
+				batches.add(() -> {
+					Builder<I> b = new Builder<>(batch.size());
+					for (String[] line: batch) {
+						Indexed item = converter.applyTo(line);
+						b.add(shaper.apply(item), valuer.apply(item));
+					}
+					return b;
+				});
+				lines = new ArrayList<>(BATCH_LINES);
+			}
+			if (batches.size() >= Util.PARALLELISM*2 || (!reader.hasNext() && batches.size() > 0)) {	//Converted in windows, so read lines are not all held at once
+				parts.addAll(Util.invokeAll(Util.PARALLELISM, batches));
+				batches = new ArrayList<>();
+			}
+		}
+
+		Builder<I> all = new Builder<>(parts.stream().mapToInt(b -> b.size).sum());
+		for (Builder<I> part: parts) {all.addAll(part);}
+		return all;
+	}
+
+
+	/**Accumulates items in growable arrays.  Not thread-safe.**/
+	public static final class Builder<I> {
+		private Geometry geometry;
+		private double[] xs, ys, ws, hs;
+		private Object[] values;
+		private int size;
+
+		public Builder() {this(1024);}
+		public Builder(int capacity) {
+			capacity = Math.max(capacity, 16);
+			xs = new double[capacity];
+			ys = new double[capacity];
+			values = new Object[capacity];
+		}
+
+		/**Add an item; the first shape added determines the geometry of all items.**/
+		public Builder<I> add(Object shape, I value) {
+			Geometry g = Geometry.of(shape);
+			if (geometry == null) {geometry = g;}
+			else if (geometry != g) {throw new IllegalArgumentException(String.format("Mixed geometry (%s and %s) not supported.", geometry, g));}
+
+			if (g == Geometry.POINT) {
+				Point2D p = (Point2D) shape;
+				add(p.getX(), p.getY(), 0, 0, value);
+			} else {
+				Rectangle2D r = ((java.awt.Shape) shape).getBounds2D();
+				add(r.getX(), r.getY(), r.getWidth(), r.getHeight(), value);
+			}
+			return this;
+		}
+
+		private void add(double x, double y, double w, double h, Object value) {
+			ensure(size+1);
+			xs[size] = x;
+			ys[size] = y;
+			if (geometry != Geometry.POINT) {
+				ws[size] = w;
+				hs[size] = h;
+			}
+			values[size] = value;
+			size++;
+		}
+
+		private void addAll(Builder<I> other) {
+			if (other.size == 0) {return;}
+			if (geometry == null) {geometry = other.geometry;}
+			else if (geometry != other.geometry) {throw new IllegalArgumentException(String.format("Mixed geometry (%s and %s) not supported.", geometry, other.geometry));}
+
+			ensure(size+other.size);
+			System.arraycopy(other.xs, 0, xs, size, other.size);
+			System.arraycopy(other.ys, 0, ys, size, other.size);
+			if (geometry != Geometry.POINT) {
+				System.arraycopy(other.ws, 0, ws, size, other.size);
+				System.arraycopy(other.hs, 0, hs, size, other.size);
+			}
+			System.arraycopy(other.values, 0, values, size, other.size);
+			size += other.size;
+		}
+
+		private void ensure(int capacity) {
+			if (geometry != Geometry.POINT && geometry != null && ws == null) {
+				ws = new double[xs.length];
+				hs = new double[xs.length];
+			}
+			if (capacity <= xs.length) {return;}
+			int newSize = Math.max(capacity, xs.length + (xs.length >> 1));
+			xs = Arrays.copyOf(xs, newSize);
+			ys = Arrays.copyOf(ys, newSize);
+			values = Arrays.copyOf(values, newSize);
+			if (ws != null) {
+				ws = Arrays.copyOf(ws, newSize);
+				hs = Arrays.copyOf(hs, newSize);
+			}
+		}
+
+		/**@param dictionary Dictionary-encode the values**/
+		@SuppressWarnings("unchecked")
+		public <G> ColumnarGlyphs<G,I> build(boolean dictionary) {
+			Object[] vals = Arrays.copyOf(values, size);
+			return build(dictionary ? Dictionary.encode((I[]) vals) : new Objects<>((I[]) vals));
+		}
+
+		/**Build with the (numeric) values as primitive ints.**/
+		public <G> ColumnarGlyphs<G,Integer> buildInts() {
+			int[] vals = new int[size];
+			for (int i=0; i<size; i++) {vals[i] = ((Number) values[i]).intValue();}
+			return build(new Ints(vals));
+		}
+
+		/**Build with the (numeric) values as primitive doubles.**/
+		public <G> ColumnarGlyphs<G,Double> buildDoubles() {
+			double[] vals = new double[size];
+			for (int i=0; i<size; i++) {vals[i] = ((Number) values[i]).doubleValue();}
+			return build(new Doubles(vals));
+		}
+
+		private <G,V> ColumnarGlyphs<G,V> build(Column<V> column) {
+			Geometry g = geometry == null ? Geometry.POINT : geometry;
+			return new ColumnarGlyphs<>(
+					g,
+					Arrays.copyOf(xs, size),
+					Arrays.copyOf(ys, size),
+					g == Geometry.POINT ? null : Arrays.copyOf(ws, size),
+					g == Geometry.POINT ? null : Arrays.copyOf(hs, size),
+					column);
+		}
+	}
+
+
+	/**A column of values, indexed from zero.**/
+	public static interface Column<I> extends Serializable {
+		public I get(int i);
+		public int size();
+	}
+
+	/**Values kept as references.**/
+	public static final class Objects<I> implements Column<I> {
+		private static final long serialVersionUID = 5381316584410862718L;
+		private final I[] values;
+		public Objects(I[] values) {this.values = values;}
+		@Override public I get(int i) {return values[i];}
+		@Override public int size() {return values.length;}
+	}
+
+	/**Integer values kept as primitives (boxed on access).**/
+	public static final class Ints implements Column<Integer> {
+		private static final long serialVersionUID = -4271209712580232547L;
+		private final int[] values;
+		public Ints(int[] values) {this.values = values;}
+		@Override public Integer get(int i) {return values[i];}
+		@Override public int size() {return values.length;}
+		public int getInt(int i) {return values[i];}
+	}
+
+	/**Double values kept as primitives (boxed on access).**/
+	public static final class Doubles implements Column<Double> {
+		private static final long serialVersionUID = 8216390419212432104L;
+		private final double[] values;
+		public Doubles(double[] values) {this.values = values;}
+		@Override public Double get(int i) {return values[i];}
+		@Override public int size() {return values.length;}
+		public double getDouble(int i) {return values[i];}
+	}
+
+	/**Values kept as int codes into a table of distinct labels.
+	 * Labels are numbered in order of first appearance.**/
+	public static final class Dictionary<I> implements Column<I> {
+		private static final long serialVersionUID = -2603478307620593337L;
+		private final int[] codes;
+		private final I[] labels;
+
+		public Dictionary(int[] codes, I[] labels) {
+			this.codes = codes;
+			this.labels = labels;
+		}
+
+		@Override public I get(int i) {return labels[codes[i]];}
+		@Override public int size() {return codes.length;}
+
+		/**Dictionary code of the i-th value.**/
+		public int code(int i) {return codes[i];}
+
+		/**Label for a dictionary code.**/
+		public I label(int code) {return labels[code];}
+
+		/**How many distinct labels?**/
+		public int labels() {return labels.length;}
+
+		/**Dictionary-encode an array of values.**/
+		public static <I> Dictionary<I> encode(I[] values) {
+			Map<I, Integer> ids = new HashMap<>();
+			List<I> labels = new ArrayList<>();
+			int[] codes = new int[values.length];
+			for (int i=0; i<values.length; i++) {
+				Integer code = ids.get(values[i]);
+				if (code == null) {
+					code = labels.size();
+					ids.put(values[i], code);
+					labels.add(values[i]);
+				}
+				codes[i] = code;
+			}
+			@SuppressWarnings("unchecked")
+			I[] labelArray = (I[]) labels.toArray();
+			return new Dictionary<>(codes, labelArray);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package ar.glyphsets;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.implicitgeometry.Indexed;
+import ar.glyphsets.implicitgeometry.Shaper;
+import ar.glyphsets.implicitgeometry.Valuer;
+import ar.util.Util;
+import ar.util.axis.Axis;
+import ar.util.axis.DescriptorPair;
+import ar.util.memoryMapping.CompressedHbin;
+import ar.util.memoryMapping.MappedFile;
+
+/**Implicit geometry glyphset backed by a compressed hbin file (see CompressedHbin).
+ *
+ * The counterpart of MemMapList for compressed files.  Records are not randomly accessible;
+ * instead, blocks are decoded one at a time into primitive arrays as the iterator advances.
+ * Segments are made of whole blocks, so each task decodes its own blocks and
+ * maps only the bytes of those blocks.
+ */
+public class CompressedList<G,I> implements Glyphset<G,I> {
+	private final File source;
+	private final CompressedHbin.Header header;
+	private final Shaper<Indexed,G> shaper;
+	private final Valuer<Indexed,I> valuer;
+	private final int lowBlock, highBlock;
+	private final long size;
+	private Rectangle2D bounds;
+	private DescriptorPair<?,?> axisDescriptor;
+
+	public CompressedList(File source, Shaper<Indexed,G> shaper, Valuer<Indexed,I> valuer) {
+		this(source, header(source), shaper, valuer);
+	}
+
+	private CompressedList(File source, CompressedHbin.Header header, Shaper<Indexed,G> shaper, Valuer<Indexed,I> valuer) {
+		this(source, header, shaper, valuer, 0, header.blocks());
+	}
+
+	private CompressedList(File source, CompressedHbin.Header header, Shaper<Indexed,G> shaper, Valuer<Indexed,I> valuer, int lowBlock, int highBlock) {
+		this.source = source;
+		this.header = header;
+		this.shaper = shaper;
+		this.valuer = valuer;
+		this.lowBlock = lowBlock;
+		this.highBlock = highBlock;
+		long acc = 0;
+		for (int b=lowBlock; b<highBlock; b++) {acc += header.blockCounts[b];}
+		this.size = acc;
+	}
+
+	private static CompressedHbin.Header header(File source) {
+		try {return CompressedHbin.Header.from(source);}
+		catch (IOException e) {throw new RuntimeException("Error reading compressed hbin header from " + source, e);}
+	}
+
+	/**Header of the backing file.**/
+	public CompressedHbin.Header header() {return header;}
+
+	@Override public boolean isEmpty() {return size == 0;}
+	@Override public long size() {return size;}
+	@Override public Iterator<Glyph<G,I>> iterator() {return new BlockIterator();}
+
+	/**Bounds calculation.  With a SafeApproximate shaper, bounds come from the field ranges in the header.**/
+	@Override
+	public Rectangle2D bounds() {
+		if (bounds == null) {
+			if (shaper instanceof Shaper.SafeApproximate) {
+				bounds = Util.bounds(
+						Util.boundOne(shaper.apply(asIndexed(header.mins))),
+						Util.boundOne(shaper.apply(asIndexed(header.maxs))));
+			} else {
+				bounds = Util.bounds(iterator());
+			}
+		}
+		return bounds;
+	}
+
+	private static Indexed asIndexed(double[] values) {
+		Object[] boxed = new Object[values.length];
+		for (int i=0; i<values.length; i++) {boxed[i] = values[i];}
+		return new Indexed.ArrayWrapper(boxed);
+	}
+
+	/**Segments are groups of whole blocks.**/
+	@Override
+	public List<Glyphset<G,I>> segment(int count) throws IllegalArgumentException {
+		int blocks = highBlock-lowBlock;
+		int stride = (blocks/count) + (blocks % count == 0 ? 0 : 1);
+		List<Glyphset<G,I>> segments = new ArrayList<>();
+		for (int b=lowBlock; b<highBlock; b+=Math.max(stride, 1)) {
+			segments.add(new CompressedList<>(source, header, shaper, valuer, b, Math.min(b+stride, highBlock)));
+		}
+		if (segments.isEmpty()) {segments.add(new EmptyGlyphset<>());}
+		return segments;
+	}
+
+	@Override public DescriptorPair<?,?> axisDescriptors() {return axisDescriptor != null ? axisDescriptor : Axis.coordinantDescriptors(this);}
+	@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {this.axisDescriptor = descriptor;}
+
+
+	/**One record of a decoded block.  Numeric reads (see Indexed.Util.number) come straight from the primitive columns.**/
+	private static final class Row implements Indexed.Numeric {
+		private static final long serialVersionUID = -1435170457136598170L;
+		private final CompressedHbin.Block block;
+		private final int row;
+
+		public Row(CompressedHbin.Block block, int row) {
+			this.block = block;
+			this.row = row;
+		}
+
+		@Override public Object get(int f) {return block.value(f, row);}
+		@Override public double number(int f) {return block.number(f, row);}
+		@Override public int size() {return block.fieldCount();}
+	}
+
+	/**Maps the blocks of this list and decodes them one at a time.**/
+	private final class BlockIterator implements Iterator<Glyph<G,I>> {
+		private final MappedFile mapped;
+		private int nextBlock = lowBlock;
+		private CompressedHbin.Block block;
+		private int row;
+
+		public BlockIterator() {
+			if (size == 0) {
+				mapped = null;
+			} else {
+				long start = header.blockOffsets[lowBlock];
+				long end = header.blockOffsets[highBlock-1] + header.blockLengths[highBlock-1];
+				try {mapped = MappedFile.Util.make(source, FileChannel.MapMode.READ_ONLY, MemMapList.BUFFER_BYTES, start, end);}
+				catch (IOException e) {throw new RuntimeException("Error mapping compressed blocks of " + source, e);}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while ((block == null || row >= block.count()) && nextBlock < highBlock) {
+				byte[] bytes = new byte[header.blockLengths[nextBlock]];
+				mapped.get(bytes, header.blockOffsets[nextBlock] - mapped.filePosition(), bytes.length);
+				block = CompressedHbin.Block.decode(header, ByteBuffer.wrap(bytes), header.blockCounts[nextBlock]);
+				row = 0;
+				nextBlock++;
+			}
+			return block != null && row < block.count();
+		}
+
+		@Override
+		public Glyph<G,I> next() {
+			if (!hasNext()) {throw new NoSuchElementException();}
+			Row entry = new Row(block, row++);
+			return new SimpleGlyph<>(shaper.apply(entry), valuer.apply(entry));
+		}
+
+		@Override public void remove() {throw new UnsupportedOperationException();}
+	}
+}
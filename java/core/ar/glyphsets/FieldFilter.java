@@ -0,0 +1,153 @@
+package ar.glyphsets;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.implicitgeometry.FieldRange;
+import ar.util.axis.DescriptorPair;
+import ar.util.memoryMapping.PrefetchingMappedFile;
+
+/**Records of a field-storing source that pass a FieldRange test.
+ *
+ * The test is made on the stored field (see Source.accepts) and a glyph is only built
+ * for records that pass, so a filtered render reads the tested field of every candidate
+ * plus the remaining fields of the matches.
+ * Candidates are runs of record ids; sources with a zone map only list the blocks that may match (see MemMapList.where).
+ *
+ * size() is the number of candidates (an upper bound on the matches).
+ * Bounds and axis descriptors are those of the source.
+ */
+public class FieldFilter<G,I> implements Glyphset<G,I>, PrefetchingMappedFile.Measured {
+	/**Random-access glyphset that can test a record's stored field without building the glyph.**/
+	public static interface Source<G,I> extends Glyphset.RandomAccess<G,I> {
+		/**Does the record pass the test?**/
+		public boolean accepts(long record, FieldRange<?,?> test);
+
+		/**Records that pass the test.**/
+		public default FieldFilter<G,I> where(FieldRange<?,?> test) {
+			return new FieldFilter<>(this, test, new long[]{0}, new long[]{size()});
+		}
+
+		/**Source over the same records for another thread to read.
+		 * Sources whose reads are not safe to share between threads return an independent view.**/
+		public default Source<G,I> reader() {return this;}
+	}
+
+	private final Source<G,I> source;
+	private final FieldRange<?,?> test;
+	private final long[] lows, highs;
+	private final long size;
+
+	/**
+	 * @param lows Start of each candidate run (inclusive)
+	 * @param highs End of each candidate run (exclusive)
+	 */
+	public FieldFilter(Source<G,I> source, FieldRange<?,?> test, long[] lows, long[] highs) {
+		if (lows.length != highs.length) {throw new IllegalArgumentException("Must supply same number of run starts and ends.");}
+		this.source = source;
+		this.test = test;
+		this.lows = lows;
+		this.highs = highs;
+		long acc = 0;
+		for (int i=0; i<lows.length; i++) {acc += highs[i]-lows[i];}
+		this.size = acc;
+	}
+
+	/**Number of records that pass the test (scans the tested field of every candidate).**/
+	public long count() {
+		long count = 0;
+		for (int r=0; r<lows.length; r++) {
+			for (long i=lows[r]; i<highs[r]; i++) {
+				if (source.accepts(i, test)) {count++;}
+			}
+		}
+		return count;
+	}
+
+	@Override public Iterator<Glyph<G,I>> iterator() {return new Matches();}
+	@Override public boolean isEmpty() {return size == 0;}
+
+	/**Approximate!  Number of candidate records.**/
+	@Override public long size() {return size;}
+	@Override public Rectangle2D bounds() {return source.bounds();}
+
+	/**Segments split the candidates evenly; each reads through its own view of the source (see Source.reader).**/
+	@Override
+	public List<Glyphset<G,I>> segment(int count) throws IllegalArgumentException {
+		long stride = (size/count)+1; //+1 for the round-down
+		List<Glyphset<G,I>> segments = new ArrayList<>();
+		List<long[]> runs = new ArrayList<>();
+		long remaining = stride;
+		for (int r=0; r<lows.length; r++) {
+			long low = lows[r];
+			while (low < highs[r]) {
+				long high = Math.min(highs[r], low+remaining);
+				runs.add(new long[]{low, high});
+				remaining -= high-low;
+				low = high;
+				if (remaining == 0) {
+					segments.add(slice(runs));
+					runs.clear();
+					remaining = stride;
+				}
+			}
+		}
+		if (!runs.isEmpty()) {segments.add(slice(runs));}
+		return segments;
+	}
+
+	private FieldFilter<G,I> slice(List<long[]> runs) {
+		long[] ls = new long[runs.size()];
+		long[] hs = new long[runs.size()];
+		for (int i=0; i<ls.length; i++) {
+			ls[i] = runs.get(i)[0];
+			hs[i] = runs.get(i)[1];
+		}
+		return new FieldFilter<>(source.reader(), test, ls, hs);
+	}
+
+	@Override
+	public PrefetchingMappedFile.Stalls stalls() {
+		return source instanceof PrefetchingMappedFile.Measured ? ((PrefetchingMappedFile.Measured) source).stalls() : PrefetchingMappedFile.Stalls.NONE;
+	}
+
+	@Override public DescriptorPair<?,?> axisDescriptors() {return source.axisDescriptors();}
+	@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {source.axisDescriptors(descriptor);}
+
+	private final class Matches implements Iterator<Glyph<G,I>> {
+		private int run = 0;
+		private long next;
+
+		public Matches() {
+			next = lows.length == 0 ? 0 : lows[0];
+			advance();
+		}
+
+		/**Move to the next passing record at or after 'next'.**/
+		private void advance() {
+			while (run < lows.length) {
+				for (; next<highs[run]; next++) {
+					if (source.accepts(next, test)) {return;}
+				}
+				run++;
+				if (run < lows.length) {next = lows[run];}
+			}
+		}
+
+		@Override public boolean hasNext() {return run < lows.length;}
+
+		@Override
+		public Glyph<G,I> next() {
+			if (!hasNext()) {throw new NoSuchElementException();}
+			Glyph<G,I> g = source.get(next);
+			next++;
+			advance();
+			return g;
+		}
+	}
+}
@@ -8,14 +8,18 @@ import java.util.stream.Collectors;
 
 import ar.Glyph;
 import ar.Glyphset;
+import ar.glyphsets.implicitgeometry.FieldRange;
 import ar.glyphsets.implicitgeometry.Valuer;
 import ar.util.axis.DescriptorPair;
+import ar.util.memoryMapping.ZoneMap;
 import ar.util.Util;
 
 /***Reduce a glyphset by only returning values that pass a given filter.**/
 public final class FilterGlyphs<G, I> implements Glyphset<G,I> {
 	private final Glyphset<G,I> base;
+	private final Glyphset<G,I> candidates;
 	private final Valuer<Glyph<G,I>, Boolean> predicate;
+	private final boolean pushedDown;	//Candidates only include glyphs that pass the predicate
 
 	private final boolean tightBounds;
 	
@@ -26,26 +30,44 @@ public final class FilterGlyphs<G, I> implements Glyphset<G,I> {
 	 * @param base
 	 * @param predicate
 	 * @param tightBounds Should the bounds be for the subset (true) or is the base set a sufficient approximation (false) 
+	 * 
+	 * If the predicate is also a ZoneMap.Test and the base is a MemMapList with a zone map,
+	 * blocks that fail the test are skipped without being read.
+	 * 
+	 * If the predicate is a FieldRange and the base stores fields (a FieldFilter.Source such as MemMapList),
+	 * the test is made on the stored field and glyphs are only built for records that pass (see FieldFilter).
 	 */
 	public FilterGlyphs(Glyphset<G,I> base, Valuer<Glyph<G,I>, Boolean> predicate, boolean tightBounds) {
 		this.base = base;
+		this.pushedDown = base instanceof FieldFilter.Source && predicate instanceof FieldRange;
+		if (pushedDown) {
+			this.candidates = ((FieldFilter.Source<G,I>) base).where((FieldRange<?,?>) predicate);
+		} else if (base instanceof MemMapList && predicate instanceof ZoneMap.Test) {
+			this.candidates = ((MemMapList<G,I>) base).blocks((ZoneMap.Test) predicate);
+		} else {
+			this.candidates = base;
+		}
 		this.predicate = predicate;
 		this.tightBounds = tightBounds;
 	}
 
 	
-	@Override public Iterator<Glyph<G, I>> iterator() {return new FilterIterator<>(base.iterator(), predicate);}
-	@Override public boolean isEmpty() {return base.isEmpty();}
+	@Override 
+	public Iterator<Glyph<G, I>> iterator() {
+		return pushedDown ? candidates.iterator() : new FilterIterator<>(candidates.iterator(), predicate);
+	}
+	@Override public boolean isEmpty() {return candidates.isEmpty();}
 	@Override public Rectangle2D bounds() {
 		if (tightBounds) {return Util.bounds(this);}
 		else {return base.bounds();}
 	}
 
-	@Override public long size() {return base.size();}
+	@Override public long size() {return candidates.size();}
 
 	@Override
 	public List<Glyphset<G, I>> segment(int count) throws IllegalArgumentException {
-		return base.segment(count).stream()
+		if (pushedDown) {return candidates.segment(count);}
+		return candidates.segment(count).stream()
 				.map(s -> new FilterGlyphs<>(s, predicate))
 				.collect(Collectors.toList());
 	}
@@ -0,0 +1,203 @@
+package ar.glyphsets;
+
+import java.awt.geom.Rectangle2D;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.implicitgeometry.FieldRange;
+import ar.glyphsets.implicitgeometry.Indexed;
+import ar.glyphsets.implicitgeometry.IndexedEncoding;
+import ar.glyphsets.implicitgeometry.Shaper;
+import ar.glyphsets.implicitgeometry.Valuer;
+import ar.util.Util;
+import ar.util.axis.Axis;
+import ar.util.axis.DescriptorPair;
+import ar.util.memoryMapping.MappedFile;
+import ar.util.memoryMapping.MemMapEncoder;
+import ar.util.memoryMapping.MemMapEncoder.TYPE;
+import ar.util.memoryMapping.SharedMappedFile;
+
+/**Implicit geometry glyphset backed by a column-oriented hbin file (see MemMapEncoder.writeColumns).
+ *
+ * The counterpart of MemMapList for columnar files.  Each field is stored contiguously,
+ * and a field's column is only read the first time the shaper or valuer reads that field.
+ * A render that uses x, y and one value therefore only touches those three columns, regardless
+ * of how many fields the file holds.
+ *
+ * The file is mapped once (see SharedMappedFile) and shared by all segments; each segment takes
+ * its own view of the slice of each column it uses, so any number of threads may read segments
+ * (and filter them, see FieldFilter) at once.
+ * Close the list (and any segments taken from it) to release the mapping promptly.
+ */
+public class MemMapColumns<G,I> implements FieldFilter.Source<G,I>, Closeable {
+	private final File source;
+	private final TYPE[] types;
+	private final long[] columnStarts;	//File offset of the first value (of this list) in each column
+	private final SharedMappedFile file;	//This list's hold on the mapping
+	private final AtomicReferenceArray<SharedMappedFile> columns;	//Views of the file, created on first use
+	private final Shaper<Indexed,G> shaper;
+	private final Valuer<Indexed,I> valuer;
+	private final long size;
+	private Rectangle2D bounds;
+	private DescriptorPair<?,?> axisDescriptor;
+
+	public MemMapColumns(File source, Shaper<Indexed,G> shaper, Valuer<Indexed,I> valuer) {
+		this.source = source;
+		this.shaper = shaper;
+		this.valuer = valuer;
+
+		try {this.file = new SharedMappedFile(source);}
+		catch (IOException e) {throw new RuntimeException("Error mapping " + source, e);}
+
+		MemMapEncoder.Header h = MemMapEncoder.Header.from(file, true);
+		this.types = h.types;
+		this.size = file.getLong(h.minimaRecordOffset + h.recordLength);
+		this.columns = new AtomicReferenceArray<>(types.length);
+		this.columnStarts = new long[types.length];
+		long acc = h.dataTableOffset;
+		for (int f=0; f<types.length; f++) {
+			columnStarts[f] = acc;
+			acc += size*types[f].bytes;
+		}
+
+		if (shaper instanceof Shaper.SafeApproximate) {
+			IndexedEncoding max = new IndexedEncoding(types, h.maximaRecordOffset, file);
+			IndexedEncoding min = new IndexedEncoding(types, h.minimaRecordOffset, file);
+			bounds = Util.bounds(Util.boundOne(shaper.apply(max)), Util.boundOne(shaper.apply(min)));
+		}
+	}
+
+	private MemMapColumns(MemMapColumns<G,I> base, long low, long high) {
+		this.source = base.source;
+		this.types = base.types;
+		this.shaper = base.shaper;
+		this.valuer = base.valuer;
+		this.file = base.file.view(0, base.file.capacity());
+		this.size = high-low;
+		this.columns = new AtomicReferenceArray<>(types.length);
+		this.columnStarts = new long[types.length];
+		for (int f=0; f<types.length; f++) {columnStarts[f] = base.columnStarts[f] + low*types[f].bytes;}
+	}
+
+	/**Which columns have been mapped so far?**/
+	public boolean[] mappedColumns() {
+		boolean[] mapped = new boolean[columns.length()];
+		for (int f=0; f<mapped.length; f++) {mapped[f] = columns.get(f) != null;}
+		return mapped;
+	}
+
+	/**Types array used for conversions on read-out.**/
+	public TYPE[] types() {return types;}
+
+	/**View of a column, created on first use.
+	 * Only absolute reads are made through it, so it may be shared by threads reading this list.**/
+	private MappedFile column(int f) {
+		SharedMappedFile c = columns.get(f);
+		if (c == null) {
+			c = file.view(columnStarts[f], columnStarts[f]+size*types[f].bytes);
+			if (!columns.compareAndSet(f, null, c)) {
+				c.close();
+				c = columns.get(f);
+			}
+		}
+		return c;
+	}
+
+	@Override
+	public Glyph<G,I> get(long i) {
+		Entry entry = new Entry(i);
+		return new SimpleGlyph<>(shaper.apply(entry), valuer.apply(entry));
+	}
+
+	/**Test the i-th value of the tested field's column (only that column is read).**/
+	@Override
+	public boolean accepts(long i, FieldRange<?,?> test) {
+		int f = test.field();
+		MappedFile c = column(f);
+		return test.accepts(c, i*types[f].bytes + columnStarts[f] - c.filePosition(), types[f]);
+	}
+
+	@Override public boolean isEmpty() {return size == 0;}
+	@Override public long size() {return size;}
+	@Override public Iterator<Glyph<G,I>> iterator() {return new GlyphsetIterator<>(this);}
+
+	@Override
+	public Rectangle2D bounds() {
+		if (bounds == null) {bounds = Util.bounds(iterator());}
+		return bounds;
+	}
+
+	@Override
+	public List<Glyphset<G,I>> segment(int count) throws IllegalArgumentException {
+		long stride = (size/count)+1; //+1 for the round-down
+		List<Glyphset<G,I>> segments = new ArrayList<>();
+		for (long low=0; low<size; low+=stride) {
+			segments.add(new MemMapColumns<>(this, low, Math.min(low+stride, size)));
+		}
+		return segments;
+	}
+
+	/**Release this list's hold on its memory map (see SharedMappedFile), including the column views it made.
+	 * The list (but not segments taken from it) cannot be read afterwards.**/
+	@Override
+	public void close() {
+		for (int f=0; f<columns.length(); f++) {
+			SharedMappedFile c = columns.getAndSet(f, null);
+			if (c != null) {c.close();}
+		}
+		file.close();
+	}
+
+	@Override public DescriptorPair<?,?> axisDescriptors() {return axisDescriptor != null ? axisDescriptor : Axis.coordinantDescriptors(this);}
+	@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {this.axisDescriptor = descriptor;}
+
+
+	/**Record view that reads each field from its column.**/
+	private final class Entry implements Indexed.Numeric {
+		private static final long serialVersionUID = 4130524911733497962L;
+		private final long record;
+
+		public Entry(long record) {this.record = record;}
+
+		@Override
+		public Object get(int f) {
+			MappedFile c = column(f);
+			long at = record*types[f].bytes + columnStarts[f] - c.filePosition();
+			switch (types[f]) {
+				case INT: return c.getInt(at);
+				case SHORT: return c.getShort(at);
+				case LONG: return c.getLong(at);
+				case DOUBLE: return c.getDouble(at);
+				case FLOAT: return c.getFloat(at);
+				case BYTE: return c.get(at);
+				case CHAR: return c.getChar(at);
+				default: throw new IllegalArgumentException("Unhandled type " + types[f]);
+			}
+		}
+
+		@Override
+		public double number(int f) {
+			MappedFile c = column(f);
+			long at = record*types[f].bytes + columnStarts[f] - c.filePosition();
+			switch (types[f]) {
+				case INT: return c.getInt(at);
+				case SHORT: return c.getShort(at);
+				case LONG: return c.getLong(at);
+				case DOUBLE: return c.getDouble(at);
+				case FLOAT: return c.getFloat(at);
+				case BYTE: return c.get(at);
+				case CHAR: return c.getChar(at);
+				default: throw new IllegalArgumentException("Unhandled type " + types[f]);
+			}
+		}
+
+		@Override public int size() {return types.length;}
+	}
+}
@@ -0,0 +1,409 @@
+package ar.glyphsets;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.implicitgeometry.Indexed;
+import ar.glyphsets.implicitgeometry.Indexed.Converter;
+import ar.glyphsets.implicitgeometry.Shaper;
+import ar.glyphsets.implicitgeometry.Valuer;
+import ar.util.ColorNames;
+import ar.util.Util;
+import ar.util.axis.Axis;
+import ar.util.axis.DescriptorPair;
+import ar.util.memoryMapping.MappedFile;
+import ar.util.memoryMapping.MemMapEncoder;
+
+/**Implicit geometry glyphset read directly from a delimited text file (e.g., a CSV), without pre-conversion.
+ *
+ * The file is memory mapped and each record is a single line.
+ * Segments are aligned to line starts at the byte level, so they are exact and
+ * independent (each maps only its own byte range).
+ * Lines are tokenized in place; numeric fields are parsed straight from the bytes
+ * without creating a String for each field.
+ *
+ * Field types come from an Indexed.Converter (the same one used with DelimitedReader
+ * or DelimitedFile), and records are presented to the shaper and valuer already converted.
+ * Fields marked X are not parsed (and are null in the record).
+ *
+ * Limitations: Delimiter must be a single-byte character.  Fields may be quoted with '"' (with "" as an
+ * escaped quote), but may not contain line breaks.  Blank lines are skipped.
+ */
+public class MemMapDelimited<G,I> implements Glyphset<G,I> {
+	private final File source;
+	private final byte delimiter;
+	private final Converter.TYPE[] types;
+	private final int fields;	//Number of fields that must be present (up to the last non-X field)
+	private final Shaper<Indexed,G> shaper;
+	private final Valuer<Indexed,I> valuer;
+
+	/**Byte range of this glyphset; both ends are line starts (or the end of the file).**/
+	private final long low, high;
+
+	private long size = -1;
+	private Rectangle2D bounds;
+	private DescriptorPair<?,?> axisDescriptor;
+
+	/**Comma-delimited file.**/
+	public MemMapDelimited(File source, int skip, Converter converter, Shaper<Indexed,G> shaper, Valuer<Indexed,I> valuer) {
+		this(source, ',', skip, converter, shaper, valuer);
+	}
+
+	/**
+	 * @param source File to read
+	 * @param delimiter Field delimiter
+	 * @param skip Number of lines to skip at the start of the file (i.e., header lines)
+	 * @param converter Field types
+	 */
+	public MemMapDelimited(File source, char delimiter, int skip, Converter converter, Shaper<Indexed,G> shaper, Valuer<Indexed,I> valuer) {
+		if (delimiter > 127 || delimiter == '"' || delimiter == '\n' || delimiter == '\r') {
+			throw new IllegalArgumentException("Delimiter must be a single-byte character (and not a quote or line break); received '" + delimiter + "'");
+		}
+		this.source = source;
+		this.delimiter = (byte) delimiter;
+		this.types = converter.types();
+		this.shaper = shaper;
+		this.valuer = valuer;
+		this.high = source.length();
+
+		try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+			this.low = MemMapEncoder.lineAfter(channel, 0, skip);
+		} catch (IOException e) {throw new RuntimeException("Error skipping header lines of " + source, e);}
+
+		int required = 0;
+		for (int f=0; f<types.length; f++) {if (types[f] != Converter.TYPE.X) {required = f+1;}}
+		this.fields = required;
+	}
+
+	private MemMapDelimited(MemMapDelimited<G,I> base, long low, long high) {
+		this.source = base.source;
+		this.delimiter = base.delimiter;
+		this.types = base.types;
+		this.fields = base.fields;
+		this.shaper = base.shaper;
+		this.valuer = base.valuer;
+		this.low = low;
+		this.high = high;
+	}
+
+	/**Byte offset in the file of the first record of this glyphset.**/
+	public long start() {return low;}
+
+	/**Byte offset in the file just past the last record of this glyphset.**/
+	public long end() {return high;}
+
+	@Override public Iterator<Glyph<G,I>> iterator() {return new LineIterator();}
+	@Override public boolean isEmpty() {return !iterator().hasNext();}
+
+	/**Number of (non-blank) lines; counted in parallel (see Util.PARALLELISM) on first request.**/
+	@Override
+	public long size() {return size(Util.PARALLELISM);}
+
+	/**Number of (non-blank) lines; counted by the given number of parallel tasks on first request.**/
+	public long size(int taskCount) {
+		if (size < 0) {
+			long[] splits = splits(taskCount);
+			List<Callable<Long>> tasks = new ArrayList<>();
+			for (int i=0; i<splits.length-1; i++) {
+				MemMapDelimited<G,I> part = new MemMapDelimited<>(this, splits[i], splits[i+1]);
+				tasks.add(() -> part.count());
+			}
+			long total = 0;
+			for (long count: Util.invokeAll(taskCount, tasks)) {total += count;}
+			size = total;
+		}
+		return size;
+	}
+
+	private long count() {
+		long count = 0;
+		for (Lines lines = new Lines(); lines.advance(); count++) {}
+		return count;
+	}
+
+	@Override
+	public Rectangle2D bounds() {
+		if (bounds == null) {
+			if (low == 0 && high == source.length()) {bounds = Util.bounds(this);}
+			else {bounds = Util.bounds(iterator());}
+		}
+		return bounds;
+	}
+
+	/**Segments are line-aligned byte ranges.**/
+	@Override
+	public List<Glyphset<G,I>> segment(int count) throws IllegalArgumentException {
+		long[] splits = splits(count);
+		List<Glyphset<G,I>> segments = new ArrayList<>();
+		for (int i=0; i<splits.length-1; i++) {
+			if (splits[i] < splits[i+1]) {segments.add(new MemMapDelimited<>(this, splits[i], splits[i+1]));}
+		}
+		if (segments.isEmpty()) {segments.add(new EmptyGlyphset<>());}
+		return segments;
+	}
+
+	/**Split [low, high) into (up to) count ranges, each starting at a line start.**/
+	private long[] splits(int count) {
+		long[] splits = new long[count+1];
+		splits[0] = low;
+		splits[count] = high;
+		try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+			for (int i=1; i<count; i++) {
+				long nominal = low + (high-low)*i/count;
+				long aligned = nominal <= low ? low : MemMapEncoder.lineAfter(channel, nominal-1, 1);
+				splits[i] = Math.min(high, Math.max(splits[i-1], aligned));
+			}
+		} catch (IOException e) {throw new RuntimeException("Error finding line starts in " + source, e);}
+		return splits;
+	}
+
+	@Override public DescriptorPair<?,?> axisDescriptors() {return axisDescriptor != null ? axisDescriptor : Axis.coordinantDescriptors(this);}
+	@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {this.axisDescriptor = descriptor;}
+
+
+	/**Reads the lines of this glyphset's byte range into a reusable buffer.**/
+	private class Lines {
+		protected final MappedFile mapped;
+		protected byte[] line = new byte[256];
+		protected int length;
+		protected long lineStart;
+		private long at = low;
+
+		public Lines() {
+			try {mapped = MappedFile.Util.make(source, FileChannel.MapMode.READ_ONLY, MemMapList.BUFFER_BYTES, low, high);}
+			catch (IOException e) {throw new RuntimeException("Error mapping " + source, e);}
+		}
+
+		/**Advance to the next non-blank line.  Returns false at the end of the range.**/
+		public boolean advance() {
+			while (at < high) {
+				lineStart = at;
+				length = 0;
+				long offset = mapped.filePosition();
+				while (at < high) {
+					byte b = mapped.get(at - offset);
+					at++;
+					if (b == '\n') {break;}
+					if (length == line.length) {line = Arrays.copyOf(line, length*2);}
+					line[length++] = b;
+				}
+				if (length > 0 && line[length-1] == '\r') {length--;}
+				if (length > 0) {return true;}
+			}
+			return false;
+		}
+	}
+
+	private final class LineIterator extends Lines implements Iterator<Glyph<G,I>> {
+		private final int[] starts = new int[fields];
+		private final int[] ends = new int[fields];
+		private final boolean[] escaped = new boolean[fields];
+		private Glyph<G,I> cached;
+
+		@Override
+		public boolean hasNext() {
+			if (cached == null && advance()) {
+				try {
+					Indexed record = new Indexed.ArrayWrapper(parse());
+					cached = new SimpleGlyph<>(shaper.apply(record), valuer.apply(record));
+				} catch (Exception e) {
+					throw new RuntimeException(String.format("Error constructing glyph from line starting at byte %,d of %s", lineStart, source.getName()), e);
+				}
+			}
+			return cached != null;
+		}
+
+		@Override
+		public Glyph<G,I> next() {
+			if (!hasNext()) {throw new NoSuchElementException();}
+			Glyph<G,I> next = cached;
+			cached = null;
+			return next;
+		}
+
+		/**Find field boundaries, then convert the non-X fields.**/
+		private Object[] parse() {
+			int f = 0, i = 0;
+			while (f < fields) {
+				if (i < length && line[i] == '"') {
+					int j = i+1;
+					escaped[f] = false;
+					while (j < length) {
+						if (line[j] == '"') {
+							if (j+1 < length && line[j+1] == '"') {escaped[f] = true; j+=2; continue;}
+							break;
+						}
+						j++;
+					}
+					starts[f] = i+1;
+					ends[f] = j;
+					i = j+1;
+					while (i < length && line[i] != delimiter) {i++;}
+				} else {
+					starts[f] = i;
+					while (i < length && line[i] != delimiter) {i++;}
+					ends[f] = i;
+					escaped[f] = false;
+				}
+				f++;
+				if (i >= length) {break;}
+				i++;
+			}
+			if (f < fields) {throw new IllegalArgumentException(String.format("Expected at least %d fields, found %d", fields, f));}
+
+			Object[] values = new Object[types.length];
+			for (f=0; f<fields; f++) {
+				int s = starts[f], e = ends[f];
+				switch (types[f]) {
+					case X: break;
+					case INT: {
+						long v = parseLong(line, s, e);
+						if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {throw new NumberFormatException("Value out of range for int: " + text(f));}
+						values[f] = (int) v;
+						break;
+					}
+					case SHORT: {
+						long v = parseLong(line, s, e);
+						if (v < Short.MIN_VALUE || v > Short.MAX_VALUE) {throw new NumberFormatException("Value out of range for short: " + text(f));}
+						values[f] = (short) v;
+						break;
+					}
+					case LONG: values[f] = parseLong(line, s, e); break;
+					case DOUBLE: values[f] = parseDouble(line, s, e); break;
+					case FLOAT: values[f] = parseFloat(line, s, e); break;
+					case STRING: values[f] = text(f); break;
+					case COLOR: values[f] = ColorNames.byName(text(f), null); break;
+					default: throw new UnsupportedOperationException("Cannot perform conversion to " + types[f]);
+				}
+			}
+			return values;
+		}
+
+		private String text(int f) {
+			String s = new String(line, starts[f], ends[f]-starts[f], StandardCharsets.UTF_8);
+			return escaped[f] ? s.replace("\"\"", "\"") : s;
+		}
+
+		@Override public void remove() {throw new UnsupportedOperationException();}
+	}
+
+
+	//----------------------------- In-place number parsing -----------------------------
+	private static final double[] DOUBLE_POWERS = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	private static final float[] FLOAT_POWERS = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+	private static boolean isSpace(byte b) {return b == ' ' || b == '\t';}
+
+	/**Parse a (possibly signed, possibly space-padded) integer.**/
+	public static long parseLong(byte[] text, int start, int end) {
+		while (start < end && isSpace(text[start])) {start++;}
+		while (end > start && isSpace(text[end-1])) {end--;}
+		int i = start;
+		boolean negative = false;
+		if (i < end && (text[i] == '-' || text[i] == '+')) {negative = text[i] == '-'; i++;}
+		if (i == end || end-i > 18) {return Long.parseLong(new String(text, start, end-start, StandardCharsets.UTF_8));}	//Errors and (possible) overflows
+		long v = 0;
+		for (; i<end; i++) {
+			int d = text[i] - '0';
+			if (d < 0 || d > 9) {throw new NumberFormatException("For input string: \"" + new String(text, start, end-start, StandardCharsets.UTF_8) + "\"");}
+			v = v*10 + d;
+		}
+		return negative ? -v : v;
+	}
+
+	/**Parse a decimal number.
+	 * Numbers with at most 18 significant digits and small exponents are computed directly (and exactly rounded,
+	 * since both mantissa and power of ten are exactly representable).  Anything else is given to Double.parseDouble.
+	 */
+	public static double parseDouble(byte[] text, int start, int end) {
+		while (start < end && isSpace(text[start])) {start++;}
+		while (end > start && isSpace(text[end-1])) {end--;}
+		Decimal d = Decimal.of(text, start, end);
+		if (d != null && d.mantissa < (1L<<53) && Math.abs(d.exponent) < DOUBLE_POWERS.length) {
+			double v = d.exponent < 0 ? d.mantissa / DOUBLE_POWERS[-d.exponent] : d.mantissa * DOUBLE_POWERS[d.exponent];
+			return d.negative ? -v : v;
+		}
+		return Double.parseDouble(new String(text, start, end-start, StandardCharsets.UTF_8));
+	}
+
+	/**Parse a decimal number as a float (same approach as parseDouble).**/
+	public static float parseFloat(byte[] text, int start, int end) {
+		while (start < end && isSpace(text[start])) {start++;}
+		while (end > start && isSpace(text[end-1])) {end--;}
+		Decimal d = Decimal.of(text, start, end);
+		if (d != null && d.mantissa < (1L<<24) && Math.abs(d.exponent) < FLOAT_POWERS.length) {
+			float v = d.exponent < 0 ? d.mantissa / FLOAT_POWERS[-d.exponent] : d.mantissa * FLOAT_POWERS[d.exponent];
+			return d.negative ? -v : v;
+		}
+		return Float.parseFloat(new String(text, start, end-start, StandardCharsets.UTF_8));
+	}
+
+	/**Decimal number as mantissa * 10^exponent.**/
+	private static final class Decimal {
+		final boolean negative;
+		final long mantissa;
+		final int exponent;
+
+		private Decimal(boolean negative, long mantissa, int exponent) {
+			this.negative = negative;
+			this.mantissa = mantissa;
+			this.exponent = exponent;
+		}
+
+		/**Parse [sign] digits [. digits] [(e|E) [sign] digits].  Returns null if the text is not of that
+		 * form or has too many significant digits to represent exactly.**/
+		static Decimal of(byte[] text, int i, int end) {
+			boolean negative = false;
+			if (i < end && (text[i] == '-' || text[i] == '+')) {negative = text[i] == '-'; i++;}
+
+			long mantissa = 0;
+			int digits = 0, significant = 0, exponent = 0;
+			boolean point = false;
+			for (; i<end; i++) {
+				byte b = text[i];
+				if (b == '.' && !point) {point = true; continue;}
+				int d = b - '0';
+				if (d < 0 || d > 9) {break;}
+				digits++;
+				if (mantissa == 0 && d == 0) {
+					if (point) {exponent--;}
+					continue;
+				}
+				if (++significant > 18) {return null;}
+				mantissa = mantissa*10 + d;
+				if (point) {exponent--;}
+			}
+			if (digits == 0) {return null;}
+
+			if (i < end) {
+				if (text[i] != 'e' && text[i] != 'E') {return null;}
+				i++;
+				boolean negativeExponent = false;
+				if (i < end && (text[i] == '-' || text[i] == '+')) {negativeExponent = text[i] == '-'; i++;}
+				if (i == end || end-i > 4) {return null;}
+				int e = 0;
+				for (; i<end; i++) {
+					int d = text[i] - '0';
+					if (d < 0 || d > 9) {return null;}
+					e = e*10 + d;
+				}
+				exponent += negativeExponent ? -e : e;
+			}
+			return new Decimal(negative, mantissa, mantissa == 0 ? 0 : exponent);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package ar.glyphsets;
 
 import java.awt.geom.Rectangle2D;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
@@ -10,14 +11,20 @@ import java.util.List;
 
 import ar.Glyph;
 import ar.Glyphset;
+import ar.glyphsets.implicitgeometry.FieldRange;
 import ar.glyphsets.implicitgeometry.Indexed;
 import ar.glyphsets.implicitgeometry.IndexedEncoding;
 import ar.glyphsets.implicitgeometry.Shaper;
 import ar.glyphsets.implicitgeometry.Valuer;
 import ar.util.axis.Axis;
 import ar.util.axis.DescriptorPair;
+import ar.util.memoryMapping.BigFileByteBuffer;
 import ar.util.memoryMapping.MappedFile;
 import ar.util.memoryMapping.MemMapEncoder;
+import ar.util.memoryMapping.PrefetchingMappedFile;
+import ar.util.memoryMapping.SharedMappedFile;
+import ar.util.memoryMapping.SpatialIndex;
+import ar.util.memoryMapping.ZoneMap;
 import ar.util.memoryMapping.MemMapEncoder.TYPE;
 import ar.util.Util;
 
@@ -34,8 +41,9 @@ import ar.util.Util;
  *  The header, when provided, is an integer indicating how many fields are in each record,
  *  followed by a set of characters (one for each field).  
  *  
- *  This is class is NOT thread-safe.  However, subsets are logically independent units 
- *  so multiple subsets can be safely created and used concurrently (even if they overlap).
+ *  The file is mapped once (see SharedMappedFile), reads may be made from any thread
+ *  and segments are views of the same mapping (no additional mapping is made). 
+ *  Close the list (and any segments taken from it) to release the mapping promptly.
  *  
  *  The characters that describe field types are:
  *  
@@ -50,7 +58,7 @@ import ar.util.Util;
  * @author jcottam
  *
  */
-public class MemMapList<G,I> implements Glyphset.RandomAccess<G,I> {
+public class MemMapList<G,I> implements FieldFilter.Source<G,I>, PrefetchingMappedFile.Measured, Closeable {
 	/**Flag field indicating the binary file encoding (hbin) version understood by the parser.**/
 	public static final int VERSION_UNDERSTOOD = -1;
 	
@@ -58,6 +66,20 @@ public class MemMapList<G,I> implements Glyphset.RandomAccess<G,I> {
 	 * Reducing this number tends to result in faster thread startup times, but slower overall run-times.
 	 * **/
 	public static int BUFFER_BYTES = Integer.MAX_VALUE;
+	
+	/**How far ahead (in bytes) of each segment's reader should pages be prefetched (see PrefetchingMappedFile)?
+	 * Zero measures page-fault stalls without prefetching; negative disables both.
+	 * 
+	 * May be set as a system parameter (-DPREFETCH_BYTES=x); defaults to -1.
+	 * **/
+	public static long PREFETCH_BYTES;
+	static {
+		long bytes = -1;
+		if (System.getProperties().containsKey("PREFETCH_BYTES")) {
+			bytes = Long.parseLong(System.getProperty("PREFETCH_BYTES"));
+		}
+		PREFETCH_BYTES = bytes;
+	}
 
 	private final MappedFile buffer;
 
@@ -71,6 +93,10 @@ public class MemMapList<G,I> implements Glyphset.RandomAccess<G,I> {
 	private final long dataTableOffset;
 	private final long entryCount;
 	private Rectangle2D bounds;
+	private SpatialIndex index;
+	private ZoneMap zones;
+	private long zoneBase;	//Record id (in the zone map) of the first record of this list
+	private boolean indexChecked = false;
 
 	/**Create a new memory mapped list, types are read from the source.
 	 * @throws IOException **/
@@ -80,13 +106,14 @@ public class MemMapList<G,I> implements Glyphset.RandomAccess<G,I> {
 		this.source = source;
 		
 		if (source != null) {
-			try {this.buffer = MappedFile.Util.make(source, FileChannel.MapMode.READ_ONLY, BUFFER_BYTES);}
+			try {this.buffer = new SharedMappedFile(source);}
 			catch (Exception e) {throw new RuntimeException("Error construction buffer for mem-mapped list.", e);}
 			
 			MemMapEncoder.Header header = MemMapEncoder.Header.from(buffer);
-			if (header.version != VERSION_UNDERSTOOD) {
-				throw new IllegalArgumentException(String.format("Unexpected version number in file %d; expected %d", header.version, VERSION_UNDERSTOOD));
+			if (header.version != VERSION_UNDERSTOOD && header.version != MemMapEncoder.VERSION_ZONES) {
+				throw new IllegalArgumentException(String.format("Unexpected version number in file %d; expected %d or %d", header.version, VERSION_UNDERSTOOD, MemMapEncoder.VERSION_ZONES));
 			}
+			this.zones = header.zones;
 
 			dataTableOffset = header.dataTableOffset;
 			types = header.types;
@@ -133,6 +160,24 @@ public class MemMapList<G,I> implements Glyphset.RandomAccess<G,I> {
 		return g;
 	}
 
+	/**Value of the i-th record, without building its geometry.**/
+	public I valueAt(long i) {return valuer.apply(entryAt(recordOffset(i)));}
+
+	/**Test the stored field of the i-th record (without building the glyph).**/
+	@Override
+	public boolean accepts(long i, FieldRange<?,?> test) {
+		int f = test.field();
+		return test.accepts(buffer, recordOffset(i)+offsets[f], types[f]);
+	}
+
+	/**Lists over a SharedMappedFile are shared as-is; otherwise (e.g., segments, which read through a PrefetchingMappedFile)
+	 * the reader is a new range over the same records.**/
+	@Override
+	public FieldFilter.Source<G,I> reader() {
+		if (buffer instanceof SharedMappedFile || size() == 0) {return this;}
+		return range(0, size());
+	}
+
 	protected long recordOffset(long i) {return (i*recordLength)+dataTableOffset;}
 	
 	protected IndexedEncoding entryAt(long recordOffset) {
@@ -159,16 +204,11 @@ public class MemMapList<G,I> implements Glyphset.RandomAccess<G,I> {
 		for (int segId=0; segId<count; segId++) {
 			long low = stride*segId;
 			long high = segId == count-1 ? size() : Math.min(low+stride, size());
-			long offset = recordOffset(low)+buffer.filePosition();
-			long end = Math.min(recordOffset(high)+buffer.filePosition(), source.length());
 
 			try {
-				MappedFile mf = MappedFile.Util.make(source, FileChannel.MapMode.READ_ONLY, BUFFER_BYTES, offset, end);
-				if (mf == null) {segments.add(new EmptyGlyphset<>());}
-				else {
-					mf.order(buffer.order());
-					segments.add(new MemMapList<>(mf, source, shaper, valuer, types, 0));				
-				}
+				MemMapList<G,I> range = range(low, high);
+				if (range == null) {segments.add(new EmptyGlyphset<>());}
+				else {segments.add(range);}
 			} catch (Exception e) {
 				throw new RuntimeException(String.format("Error segmenting glyphset (parameters %d, %d)", count, segId), e);
 			}
@@ -176,8 +216,166 @@ public class MemMapList<G,I> implements Glyphset.RandomAccess<G,I> {
 		return segments;
 	}
 	
+	/**List over records [low, high).
+	 * When backed by a SharedMappedFile, the range is a view of the same mapping;
+	 * otherwise only the bytes of those records are mapped. 
+	 * Reads are prefetched/measured according to PREFETCH_BYTES.
+	 * Returns null if the range is empty.**/
+	public MemMapList<G,I> range(long low, long high) {
+		long offset = recordOffset(low)+buffer.filePosition();
+		long end = Math.min(recordOffset(high)+buffer.filePosition(), source.length());
+		MappedFile shared = buffer instanceof PrefetchingMappedFile ? ((PrefetchingMappedFile) buffer).base() : buffer;
+		try {
+			MappedFile mf = shared instanceof SharedMappedFile 
+					? ((SharedMappedFile) shared).view(offset, end)
+					: MappedFile.Util.make(source, FileChannel.MapMode.READ_ONLY, BUFFER_BYTES, offset, end);
+			if (mf == null) {return null;}
+			if (PREFETCH_BYTES >= 0 && !(mf instanceof BigFileByteBuffer)) {mf = new PrefetchingMappedFile(mf, PREFETCH_BYTES);}
+			mf.order(buffer.order());
+			MemMapList<G,I> range = new MemMapList<>(mf, source, shaper, valuer, types, 0);
+			range.zones = zones;
+			range.zoneBase = zoneBase + low;
+			return range;
+		} catch (IOException e) {
+			throw new RuntimeException(String.format("Error mapping records %d to %d", low, high), e);
+		}
+	}
+	
+	/**Stalls taken reading this list (see PrefetchingMappedFile); only ranges read through a prefetching file report any.**/
+	@Override
+	public PrefetchingMappedFile.Stalls stalls() {
+		return buffer instanceof PrefetchingMappedFile ? ((PrefetchingMappedFile) buffer).stalls() : PrefetchingMappedFile.Stalls.NONE;
+	}
+	
+	/**Release this list's hold on its memory map (see SharedMappedFile).
+	 * The list (but not segments taken from it) cannot be read afterwards.**/
+	@Override
+	public void close() throws IOException {
+		if (buffer instanceof Closeable) {((Closeable) buffer).close();}
+	}
+	
+	/**Spatial index for this list, or null if there is none.
+	 * A saved index (see SpatialIndex.indexFile) is loaded on first request if it matches the source file
+	 * and was built with an equivalent shaper (see SpatialIndex.fingerprint); otherwise it is ignored.
+	 * Only lists over a whole file (not segments) are indexed. 
+	 */
+	public SpatialIndex index() {
+		if (index == null && !indexChecked && source != null && dataTableOffset > 0) {
+			indexChecked = true;
+			File indexFile = SpatialIndex.indexFile(source);
+			if (indexFile.exists()) {
+				try {
+					SpatialIndex saved = SpatialIndex.read(indexFile);
+					if (saved.matches(source.length(), size(), SpatialIndex.fingerprint(shaper))) {index = saved;}
+				} catch (IllegalArgumentException e) {
+					//Older or foreign index format; treated as stale
+				} catch (IOException e) {throw new RuntimeException("Error reading spatial index " + indexFile, e);}
+			}
+		}
+		return index;
+	}
+	
+	/**Build a spatial index with the given number of cells per side, using the current shaper.
+	 * The index is saved next to the source file and used by later calls to index()/within.
+	 */
+	public SpatialIndex buildIndex(int cells) {
+		if (source == null || dataTableOffset <= 0) {throw new IllegalStateException("Can only index a list over a whole file.");}
+		index = SpatialIndex.build(this, cells, cells, source.length(), SpatialIndex.fingerprint(shaper), Runtime.getRuntime().availableProcessors());
+		try {index.write(SpatialIndex.indexFile(source));}
+		catch (IOException e) {throw new RuntimeException("Error saving spatial index for " + source, e);}
+		return index;
+	}
+	
+	/**Records that may intersect the given region.
+	 * Uses the spatial index when there is one (reading only the matching records), otherwise returns this list.
+	 * The result may include glyphs outside the region; it never omits ones inside it.
+	 */
+	public Glyphset.RandomAccess<G,I> within(Rectangle2D region) {
+		SpatialIndex spatial = index();
+		if (spatial != null) {
+			long[][] runs = spatial.query(region);
+			return new RecordRuns<>(this, runs[0], runs[1]);
+		}
+		if (zones != null && shaper instanceof Shaper.SafeApproximate) {
+			return blocks((min, max) -> {
+				Rectangle2D block = blockBounds(min, max);
+				return undefined(block) || region.intersects(block);		//Coordinates without a numeric range may be anywhere
+			});
+		}
+		return this;
+	}
+	
+	/**Zone map of the source file (null if the file has none).**/
+	public ZoneMap zones() {return zones;}
+	
+	/**Records from the zone-map blocks that pass the test.  Returns this list if there is no zone map.**/
+	public Glyphset.RandomAccess<G,I> blocks(ZoneMap.Test test) {
+		if (zones == null) {return this;}
+		long[][] runs = zones.runs(test, zoneBase, zoneBase+size());
+		for (int i=0; i<runs[0].length; i++) {
+			runs[0][i] -= zoneBase;
+			runs[1][i] -= zoneBase;
+		}
+		return new RecordRuns<>(this, runs[0], runs[1]);
+	}
+	
+	/**Records that pass the test; only zone-map blocks that may hold a match are candidates.**/
+	@Override
+	public FieldFilter<G,I> where(FieldRange<?,?> test) {
+		if (zones == null) {return FieldFilter.Source.super.where(test);}
+		long[][] runs = zones.runs(test, zoneBase, zoneBase+size());
+		for (int i=0; i<runs[0].length; i++) {
+			runs[0][i] -= zoneBase;
+			runs[1][i] -= zoneBase;
+		}
+		return new FieldFilter<>(this, test, runs[0], runs[1]);
+	}
+	
+	/**Bounds of all glyphs of a block, given the block's field ranges (requires a SafeApproximate shaper).**/
+	private Rectangle2D blockBounds(double[] min, double[] max) {
+		return Util.bounds(Util.boundOne(shaper.apply(asIndexed(min))), Util.boundOne(shaper.apply(asIndexed(max))));
+	}
+	
+	private static boolean undefined(Rectangle2D r) {
+		return Double.isNaN(r.getX()) || Double.isNaN(r.getY()) || Double.isNaN(r.getWidth()) || Double.isNaN(r.getHeight());
+	}
+	
+	/**Bounds of the glyphs of records [low, high) of this list (null if there are none).**/
+	private Rectangle2D recordBounds(long low, long high) {
+		Rectangle2D acc = null;
+		for (long i=low; i<high; i++) {
+			Rectangle2D b = Util.boundOne(shaper.apply(entryAt(recordOffset(i))));
+			if (undefined(b)) {continue;}
+			acc = acc == null ? b : Util.bounds(acc, b);
+		}
+		return acc;
+	}
+	
+	private static Indexed asIndexed(double[] values) {
+		Object[] boxed = new Object[values.length];
+		for (int i=0; i<values.length; i++) {boxed[i] = values[i];}
+		return new Indexed.ArrayWrapper(boxed);
+	}
+	
 	/**Bounds calculation.  Is run in parallel using the tuning parameters of ParallelRenderer.**/
 	public Rectangle2D bounds() {
+		if (bounds == null && zones != null && shaper instanceof Shaper.SafeApproximate) {
+			//Zone map: union of the blocks this list covers entirely; records of partially covered blocks are read
+			Rectangle2D acc = null;
+			long low = zoneBase, high = zoneBase+size();
+			for (int b=0; b<zones.blocks(); b++) {
+				long start = Math.max(low, zones.first(b));
+				long end = Math.min(high, zones.first(b)+zones.count(b));
+				if (start >= end) {continue;}
+				Rectangle2D block = start == zones.first(b) && end == zones.first(b)+zones.count(b)
+						? blockBounds(zones.min(b), zones.max(b))
+						: recordBounds(start-zoneBase, end-zoneBase);
+				if (block == null || undefined(block)) {continue;}
+				acc = acc == null ? block : Util.bounds(acc, block);
+			}
+			if (acc != null) {bounds = acc;}
+		}
+		
 		if (bounds == null) {
 			//TODO: Get rid of magic number;
 			if (size() > 1000000) {bounds = Util.bounds(this);}		//Parallel case		
@@ -0,0 +1,132 @@
+package ar.glyphsets;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.util.Util;
+import ar.util.memoryMapping.PrefetchingMappedFile;
+import ar.util.axis.DescriptorPair;
+
+/**Subset of a random-access glyphset made of runs of record ids.
+ *
+ * Produced by spatial index queries (see MemMapList.within), so only the records in the runs are read.
+ * Items are presented in run order, re-numbered from zero.
+ * Iteration walks the runs in order; get(long) finds the run holding an item by binary search.
+ *
+ * Segments share the base glyphset, except when it is a MemMapList:
+ * then each segment maps just the span of the file its runs cover.
+ */
+public class RecordRuns<G,I> implements Glyphset.RandomAccess<G,I>, PrefetchingMappedFile.Measured {
+	private final Glyphset.RandomAccess<G,I> base;
+	private final long[] lows, highs;
+	private final long[] starts;	//Position of each run's first item in this subset
+	private final long size;
+	private Rectangle2D bounds;
+
+	/**@param lows Start of each run (inclusive)
+	 * @param highs End of each run (exclusive)**/
+	public RecordRuns(Glyphset.RandomAccess<G,I> base, long[] lows, long[] highs) {
+		if (lows.length != highs.length) {throw new IllegalArgumentException("Must supply same number of run starts and ends.");}
+		this.base = base;
+		this.lows = lows;
+		this.highs = highs;
+		this.starts = new long[lows.length];
+		long acc = 0;
+		for (int i=0; i<lows.length; i++) {
+			starts[i] = acc;
+			acc += highs[i]-lows[i];
+		}
+		this.size = acc;
+	}
+
+	/**Number of runs.**/
+	public int runs() {return lows.length;}
+
+	@Override
+	public Glyph<G,I> get(long l) {
+		int run = Arrays.binarySearch(starts, l);
+		if (run < 0) {run = -run-2;}
+		else {while (run < lows.length-1 && starts[run+1] == l) {run++;}} //Skip empty runs
+		return base.get(lows[run] + (l-starts[run]));
+	}
+
+	@Override public boolean isEmpty() {return size == 0;}
+	@Override public long size() {return size;}
+	@Override public Iterator<Glyph<G,I>> iterator() {return new Items();}
+
+	@Override
+	public Rectangle2D bounds() {
+		if (bounds == null) {bounds = Util.bounds(iterator());}
+		return bounds;
+	}
+
+	@Override
+	public List<Glyphset<G,I>> segment(int count) throws IllegalArgumentException {
+		long stride = (size/count)+1; //+1 for the round-down
+		List<Glyphset<G,I>> segments = new ArrayList<>();
+		for (long from=0; from<size; from+=stride) {
+			segments.add(slice(from, Math.min(from+stride, size)));
+		}
+		return segments;
+	}
+
+	/**Items [from, to) of this subset as their own set of runs.**/
+	private RecordRuns<G,I> slice(long from, long to) {
+		List<long[]> parts = new ArrayList<>();
+		for (int i=0; i<lows.length; i++) {
+			long low = Math.max(lows[i], lows[i] + (from-starts[i]));
+			long high = Math.min(highs[i], lows[i] + (to-starts[i]));
+			if (low < high) {parts.add(new long[]{low, high});}
+		}
+
+		long[] ls = new long[parts.size()];
+		long[] hs = new long[parts.size()];
+		for (int i=0; i<ls.length; i++) {
+			ls[i] = parts.get(i)[0];
+			hs[i] = parts.get(i)[1];
+		}
+
+		if (base instanceof MemMapList && ls.length > 0) {
+			long offset = ls[0];
+			MemMapList<G,I> span = ((MemMapList<G,I>) base).range(offset, hs[hs.length-1]);
+			for (int i=0; i<ls.length; i++) {ls[i] -= offset; hs[i] -= offset;}
+			return new RecordRuns<>(span, ls, hs);
+		}
+		return new RecordRuns<>(base, ls, hs);
+	}
+
+	@Override
+	public PrefetchingMappedFile.Stalls stalls() {
+		return base instanceof PrefetchingMappedFile.Measured ? ((PrefetchingMappedFile.Measured) base).stalls() : PrefetchingMappedFile.Stalls.NONE;
+	}
+
+	@Override public DescriptorPair<?,?> axisDescriptors() {return base.axisDescriptors();}
+	@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {base.axisDescriptors(descriptor);}
+
+	/**Items of each run in turn, read straight from the base by record id.**/
+	private final class Items implements Iterator<Glyph<G,I>> {
+		private int run = 0;
+		private long next = lows.length == 0 ? 0 : lows[0];
+
+		@Override
+		public boolean hasNext() {
+			while (run < lows.length && next >= highs[run]) {
+				run++;
+				if (run < lows.length) {next = lows[run];}
+			}
+			return run < lows.length;
+		}
+
+		@Override
+		public Glyph<G,I> next() {
+			if (!hasNext()) {throw new NoSuchElementException();}
+			return base.get(next++);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package ar.glyphsets;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.SyntheticGlyphset.CounterRandom;
+import ar.util.axis.DescriptorPair;
+
+/**Random samples of random-access glyphsets, for quick (low-fidelity) preview renders.
+ *
+ * Samples are drawn with counter-based random numbers (see SyntheticGlyphset.CounterRandom),
+ * so the same seed always gives the same sample and segments can be produced independently.
+ * Bounds and axis descriptors are those of the full glyphset, so a preview lines up with the full render.
+ *
+ * Aggregates of a sample estimate the aggregates of the full glyphset once
+ * scaled by Sample.scale() (see Numbers.Scale).
+ */
+public final class SampledGlyphs {
+	private SampledGlyphs() {/*Prevent instantiation*/}
+
+	/**A glyphset that is a sample of another.**/
+	public static interface Sample {
+		/**Expected fraction of the base glyphset included in the sample.**/
+		public double rate();
+
+		/**Factor to upscale counts (and sums) by to estimate the full glyphset's values.**/
+		public default double scale() {return rate() == 0 ? 0 : 1/rate();}
+	}
+
+	/**Sample each glyph independently with a fixed probability.
+	 *
+	 * The sample size is random (expected rate*size), so size() is approximate.
+	 * Included glyphs are found by geometric skips, so only the sampled glyphs are ever read;
+	 * skips restart at fixed-size blocks of the base indices so any segmentation gives the same sample.
+	 */
+	public static final class Bernoulli<G,I> implements Glyphset<G,I>, Sample {
+		/**Number of base indices covered by one run of skips.**/
+		public static final int BLOCK = 1<<16;
+
+		private final Glyphset.RandomAccess<G,I> base;
+		private final double rate;
+		private final long seed;
+		private final long low, high;
+
+		public Bernoulli(Glyphset.RandomAccess<G,I> base, double rate, long seed) {this(base, rate, seed, 0, base.size());}
+
+		private Bernoulli(Glyphset.RandomAccess<G,I> base, double rate, long seed, long low, long high) {
+			if (rate < 0 || rate > 1) {throw new IllegalArgumentException("Sample rate must be in [0, 1]; received " + rate);}
+			this.base = base;
+			this.rate = rate;
+			this.seed = seed;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override public double rate() {return rate;}
+		@Override public Iterator<Glyph<G,I>> iterator() {return new SkipIterator();}
+		@Override public boolean isEmpty() {return high <= low || rate == 0;}
+
+		/**Approximate!  Expected number of glyphs in the sample.**/
+		@Override public long size() {return Math.round((high-low)*rate);}
+		@Override public Rectangle2D bounds() {return base.bounds();}
+
+		@Override
+		public List<Glyphset<G,I>> segment(int count) throws IllegalArgumentException {
+			long stride = ((high-low)/count)+1; //+1 for the round-down
+			List<Glyphset<G,I>> segments = new ArrayList<>();
+			for (long offset=low; offset<high; offset+=stride) {
+				segments.add(new Bernoulli<>(base, rate, seed, offset, Math.min(offset+stride, high)));
+			}
+			return segments;
+		}
+
+		@Override public DescriptorPair<?,?> axisDescriptors() {return base.axisDescriptors();}
+		@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {base.axisDescriptors(descriptor);}
+
+		private final class SkipIterator implements Iterator<Glyph<G,I>> {
+			private final double logSkip = Math.log1p(-rate);	//Log of the probability of skipping a glyph
+			private long block;
+			private int draw;
+			private long next;
+
+			public SkipIterator() {
+				block = low/BLOCK;
+				next = block*BLOCK-1;
+				advance();
+				while (next < low) {advance();}
+			}
+
+			/**Move to the next included index (or to high if there are no more).**/
+			private void advance() {
+				if (rate == 0) {next = high; return;}
+				while (true) {
+					long gap = rate == 1 ? 0 : (long) (Math.log(1-CounterRandom.uniform(seed, block, draw++))/logSkip);
+					next = next+1+gap;
+					if (next < (block+1)*BLOCK || next >= high) {break;}
+					block++;
+					draw = 0;
+					next = block*BLOCK-1;
+				}
+				next = Math.min(next, high);
+			}
+
+			@Override public boolean hasNext() {return next < high;}
+
+			@Override
+			public Glyph<G,I> next() {
+				if (!hasNext()) {throw new NoSuchElementException();}
+				Glyph<G,I> g = base.get(next);
+				advance();
+				return g;
+			}
+		}
+	}
+
+	/**Sample exactly one glyph from each of n equal-width strata (contiguous index ranges) of the base.
+	 *
+	 * Spreads the sample evenly over the base, which keeps sorted or clustered files
+	 * representative in the preview.
+	 */
+	public static final class Stratified<G,I> implements Glyphset.RandomAccess<G,I>, Sample {
+		private final Glyphset.RandomAccess<G,I> base;
+		private final long strata;
+		private final long seed;
+
+		/**@param strata Number of strata (and sample size); capped at the base size**/
+		public Stratified(Glyphset.RandomAccess<G,I> base, long strata, long seed) {
+			if (strata < 0) {throw new IllegalArgumentException("Must request a non-negative sample size; received " + strata);}
+			this.base = base;
+			this.strata = Math.min(strata, base.size());
+			this.seed = seed;
+		}
+
+		private long start(long stratum) {return (long) (stratum * ((double) base.size() / strata));}
+
+		@Override
+		public Glyph<G,I> get(long stratum) {
+			long from = start(stratum);
+			long to = Math.max(from+1, Math.min(base.size(), start(stratum+1)));
+			return base.get(from + (long) (CounterRandom.uniform(seed, stratum, 0)*(to-from)));
+		}
+
+		@Override public double rate() {return base.size() == 0 ? 0 : strata/(double) base.size();}
+		@Override public Iterator<Glyph<G,I>> iterator() {return new GlyphsetIterator<>(this);}
+		@Override public boolean isEmpty() {return strata == 0;}
+		@Override public long size() {return strata;}
+		@Override public Rectangle2D bounds() {return base.bounds();}
+		@Override public List<Glyphset<G,I>> segment(int count) {return subsets(this, count);}
+		@Override public DescriptorPair<?,?> axisDescriptors() {return base.axisDescriptors();}
+		@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {base.axisDescriptors(descriptor);}
+	}
+
+	/**Uniform sample (without replacement) of exactly n glyphs.
+	 *
+	 * Indices are selected by reservoir sampling with geometric skips (Li's "Algorithm L"),
+	 * so selection takes O(n log(size/n)) random draws and reads no glyphs.
+	 * Selected indices are kept in base order, so reading the sample scans the base front to back.
+	 */
+	public static final class Reservoir<G,I> implements Glyphset.RandomAccess<G,I>, Sample {
+		private final Glyphset.RandomAccess<G,I> base;
+		private final long[] indices;
+
+		/**@param n Sample size; capped at the base size**/
+		public Reservoir(Glyphset.RandomAccess<G,I> base, int n, long seed) {
+			if (n < 0) {throw new IllegalArgumentException("Must request a non-negative sample size; received " + n);}
+			this.base = base;
+			this.indices = select(base.size(), n, seed);
+		}
+
+		private static long[] select(long size, int n, long seed) {
+			if (n >= size) {
+				long[] all = new long[(int) size];
+				for (int i=0; i<all.length; i++) {all[i] = i;}
+				return all;
+			}
+
+			long[] reservoir = new long[n];
+			for (int i=0; i<n; i++) {reservoir[i] = i;}
+			if (n == 0) {return reservoir;}
+
+			long draw = 0;
+			double w = Math.exp(Math.log(1-CounterRandom.uniform(seed, draw++, 0))/n);
+			long i = n-1;
+			while (true) {
+				i += (long) (Math.log(1-CounterRandom.uniform(seed, draw++, 0))/Math.log1p(-w)) + 1;
+				if (i >= size || i < 0) {break;}
+				reservoir[(int) (CounterRandom.uniform(seed, draw++, 0)*n)] = i;
+				w *= Math.exp(Math.log(1-CounterRandom.uniform(seed, draw++, 0))/n);
+			}
+			Arrays.sort(reservoir);
+			return reservoir;
+		}
+
+		@Override public Glyph<G,I> get(long l) {return base.get(indices[(int) l]);}
+		@Override public double rate() {return base.size() == 0 ? 0 : indices.length/(double) base.size();}
+		@Override public Iterator<Glyph<G,I>> iterator() {return new GlyphsetIterator<>(this);}
+		@Override public boolean isEmpty() {return indices.length == 0;}
+		@Override public long size() {return indices.length;}
+		@Override public Rectangle2D bounds() {return base.bounds();}
+		@Override public List<Glyphset<G,I>> segment(int count) {return subsets(this, count);}
+		@Override public DescriptorPair<?,?> axisDescriptors() {return base.axisDescriptors();}
+		@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {base.axisDescriptors(descriptor);}
+	}
+
+	private static <G,I> List<Glyphset<G,I>> subsets(Glyphset.RandomAccess<G,I> glyphs, int count) {
+		long stride = (glyphs.size()/count)+1; //+1 for the round-down
+		List<Glyphset<G,I>> segments = new ArrayList<>();
+		for (long offset=0; offset<glyphs.size(); offset+=stride) {
+			segments.add(new GlyphSubset.Uncached<>(glyphs, offset, Math.min(offset+stride, glyphs.size())));
+		}
+		return segments;
+	}
+}
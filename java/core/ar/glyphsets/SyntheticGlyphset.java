@@ -1,23 +1,32 @@
 package ar.glyphsets;
 
+import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.function.Function;
 
 import ar.Glyph;
 import ar.Glyphset;
+import ar.util.Util;
 import ar.util.axis.Axis;
 import ar.util.axis.DescriptorPair;
 
 /**Glyphset derived from a Generator.
+ *
+ * The generators included here derive each record from its index alone (see CounterRandom),
+ * so a synthetic glyphset is reproducible and its segments are independent of each other:
+ * no generator state is shared between threads.
  * **/
 public class SyntheticGlyphset<G,I> implements Glyphset.RandomAccess<G,I>{
 	private final long size;
 	private final Function<Long,G> shaper;
 	private final Function<Long,I> valuer;
+	private Rectangle2D bounds;
 	private DescriptorPair<?,?> axisDescriptor;
 
 	public SyntheticGlyphset(long size, Function<Long, G> shaper, Function<Long, I> valuer) {
@@ -25,43 +34,218 @@ public class SyntheticGlyphset<G,I> implements Glyphset.RandomAccess<G,I>{
 		this.shaper = shaper;
 		this.valuer = valuer;
 	}
-	
+
 	@Override public Iterator<Glyph<G, I>> iterator() {return new GlyphsetIterator<>(this);}
 	@Override public boolean isEmpty() {return size <= 0;}
-	@Override public Rectangle2D bounds() {return new Rectangle2D.Double(0,0,100,100);}
 	@Override public long size() {return size;}
 
+	/**Bounds come from the shaper if it is Bounded; otherwise they are computed (in parallel) from the glyphs.**/
+	@Override
+	public Rectangle2D bounds() {
+		if (bounds == null) {
+			if (shaper instanceof Bounded) {
+				bounds = ((Bounded) shaper).bounds();
+			} else {
+				List<Callable<Rectangle2D>> tasks = new ArrayList<>();
+				for (Glyphset<G,I> s: segment(Util.PARALLELISM)) {tasks.add(() -> Util.bounds(s.iterator()));}
+				bounds = Util.invokeAll(Util.PARALLELISM, tasks).stream()
+							.reduce((a, b) -> Util.bounds(a, b))
+							.orElse(new Rectangle2D.Double(Double.NaN, Double.NaN, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY));	//Empty, as Util.bounds reports it
+			}
+		}
+		return bounds;
+	}
+
 	@Override
 	public List<Glyphset<G, I>> segment(int count) throws IllegalArgumentException {
 		long stride = (size()/count)+1; //+1 for the round-down
 		List<Glyphset<G,I>> segments = new ArrayList<>();
 		for (long offset=0; offset<size(); offset+=stride) {
-			segments.add(new GlyphSubset.Uncached<>(this, offset, offset+stride));
+			segments.add(new GlyphSubset.Uncached<>(this, offset, Math.min(offset+stride, size())));
 		}
 		return segments;
 	}
-	
+
 	@Override
 	public Glyph<G, I> get(long l) {
 		return new SimpleGlyph<>(shaper.apply(l), valuer.apply(l));
 	}
-		
+
+	@Override public DescriptorPair<?,?> axisDescriptors() {return axisDescriptor != null ? axisDescriptor : Axis.coordinantDescriptors(this);}
+	@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {this.axisDescriptor = descriptor;}
+
+
+	/**Shaper that knows the region all of its shapes fall in.**/
+	public static interface Bounded {
+		/**Region that contains every shape produced.**/
+		public Rectangle2D bounds();
+	}
+
+	/**Counter-based random numbers: each value is a pure function of (seed, index, stream).
+	 *
+	 * Based on the SplitMix64 finalizer.  There is no state, so any number of threads
+	 * can draw values without contention, and a record's values do not depend on
+	 * which other records were generated (or in what order).
+	 * Distinct streams give independent values for the same index (e.g., x and y).
+	 */
+	public static final class CounterRandom {
+		private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+		private CounterRandom() {}
+
+		private static long mix(long z) {
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+
+		/**Random 64 bits.**/
+		public static long bits(long seed, long index, int stream) {
+			return mix(mix(seed + GOLDEN*index) + GOLDEN*(stream+1));
+		}
+
+		/**Uniform value in [0, 1).**/
+		public static double uniform(long seed, long index, int stream) {
+			return (bits(seed, index, stream) >>> 11) * 0x1.0p-53;
+		}
+
+		/**Standard normal value (Box-Muller; uses streams 'stream' and 'stream+1').**/
+		public static double gaussian(long seed, long index, int stream) {
+			double u1 = 1-uniform(seed, index, stream);		//(0, 1]
+			double u2 = uniform(seed, index, stream+1);
+			return Math.sqrt(-2*Math.log(u1)) * Math.cos(2*Math.PI*u2);
+		}
+	}
+
 	/**Points generated from a uniform distribution points.**/
-	public static class UniformPoints implements Function<Long, Point2D> {
-		final int maxX, maxY;
-		
+	public static class UniformPoints implements Function<Long, Point2D>, Bounded {
+		final double maxX, maxY;
+		final long seed;
+
 		public UniformPoints() {this(100,100);}
-		public UniformPoints(int maxX, int maxY) {
+		public UniformPoints(int maxX, int maxY) {this(maxX, maxY, 0);}
+		public UniformPoints(double maxX, double maxY, long seed) {
 			this.maxX = maxX;
 			this.maxY = maxY;
+			this.seed = seed;
 		}
 
 		@Override
-		public Point2D apply(Long from) {return new Point2D.Double(Math.random()*maxX, Math.random()*maxY);}
+		public Point2D apply(Long from) {
+			return new Point2D.Double(
+					CounterRandom.uniform(seed, from, 0)*maxX,
+					CounterRandom.uniform(seed, from, 1)*maxY);
+		}
+
+		@Override public Rectangle2D bounds() {return new Rectangle2D.Double(0, 0, maxX, maxY);}
 	}
 
-	@Override public DescriptorPair<?,?> axisDescriptors() {return axisDescriptor != null ? axisDescriptor : Axis.coordinantDescriptors(this);}
-	@Override public void axisDescriptors(DescriptorPair<?,?> descriptor) {this.axisDescriptor = descriptor;} 
+	/**Points drawn from a mixture of (circular) Gaussian clusters.
+	 * Each point picks a cluster uniformly at random.  Points are clamped to SIGMAS standard
+	 * deviations from their center so the bounds are finite (this moves fewer than 1 in 10^8 points).
+	 */
+	public static class GaussianClusters implements Function<Long, Point2D>, Bounded {
+		/**Number of standard deviations points may fall from their cluster center.**/
+		public static final double SIGMAS = 6;
+
+		final double[] xs, ys, sigmas;
+		final long seed;
+
+		/**
+		 * @param xs Cluster center x values
+		 * @param ys Cluster center y values
+		 * @param sigmas Cluster standard deviations
+		 */
+		public GaussianClusters(double[] xs, double[] ys, double[] sigmas, long seed) {
+			if (xs.length != ys.length || xs.length != sigmas.length || xs.length == 0) {
+				throw new IllegalArgumentException("Must supply the same (non-zero) number of x, y and sigma values.");
+			}
+			this.xs = xs;
+			this.ys = ys;
+			this.sigmas = sigmas;
+			this.seed = seed;
+		}
+
+		@Override
+		public Point2D apply(Long from) {
+			int c = (int) (CounterRandom.uniform(seed, from, 0) * xs.length);
+			double dx = clamp(CounterRandom.gaussian(seed, from, 1));
+			double dy = clamp(CounterRandom.gaussian(seed, from, 3));
+			return new Point2D.Double(xs[c] + dx*sigmas[c], ys[c] + dy*sigmas[c]);
+		}
 
-	
+		private static double clamp(double v) {return Math.max(-SIGMAS, Math.min(SIGMAS, v));}
+
+		@Override
+		public Rectangle2D bounds() {
+			Rectangle2D bounds = null;
+			for (int c=0; c<xs.length; c++) {
+				double r = sigmas[c]*SIGMAS;
+				Rectangle2D cluster = new Rectangle2D.Double(xs[c]-r, ys[c]-r, 2*r, 2*r);
+				bounds = bounds == null ? cluster : Util.bounds(bounds, cluster);
+			}
+			return bounds;
+		}
+	}
+
+	/**Line segments that start uniformly in a region, with uniform direction and length up to a maximum.
+	 * End points are clamped to the region.
+	 */
+	public static class LineSegments implements Function<Long, Line2D>, Bounded {
+		final Rectangle2D region;
+		final double maxLength;
+		final long seed;
+
+		public LineSegments(Rectangle2D region, double maxLength, long seed) {
+			this.region = region;
+			this.maxLength = maxLength;
+			this.seed = seed;
+		}
+
+		@Override
+		public Line2D apply(Long from) {
+			double x1 = region.getMinX() + CounterRandom.uniform(seed, from, 0)*region.getWidth();
+			double y1 = region.getMinY() + CounterRandom.uniform(seed, from, 1)*region.getHeight();
+			double angle = CounterRandom.uniform(seed, from, 2)*2*Math.PI;
+			double length = CounterRandom.uniform(seed, from, 3)*maxLength;
+			double x2 = Math.max(region.getMinX(), Math.min(region.getMaxX(), x1 + Math.cos(angle)*length));
+			double y2 = Math.max(region.getMinY(), Math.min(region.getMaxY(), y1 + Math.sin(angle)*length));
+			return new Line2D.Double(x1, y1, x2, y2);
+		}
+
+		@Override public Rectangle2D bounds() {return region.getBounds2D();}
+	}
+
+	/**Category ids (0 to n-1) following a Zipf distribution: category k has weight 1/(k+1)^s.**/
+	public static class ZipfCategories implements Function<Long, Integer> {
+		private static final int STREAM = 7;	//Not used by the shapers, so values are independent of shapes even with the same seed
+		
+		final double[] cumulative;
+		final long seed;
+
+		/**
+		 * @param categories Number of categories
+		 * @param exponent Zipf exponent (s)
+		 * @param seed Seed
+		 */
+		public ZipfCategories(int categories, double exponent, long seed) {
+			if (categories < 1) {throw new IllegalArgumentException("Must have at least one category; received " + categories);}
+			this.seed = seed;
+			this.cumulative = new double[categories];
+			double acc = 0;
+			for (int k=0; k<categories; k++) {
+				acc += 1/Math.pow(k+1, exponent);
+				cumulative[k] = acc;
+			}
+			for (int k=0; k<categories; k++) {cumulative[k] /= acc;}
+		}
+
+		@Override
+		public Integer apply(Long from) {
+			double u = CounterRandom.uniform(seed, from, STREAM);
+			int k = Arrays.binarySearch(cumulative, u);
+			k = k >= 0 ? k+1 : -(k+1);	//First category whose cumulative weight exceeds u
+			return Math.min(k, cumulative.length-1);
+		}
+	}
 }
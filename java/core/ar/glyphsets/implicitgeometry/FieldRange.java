@@ -0,0 +1,110 @@
+package ar.glyphsets.implicitgeometry;
+
+import ar.Glyph;
+import ar.util.memoryMapping.MappedFile;
+import ar.util.memoryMapping.MemMapEncoder.TYPE;
+import ar.util.memoryMapping.ZoneMap;
+
+/**Test of one numeric field of an Indexed record against a range of values.
+ *
+ * Usable as a FilterGlyphs predicate.  Sources that store records as fields (MemMapList, MemMapColumns)
+ * evaluate it directly on the field's bytes before building any glyph (see FieldFilter),
+ * and skip zone-map blocks whose range for the field does not overlap.
+ * Other glyphsets evaluate it on the glyph's info, which must then be Indexed.
+ *
+ * Integer fields are compared as doubles, so values are exact up to 2^53.
+ */
+public class FieldRange<G,I> implements Valuer<Glyph<G,I>, Boolean>, ZoneMap.Test {
+	private static final long serialVersionUID = -6617380815102532207L;
+
+	private final int field;
+	private final double min, max;
+	private final boolean minInclusive, maxInclusive;
+
+	/**
+	 * @param field Index of the field tested
+	 * @param min Lower bound (may be negative infinity)
+	 * @param minInclusive Does the range include the lower bound?
+	 * @param max Upper bound (may be positive infinity)
+	 * @param maxInclusive Does the range include the upper bound?
+	 */
+	public FieldRange(int field, double min, boolean minInclusive, double max, boolean maxInclusive) {
+		if (field < 0) {throw new IllegalArgumentException("Field index must be non-negative; received " + field);}
+		this.field = field;
+		this.min = min;
+		this.max = max;
+		this.minInclusive = minInclusive;
+		this.maxInclusive = maxInclusive;
+	}
+
+	/**Field equals the value.**/
+	public static <G,I> FieldRange<G,I> equal(int field, double value) {return new FieldRange<>(field, value, true, value, true);}
+
+	/**Field is between min and max (inclusive).**/
+	public static <G,I> FieldRange<G,I> between(int field, double min, double max) {return new FieldRange<>(field, min, true, max, true);}
+
+	/**Field is in [min, max), e.g., one year of timestamps.**/
+	public static <G,I> FieldRange<G,I> from(int field, double min, double max) {return new FieldRange<>(field, min, true, max, false);}
+
+	/**Field is at least min.**/
+	public static <G,I> FieldRange<G,I> atLeast(int field, double min) {return new FieldRange<>(field, min, true, Double.POSITIVE_INFINITY, true);}
+
+	/**Field is less than max.**/
+	public static <G,I> FieldRange<G,I> lessThan(int field, double max) {return new FieldRange<>(field, Double.NEGATIVE_INFINITY, true, max, false);}
+
+	/**Index of the field tested.**/
+	public int field() {return field;}
+
+	/**Is the value in the range?**/
+	public boolean accepts(double v) {
+		return (minInclusive ? v >= min : v > min)
+				&& (maxInclusive ? v <= max : v < max);
+	}
+
+	/**Test a field value stored at the given position (in the encoding used by MemMapEncoder).**/
+	public boolean accepts(MappedFile buffer, long at, TYPE type) {
+		switch (type) {
+			case INT: return accepts(buffer.getInt(at));
+			case SHORT: return accepts(buffer.getShort(at));
+			case LONG: return accepts(buffer.getLong(at));
+			case DOUBLE: return accepts(buffer.getDouble(at));
+			case FLOAT: return accepts(buffer.getFloat(at));
+			case BYTE: return accepts(buffer.get(at));
+			case CHAR: return accepts(buffer.getChar(at));
+			default: throw new IllegalArgumentException("Cannot test field of type " + type);
+		}
+	}
+
+	/**Test the field of a record.**/
+	public boolean accepts(Indexed record) {
+		Object v = record.get(field);
+		if (v instanceof Number) {return accepts(((Number) v).doubleValue());}
+		if (v instanceof Character) {return accepts((Character) v);}
+		return false;
+	}
+
+	/**Test the field of the glyph's info (which must be Indexed).**/
+	@Override
+	public Boolean apply(Glyph<G,I> glyph) {
+		I info = glyph.info();
+		if (!(info instanceof Indexed)) {
+			throw new IllegalArgumentException("Field tests need Indexed glyph info or a source that stores fields (MemMapList, MemMapColumns); found " + (info == null ? "null" : info.getClass().getName()));
+		}
+		return accepts((Indexed) info);
+	}
+
+	/**Could the block hold a match?  Non-numeric fields (NaN ranges) always may.**/
+	@Override
+	public boolean mayMatch(double[] blockMin, double[] blockMax) {
+		if (field >= blockMin.length) {return true;}
+		double lo = blockMin[field], hi = blockMax[field];
+		if (Double.isNaN(lo) || Double.isNaN(hi)) {return true;}
+		return (maxInclusive ? lo <= max : lo < max)
+				&& (minInclusive ? hi >= min : hi > min);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("FieldRange[%d in %s%s, %s%s]", field, minInclusive ? "[" : "(", min, max, maxInclusive ? "]" : ")");
+	}
+}
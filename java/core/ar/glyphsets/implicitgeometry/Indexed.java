@@ -23,8 +23,20 @@ public interface Indexed extends Serializable {
 	public Object get(int i);
 	public int size();
 	
+	/**Records that can read numeric fields without boxing (e.g., decoded primitive columns).**/
+	public static interface Numeric extends Indexed {
+		/**Numeric value at index i, as a double.**/
+		public double number(int i);
+	}
 
 	public static final class Util {
+		/**Numeric value at index i; read without boxing from Numeric records.**/
+		public static double number(Indexed from, int i) {
+			if (from instanceof Numeric) {return ((Numeric) from).number(i);}
+			return ((Number) from.get(i)).doubleValue();
+		}
+
+
 		public static String toString(Indexed target) {
 			StringBuilder b = new StringBuilder();
 			b.append(target.getClass().getSimpleName());
@@ -184,8 +196,8 @@ public interface Indexed extends Serializable {
 		
 		@Override 
 		public Point2D apply(Indexed from) {
-			double x=((Number) from.get(xIdx)).doubleValue();
-			double y=((Number) from.get(yIdx)).doubleValue();
+			double x=Util.number(from, xIdx);
+			double y=Util.number(from, yIdx);
 			
 			y = flipY ? -y : y; 
 			return new Point2D.Double(x, y);
@@ -220,8 +232,8 @@ public interface Indexed extends Serializable {
 		
 		@Override 
 		public Rectangle2D apply(Indexed from) {
-			double x=((Number) from.get(xIdx)).doubleValue();
-			double y=((Number) from.get(yIdx)).doubleValue();
+			double x=Util.number(from, xIdx);
+			double y=Util.number(from, yIdx);
 			
 			y = flipY ? -y : y; 
 			return new Rectangle2D.Double(x-width/2d, y-height/2d, width, height);
@@ -255,8 +267,8 @@ public interface Indexed extends Serializable {
 		
 		@Override 
 		public Ellipse2D apply(Indexed from) {
-			double x=((Number) from.get(xIdx)).doubleValue();
-			double y=((Number) from.get(yIdx)).doubleValue();
+			double x=Util.number(from, xIdx);
+			double y=Util.number(from, yIdx);
 			
 			y = flipY ? -y : y; 
 			return new Ellipse2D.Double(x-width/2d, y-width/2d, width, height);
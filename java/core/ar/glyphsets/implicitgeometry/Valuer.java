@@ -7,6 +7,7 @@ import java.util.Map.Entry;
 import java.util.function.Function;
 
 import ar.rules.CategoricalCounts;
+import ar.rules.CategoryDictionary;
 import ar.util.Util;
 
 /**Converts values from one type to another.
@@ -84,6 +85,7 @@ public interface Valuer<I,V> extends Serializable, Function<I,V> {
 		private static final long serialVersionUID = 1L;
 		private final int catIdx, valIdx;
 		private final Comparator<T> comp;
+		private final CategoryDictionary<T> dictionary;
 		
 		
 		/** @param catIdx Index to get the category label from.
@@ -93,16 +95,55 @@ public interface Valuer<I,V> extends Serializable, Function<I,V> {
 			this.catIdx = catIdx;
 			this.valIdx = valIdx;
 			this.comp = comp;
+			this.dictionary = null;
+		}
+		
+		/**Produce counts kept by category id, so merging them (Categories.MergeCategories) never compares labels.
+		 * @param catIdx Index to get the category label from.
+		 * @param valIdx Index to get the count value from.
+		 */
+		public CategoryCount(CategoryDictionary<T> dictionary, int catIdx, int valIdx) {
+			this.catIdx = catIdx;
+			this.valIdx = valIdx;
+			this.comp = dictionary.comparator();
+			this.dictionary = dictionary;
 		}
 		
 		public CategoricalCounts<T> apply(Indexed from) {
 			@SuppressWarnings("unchecked")
 			T key = (T) from.get(catIdx);
 			int val = ((Integer) from.get(valIdx)).intValue();
+			if (dictionary != null) {
+				return CategoricalCounts.ofId(dictionary, dictionary.id(key), val);
+			}
 			return new CategoricalCounts<>(comp, key, val); 
 		}
 	}
 	
+	/**Convert a category label to its id in a dictionary (adding it if not present).
+	 * Pair with Categories.CountIds to aggregate on ids.
+	 */
+	public static class CategoryId<T> implements Valuer<Indexed,Integer> {
+		private static final long serialVersionUID = -1804318283092498541L;
+		private final CategoryDictionary<T> dictionary;
+		private final int catIdx;
+		
+		/** @param catIdx Index to get the category label from.**/
+		public CategoryId(CategoryDictionary<T> dictionary, int catIdx) {
+			this.dictionary = dictionary;
+			this.catIdx = catIdx;
+		}
+		
+		/**Dictionary the ids refer to.**/
+		public CategoryDictionary<T> dictionary() {return dictionary;}
+		
+		public Integer apply(Indexed from) {
+			@SuppressWarnings("unchecked")
+			T key = (T) from.get(catIdx);
+			return dictionary.id(key);
+		}
+	}
+	
 	/**Convert a value to a true/false based on equality to a reference value.**/
 	public static final class Equals<IN> implements Valuer<IN, Boolean> {
 		private final IN ref;
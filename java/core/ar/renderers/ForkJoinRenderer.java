@@ -1,7 +1,12 @@
 package ar.renderers;
 
 import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -14,6 +19,7 @@ import ar.Transfer;
 import ar.aggregates.AggregateUtils;
 import ar.renderers.tasks.GlyphParallelAggregation;
 import ar.renderers.tasks.PixelParallelTransfer;
+import ar.util.memoryMapping.PrefetchingMappedFile;
 
 
 /**Task-stealing renderer that works on a per-glyph basis, designed for use with a linear stored glyph-set.
@@ -100,6 +106,7 @@ public class ForkJoinRenderer implements Renderer {
 			Selector<G> selector,
 			Aggregator<I,A> op,
 			AffineTransform view) {
+		if (ThreadpoolRenderer.accumulates(op)) {return ThreadpoolRenderer.accumulate(this, glyphs, selector, (Aggregator.Accumulating<I,A,?>) op, view);}
 		return aggregate(glyphs, selector, op, view, ThreadpoolRenderer.defaultAllocator(glyphs, view), ThreadpoolRenderer.defaultMerge(op.identity(), op::rollup));
 	}
 	
@@ -115,8 +122,9 @@ public class ForkJoinRenderer implements Renderer {
 		long ticks = GlyphParallelAggregation.ticks(taskCount);
 		recorder.reset(ticks);
 
+		List<Glyphset<GG,II>> segments = glyphs.segment(taskCount);
 		GlyphParallelAggregation<GG,II,A> t = new GlyphParallelAggregation<GG,II,A>(
-				glyphs.segment(taskCount), 
+				segments, 
 				glyphs.bounds(), 
 				selector,
 				op, 
@@ -126,6 +134,8 @@ public class ForkJoinRenderer implements Renderer {
 				recorder);
 		
 		Aggregates<A> a= pool.invoke(t);
+		PrefetchingMappedFile.Stalls stalls = PrefetchingMappedFile.Stalls.of(segments);
+		if (stalls.any()) {recorder.message(stalls.toString());}
 		return a;
 	}
 	
@@ -152,4 +162,14 @@ public class ForkJoinRenderer implements Renderer {
 	
 	public ProgressRecorder recorder() {return recorder;}
 
+	@Override public int parallelism() {return threadLoad * pool.getParallelism();}
+
+	@Override
+	public <A> List<A> invokeAll(List<? extends Callable<A>> tasks) {
+		List<A> results = new ArrayList<>();
+		try {for (Future<A> f: pool.invokeAll(tasks)) {results.add(f.get());}}
+		catch (InterruptedException | ExecutionException e) {throw new RuntimeException("Error completing tasks", e);}
+		return results;
+	}
+
 }
@@ -0,0 +1,312 @@
+package ar.renderers;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+import ar.Aggregates;
+import ar.Aggregator;
+import ar.Glyph;
+import ar.Glyphset;
+import ar.Renderer;
+import ar.Selector;
+import ar.aggregates.Iterator2D;
+import ar.aggregates.AggregateUtils;
+import ar.aggregates.implementations.AccumulatingAggregates;
+import ar.glyphsets.MemMapList;
+import ar.glyphsets.SimpleGlyph;
+
+/**Remembers where each glyph of a glyphset lands under a particular view transform.
+ *
+ * Projecting geometry is the bulk of aggregation cost.  When only the aggregator
+ * (or the value read from each record) changes, the geometry does not need to be touched again.
+ * This cache stores the bins touched by each glyph as a packed bin index (int, relative
+ * to the projected bounds) and the record id (long, index into the random-access glyphset)
+ * in primitive arrays.  Any aggregator can then be applied by looking up values by record id.
+ *
+ * Projections are kept up to a memory budget (about 12 bytes per glyph/bin pair, see Projection.bytes),
+ * evicting the least recently used first.  Only the latest view of each glyphset is kept: a request with
+ * a new view transform drops the projections of that glyphset under other views.
+ * Glyphsets too large to project within the budget (one bin per glyph or more) are aggregated by the renderer directly.
+ *
+ * Record ids are global indices; this relies on random-access glyphsets returning
+ * contiguous, in-order segments (as all random-access glyphsets in this package do).
+ * 
+ * Projecting and aggregating run as tasks on the renderer passed in (see Renderer.invokeAll),
+ * each task reading only its own segment of the glyphset.
+ */
+public class ProjectionCache {
+	/**Memory budget used when none is given.**/
+	public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+	private final int taskCount;
+	private final long maxBytes;
+	private final List<Projection> cached = new ArrayList<>();	//Least recently used first
+	private long bytes = 0;
+
+	public ProjectionCache() {this(0, DEFAULT_MAX_BYTES);}
+
+	/**@param taskCount Number of segments to project (and later aggregate) in parallel; less than one uses the renderer's parallelism
+	 * @param maxBytes Memory budget for all retained projections**/
+	public ProjectionCache(int taskCount, long maxBytes) {
+		if (maxBytes < 0) {throw new IllegalArgumentException("Memory budget must be non-negative; received " + maxBytes);}
+		this.taskCount = taskCount;
+		this.maxBytes = maxBytes;
+	}
+
+	/**Can a projection of the glyphset fit in the memory budget?  Every glyph is assumed to touch at least one bin.**/
+	public boolean fits(Glyphset<?,?> glyphs) {return glyphs.size() <= maxBytes/Projection.ENTRY_BYTES;}
+
+	/**Get the projection of the glyphset for the view, building it if no cached one matches.
+	 * Projections of the same glyphset under other views are dropped; the result is retained only if it fits in the budget.**/
+	public <G> Projection projection(Renderer rend, Glyphset.RandomAccess<? extends G, ?> glyphs, Selector<G> selector, AffineTransform view) {
+		synchronized(this) {
+			for (int i=0; i<cached.size(); i++) {
+				Projection p = cached.get(i);
+				if (p.matches(glyphs, selector, view)) {
+					cached.add(cached.remove(i));
+					return p;
+				}
+			}
+			for (Iterator<Projection> it = cached.iterator(); it.hasNext();) {
+				Projection p = it.next();
+				if (p.source == glyphs) {it.remove(); bytes -= p.bytes();}		//Stale views; release before building
+			}
+		}
+
+		Projection p = Projection.build(rend, glyphs, selector, view, taskCount > 0 ? taskCount : rend.parallelism());
+		synchronized(this) {
+			if (p.bytes() > maxBytes) {return p;}
+			cached.add(p);
+			bytes += p.bytes();
+			while (bytes > maxBytes) {bytes -= cached.remove(0).bytes();}
+		}
+		return p;
+	}
+
+	/**Drop all cached projections.**/
+	public synchronized void clear() {
+		cached.clear();
+		bytes = 0;
+	}
+
+	/**Approximate memory held by the cached projections.**/
+	public synchronized long bytes() {return bytes;}
+
+	/**Number of projections held.**/
+	public synchronized int size() {return cached.size();}
+
+	/**Projected aggregation that reads values from the projected glyphset.
+	 * Glyphsets that cannot fit in the memory budget (see fits) are aggregated by the renderer without projecting.**/
+	public <G,I,A> Aggregates<A> aggregate(Renderer rend, Glyphset.RandomAccess<? extends G, ? extends I> glyphs, Selector<G> selector, Aggregator<I,A> op, AffineTransform view) {
+		if (!fits(glyphs)) {return rend.aggregate(glyphs, selector, op, view);}
+		return projection(rend, glyphs, selector, view).aggregate(rend, glyphs, op);
+	}
+
+	/**Record-id to value function for records [low, high) of a random-access glyphset, for use by a single task.
+	 * Memory-mapped lists are read through a range of just those records (with its own buffer), without building geometry.**/
+	@SuppressWarnings("unchecked")
+	public static <I> LongFunction<I> values(Glyphset.RandomAccess<?, ? extends I> glyphs, long low, long high) {
+		if (glyphs instanceof MemMapList && high > low) {
+			MemMapList<?,I> range = ((MemMapList<?,I>) glyphs).range(low, high);
+			return (id) -> range.valueAt(id-low);
+		}
+		return (id) -> glyphs.get(id).info();
+	}
+
+	/**Bins touched by each record of a glyphset under a single view.**/
+	public static final class Projection {
+		/**Bytes per glyph/bin pair (a packed int bin and a long record id).**/
+		public static final int ENTRY_BYTES = 12;
+
+		private final Object source;
+		private final Class<?> selectorType;
+		private final AffineTransform view;
+		private final Rectangle bounds;
+		private final List<Chunk> chunks;
+
+		private Projection(Object source, Class<?> selectorType, AffineTransform view, Rectangle bounds, List<Chunk> chunks) {
+			this.source = source;
+			this.selectorType = selectorType;
+			this.view = new AffineTransform(view);
+			this.bounds = bounds;
+			this.chunks = chunks;
+		}
+
+		public boolean matches(Glyphset<?,?> glyphs, Selector<?> selector, AffineTransform view) {
+			return source == glyphs && selectorType == selector.getClass() && this.view.equals(view);
+		}
+
+		/**Region of aggregate space covered.**/
+		public Rectangle bounds() {return new Rectangle(bounds);}
+
+		/**Number of glyph/bin pairs stored.**/
+		public long entries() {return chunks.stream().mapToLong(c -> c.size).sum();}
+
+		/**Approximate memory held.**/
+		public long bytes() {return entries()*ENTRY_BYTES;}
+
+		/**Aggregate the values of the projected glyphset into the projected bins.
+		 * 
+		 * Each chunk is aggregated by its own task on the renderer, reading values through its own view of the glyphset (see values).
+		 * Targets are allocated and merged as the renderers do (see ThreadpoolRenderer.defaultAllocator and accumulate),
+		 * so per-category planes, moment arrays and accumulating aggregators are updated in place.
+		 */
+		@SuppressWarnings("unchecked")
+		public <I,A> Aggregates<A> aggregate(Renderer rend, Glyphset.RandomAccess<?, ? extends I> glyphs, Aggregator<I,A> op) {
+			boolean accumulates = ThreadpoolRenderer.accumulates(op);
+			Function<A, Aggregates<A>> allocator = accumulates
+					? (defVal) -> new AccumulatingAggregates<>(bounds.x, bounds.y, bounds.x+bounds.width, bounds.y+bounds.height, (Aggregator.Accumulating<I,A,?>) op)
+					: ThreadpoolRenderer.defaultAllocator(bounds);
+			BiFunction<Aggregates<A>, Aggregates<A>, Aggregates<A>> merge = accumulates 
+					? ThreadpoolRenderer::absorb 
+					: ThreadpoolRenderer.defaultMerge(op.identity(), op::rollup);
+
+			ProgressRecorder recorder = rend.recorder();
+			recorder.reset(chunks.size());
+			List<Callable<Aggregates<A>>> tasks = new ArrayList<>();
+			for (Chunk chunk: chunks) {
+				tasks.add(() -> {
+					Aggregates<A> target = chunk.aggregate(values(glyphs, chunk.low, chunk.high), op, allocator.apply(op.identity()), bounds);
+					recorder.update(1);
+					return target;
+				});
+			}
+			
+			Aggregates<A> result = allocator.apply(op.identity());
+			for (Aggregates<A> part: rend.invokeAll(tasks)) {result = merge.apply(result, part);}
+			return accumulates ? AccumulatingAggregates.freeze(result) : result;
+		}
+
+		private static <G> Projection build(Renderer rend, Glyphset.RandomAccess<? extends G, ?> glyphs, Selector<G> selector, AffineTransform view, int taskCount) {
+			Rectangle bounds = view.createTransformedShape(glyphs.bounds()).getBounds();
+			if (AggregateUtils.size(bounds.x, bounds.y, bounds.x+bounds.width, bounds.y+bounds.height) > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Projected bounds too large to index with packed int bins: " + bounds);
+			}
+
+			List<? extends Glyphset<? extends G, ?>> segments = glyphs.segment(taskCount);
+			List<Callable<Chunk>> tasks = new ArrayList<>();
+			long total = 0;
+			for (Glyphset<? extends G, ?> segment: segments) {
+				long offset = total;
+				tasks.add(() -> Chunk.build(segment, offset, selector, view, bounds));
+				total += segment.size();
+			}
+			if (total != glyphs.size()) {
+				throw new IllegalArgumentException(String.format("Segment sizes (%d) do not cover the glyphset (%d); cannot assign record ids.", total, glyphs.size()));
+			}
+
+			return new Projection(glyphs, selector.getClass(), view, bounds, rend.invokeAll(tasks));
+		}
+	}
+
+	/**Packed bins and record ids for one segment of the glyphset.**/
+	private static final class Chunk {
+		private final long low, high;		//Record ids of the segment
+		private int[] bins;
+		private long[] records;
+		private int size;
+
+		private Chunk(long low, long high) {
+			this.low = low;
+			this.high = high;
+			this.bins = new int[1024];
+			this.records = new long[1024];
+		}
+
+		private void add(int bin, long record) {
+			if (size == bins.length) {
+				int newSize = size + (size >> 1);
+				bins = Arrays.copyOf(bins, newSize);
+				records = Arrays.copyOf(records, newSize);
+			}
+			bins[size] = bin;
+			records[size] = record;
+			size++;
+		}
+
+		private void trim() {
+			bins = Arrays.copyOf(bins, size);
+			records = Arrays.copyOf(records, size);
+		}
+
+		private <I,A> Aggregates<A> aggregate(LongFunction<? extends I> values, Aggregator<I,A> op, Aggregates<A> target, Rectangle bounds) {
+			for (int i=0; i<size; i++) {
+				int x = bounds.x + (bins[i] % bounds.width);
+				int y = bounds.y + (bins[i] / bounds.width);
+				target.accumulate(x, y, values.apply(records[i]), op);
+			}
+			return target;
+		}
+
+		private static <G> Chunk build(Glyphset<? extends G, ?> segment, long offset, Selector<G> selector, AffineTransform view, Rectangle bounds) {
+			Chunk chunk = new Chunk(offset, offset+segment.size());
+			selector.processSubset(new RecordIds<>(segment, offset), view, new Recorder(chunk, bounds), new LastRecord());
+			chunk.trim();
+			return chunk;
+		}
+	}
+
+	/**Re-label glyphs with their record id so the selector reports ids to the recorder.**/
+	private static final class RecordIds<G> implements Iterable<Glyph<G, Long>> {
+		private final Glyphset<? extends G, ?> segment;
+		private final long offset;
+
+		public RecordIds(Glyphset<? extends G, ?> segment, long offset) {
+			this.segment = segment;
+			this.offset = offset;
+		}
+
+		@Override
+		public Iterator<Glyph<G, Long>> iterator() {
+			final Iterator<? extends Glyph<? extends G, ?>> base = segment.iterator();
+			return new Iterator<Glyph<G, Long>>() {
+				private long id = offset;
+				@Override public boolean hasNext() {return base.hasNext();}
+				@Override public Glyph<G, Long> next() {return new SimpleGlyph<G, Long>(base.next().shape(), id++);}
+			};
+		}
+	}
+
+	/**Aggregator that just forwards the record id to the recorder.**/
+	private static final class LastRecord implements Aggregator<Long, Long> {
+		private static final long serialVersionUID = 6542315187436109752L;
+		@Override public Long combine(Long current, Long update) {return update;}
+		@Override public Long rollup(Long left, Long right) {return right;}
+		@Override public Long identity() {return -1L;}
+	}
+
+	/**Write-only aggregates that log every set into a chunk.**/
+	private static final class Recorder implements Aggregates<Long> {
+		private static final long serialVersionUID = -3190254419453185853L;
+		private final Chunk chunk;
+		private final Rectangle bounds;
+
+		public Recorder(Chunk chunk, Rectangle bounds) {
+			this.chunk = chunk;
+			this.bounds = bounds;
+		}
+
+		@Override public Long get(int x, int y) {return -1L;}
+
+		@Override
+		public void set(int x, int y, Long val) {
+			if (x < lowX() || x >= highX() || y < lowY() || y >= highY()) {return;}
+			chunk.add(((y-bounds.y)*bounds.width) + (x-bounds.x), val);
+		}
+
+		@Override public Long defaultValue() {return -1L;}
+		@Override public int lowX() {return bounds.x;}
+		@Override public int lowY() {return bounds.y;}
+		@Override public int highX() {return bounds.x+bounds.width;}
+		@Override public int highY() {return bounds.y+bounds.height;}
+		@Override public Iterator<Long> iterator() {return new Iterator2D<>(this);}
+	}
+}
@@ -35,7 +35,7 @@ public final class SerialRenderer implements Renderer {
 		Rectangle viewport = viewTransform.createTransformedShape(glyphs.bounds()).getBounds();
 		
 		return aggregate(glyphs, selector, aggregator, viewTransform,
-				(defVal) -> AggregateUtils.make(viewport.height, viewport.width, defVal),
+				(defVal) -> AggregateUtils.target(0, 0, viewport.height, viewport.width, defVal),
 				(l,r) -> null);
 	}
 	
@@ -64,9 +64,13 @@ public final class SerialRenderer implements Renderer {
 					if (selector.hitsBin(g, view, x, y)) {subset.add(g);}
 				}
 
-				for (Glyph<? extends G, ? extends I> g: subset) {
-					I val = g.info();
-					acc = op.combine(acc, val);
+				if (op instanceof Aggregator.Accumulating) {
+					acc = accumulate((Aggregator.Accumulating<I,A,?>) op, subset);
+				} else {
+					for (Glyph<? extends G, ? extends I> g: subset) {
+						I val = g.info();
+						acc = op.combine(acc, val);
+					}
 				}
 				
 				aggregates.set(x, y, acc);
@@ -76,6 +80,13 @@ public final class SerialRenderer implements Renderer {
 		return aggregates;
 	}
 
+	/**Fold a bin's values with a private accumulator (see Aggregator.Accumulating), starting from the identity.**/
+	private static <I,A,M> A accumulate(Aggregator.Accumulating<I,A,M> op, Collection<? extends Glyph<?, ? extends I>> subset) {
+		M acc = op.create();
+		for (Glyph<?, ? extends I> g: subset) {op.accumulate(acc, g.info());}
+		return op.freeze(acc);
+	}
+
 	@Override 
 	public <IN,OUT> Aggregates<OUT> transfer(Aggregates<? extends IN> aggregates, Transfer.ItemWise<IN,OUT> t) {
 		recorder.reset(AggregateUtils.size(aggregates));
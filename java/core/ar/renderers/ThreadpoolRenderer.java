@@ -6,9 +6,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -20,8 +24,11 @@ import ar.Renderer;
 import ar.Selector;
 import ar.Transfer;
 import ar.aggregates.AggregateUtils;
+import ar.aggregates.implementations.AccumulatingAggregates;
+import ar.aggregates.implementations.CategoricalPlanes;
 import ar.aggregates.wrappers.TouchedBoundsWrapper;
 import ar.renderers.tasks.GlyphParallelAggregation;
+import ar.util.memoryMapping.PrefetchingMappedFile;
 
 
 /**Task-stealing renderer that works on a per-glyph basis, designed for use with a linear stored glyph-set.
@@ -68,6 +75,7 @@ public class ThreadpoolRenderer implements Renderer {
 	private final ProgressRecorder recorder;
 	
 	private final int threadLoad;
+	private final int threads;	//Threads in the pool; tasks are sized by threadLoad*threads
 
 
 	public ThreadpoolRenderer() {this(null, RENDER_THREAD_LOAD, null);}
@@ -87,6 +95,7 @@ public class ThreadpoolRenderer implements Renderer {
 			        return t;
 			    });
 		this.threadLoad = threadLoad > 0 ? threadLoad : RENDER_THREAD_LOAD;
+		this.threads = threads(this.pool);
 		this.recorder = recorder == null ? new ProgressRecorder.Counter() : recorder;
 	}
 
@@ -107,6 +116,7 @@ public class ThreadpoolRenderer implements Renderer {
 			Aggregator<I,A> aggregator,
 			AffineTransform viewTransform) {
 
+		if (accumulates(aggregator)) {return accumulate(this, glyphs, selector, (Aggregator.Accumulating<I,A,?>) aggregator, viewTransform);}
 		return aggregate(glyphs, selector, aggregator, viewTransform, 
 				defaultAllocator(glyphs, viewTransform),
 				defaultMerge(aggregator.identity(), aggregator::rollup)
@@ -123,7 +133,7 @@ public class ThreadpoolRenderer implements Renderer {
 			BiFunction<Aggregates<A>, Aggregates<A>, Aggregates<A>> merge) {
 
 		
-		int taskCount = threadLoad * RENDER_POOL_SIZE;
+		int taskCount = parallelism();
 		long ticks = GlyphParallelAggregation.ticks(taskCount);
 		recorder.reset(ticks);
 		ExecutorCompletionService<Aggregates<A>> service = new ExecutorCompletionService<>(pool);
@@ -146,13 +156,15 @@ public class ThreadpoolRenderer implements Renderer {
 			throw new RuntimeException("Error completing aggregation", e);
 		} 
 		
+		PrefetchingMappedFile.Stalls stalls = PrefetchingMappedFile.Stalls.of(segments);
+		if (stalls.any()) {recorder.message(stalls.toString());}
 		return result;
 	}
 	
 	public <IN,OUT> Aggregates<OUT> transfer(Aggregates<? extends IN> aggregates, Transfer.ItemWise<IN,OUT> t) {
 		Aggregates<OUT> result = AggregateUtils.make(aggregates, t.emptyValue());		
 		
-		int taskCount = threadLoad * RENDER_POOL_SIZE;
+		int taskCount = parallelism();
 		recorder.reset(taskCount);
 
 		int span = (aggregates.highX() - aggregates.lowX())/taskCount;
@@ -181,6 +193,27 @@ public class ThreadpoolRenderer implements Renderer {
 	}	
 	
 	public ProgressRecorder recorder() {return recorder;}
+
+	@Override public int parallelism() {return threadLoad * threads;}
+
+	/**Number of threads a pool runs tasks on.  RENDER_POOL_SIZE if it cannot be determined (or the pool is unbounded).**/
+	private static int threads(ExecutorService pool) {
+		int threads = -1;
+		if (pool instanceof ForkJoinPool) {threads = ((ForkJoinPool) pool).getParallelism();}
+		else if (pool instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor tpe = (ThreadPoolExecutor) pool;
+			threads = tpe.getMaximumPoolSize() < Integer.MAX_VALUE ? tpe.getMaximumPoolSize() : tpe.getCorePoolSize();
+		}
+		return threads > 0 ? threads : RENDER_POOL_SIZE;
+	}
+
+	@Override
+	public <A> List<A> invokeAll(List<? extends Callable<A>> tasks) {
+		List<A> results = new ArrayList<>();
+		try {for (Future<A> f: pool.invokeAll(tasks)) {results.add(f.get());}}
+		catch (InterruptedException | ExecutionException e) {throw new RuntimeException("Error completing tasks", e);}
+		return results;
+	}
 	
 	
 	/**Merge operation using the aggregator/rollup.  Assumes the first argument to the merge can be safely mutated.**/
@@ -191,16 +224,49 @@ public class ThreadpoolRenderer implements Renderer {
 	
 	/**Allocate for full-bounds in the current view.**/
 	public static <A> Function<A, Aggregates<A>> defaultAllocator(Glyphset<?,?> glyphs, AffineTransform viewTransform) {
-		Rectangle bounds = viewTransform.createTransformedShape(glyphs.bounds()).getBounds();
-		return (defVal) ->
-			new TouchedBoundsWrapper<>(
-					AggregateUtils.make(
+		return defaultAllocator(viewTransform.createTransformedShape(glyphs.bounds()).getBounds());
+	}
+	
+	/**Allocate for the given bounds (in aggregate space).**/
+	public static <A> Function<A, Aggregates<A>> defaultAllocator(Rectangle bounds) {
+		return (defVal) -> {
+			Aggregates<A> aggs = AggregateUtils.target(
 							bounds.x, bounds.y,
 							bounds.x+bounds.width, bounds.y+bounds.height,
-							defVal),
-					false);		
+							defVal);
+			return new TouchedBoundsWrapper<>(aggs, false);
+		};
 	}	
 	
+	/**Should the default aggregation use private accumulators (see Aggregator.Accumulating)?
+	 * Not for counts that CategoricalPlanes can hold, since counting into planes does not need per-bin objects.**/
+	public static boolean accumulates(Aggregator<?,?> op) {
+		return op instanceof Aggregator.Accumulating && !CategoricalPlanes.holds(op.identity());
+	}
+	
+	/**Aggregate into private accumulators (one set per task, merged in place) and freeze the result.**/
+	public static <I,G,A,M> Aggregates<A> accumulate(
+			Renderer renderer,
+			Glyphset<? extends G, ? extends I> glyphs, 
+			Selector<G> selector,
+			Aggregator.Accumulating<I,A,M> op,
+			AffineTransform viewTransform) {
+		Rectangle bounds = viewTransform.createTransformedShape(glyphs.bounds()).getBounds();
+		Function<A, Aggregates<A>> allocator = (defVal) -> 
+			new AccumulatingAggregates<>(bounds.x, bounds.y, bounds.x+bounds.width, bounds.y+bounds.height, op);
+		Aggregates<A> accumulators = renderer.aggregate(glyphs, selector, op, viewTransform, allocator, ThreadpoolRenderer::absorb);
+		return AccumulatingAggregates.freeze(accumulators);
+	}
+	
+	/**Merge for private accumulators: the second set is absorbed into the first.**/
+	@SuppressWarnings("unchecked")
+	static <A> Aggregates<A> absorb(Aggregates<A> result, Aggregates<A> from) {
+		if (from == null || from.empty()) {return result;}
+		if (result == null || result.empty()) {return from;}
+		((AccumulatingAggregates<A,Object>) result).absorb((AccumulatingAggregates<A,Object>) from);
+		return result;
+	}
+	
 	
 	
 	
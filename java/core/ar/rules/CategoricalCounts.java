@@ -13,7 +13,9 @@ import ar.util.Util;
 public class CategoricalCounts<T> implements Serializable {
 	private final Comparator<T> comp;
 	private final int[] counts;
-	private final T[] labels;
+	private final T[] labels;		//Null when dictionary-backed
+	private final int[] ids;		//Category ids (ascending) when dictionary-backed, otherwise null
+	private final CategoryDictionary<T> dictionary;
 	private final int fullSize;
 	
 	/**Create a new CoC with "natural" ordering.**/
@@ -33,19 +35,60 @@ public class CategoricalCounts<T> implements Serializable {
 	@SuppressWarnings({ "unchecked", "rawtypes"})
 	public CategoricalCounts(T label, int count) {this(new Util.ComparableComparator(), label, count);}
 
+	/**Create an empty set of counts kept by category id.
+	 * 
+	 * Categories are ordered by id and labels are only looked up in the dictionary
+	 * when requested (e.g., by key(i)), so counting by id (see extendId) never compares labels.
+	 */
+	public CategoricalCounts(CategoryDictionary<T> dictionary) {this(dictionary, new int[0], new int[0], 0);}
+
+	/**Counts kept by category id.
+	 * @param ids Category ids, ascending (not copied)
+	 * @param counts Count for each id (not copied)
+	 */
+	public static <T> CategoricalCounts<T> ofIds(CategoryDictionary<T> dictionary, int[] ids, int[] counts) {
+		int full = 0;
+		for (int c: counts) {full += c;}
+		return new CategoricalCounts<>(dictionary, ids, counts, full);
+	}
+
+	/**Counts of a single category, kept by id.
+	 * Shares the dictionary's one-element id array (see CategoryDictionary.single) and, for small counts, a cached count array,
+	 * so a valuer producing one category per item (e.g., Valuer.CategoryCount) allocates only the counts object.
+	 */
+	public static <T> CategoricalCounts<T> ofId(CategoryDictionary<T> dictionary, int id, int count) {
+		int[] counts = count >= 0 && count < SMALL_COUNTS.length ? SMALL_COUNTS[count] : new int[]{count};
+		return new CategoricalCounts<>(dictionary, dictionary.single(id), counts, count);
+	}
+
+	/**Shared one-element count arrays (CategoricalCounts never modifies its arrays).**/
+	private static final int[][] SMALL_COUNTS = new int[1024][];
+	static {for (int i=0; i<SMALL_COUNTS.length; i++) {SMALL_COUNTS[i] = new int[]{i};}}
+
+	private CategoricalCounts(CategoryDictionary<T> dictionary, int[] ids, int[] counts, int fullSize) {
+		this.comp = dictionary.comparator();
+		this.dictionary = dictionary;
+		this.ids = ids;
+		this.counts = counts;
+		this.labels = null;
+		this.fullSize = fullSize;
+	}
 	
 	/**@param counts Map backing this set of counts
 	 * @param fullSize Total of the items in the counts (the relationship is not checked, but must hold for derivatives to work correctly)
 	 ***/
-	private CategoricalCounts(Comparator<T> comp, T[] labels, int[] counts, int fullSize) {
+	protected CategoricalCounts(Comparator<T> comp, T[] labels, int[] counts, int fullSize) {
 		//System.out.printf("count with %d cats and %d total\n", counts.size(), fullSize);
 		this.counts = counts;
 		this.labels = labels;
 		this.fullSize = fullSize;
 		this.comp = comp;
+		this.ids = null;
+		this.dictionary = null;
 	}
 	
 	public CategoricalCounts<T> extend(T key, int count) {
+		if (dictionary != null) {return extendId(dictionary.id(key), count);}
 		int idx = Arrays.binarySearch(labels, key, comp);
 		if (idx >=0) {
 			int[] newCounts = Arrays.copyOf(counts, counts.length);
@@ -59,14 +102,44 @@ public class CategoricalCounts<T> implements Serializable {
 		}
 	}
 	
+	/**Add to the count of a category by id (only for dictionary-backed counts).**/
+	public CategoricalCounts<T> extendId(int id, int count) {
+		if (dictionary == null) {throw new UnsupportedOperationException("Counts are not kept by category id.");}
+		int idx = Arrays.binarySearch(ids, id);
+		if (idx >= 0) {
+			int[] newCounts = Arrays.copyOf(counts, counts.length);
+			newCounts[idx] += count;
+			return new CategoricalCounts<>(dictionary, ids, newCounts, fullSize+count);
+		} else {
+			idx = -(idx +1);
+			return new CategoricalCounts<>(dictionary, Util.insertInto(ids, id, idx), Util.insertInto(counts, count, idx), fullSize+count);
+		}
+	}
+	
 	public int count(T key) {
+		if (dictionary != null) {
+			int id = dictionary.find(key);
+			return id < 0 ? 0 : countId(id);
+		}
 		int idx = Arrays.binarySearch(labels, key, comp);
 		if (idx >= 0) {return counts[idx];}
 		return 0;
 	}
 	
+	/**Count of the category with the given id (only for dictionary-backed counts).**/
+	public int countId(int id) {
+		int idx = Arrays.binarySearch(ids, id);
+		return idx >= 0 ? counts[idx] : 0;
+	}
+	
+	/**Category id of the i-th entry (only for dictionary-backed counts).**/
+	public int id(int i) {return ids[i];}
+	
+	/**Dictionary that resolves category ids, or null if counts are kept by label.**/
+	public CategoryDictionary<T> dictionary() {return dictionary;}
+	
 	/**How many categorie are there?**/
-	public int size() {return labels.length;}
+	public int size() {return counts.length;}
 	
 	/**What is the summ of all of the categories?**/
 	public int fullSize() {return fullSize;}
@@ -75,7 +148,7 @@ public class CategoricalCounts<T> implements Serializable {
 		
 		StringBuilder b = new StringBuilder();
 		for (int i=0; i<size(); i++) {
-			b.append(labels[i]);
+			b.append(key(i));
 			b.append(": ");
 			b.append(counts[i]);
 			b.append("; ");
@@ -85,9 +158,26 @@ public class CategoricalCounts<T> implements Serializable {
 		return b.toString();
 	}
 	
-	public T key(int i) {return labels[i];}
+	public T key(int i) {return dictionary != null ? dictionary.label(ids[i]) : labels[i];}
+	
+	/**Index (for key/count) of the n-th category, or -1 if there are not that many.
+	 * Label-based counts are already in comparator order, so this is n.  Dictionary-backed counts are kept
+	 * in id order, which can depend on thread timing; the n-th category is taken in the dictionary's
+	 * stable order instead (see CategoryDictionary.compareIds).
+	 */
+	public int nth(int n) {
+		if (n < 0 || n >= size()) {return -1;}
+		if (dictionary == null) {return n;}
+		int[] sorted = Arrays.copyOf(ids, ids.length);
+		dictionary.sortIds(sorted, 0, sorted.length);
+		return Arrays.binarySearch(ids, sorted[n]);
+	}
 	
 	public boolean hasKey(T key) {
+		if (dictionary != null) {
+			int id = dictionary.find(key);
+			return id >= 0 && Arrays.binarySearch(ids, id) >= 0;
+		}
 		for (Object k: labels) {if (Util.isEqual(k, key)) {return true;}}
 		return false;
 	}
@@ -108,29 +198,61 @@ public class CategoricalCounts<T> implements Serializable {
 	public int count(int i) {return counts[i];}
 
 	public Comparator<T> comparator() {return comp;}
+
+	/**Most categories kept (UNBOUNDED unless these are a bounded summary, see TopCounts).
+	 * Merging with bounded counts gives bounded counts (see rollupTwo and Accumulator).**/
+	public int capacity() {return UNBOUNDED;}
+
+	/**Capacity of counts that keep every category.**/
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
 	
 	/**Create an empty version of the current thing.
 	 * Does not remove any values,  but creates a new counter with the same construction parameters as the current one.
 	 */
-	public CategoricalCounts<T> empty() {return new CategoricalCounts<>(comp);} 
+	public CategoricalCounts<T> empty() {return dictionary != null ? new CategoricalCounts<>(dictionary) : new CategoricalCounts<>(comp);} 
 
 
 	/**Combine multiple CoC objects into a single CoC.
 	 * **/
 	public static <T> CategoricalCounts<T> rollupTwo(CategoricalCounts<T> s1, CategoricalCounts<T> s2) {
-		if (s1.labels == s2.labels || Arrays.deepEquals(s1.labels, s2.labels)) {
+		if (s1.capacity() != UNBOUNDED || s2.capacity() != UNBOUNDED) {
+			return TopCounts.merge(s1, s2);
+		} else if (s1.dictionary != null && s1.dictionary == s2.dictionary) {
+			return mergeIds(s1, s2);
+		} else if (s1.dictionary != s2.dictionary && (s1.size() == 0 || s2.size() == 0)) {
+			return s1.size() == 0 ? s2 : s1;	//Keeps the dictionary when one side is an empty label-based identity
+		} else if (s1.dictionary == null && s2.dictionary == null
+				&& (s1.labels == s2.labels || Arrays.deepEquals(s1.labels, s2.labels))) {
 			int[] newCounts = Arrays.copyOf(s1.counts, s1.counts.length);
 			for (int i=0; i< newCounts.length; i++) {newCounts[i] += s2.counts[i];}
 			return new CategoricalCounts<>(s1.comp, s1.labels, newCounts, s1.fullSize+s2.fullSize);
 		} else {
 			CategoricalCounts<T> combined = s1;
-			for (T key: s2.labels) {
-				combined = combined.extend(key, s2.count(key));
+			for (int i=0; i<s2.size(); i++) {
+				combined = combined.extend(s2.key(i), s2.count(i));
 			}
 			return combined;
 		}
 	}
 	
+	/**Merge two sets of counts over the same dictionary (a merge of their sorted ids).**/
+	private static <T> CategoricalCounts<T> mergeIds(CategoricalCounts<T> s1, CategoricalCounts<T> s2) {
+		if (s2.size() == 0) {return s1;}
+		if (s1.size() == 0) {return s2;}
+		int[] ids = new int[s1.ids.length + s2.ids.length];
+		int[] counts = new int[ids.length];
+		int i=0, j=0, k=0;
+		while (i < s1.ids.length || j < s2.ids.length) {
+			int a = i < s1.ids.length ? s1.ids[i] : Integer.MAX_VALUE;
+			int b = j < s2.ids.length ? s2.ids[j] : Integer.MAX_VALUE;
+			if (a == b) {ids[k] = a; counts[k] = s1.counts[i++] + s2.counts[j++];}
+			else if (a < b) {ids[k] = a; counts[k] = s1.counts[i++];}
+			else {ids[k] = b; counts[k] = s2.counts[j++];}
+			k++;
+		}
+		return new CategoricalCounts<>(s1.dictionary, Arrays.copyOf(ids, k), Arrays.copyOf(counts, k), s1.fullSize+s2.fullSize);
+	}
+	
 	public static <T> CategoricalCounts<T> make(final Iterable<T> labels, final Iterable<Integer> counts, Comparator<T> comp) {
 		CategoricalCounts<T> cc = new CategoricalCounts<T>(comp);
 		Iterator<T> labs = labels.iterator();
@@ -144,6 +266,151 @@ public class CategoricalCounts<T> implements Serializable {
 		return cc;
 	}
 	
+	/**Mutable copy of these counts (see Accumulator).**/
+	public Accumulator<T> accumulator() {return new Accumulator<>(this);}
+	
+	/**Mutable categorical counts, for adding to in place (see Aggregator.Accumulating).
+	 * 
+	 * Keeps the ordering of the counts it was made from (by comparator, or by id when dictionary-backed) 
+	 * and grows its arrays in place, so adding a count only allocates when the arrays are full.
+	 * An empty accumulator takes on the mode of the first counts merged into it (as rollupTwo does).
+	 * Once bounded counts are added (see capacity), everything is kept in a Space-Saving summary instead 
+	 * (see TopCounts.Summary), so accumulating gives the same counts as rolling up.
+	 * Not safe for concurrent use.
+	 */
+	public static final class Accumulator<T> {
+		private Comparator<T> comp;
+		private CategoryDictionary<T> dictionary;
+		private T[] labels;	//Null when dictionary-backed
+		private int[] ids;	//Null when label-based
+		private int[] counts;
+		private int size;
+		private int fullSize;
+		private TopCounts.Summary<T> top;	//Non-null once bounded
+		
+		/**Bounded accumulator, starting with the summary.**/
+		Accumulator(TopCounts.Summary<T> top) {
+			this(new CategoricalCounts<T>((Comparator<T>) null));
+			this.top = top;
+		}
+		
+		private Accumulator(CategoricalCounts<T> source) {
+			this.comp = source.comp;
+			this.dictionary = source.dictionary;
+			this.labels = source.labels == null ? null : Arrays.copyOf(source.labels, Math.max(4, source.size()));
+			this.ids = source.ids == null ? null : Arrays.copyOf(source.ids, Math.max(4, source.size()));
+			this.counts = Arrays.copyOf(source.counts, Math.max(4, source.size()));
+			this.size = source.size();
+			this.fullSize = source.fullSize;
+		}
+		
+		/**Add to the count of a category.**/
+		public void add(T key, int count) {
+			if (top != null) {top.add(key, count); return;}
+			if (dictionary != null) {addId(dictionary.id(key), count); return;}
+			int idx = Arrays.binarySearch(labels, 0, size, key, comp);
+			if (idx < 0) {
+				idx = -(idx+1);
+				grow();
+				System.arraycopy(labels, idx, labels, idx+1, size-idx);
+				System.arraycopy(counts, idx, counts, idx+1, size-idx);
+				labels[idx] = key;
+				counts[idx] = 0;
+				size++;
+			}
+			counts[idx] += count;
+			fullSize += count;
+		}
+		
+		/**Add to the count of a category by id (only for dictionary-backed counts).**/
+		public void addId(int id, int count) {
+			if (dictionary == null) {throw new UnsupportedOperationException("Counts are not kept by category id.");}
+			if (top != null) {top.add(dictionary.label(id), count); return;}
+			int idx = Arrays.binarySearch(ids, 0, size, id);
+			if (idx < 0) {
+				idx = -(idx+1);
+				grow();
+				System.arraycopy(ids, idx, ids, idx+1, size-idx);
+				System.arraycopy(counts, idx, counts, idx+1, size-idx);
+				ids[idx] = id;
+				counts[idx] = 0;
+				size++;
+			}
+			counts[idx] += count;
+			fullSize += count;
+		}
+		
+		/**Add all of the counts of another set.**/
+		public void addAll(CategoricalCounts<T> other) {
+			if (top != null || other.capacity() != UNBOUNDED) {bound(other.capacity()).addAll(other); return;}
+			if (size == 0 && other.size() > 0 && other.dictionary != dictionary) {adopt(other.comp, other.dictionary);}
+			boolean byId = dictionary != null && other.dictionary == dictionary;
+			for (int i=0; i<other.size(); i++) {
+				if (byId) {addId(other.ids[i], other.counts[i]);}
+				else {add(other.key(i), other.counts[i]);}
+			}
+		}
+		
+		/**Add all of the counts of another accumulator (which is not modified).**/
+		public void addAll(Accumulator<T> other) {
+			if (top != null || other.top != null) {addAll(other.freeze()); return;}
+			if (size == 0 && other.size > 0 && other.dictionary != dictionary) {adopt(other.comp, other.dictionary);}
+			boolean byId = dictionary != null && other.dictionary == dictionary;
+			for (int i=0; i<other.size; i++) {
+				if (byId) {addId(other.ids[i], other.counts[i]);}
+				else {add(other.dictionary != null ? other.dictionary.label(other.ids[i]) : other.labels[i], other.counts[i]);}
+			}
+		}
+		
+		/**Number of categories.**/
+		public int size() {return top != null ? top.size() : size;}
+		
+		/**Total of all of the counts.**/
+		public int fullSize() {return top != null ? top.fullSize() : fullSize;}
+		
+		/**Immutable counts with the current contents.**/
+		public CategoricalCounts<T> freeze() {
+			if (top != null) {return top.freeze();}
+			if (dictionary != null) {return new CategoricalCounts<>(dictionary, Arrays.copyOf(ids, size), Arrays.copyOf(counts, size), fullSize);}
+			return new CategoricalCounts<>(comp, Arrays.copyOf(labels, size), Arrays.copyOf(counts, size), fullSize);
+		}
+		
+		/**Summary to add to, created (with the counts so far) or widened to at least the capacity as needed; as TopCounts.merge keeps the larger capacity.**/
+		private TopCounts.Summary<T> bound(int capacity) {
+			if (top == null) {
+				CategoricalCounts<T> exact = freeze();
+				top = new TopCounts.Summary<>(capacity);
+				top.addAll(exact);
+				labels = null;
+				ids = null;
+				counts = new int[0];
+				size = 0;
+			} else if (capacity != UNBOUNDED && capacity > top.capacity()) {
+				TopCounts<T> kept = top.freeze();
+				top = new TopCounts.Summary<>(capacity);
+				top.addAll(kept);
+			}
+			return top;
+		}
+		
+		/**Switch an empty accumulator to the ordering of other counts.**/
+		@SuppressWarnings("unchecked")
+		private void adopt(Comparator<T> comp, CategoryDictionary<T> dictionary) {
+			this.comp = comp;
+			this.dictionary = dictionary;
+			this.labels = dictionary == null ? (T[]) new Object[counts.length] : null;
+			this.ids = dictionary == null ? null : new int[counts.length];
+		}
+		
+		private void grow() {
+			if (size < counts.length) {return;}
+			int capacity = counts.length*2;
+			counts = Arrays.copyOf(counts, capacity);
+			if (labels != null) {labels = Arrays.copyOf(labels, capacity);}
+			if (ids != null) {ids = Arrays.copyOf(ids, capacity);}
+		}
+	}
+	
 	/**Sort categorical counts based on their full size.**/
 	public static final class MangitudeComparator<K> implements Comparator<CategoricalCounts<K>> {
 		@Override
@@ -12,6 +12,7 @@ import java.util.TreeSet;
 import ar.Aggregates;
 import ar.Aggregator;
 import ar.Transfer;
+import ar.aggregates.implementations.CategoricalPlanes;
 import ar.util.Util;
 
 /**Tools for working with categorical entries.**/
@@ -42,6 +43,7 @@ public class Categories {
 
 		@Override
 		public Integer at(int x, int y,Aggregates<? extends CategoricalCounts<IN>> aggregates) {
+			if (aggregates instanceof CategoricalPlanes) {return ((CategoricalPlanes<?>) aggregates).total(x, y);}
 			return aggregates.get(x,y).fullSize();
 		}
 	}
@@ -239,7 +241,7 @@ public class Categories {
 	
 	
 	/**Given a CategoricalCounts as value on a glyph, create CategoricalCounts aggregates.**/
-	public static final class MergeCategories<T> implements Aggregator<CategoricalCounts<T>, CategoricalCounts<T>> {
+	public static final class MergeCategories<T> implements Aggregator.Accumulating<CategoricalCounts<T>, CategoricalCounts<T>, CategoricalCounts.Accumulator<T>> {
 		private static final long serialVersionUID = 1L;
 
 		public CategoricalCounts<T> combine(CategoricalCounts<T> current, CategoricalCounts<T> update) {
@@ -252,6 +254,11 @@ public class Categories {
 
 		public CategoricalCounts<T> identity() {return new CategoricalCounts<T>();}
 		
+		@Override public CategoricalCounts.Accumulator<T> create() {return identity().accumulator();}
+		@Override public void accumulate(CategoricalCounts.Accumulator<T> acc, CategoricalCounts<T> update) {acc.addAll(update);}
+		@Override public void merge(CategoricalCounts.Accumulator<T> target, CategoricalCounts.Accumulator<T> source) {target.addAll(source);}
+		@Override public CategoricalCounts<T> freeze(CategoricalCounts.Accumulator<T> acc) {return acc.freeze();}
+		
 		public boolean equals(Object other) {return other instanceof MergeCategories;}
 		
 		public int hashCode() {return MergeCategories.class.hashCode() + 901812091;}
@@ -262,8 +269,9 @@ public class Categories {
 	 * 
 	 * @param <T> The type of the categories
 	 */
-	public static final class CountCategories<T> implements Aggregator<T, CategoricalCounts<T>> {
+	public static final class CountCategories<T> implements Aggregator.Accumulating<T, CategoricalCounts<T>, CategoricalCounts.Accumulator<T>> {
 		private final Comparator<T> comp;
+		private final CategoryDictionary<T> dictionary;
 		
 		/**Create categories based on the passed comparator.
 		 *   
@@ -272,10 +280,24 @@ public class Categories {
 		 * 
 		 * @param comp
 		 */
-		public CountCategories(Comparator<T> comp) {this.comp = comp;}
+		public CountCategories(Comparator<T> comp) {
+			this.comp = comp;
+			this.dictionary = null;
+		}
+		
+		/**Create categories that are counted by id (labels are hashed to an id once per item, never compared).
+		 * Categories are ordered by id.
+		 */
+		public CountCategories(CategoryDictionary<T> dictionary) {
+			this.comp = dictionary.comparator();
+			this.dictionary = dictionary;
+		}
 		
 		/**Create categories based on the default definition of equality.**/
-		public CountCategories() {this(null);}
+		public CountCategories() {this((Comparator<T>) null);}
+		
+		/**Dictionary the categories are counted by, or null if they are counted by label.**/
+		public CategoryDictionary<T> dictionary() {return dictionary;}
 
 		@Override 
 		public CategoricalCounts<T> combine(CategoricalCounts<T> left, T update) {
@@ -291,8 +313,8 @@ public class Categories {
 		public boolean equals(Object other) {
 			if (!(other instanceof CountCategories)) {return false;}
 			CountCategories alter = (CountCategories) other;
-			return comp == alter.comp ||
-					(comp != null && comp.equals(alter.comp));
+			return alter.dictionary == dictionary 
+					&& (comp == alter.comp || (comp != null && comp.equals(alter.comp)));
 		}
 		
 		public int hashCode() {
@@ -300,7 +322,68 @@ public class Categories {
 			return base + 891734501; //Plus noise....
 		}
 
-		@Override public CategoricalCounts<T> identity() {return new CategoricalCounts<>(comp);}
+		@Override public CategoricalCounts<T> identity() {return dictionary != null ? new CategoricalCounts<>(dictionary) : new CategoricalCounts<>(comp);}
+		
+		@Override public CategoricalCounts.Accumulator<T> create() {return identity().accumulator();}
+		@Override public void accumulate(CategoricalCounts.Accumulator<T> acc, T update) {acc.add(update, 1);}
+		@Override public void merge(CategoricalCounts.Accumulator<T> target, CategoricalCounts.Accumulator<T> source) {target.addAll(source);}
+		@Override public CategoricalCounts<T> freeze(CategoricalCounts.Accumulator<T> acc) {return acc.freeze();}
+	}
+	
+	/**Create categorical counts for each aggregate from category ids (see CategoryDictionary and Valuer.CategoryId).
+	 * 
+	 * Counting only works with ids; labels are looked up in the dictionary when a transfer or legend asks for them.
+	 * @param <T> The type of the category labels
+	 */
+	public static final class CountIds<T> implements Aggregator.Accumulating<Integer, CategoricalCounts<T>, CategoricalCounts.Accumulator<T>> {
+		private static final long serialVersionUID = 4413278958140815722L;
+		private final CategoryDictionary<T> dictionary;
+		
+		public CountIds(CategoryDictionary<T> dictionary) {this.dictionary = dictionary;}
+		
+		/**Dictionary the ids refer to.**/
+		public CategoryDictionary<T> dictionary() {return dictionary;}
+		
+		@Override public CategoricalCounts<T> combine(CategoricalCounts<T> left, Integer id) {return left.extendId(id, 1);}
+		@Override public CategoricalCounts<T> rollup(CategoricalCounts<T> left, CategoricalCounts<T> right) {return CategoricalCounts.rollupTwo(left, right);}
+		@Override public CategoricalCounts<T> identity() {return new CategoricalCounts<>(dictionary);}
+		
+		@Override public CategoricalCounts.Accumulator<T> create() {return identity().accumulator();}
+		@Override public void accumulate(CategoricalCounts.Accumulator<T> acc, Integer id) {acc.addId(id, 1);}
+		@Override public void merge(CategoricalCounts.Accumulator<T> target, CategoricalCounts.Accumulator<T> source) {target.addAll(source);}
+		@Override public CategoricalCounts<T> freeze(CategoricalCounts.Accumulator<T> acc) {return acc.freeze();}
+		
+		public boolean equals(Object other) {return other instanceof CountIds && ((CountIds<?>) other).dictionary == dictionary;}
+		public int hashCode() {return System.identityHashCode(dictionary) + 891734502;}
+	}
+
+	/**Count only the k most frequent categories of each aggregate (see TopCounts).
+	 *
+	 * Memory per aggregate is bounded by k, regardless of how many categories the data holds.
+	 * Entries are ordered by (estimated) count, so NthKey(0,...) is the most frequent category.
+	 * @param <T> The type of the categories
+	 */
+	public static final class TopK<T> implements Aggregator.Accumulating<T, TopCounts<T>, TopCounts.Summary<T>> {
+		private static final long serialVersionUID = -2618047335183040715L;
+		private final int k;
+
+		/**@param k Most categories kept per aggregate**/
+		public TopK(int k) {
+			if (k < 1) {throw new IllegalArgumentException("Must keep at least one category; requested " + k);}
+			this.k = k;
+		}
+
+		@Override public TopCounts<T> combine(TopCounts<T> left, T update) {return left.extend(update, 1);}
+		@Override public TopCounts<T> rollup(TopCounts<T> left, TopCounts<T> right) {return TopCounts.merge(left, right);}
+		@Override public TopCounts<T> identity() {return new TopCounts<>(k);}
+
+		@Override public TopCounts.Summary<T> create() {return new TopCounts.Summary<>(k);}
+		@Override public void accumulate(TopCounts.Summary<T> acc, T update) {acc.add(update, 1);}
+		@Override public void merge(TopCounts.Summary<T> target, TopCounts.Summary<T> source) {target.addAll(source);}
+		@Override public TopCounts<T> freeze(TopCounts.Summary<T> acc) {return acc.freeze();}
+
+		public boolean equals(Object other) {return other instanceof TopK && ((TopK<?>) other).k == k;}
+		public int hashCode() {return k + 891734503;}
 	}
 	
 	/**Pull the nth-item from a set of categories.**/
@@ -320,9 +403,15 @@ public class Categories {
 		
 		@Override
 		public Integer at(int x, int y, Aggregates<? extends CategoricalCounts<T>> aggregates) {
+			if (aggregates instanceof CategoricalPlanes) {
+				CategoricalPlanes<?> planes = (CategoricalPlanes<?>) aggregates;
+				int id = planes.nthId(x, y, n);
+				return id < 0 ? background : planes.count(x, y, id);
+			}
+			
 			CategoricalCounts<T> cats = aggregates.get(x,y);
 			if (cats.size() <= n) {return background;}
-			else {return cats.count(n);}
+			else {return cats.count(cats.nth(n));}
 		}
 		
 		@Override public Integer emptyValue() {return background;}		
@@ -349,7 +438,8 @@ public class Categories {
 			CategoricalCounts<T> cats = aggregates.get(x,y);
 			if (cats.size() <= n) {return emptyValue();}
 			else {
-				return cats.empty().extend(cats.key(n), cats.count(n));
+				int at = cats.nth(n);
+				return cats.empty().extend(cats.key(at), cats.count(at));
 			}
 		}
 		
@@ -375,7 +465,7 @@ public class Categories {
 		public T at(int x, int y, Aggregates<? extends CategoricalCounts<T>> aggregates) {
 			CategoricalCounts<T> cats = aggregates.get(x,y);
 			if (cats.size() <= n) {return background;}
-			else {return cats.key(n);}
+			else {return cats.key(cats.nth(n));}
 		}
 		
 		@Override public T emptyValue() {return background;}
@@ -414,14 +504,26 @@ public class Categories {
 		}
 		
 		@Override
+		@SuppressWarnings("unchecked")
 		public Color at(int x, int y, Aggregates<? extends CategoricalCounts<T>> aggregates) {
+			if (aggregates instanceof CategoricalPlanes) {return at(x, y, (CategoricalPlanes<T>) aggregates);}
+			
 			CategoricalCounts<T> cats = aggregates.get(x,y);
 			double size = cats.fullSize();
 			
 			
 			if (size == 0) {return background;}
 			else if (!cats.hasKey(keyCategory)) {return noMatch;} 
-			else if (cats.count(0)/size >= ratio) {return match;}
+			else if (cats.count(cats.nth(0))/size >= ratio) {return match;}
+			else {return noMatch;}
+		}
+		
+		/**Same tests as above, made on the planes' totals and counts.**/
+		private Color at(int x, int y, CategoricalPlanes<T> planes) {
+			double size = planes.total(x, y);
+			if (size == 0) {return background;}
+			else if (planes.count(x, y, planes.dictionary().find(keyCategory)) == 0) {return noMatch;}
+			else if (planes.count(x, y, planes.nthId(x, y, 0))/size >= ratio) {return match;}
 			else {return noMatch;}
 		}
 		
@@ -462,7 +564,8 @@ public class Categories {
 		@Override
 		public HighDefAlpha.Specialized specialize(Aggregates<? extends CategoricalCounts<Color>> aggregates) {
 			int max=Integer.MIN_VALUE;
-			for (CategoricalCounts<Color> cats:aggregates) {max = Math.max(max,cats.fullSize());}
+			if (aggregates instanceof CategoricalPlanes) {max = ((CategoricalPlanes<?>) (Aggregates<?>) aggregates).maxTotal();}
+			else {for (CategoricalCounts<Color> cats:aggregates) {max = Math.max(max,cats.fullSize());}}
 			return new Specialized(max, background, omin, log);
 		}
 
@@ -476,17 +579,20 @@ public class Categories {
 			}
 
 			@Override
+			@SuppressWarnings("unchecked")
 			public Color at(int x, int y, Aggregates<? extends CategoricalCounts<Color>> aggregates) {
-				CategoricalCounts<Color> cats = aggregates.get(x, y);
+				CategoricalPlanes<Color> planes = aggregates instanceof CategoricalPlanes ? (CategoricalPlanes<Color>) (Aggregates<?>) aggregates : null;
+				CategoricalCounts<Color> cats = planes == null ? aggregates.get(x, y) : null;
+				int fullSize = planes == null ? cats.fullSize() : planes.total(x, y);
 				Color c;
-				if (cats.fullSize() == 0) {c = background;}
+				if (fullSize == 0) {c = background;}
 				else {
-					c = fullInterpolate(cats);
+					c = planes == null ? fullInterpolate(cats) : fullInterpolate(planes, x, y);
 					double alpha;
 					if (log) {
-						alpha = omin + ((1-omin) * (Math.log(cats.fullSize())/Math.log(max)));
+						alpha = omin + ((1-omin) * (Math.log(fullSize)/Math.log(max)));
 					} else {
-						alpha = omin + ((1-omin) * (cats.fullSize()/max));
+						alpha = omin + ((1-omin) * (fullSize/max));
 					}
 					alpha = (int) Math.min(255, (alpha*255));
 					c = new Color(c.getRed(), c.getGreen(), c.getBlue(), (int) alpha);
@@ -513,6 +619,25 @@ public class Categories {
 				}
 				return new Color((int) (r*255), (int) (g * 255), (int) (b*255));
 			}
+			
+			/**Same blend as above, read from the planes of a bin.**/
+			private static Color fullInterpolate(CategoricalPlanes<Color> planes, int x, int y) {
+				double total = planes.total(x, y);
+				double r = 0;
+				double g = 0;
+				double b = 0;
+				
+				for (int id=0; id<planes.categories(); id++) {
+					int count = planes.count(x, y, id);
+					if (count == 0) {continue;}
+					Color c = planes.dictionary().label(id);
+					double p = count/total;
+					r += (c.getRed()/255.0) * p;
+					g += (c.getGreen()/255.0) * p;
+					b += (c.getBlue()/255.0) * p;
+				}
+				return new Color((int) (r*255), (int) (g * 255), (int) (b*255));
+			}
 		}
 	}
 	
@@ -0,0 +1,155 @@
+package ar.rules;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**Two-way mapping between category labels and dense integer ids (0, 1, 2...).
+ *
+ * Ids are handed out in the order labels are first seen (or the order given at construction),
+ * so categorical aggregates can count by id and only resolve labels when they are
+ * displayed (see CategoricalCounts(CategoryDictionary) and Categories.CountIds).
+ *
+ * When labels are first seen during a parallel load or render, the ids depend on thread timing.
+ * Consumers that pick categories by position (e.g., Categories.NthEntry) therefore use the
+ * dictionary's stable order instead (see compareIds): labels given at construction come first, in the given order,
+ * and the rest follow in label order (natural ordering unless a comparator is given).
+ *
+ * Safe for concurrent use: any number of threads may look up and add labels.
+ * @param <T> The type of the category labels
+ */
+public class CategoryDictionary<T> implements Serializable {
+	private static final long serialVersionUID = -3390950640286860811L;
+	private static final Object NULL_LABEL = NullLabel.INSTANCE;	//Stand-in for null (which the map cannot hold)
+
+	private final ConcurrentHashMap<Object, Integer> ids = new ConcurrentHashMap<>();
+	private final Comparator<? super T> order;
+	private final int seeded;
+	private volatile Object[] labels = new Object[16];
+	private volatile int[][] singles = new int[16][];
+	private volatile int size = 0;
+
+	/**Dictionary whose labels are ordered by their natural ordering.**/
+	public CategoryDictionary() {this(new ArrayList<T>());}
+
+	/**Dictionary with the given labels pre-assigned (in order), e.g. to fix legend order.
+	 * Labels added later follow them in natural order.**/
+	public CategoryDictionary(Iterable<T> labels) {this(labels, new NaturalOrder<T>());}
+
+	/**Dictionary whose labels are ordered by the comparator.**/
+	public CategoryDictionary(Comparator<? super T> order) {this(new ArrayList<T>(), order);}
+
+	/**Dictionary with the given labels pre-assigned (in order); labels added later follow them, ordered by the comparator.**/
+	public CategoryDictionary(Iterable<T> labels, Comparator<? super T> order) {
+		this.order = order;
+		for (T label: labels) {id(label);}
+		this.seeded = size;
+	}
+
+	/**Id of the label; a new id is assigned if the label has not been seen before.**/
+	public int id(T label) {
+		Object key = label == null ? NULL_LABEL : label;
+		Integer id = ids.get(key);
+		if (id != null) {return id;}
+		synchronized (this) {
+			id = ids.get(key);
+			if (id != null) {return id;}
+			int next = size;
+			if (next == labels.length) {
+				labels = Arrays.copyOf(labels, next*2);
+				singles = Arrays.copyOf(singles, next*2);
+			}
+			labels[next] = label;
+			singles[next] = new int[]{next};
+			size = next+1;
+			ids.put(key, next);	//Publishes the label to readers that find the id
+			return next;
+		}
+	}
+
+	/**Id of the label, or -1 if it has not been seen.**/
+	public int find(T label) {
+		Integer id = ids.get(label == null ? NULL_LABEL : label);
+		return id == null ? -1 : id;
+	}
+
+	/**Label with the given id.**/
+	@SuppressWarnings("unchecked")
+	public T label(int id) {
+		if (id < 0 || id >= size) {throw new IllegalArgumentException("No category with id " + id + "; dictionary holds " + size);}
+		return (T) labels[id];
+	}
+
+	/**Number of categories.**/
+	public int size() {return size;}
+
+	/**Shared one-element array holding the id (must not be modified); saves an allocation per single-category count.**/
+	public int[] single(int id) {
+		if (id < 0 || id >= size) {throw new IllegalArgumentException("No category with id " + id + "; dictionary holds " + size);}
+		return singles[id];
+	}
+
+	/**Compare two ids by the dictionary's stable order (see class comment), which does not depend on the order ids were handed out.**/
+	public int compareIds(int a, int b) {
+		if (a == b) {return 0;}
+		if (a < seeded || b < seeded) {return Integer.compare(a, b);}	//Pre-assigned ids come first, in order
+		int c = order.compare(label(a), label(b));
+		return c != 0 ? c : Integer.compare(a, b);
+	}
+
+	/**Sort the ids (in place) by the dictionary's stable order.**/
+	public void sortIds(int[] ids, int from, int to) {
+		for (int i=from+1; i<to; i++) {	//Insertion sort: id lists are short
+			int id = ids[i];
+			int j = i-1;
+			for (; j>=from && compareIds(ids[j], id) > 0; j--) {ids[j+1] = ids[j];}
+			ids[j+1] = id;
+		}
+	}
+
+	/**All labels, in id order.**/
+	public List<T> labels() {
+		List<T> all = new ArrayList<>();
+		for (int i=0; i<size; i++) {all.add(label(i));}
+		return all;
+	}
+
+	/**Orders labels by id (labels not in the dictionary come last).**/
+	public Comparator<T> comparator() {return new IdComparator<>(this);}
+
+	@Override public String toString() {return "CategoryDictionary" + labels();}
+
+	/**Enum so the stand-in stays a singleton when a dictionary is deserialized.**/
+	private static enum NullLabel {INSTANCE}
+
+	/**Natural ordering for labels that are mutually comparable; otherwise by class name and then string form.  Nulls first.**/
+	private static final class NaturalOrder<T> implements Comparator<T>, Serializable {
+		private static final long serialVersionUID = -4406437018815069547L;
+
+		@Override
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		public int compare(T a, T b) {
+			if (a == null || b == null) {return a == null ? (b == null ? 0 : -1) : 1;}
+			if (a instanceof Comparable && a.getClass() == b.getClass()) {return ((Comparable) a).compareTo(b);}
+			int c = a.getClass().getName().compareTo(b.getClass().getName());
+			return c != 0 ? c : a.toString().compareTo(b.toString());
+		}
+	}
+
+	private static final class IdComparator<T> implements Comparator<T>, Serializable {
+		private static final long serialVersionUID = 3961264094398813276L;
+		private final CategoryDictionary<T> dictionary;
+		public IdComparator(CategoryDictionary<T> dictionary) {this.dictionary = dictionary;}
+
+		@Override
+		public int compare(T a, T b) {
+			return Integer.compareUnsigned(dictionary.find(a), dictionary.find(b));	//Unsigned: -1 (missing) sorts last
+		}
+
+		@Override public boolean equals(Object other) {return other instanceof IdComparator && ((IdComparator<?>) other).dictionary == dictionary;}
+		@Override public int hashCode() {return System.identityHashCode(dictionary);}
+	}
+}
@@ -5,8 +5,11 @@ import java.awt.geom.Ellipse2D;
 import java.awt.geom.Point2D;
 import java.io.BufferedReader;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -238,22 +241,86 @@ public class General {
 		
 		@Override public V emptyValue() {return identity;}
 		
+		/**Narrowest tile (in source columns) that process will split off for a task.**/
+		public static final int MIN_TILE_WIDTH = 32;
+		
+		/**Spreads the source in column tiles, one task per tile on the renderer (see Renderer.invokeAll).
+		 * 
+		 * Each tile is spread into a private target padded by the spreader's reach (the halo),
+		 * so tasks never write to shared aggregates.
+		 * Columns covered by one tile are then copied into the result; only the halo overlaps are combined.
+		 * Tiles are combined in column order, so the result matches spreading serially
+		 * for any associative combiner (it need not be commutative).
+		 */
 		@Override 
-		//TODO: Parallelize...
 		public Aggregates<V> process(Aggregates<? extends V> aggregates, Renderer rend) {
 			Aggregates<V> target = spreader.extend(aggregates, emptyValue());
+			int left = aggregates.lowX()-target.lowX();
+			int right = target.highX()-aggregates.highX();
+			int width = aggregates.highX()-aggregates.lowX();
+			int tileCount = Math.min(rend.parallelism(), width/Math.max(MIN_TILE_WIDTH, left+right));
+			
+			if (tileCount <= 1) {
+				spreadTile(aggregates, target, aggregates.lowX(), aggregates.highX());
+				return target;
+			}
 			
-			for (int x=aggregates.lowX(); x<aggregates.highX(); x++) {
+			List<Callable<Aggregates<V>>> spreads = new ArrayList<>();
+			for (int i=0; i<tileCount; i++) {
+				int from = aggregates.lowX() + (int) (((long) width*i)/tileCount);
+				int to = aggregates.lowX() + (int) (((long) width*(i+1))/tileCount);
+				spreads.add(() -> {
+					Aggregates<V> tile = AggregateUtils.make(from-left, target.lowY(), to+right, target.highY(), emptyValue());
+					spreadTile(aggregates, tile, from, to);
+					return tile;
+				});
+			}
+			List<Aggregates<V>> tiles = rend.invokeAll(spreads);
+
+			List<Callable<Void>> merges = new ArrayList<>();
+			for (int i=0; i<tileCount; i++) {
+				int from = i == 0 ? target.lowX() : tiles.get(i).lowX();
+				int to = i == tileCount-1 ? target.highX() : tiles.get(i+1).lowX();
+				merges.add(() -> {mergeTiles(tiles, target, from, to); return null;});
+			}
+			rend.invokeAll(merges);
+			return target;
+		}
+		
+		/**Spread the source columns from (inclusive) to (exclusive) into the target.**/
+		private void spreadTile(Aggregates<? extends V> aggregates, Aggregates<V> target, int from, int to) {
+			for (int x=from; x<to; x++) {
 				for (int y=aggregates.lowY(); y<aggregates.highY(); y++) {
 					V baseVal = aggregates.get(x,y);
 					if (Util.isEqual(identity, baseVal)) {continue;}
 					spreader.spread(target , x,y, baseVal, combiner);
 				}
 			}
-			return target;
 		}
-			
 		
+		/**Fill target columns from (inclusive) to (exclusive) from the tiles covering them.
+		 * Later tiles go on the left of the combiner, as later values do when spreading.**/
+		private void mergeTiles(List<Aggregates<V>> tiles, Aggregates<V> target, int from, int to) {
+			for (int x=from; x<to; x++) {
+				int first = tiles.size(), last = -1;
+				for (int i=0; i<tiles.size(); i++) {
+					if (tiles.get(i).lowX() <= x && x < tiles.get(i).highX()) {
+						first = Math.min(first, i);
+						last = i;
+					}
+				}
+				
+				for (int y=target.lowY(); y<target.highY(); y++) {
+					V val = identity;
+					for (int i=first; i<=last; i++) {
+						V tileVal = tiles.get(i).get(x, y);
+						if (Util.isEqual(identity, tileVal)) {continue;}
+						val = first == last ? tileVal : combiner.apply(tileVal, val);
+					}
+					if (!Util.isEqual(identity, val)) {target.set(x, y, val);}
+				}
+			}
+		}
 		
 		/**Spreader takes a type argument in case the spreading depends on the value.
 		 * This capability can be used to implement (for example) a map with circles centered-on and proportional to a value. 
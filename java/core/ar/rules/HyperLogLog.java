@@ -0,0 +1,313 @@
+package ar.rules;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**Mergeable estimate of how many distinct items were seen (the HyperLogLog sketch of Flajolet et al.).
+ *
+ * A sketch of precision p has 2^p registers and a standard error of about 1.04/sqrt(2^p)
+ * (e.g., 1.6% at the default precision of 12, for 4KB per sketch).
+ * Sketches that have seen few items are sparse: they only store the registers that have been set
+ * (as sorted index/rank pairs) and become dense once that would take more room than the full registers.
+ * Sketches of the same precision merge by taking the larger value of each register,
+ * so they can be rolled up in any order and the result is the same as sketching all of the items together.
+ *
+ * Items are identified by a 64-bit hash (see hash): numbers, strings and byte arrays are hashed from
+ * their contents with MurmurHash3; other items by their hashCode, so distinct items with the same hashCode
+ * are counted once.  Use Accumulator.addHash to supply better hashes for other types.
+ */
+public class HyperLogLog implements Serializable {
+	private static final long serialVersionUID = -2049271653408163451L;
+
+	/**Smallest and largest supported precision.**/
+	public static final int MIN_PRECISION = 4, MAX_PRECISION = 16;
+
+	/**Precision used when none is given.**/
+	public static final int DEFAULT_PRECISION = 12;
+
+	private final int precision;
+	private final int[] sparse;		//Sorted (index << 8 | rank) entries; null when dense
+	private final byte[] registers;	//Null when sparse
+
+	/**Empty sketch.**/
+	public HyperLogLog(int precision) {this(precision, new int[0], null);}
+
+	private HyperLogLog(int precision, int[] sparse, byte[] registers) {
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+			throw new IllegalArgumentException(String.format("Precision must be between %d and %d; requested %d", MIN_PRECISION, MAX_PRECISION, precision));
+		}
+		this.precision = precision;
+		this.sparse = sparse;
+		this.registers = registers;
+	}
+
+	/**Rebuild a sketch from its parts (see sparseEntries and registers).
+	 * @param sparse Sorted (index << 8 | rank) entries, or null if the registers are given
+	 * @param registers All registers, or null if the sparse entries are given
+	 */
+	public static HyperLogLog of(int precision, int[] sparse, byte[] registers) {
+		if ((sparse == null) == (registers == null)) {throw new IllegalArgumentException("Exactly one of sparse entries or registers must be supplied.");}
+		if (registers != null && registers.length != 1 << precision) {
+			throw new IllegalArgumentException(String.format("Precision %d requires %d registers; found %d.", precision, 1 << precision, registers.length));
+		}
+		return new HyperLogLog(precision, sparse == null ? null : sparse.clone(), registers == null ? null : registers.clone());
+	}
+
+	/**Sketch with the item added.**/
+	public HyperLogLog offer(Object item) {
+		Accumulator acc = accumulator();
+		acc.add(item);
+		return acc.freeze();
+	}
+
+	/**Estimated number of distinct items.**/
+	public double estimate() {
+		if (sparse != null) {
+			double sum = (1 << precision) - sparse.length;
+			for (int entry: sparse) {sum += Math.scalb(1d, -(entry & 0xFF));}
+			return estimate(precision, sum, (1 << precision) - sparse.length);
+		}
+
+		double sum = 0;
+		int zeros = 0;
+		for (byte rank: registers) {
+			sum += Math.scalb(1d, -rank);
+			if (rank == 0) {zeros++;}
+		}
+		return estimate(precision, sum, zeros);
+	}
+
+	public int precision() {return precision;}
+
+	/**Does the sketch only store the registers that are set?**/
+	public boolean isSparse() {return sparse != null;}
+
+	/**Sorted (index << 8 | rank) entries of a sparse sketch, null if the sketch is dense.**/
+	public int[] sparseEntries() {return sparse == null ? null : sparse.clone();}
+
+	/**Value of every register (sparse sketches are expanded).**/
+	public byte[] registers() {
+		if (registers != null) {return registers.clone();}
+		byte[] all = new byte[1 << precision];
+		for (int entry: sparse) {all[entry >>> 8] = (byte) (entry & 0xFF);}
+		return all;
+	}
+
+	/**Accumulator starting with the contents of this sketch.**/
+	public Accumulator accumulator() {return new Accumulator(this);}
+
+	/**Sketch of the items in both sketches.
+	 * Sketches must be of the same precision, unless one is empty (an empty sketch is an identity for any precision).**/
+	public static HyperLogLog merge(HyperLogLog left, HyperLogLog right) {
+		if (right.isEmpty()) {return left;}
+		if (left.isEmpty()) {return right;}
+		Accumulator acc = left.accumulator();
+		acc.addAll(right);
+		return acc.freeze();
+	}
+
+	private boolean isEmpty() {return sparse != null && sparse.length == 0;}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof HyperLogLog)) {return false;}
+		HyperLogLog alter = (HyperLogLog) other;
+		if (alter.precision != precision) {return false;}
+		if (sparse != null && alter.sparse != null) {return Arrays.equals(sparse, alter.sparse);}
+		return Arrays.equals(registers(), alter.registers());
+	}
+
+	@Override public int hashCode() {return Arrays.hashCode(registers()) + precision;}
+
+	@Override public String toString() {return String.format("HyperLogLog(p=%d, %s, ~%.1f)", precision, sparse != null ? "sparse" : "dense", estimate());}
+
+	/**64-bit hash of an item.
+	 * 
+	 * Long, Integer and Double values are hashed from their (long) bits, Strings from their UTF-8 bytes
+	 * and byte arrays from their contents, all with MurmurHash3 (x64, 128-bit variant, seed 0; the first 64 bits).
+	 * Any other item is hashed from its 32-bit hashCode (spread with the MurmurHash3 finalizer), 
+	 * so it has at most 2^32 distinct hashes.
+	 */
+	public static long hash(Object item) {
+		if (item instanceof Long || item instanceof Integer) {return murmur3(((Number) item).longValue());}
+		if (item instanceof Double) {return murmur3(Double.doubleToLongBits((Double) item));}
+		if (item instanceof String) {return murmur3(((String) item).getBytes(StandardCharsets.UTF_8));}
+		if (item instanceof byte[]) {return murmur3((byte[]) item);}
+		return fmix(item == null ? 0 : item.hashCode());
+	}
+
+	private static final long C1 = 0x87c37b91114253d5L, C2 = 0x4cf5ad432745937fL;
+
+	/**MurmurHash3 of the eight (little-endian) bytes of the value.**/
+	private static long murmur3(long bits) {return finish(mixK1(bits), 0, 8);}
+
+	/**MurmurHash3 (x64, 128-bit variant, seed 0) of the bytes; returns the first 64 bits.**/
+	private static long murmur3(byte[] data) {
+		long h1 = 0, h2 = 0;
+		int blocks = data.length/16;
+		for (int i=0; i<blocks; i++) {
+			h1 ^= mixK1(littleEndian(data, i*16, 8));
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1*5 + 0x52dce729;
+			h2 ^= mixK2(littleEndian(data, i*16+8, 8));
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2*5 + 0x38495ab5;
+		}
+
+		int tail = blocks*16;
+		int remaining = data.length - tail;
+		if (remaining > 8) {h2 ^= mixK2(littleEndian(data, tail+8, remaining-8));}
+		if (remaining > 0) {h1 ^= mixK1(littleEndian(data, tail, Math.min(remaining, 8)));}
+		return finish(h1, h2, data.length);
+	}
+
+	private static long littleEndian(byte[] data, int start, int length) {
+		long v = 0;
+		for (int i=length-1; i>=0; i--) {v = (v << 8) | (data[start+i] & 0xFF);}
+		return v;
+	}
+
+	private static long mixK1(long k) {return Long.rotateLeft(k*C1, 31)*C2;}
+	private static long mixK2(long k) {return Long.rotateLeft(k*C2, 33)*C1;}
+
+	private static long finish(long h1, long h2, int length) {
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		return h1 + h2;
+	}
+
+	/**MurmurHash3 64-bit finalizer.**/
+	private static long fmix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**Raw estimate with the small-range (linear counting) correction.
+	 * No large-range correction is made: with 64-bit hashes, collisions only matter for counts
+	 * far beyond 2^32.  Items hashed from their 32-bit hashCode (see hash) collide well before that,
+	 * so distinct counts of such items approaching 2^32 are underestimated.
+	 * @param sum Sum of 2^-rank over all registers
+	 * @param zeros Number of registers that were never set
+	 */
+	private static double estimate(int precision, double sum, int zeros) {
+		int m = 1 << precision;
+		double alpha;
+		switch (m) {
+			case 16: alpha = 0.673; break;
+			case 32: alpha = 0.697; break;
+			case 64: alpha = 0.709; break;
+			default: alpha = 0.7213/(1+1.079/m);
+		}
+		double raw = alpha * m * m / sum;
+		if (raw <= 2.5*m && zeros > 0) {return m * Math.log((double) m/zeros);}
+		return raw;
+	}
+
+
+	/**Mutable sketch (see Aggregator.Accumulating).  Not safe for concurrent use.**/
+	public static final class Accumulator {
+		private final int precision;
+		private int[] sparse;		//Null once dense
+		private int sparseSize;
+		private byte[] registers;	//Null while sparse
+
+		public Accumulator(int precision) {this(new HyperLogLog(precision));}
+
+		private Accumulator(HyperLogLog source) {
+			this.precision = source.precision;
+			if (source.sparse != null) {
+				this.sparse = Arrays.copyOf(source.sparse, Math.max(4, source.sparse.length));
+				this.sparseSize = source.sparse.length;
+			} else {
+				this.registers = source.registers.clone();
+			}
+		}
+
+		/**Add an item (identified by HyperLogLog.hash).**/
+		public void add(Object item) {addHash(hash(item));}
+
+		/**Add an item by its 64-bit hash.  Hashes should be uniformly distributed.**/
+		public void addHash(long hash) {
+			int idx = (int) (hash >>> (64-precision));
+			int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision-1))) + 1;
+			set(idx, rank);
+		}
+
+		/**Add the items of a sketch of the same precision.**/
+		public void addAll(HyperLogLog other) {
+			checkPrecision(other.precision);
+			if (other.sparse != null) {
+				for (int entry: other.sparse) {set(entry >>> 8, entry & 0xFF);}
+			} else {
+				densify();
+				for (int i=0; i<registers.length; i++) {
+					if (other.registers[i] > registers[i]) {registers[i] = other.registers[i];}
+				}
+			}
+		}
+
+		/**Add the items of another accumulator of the same precision (which is not modified).**/
+		public void addAll(Accumulator other) {
+			checkPrecision(other.precision);
+			if (other.sparse != null) {
+				for (int i=0; i<other.sparseSize; i++) {set(other.sparse[i] >>> 8, other.sparse[i] & 0xFF);}
+			} else {
+				densify();
+				for (int i=0; i<registers.length; i++) {
+					if (other.registers[i] > registers[i]) {registers[i] = other.registers[i];}
+				}
+			}
+		}
+
+		/**Immutable sketch with the current contents.**/
+		public HyperLogLog freeze() {
+			if (sparse != null) {return new HyperLogLog(precision, Arrays.copyOf(sparse, sparseSize), null);}
+			return new HyperLogLog(precision, null, registers.clone());
+		}
+
+		private void set(int idx, int rank) {
+			if (registers != null) {
+				if (rank > registers[idx]) {registers[idx] = (byte) rank;}
+				return;
+			}
+
+			int at = Arrays.binarySearch(sparse, 0, sparseSize, idx << 8);
+			if (at < 0) {at = -(at+1);}
+			if (at < sparseSize && sparse[at] >>> 8 == idx) {
+				if (rank > (sparse[at] & 0xFF)) {sparse[at] = idx << 8 | rank;}
+				return;
+			}
+
+			if (sparseSize+1 > (1 << precision)/4) {	//Sparse entries are four times the size of a register
+				densify();
+				registers[idx] = (byte) rank;
+				return;
+			}
+			if (sparseSize == sparse.length) {sparse = Arrays.copyOf(sparse, sparse.length*2);}
+			System.arraycopy(sparse, at, sparse, at+1, sparseSize-at);
+			sparse[at] = idx << 8 | rank;
+			sparseSize++;
+		}
+
+		private void densify() {
+			if (registers != null) {return;}
+			registers = new byte[1 << precision];
+			for (int i=0; i<sparseSize; i++) {registers[sparse[i] >>> 8] = (byte) (sparse[i] & 0xFF);}
+			sparse = null;
+			sparseSize = 0;
+		}
+
+		private void checkPrecision(int other) {
+			if (other != precision) {throw new IllegalArgumentException(String.format("Cannot merge sketches of precision %d and %d.", precision, other));}
+		}
+	}
+}
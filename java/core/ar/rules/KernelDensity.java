@@ -0,0 +1,242 @@
+package ar.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.IntConsumer;
+
+import ar.Aggregates;
+import ar.Renderer;
+import ar.Transfer;
+import ar.aggregates.implementations.DoubleAggregates;
+
+/**Kernel density estimate of count (or sum) aggregates: each aggregate's value is spread over its neighbors with a kernel.
+ *
+ * Kernels are applied as a horizontal then a vertical 1-D pass (product kernels are separable),
+ * each pass running over the rows (or columns) in parallel on the renderer (see Renderer.invokeAll) on primitive arrays,
+ * so the cost is O(cells x radius) instead of the O(cells x radius^2) of General.Spread.
+ * Beyond BOX_RADIUS, passes take constant time per cell:
+ * the Gaussian is approximated by three successive box filters (Kovesi's widths for the given sigma) and
+ * the Epanechnikov kernel is computed exactly from sliding window sums of the values and their first and second moments.
+ *
+ * Sliding sums are reset whenever their window holds no values, so cells beyond the kernel's reach are exactly zero
+ * (rather than the round-off left by adding and later subtracting a value).
+ * 
+ * Kernel weights are normalized, so the total of the result is the total of the input.
+ * When no input value is negative, neither is any output value (negative round-off is dropped).
+ * The result is extended by the kernel's radius on every side, so mass near the edges is kept.
+ * Empty input values (null) count as zero.
+ */
+public class KernelDensity<N extends Number> implements Transfer.Specialized<N, Double> {
+	private static final long serialVersionUID = -3184657302975480223L;
+
+	/**Largest radius that is convolved directly; larger kernels use the sliding-sum passes.**/
+	public static final int BOX_RADIUS = 16;
+
+	public enum Kernel {
+		/**Bandwidth is the standard deviation; weights are taken out to three standard deviations.**/
+		GAUSSIAN,
+
+		/**Product of 1-D Epanechnikov kernels (1-(d/bandwidth)^2); bandwidth is the support radius.**/
+		EPANECHNIKOV
+	}
+
+	private final Kernel kernel;
+	private final double bandwidth;
+
+	/**@param kernel Kernel shape
+	 * @param bandwidth Kernel width in bins (see Kernel)**/
+	public KernelDensity(Kernel kernel, double bandwidth) {
+		if (!(bandwidth > 0)) {throw new IllegalArgumentException("Bandwidth must be positive; received " + bandwidth);}
+		this.kernel = kernel;
+		this.bandwidth = bandwidth;
+	}
+
+	/**How far (in bins) the kernel reaches from the center.**/
+	public int radius() {
+		if (!boxed()) {return directRadius();}
+		if (kernel == Kernel.EPANECHNIKOV) {return directRadius();}
+		int radius = 0;
+		for (int r: boxRadii(bandwidth)) {radius += r;}
+		return radius;
+	}
+
+	@Override public Double emptyValue() {return 0d;}
+
+	@Override
+	public Aggregates<Double> process(Aggregates<? extends N> aggregates, Renderer rend) {
+		int halo = radius();
+		int lowX = aggregates.lowX()-halo, lowY = aggregates.lowY()-halo;
+		int highX = aggregates.highX()+halo, highY = aggregates.highY()+halo;
+		int width = highX-lowX, height = highY-lowY;
+		if (((long) width) * height > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Density of size %dx%d exceeds the implementation capacity.", width, height));
+		}
+
+		double[] values = new double[width*height];
+		boolean[] signed = new boolean[1];		//Any negative input?
+		forRange(rend, aggregates.lowY(), aggregates.highY(), y -> {
+			int row = (y-lowY)*width;
+			for (int x=aggregates.lowX(); x<aggregates.highX(); x++) {
+				N value = aggregates.get(x, y);
+				if (value != null) {
+					values[row + x-lowX] = value.doubleValue();
+					if (value.doubleValue() < 0) {signed[0] = true;}
+				}
+			}
+		});
+
+		double[] weights = boxed() ? null : weights();
+		forRange(rend, halo, height-halo, y -> {	//Rows above and below the input are still empty
+			double[] line = new double[width];
+			System.arraycopy(values, y*width, line, 0, width);
+			System.arraycopy(pass(line, weights), 0, values, y*width, width);
+		});
+		forRange(rend, 0, width, x -> {
+			double[] line = new double[height];
+			for (int y=0; y<height; y++) {line[y] = values[y*width+x];}
+			double[] result = pass(line, weights);
+			for (int y=0; y<height; y++) {values[y*width+x] = result[y];}
+		});
+
+		DoubleAggregates result = new DoubleAggregates(lowX, lowY, highX, highY, emptyValue());
+		forRange(rend, 0, height, y -> {
+			for (int x=0; x<width; x++) {
+				double value = values[y*width+x];
+				if (value > 0 || (value < 0 && signed[0])) {result.set(x+lowX, y+lowY, value);}
+			}
+		});
+		return result;
+	}
+	
+	/**Apply the body to each of low (inclusive) to high (exclusive), in contiguous slices run on the renderer.**/
+	private static void forRange(Renderer rend, int low, int high, IntConsumer body) {
+		int tasks = Math.max(1, Math.min(rend.parallelism(), high-low));
+		List<Callable<Void>> slices = new ArrayList<>();
+		for (int t=0; t<tasks; t++) {
+			int from = low + (int) (((long) (high-low))*t/tasks);
+			int to = low + (int) (((long) (high-low))*(t+1)/tasks);
+			slices.add(() -> {
+				for (int i=from; i<to; i++) {body.accept(i);}
+				return null;
+			});
+		}
+		rend.invokeAll(slices);
+	}
+
+	private boolean boxed() {return directRadius() > BOX_RADIUS;}
+
+	private int directRadius() {
+		return kernel == Kernel.GAUSSIAN ? (int) Math.ceil(3*bandwidth) : (int) Math.floor(bandwidth);
+	}
+
+	/**Normalized weights for offsets -radius to radius.**/
+	private double[] weights() {
+		int radius = directRadius();
+		double[] weights = new double[2*radius+1];
+		double total = 0;
+		for (int k=-radius; k<=radius; k++) {
+			double w = kernel == Kernel.GAUSSIAN
+					? Math.exp(-(k*k)/(2*bandwidth*bandwidth))
+					: Math.max(0, 1-(k*k)/(bandwidth*bandwidth));
+			weights[k+radius] = w;
+			total += w;
+		}
+		for (int i=0; i<weights.length; i++) {weights[i] /= total;}
+		return weights;
+	}
+
+	/**One 1-D pass of the kernel (values outside the line are zero).**/
+	private double[] pass(double[] line, double[] weights) {
+		if (weights != null) {return convolve(line, weights);}
+		if (kernel == Kernel.EPANECHNIKOV) {return epanechnikov(line, directRadius(), bandwidth);}
+		for (int r: boxRadii(bandwidth)) {line = box(line, r);}
+		return line;
+	}
+
+	private static double[] convolve(double[] line, double[] weights) {
+		int radius = weights.length/2;
+		double[] out = new double[line.length];
+		for (int i=0; i<line.length; i++) {
+			double v = line[i];
+			if (v == 0) {continue;}
+			int from = Math.max(0, i-radius), to = Math.min(line.length-1, i+radius);
+			for (int j=from; j<=to; j++) {out[j] += v * weights[j-i+radius];}
+		}
+		return out;
+	}
+
+	/**Moving average over 2r+1 cells.**/
+	private static double[] box(double[] line, int r) {
+		double[] out = new double[line.length];
+		double sum = 0;
+		int nonzero = 0;		//Values in the window that are not zero; the sum is reset when there are none
+		for (int i=0; i<Math.min(r, line.length); i++) {
+			sum += line[i];
+			if (line[i] != 0) {nonzero++;}
+		}
+		for (int i=0; i<line.length; i++) {
+			if (i+r < line.length && line[i+r] != 0) {
+				sum += line[i+r];
+				nonzero++;
+			}
+			if (i-r-1 >= 0 && line[i-r-1] != 0) {
+				sum -= line[i-r-1];
+				nonzero--;
+			}
+			if (nonzero == 0) {sum = 0;}
+			out[i] = sum/(2*r+1);
+		}
+		return out;
+	}
+
+	/**Epanechnikov weights (1-(k/h)^2) for offsets -r to r, from sliding sums of v, k*v and k*k*v about each center.**/
+	private static double[] epanechnikov(double[] line, int r, double h) {
+		double norm = (2*r+1) - (r*(r+1.0)*(2*r+1)/3)/(h*h);
+		double[] out = new double[line.length];
+		double a = 0, b = 0, c = 0;		//Sums of v, k*v and k*k*v over the window about the current center
+		int nonzero = 0;				//Values in the window that are not zero; the sums are reset when there are none
+		for (int k=0; k<=Math.min(r, line.length-1); k++) {
+			a += line[k];
+			b += k*line[k];
+			c += ((double) k*k)*line[k];
+			if (line[k] != 0) {nonzero++;}
+		}
+		for (int i=0; i<line.length; i++) {
+			out[i] = (a - c/(h*h))/norm;
+
+			//Shift the center to i+1: offsets drop by one, the cell at offset -r leaves and the one at offset r enters
+			c = c - 2*b + a;
+			b = b - a;
+			if (i-r >= 0 && line[i-r] != 0) {
+				double v = line[i-r];
+				a -= v;
+				b += (r+1)*v;
+				c -= ((double) (r+1)*(r+1))*v;
+				nonzero--;
+			}
+			if (i+1+r < line.length && line[i+1+r] != 0) {
+				double v = line[i+1+r];
+				a += v;
+				b += r*v;
+				c += ((double) r*r)*v;
+				nonzero++;
+			}
+			if (nonzero == 0) {a = 0; b = 0; c = 0;}
+		}
+		return out;
+	}
+
+	/**Radii of three box filters whose successive application approximates a Gaussian (Kovesi, "Fast almost-Gaussian filtering").**/
+	private static int[] boxRadii(double sigma) {
+		int n = 3;
+		double ideal = Math.sqrt(12*sigma*sigma/n + 1);
+		int lower = (int) Math.floor(ideal);
+		if (lower % 2 == 0) {lower--;}
+		int upper = lower+2;
+		long m = Math.round((12*sigma*sigma - n*lower*lower - 4*n*lower - 3*n)/(-4.0*lower - 4));
+		int[] radii = new int[n];
+		for (int i=0; i<n; i++) {radii[i] = ((i < m ? lower : upper)-1)/2;}
+		return radii;
+	}
+}
@@ -0,0 +1,69 @@
+package ar.rules;
+
+import java.io.Serializable;
+
+/**Count, mean and sum of squared deviations (M2) of a set of values.
+ *
+ * Values are added with Welford's update and sets are combined with Chan et al.'s parallel formula,
+ * both of which avoid the cancellation of the naive sum/sum-of-squares approach.
+ * See Numbers.MeanVariance for aggregation and MomentAggregates for primitive storage.
+ */
+public final class Moments implements Serializable {
+	private static final long serialVersionUID = 8046213575089147932L;
+
+	/**No values.**/
+	public static final Moments EMPTY = new Moments(0, 0, 0);
+
+	private final long count;
+	private final double mean, m2;
+
+	public Moments(long count, double mean, double m2) {
+		this.count = count;
+		this.mean = mean;
+		this.m2 = m2;
+	}
+
+	/**Moments of a single value.**/
+	public static Moments of(double value) {return new Moments(1, value, 0);}
+
+	/**Moments with another value included (Welford's update).**/
+	public Moments add(double value) {
+		long n = count+1;
+		double delta = value - mean;
+		double mean = this.mean + delta/n;
+		return new Moments(n, mean, m2 + delta*(value-mean));
+	}
+
+	/**Moments of the values of both sets (Chan et al.'s parallel combination).**/
+	public static Moments merge(Moments left, Moments right) {
+		if (right.count == 0) {return left;}
+		if (left.count == 0) {return right;}
+		long n = left.count + right.count;
+		double delta = right.mean - left.mean;
+		return new Moments(n,
+				left.mean + delta * right.count/n,
+				left.m2 + right.m2 + delta*delta * ((double) left.count*right.count/n));
+	}
+
+	public long count() {return count;}
+	public double mean() {return mean;}
+
+	/**Sum of squared deviations from the mean.**/
+	public double m2() {return m2;}
+
+	/**Population variance (M2/n), 0 if there are no values.**/
+	public double variance() {return count == 0 ? 0 : m2/count;}
+
+	/**Sample variance (M2/(n-1)), NaN if there are fewer than two values.**/
+	public double sampleVariance() {return count < 2 ? Double.NaN : m2/(count-1);}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Moments)) {return false;}
+		Moments alter = (Moments) other;
+		return alter.count == count && Double.compare(alter.mean, mean) == 0 && Double.compare(alter.m2, m2) == 0;
+	}
+
+	@Override public int hashCode() {return Long.hashCode(count) + 31*Double.hashCode(mean) + 961*Double.hashCode(m2);}
+	@Override public String toString() {return String.format("Moments(n=%d, mean=%s, m2=%s)", count, mean, m2);}
+}
@@ -5,6 +5,7 @@ import java.awt.Color;
 import ar.Aggregates;
 import ar.Aggregator;
 import ar.Transfer;
+import ar.aggregates.implementations.MomentAggregates;
 import ar.glyphsets.implicitgeometry.Valuer;
 import ar.util.Util;
 
@@ -84,7 +85,240 @@ public final class Numbers {
 		
 		public N identity() {return wrapper.apply(0d);}
 	}
-	
+
+	/**How many distinct items are present (estimated with a HyperLogLog sketch per aggregate)?
+	 *
+	 * Items are told apart by their hashCode (see HyperLogLog.hash).
+	 * Use EstimateDistinct to get the counts out of the sketches.
+	 */
+	public static final class CountDistinct<V> implements Aggregator.Accumulating<V, HyperLogLog, HyperLogLog.Accumulator> {
+		private static final long serialVersionUID = 6510839302749103352L;
+		private final int precision;
+
+		public CountDistinct() {this(HyperLogLog.DEFAULT_PRECISION);}
+
+		/**@param precision Sketches have 2^precision registers (see HyperLogLog)**/
+		public CountDistinct(int precision) {
+			this.precision = precision;
+			identity();	//Validates the precision
+		}
+
+		@Override public HyperLogLog combine(HyperLogLog current, V update) {return current.offer(update);}
+		@Override public HyperLogLog rollup(HyperLogLog left, HyperLogLog right) {return HyperLogLog.merge(left, right);}
+		@Override public HyperLogLog identity() {return new HyperLogLog(precision);}
+
+		@Override public HyperLogLog.Accumulator create() {return new HyperLogLog.Accumulator(precision);}
+		@Override public void accumulate(HyperLogLog.Accumulator acc, V update) {acc.add(update);}
+		@Override public void merge(HyperLogLog.Accumulator target, HyperLogLog.Accumulator source) {target.addAll(source);}
+		@Override public HyperLogLog freeze(HyperLogLog.Accumulator acc) {return acc.freeze();}
+
+		public boolean equals(Object other) {return other instanceof CountDistinct && ((CountDistinct<?>) other).precision == precision;}
+		public int hashCode() {return CountDistinct.class.hashCode() + precision;}
+	}
+
+	/**Estimated number of distinct items in each sketch (see CountDistinct).**/
+	public static final class EstimateDistinct implements Transfer.ItemWise<HyperLogLog, java.lang.Double> {
+		private static final long serialVersionUID = -3371856126429880135L;
+
+		@Override public java.lang.Double at(int x, int y, Aggregates<? extends HyperLogLog> aggregates) {return aggregates.get(x, y).estimate();}
+		@Override public java.lang.Double emptyValue() {return 0d;}
+	}
+
+	/**Summarize the distribution of values in each aggregate (with a QuantileDigest per aggregate).
+	 * Use Quantile to get the median, p95, etc. out of the digests.
+	 */
+	public static final class Quantiles<N extends Number> implements Aggregator.Accumulating<N, QuantileDigest, QuantileDigest.Accumulator> {
+		private static final long serialVersionUID = -1928547761508236019L;
+		private final int compression;
+
+		public Quantiles() {this(QuantileDigest.DEFAULT_COMPRESSION);}
+
+		/**@param compression Values held exactly per aggregate and, roughly, centroids held after that (see QuantileDigest)**/
+		public Quantiles(int compression) {
+			this.compression = compression;
+			identity();	//Validates the compression
+		}
+
+		@Override public QuantileDigest combine(QuantileDigest current, N update) {return current.offer(update.doubleValue());}
+		@Override public QuantileDigest rollup(QuantileDigest left, QuantileDigest right) {return QuantileDigest.merge(left, right);}
+		@Override public QuantileDigest identity() {return new QuantileDigest(compression);}
+
+		@Override public QuantileDigest.Accumulator create() {return new QuantileDigest.Accumulator(compression);}
+		@Override public void accumulate(QuantileDigest.Accumulator acc, N update) {acc.add(update.doubleValue());}
+		@Override public void merge(QuantileDigest.Accumulator target, QuantileDigest.Accumulator source) {target.addAll(source);}
+		@Override public QuantileDigest freeze(QuantileDigest.Accumulator acc) {return acc.freeze();}
+
+		public boolean equals(Object other) {return other instanceof Quantiles && ((Quantiles<?>) other).compression == compression;}
+		public int hashCode() {return Quantiles.class.hashCode() + compression;}
+	}
+
+	/**Estimated value at a quantile of each digest (see Quantiles).**/
+	public static final class Quantile implements Transfer.ItemWise<QuantileDigest, java.lang.Double> {
+		private static final long serialVersionUID = 7294018854377026218L;
+		private final double q;
+		private final double background;
+
+		/**@param q Quantile to extract (e.g., .5 for the median, .95 for p95)**/
+		public Quantile(double q) {this(q, 0);}
+
+		/**@param q Quantile to extract
+		 * @param background Value for aggregates with an empty digest**/
+		public Quantile(double q, double background) {
+			if (q < 0 || q > 1) {throw new IllegalArgumentException("Quantile must be between 0 and 1; requested " + q);}
+			this.q = q;
+			this.background = background;
+		}
+
+		@Override
+		public java.lang.Double at(int x, int y, Aggregates<? extends QuantileDigest> aggregates) {
+			QuantileDigest digest = aggregates.get(x, y);
+			return digest.count() == 0 ? background : digest.quantile(q);
+		}
+
+		@Override public java.lang.Double emptyValue() {return background;}
+	}
+
+	/**Count, mean and variance of the values in each aggregate (see Moments).
+	 *
+	 * AggregateUtils.make stores these as primitive arrays (see MomentAggregates), which selectors update in place
+	 * and merges combine with Chan et al.'s formula.
+	 * Use Mean, Variance, StdDev or CoefficientOfVariation to get statistics out.
+	 */
+	public static final class MeanVariance<N extends Number> implements Aggregator<N, Moments> {
+		private static final long serialVersionUID = 3960458178364871625L;
+
+		@Override public Moments combine(Moments current, N update) {return current.add(update.doubleValue());}
+		@Override public Moments rollup(Moments left, Moments right) {return Moments.merge(left, right);}
+		@Override public Moments identity() {return Moments.EMPTY;}
+
+		public boolean equals(Object other) {return other instanceof MeanVariance;}
+		public int hashCode() {return MeanVariance.class.hashCode();}
+	}
+
+	/**Common parts of the statistics computed from moments.
+	 * MomentAggregates are read directly, without building a Moments per aggregate.**/
+	private static abstract class MomentStatistic implements Transfer.ItemWise<Moments, java.lang.Double> {
+		private static final long serialVersionUID = -8128893658512738519L;
+		protected final boolean sample;
+		protected final double background;
+
+		protected MomentStatistic(boolean sample, double background) {
+			this.sample = sample;
+			this.background = background;
+		}
+
+		/**Statistic for a non-empty aggregate; NaN if it is undefined (and background should be used).**/
+		protected abstract double statistic(long count, double mean, double m2);
+
+		@Override
+		public java.lang.Double at(int x, int y, Aggregates<? extends Moments> aggregates) {
+			long count;
+			double mean, m2;
+			if (aggregates instanceof MomentAggregates) {
+				MomentAggregates moments = (MomentAggregates) aggregates;
+				count = moments.count(x, y);
+				mean = moments.mean(x, y);
+				m2 = moments.m2(x, y);
+			} else {
+				Moments moments = aggregates.get(x, y);
+				count = moments.count();
+				mean = moments.mean();
+				m2 = moments.m2();
+			}
+			if (count == 0) {return background;}
+			double value = statistic(count, mean, m2);
+			return java.lang.Double.isNaN(value) ? background : value;
+		}
+
+		@Override public java.lang.Double emptyValue() {return background;}
+
+		protected final double variance(long count, double m2) {
+			if (!sample) {return m2/count;}
+			return count < 2 ? java.lang.Double.NaN : m2/(count-1);
+		}
+	}
+
+	/**Mean of the values in each aggregate.**/
+	public static final class Mean extends MomentStatistic {
+		private static final long serialVersionUID = 2215780164213290946L;
+		public Mean() {this(0);}
+
+		/**@param background Value for aggregates with no values**/
+		public Mean(double background) {super(false, background);}
+
+		@Override protected double statistic(long count, double mean, double m2) {return mean;}
+	}
+
+	/**Variance of the values in each aggregate.**/
+	public static final class Variance extends MomentStatistic {
+		private static final long serialVersionUID = -6302669104513713218L;
+		public Variance() {this(false, 0);}
+
+		/**@param sample Use the sample variance (n-1 denominator; aggregates with one value get the background) instead of the population variance
+		 * @param background Value for aggregates with no values**/
+		public Variance(boolean sample, double background) {super(sample, background);}
+
+		@Override protected double statistic(long count, double mean, double m2) {return variance(count, m2);}
+	}
+
+	/**Standard deviation of the values in each aggregate.**/
+	public static final class StdDev extends MomentStatistic {
+		private static final long serialVersionUID = 6686093330640290478L;
+		public StdDev() {this(false, 0);}
+
+		/**@param sample Use the sample standard deviation (see Variance)
+		 * @param background Value for aggregates with no values**/
+		public StdDev(boolean sample, double background) {super(sample, background);}
+
+		@Override protected double statistic(long count, double mean, double m2) {return Math.sqrt(variance(count, m2));}
+	}
+
+	/**Standard deviation relative to the mean (stdev/|mean|) of the values in each aggregate.
+	 * Aggregates with a mean of zero get the background.**/
+	public static final class CoefficientOfVariation extends MomentStatistic {
+		private static final long serialVersionUID = -1734471001396185524L;
+		public CoefficientOfVariation() {this(false, 0);}
+
+		/**@param sample Use the sample standard deviation (see Variance)
+		 * @param background Value for aggregates with no values (or a mean of zero)**/
+		public CoefficientOfVariation(boolean sample, double background) {super(sample, background);}
+
+		@Override
+		protected double statistic(long count, double mean, double m2) {
+			if (mean == 0) {return java.lang.Double.NaN;}
+			return Math.sqrt(variance(count, m2))/Math.abs(mean);
+		}
+	}
+
+	/**Multiply every value by a constant factor (e.g., to upscale counts taken from a sample; see SampledGlyphs).
+	 * Integer and long values are rounded to the nearest whole number.
+	 */
+	public static final class Scale<N extends Number> implements Transfer.ItemWise<N, N> {
+		private static final long serialVersionUID = -4188362950717094711L;
+		private final double factor;
+		private final Valuer<java.lang.Double, N> wrapper;
+
+		public Scale(double factor, Valuer<java.lang.Double, N> wrapper) {
+			this.factor = factor;
+			this.wrapper = wrapper;
+		}
+
+		@Override public N at(int x, int y, Aggregates<? extends N> aggregates) {return wrapper.apply(aggregates.get(x, y).doubleValue() * factor);}
+		@Override public N emptyValue() {return wrapper.apply(0d);}
+
+		/**Scale values of the same class as the given instance.**/
+		@SuppressWarnings("unchecked")
+		public static <N extends Number> Scale<N> make(N instance, double factor) {
+			Valuer<java.lang.Double, ? extends Number> wrapper;
+			if (instance instanceof java.lang.Double) {wrapper = v -> v;}
+			else if (instance instanceof java.lang.Float) {wrapper = v -> v.floatValue();}
+			else if (instance instanceof java.lang.Integer) {wrapper = v -> (int) Math.round(v);}
+			else if (instance instanceof java.lang.Long) {wrapper = v -> Math.round(v);}
+			else {throw new IllegalArgumentException("No support for scaling " + instance.getClass().getName());}
+			return new Scale<>(factor, (Valuer<java.lang.Double, N>) wrapper);
+		}
+	}
+
 	/**Interpolate between two colors with fixed upper and lower bounds.
 	 * 
 	 * If both colors are the same EXCEPT their alpha values, this is equivalent
@@ -0,0 +1,272 @@
+package ar.rules;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**Mergeable, bounded-size summary of a distribution for quantile estimates (the merging t-digest of Dunning and Ertl).
+ *
+ * Digests that have seen no more values than the compression hold the values themselves (sorted, with no weights),
+ * so small bins are exact and cost eight bytes per value.
+ * Larger digests hold weighted centroids whose sizes follow the arcsine scale function:
+ * centroids near the tails stay small, so extreme quantiles (e.g., p95, p99) remain accurate.
+ * A compression of 100 keeps at most a few hundred centroids.
+ *
+ * Digests merge by combining their centroids in mean order and re-compressing.
+ * The merge is deterministic and commutative; it is exact while the combined count is within the compression
+ * and associative up to the accuracy of the digest beyond that, so rollups may be done in any grouping.
+ */
+public class QuantileDigest implements Serializable {
+	private static final long serialVersionUID = -5217845906620318563L;
+
+	/**Compression used when none is given.**/
+	public static final int DEFAULT_COMPRESSION = 100;
+
+	private final int compression;
+	private final double[] means;	//Ascending
+	private final long[] weights;	//Null when every weight is one (values are held exactly)
+	private final long count;
+	private final double min, max;
+
+	/**Empty digest.**/
+	public QuantileDigest(int compression) {this(compression, new double[0], null, 0, Double.NaN, Double.NaN);}
+
+	private QuantileDigest(int compression, double[] means, long[] weights, long count, double min, double max) {
+		if (compression < 10) {throw new IllegalArgumentException("Compression must be at least 10; requested " + compression);}
+		this.compression = compression;
+		this.means = means;
+		this.weights = weights;
+		this.count = count;
+		this.min = min;
+		this.max = max;
+	}
+
+	/**Digest with the value added.**/
+	public QuantileDigest offer(double value) {
+		Accumulator acc = accumulator();
+		acc.add(value);
+		return acc.freeze();
+	}
+
+	/**Estimate of the value at quantile q (0 to 1); NaN if the digest is empty.
+	 * Values between centroid centers are interpolated linearly (so the median of an even number of values is the mean of the middle two).**/
+	public double quantile(double q) {
+		if (q < 0 || q > 1) {throw new IllegalArgumentException("Quantile must be between 0 and 1; requested " + q);}
+		if (count == 0) {return Double.NaN;}
+		if (means.length == 1) {return means[0];}
+
+		double index = q*count;
+		double first = weight(0)/2d;
+		if (index < first) {return min + (index/first) * (means[0]-min);}
+
+		double center = first;		//Cumulative weight at the center of centroid i
+		for (int i=0; i<means.length-1; i++) {
+			double next = center + (weight(i)+weight(i+1))/2d;
+			if (index <= next) {
+				return means[i] + ((index-center)/(next-center)) * (means[i+1]-means[i]);
+			}
+			center = next;
+		}
+
+		double last = weight(means.length-1)/2d;
+		return means[means.length-1] + ((index-center)/last) * (max-means[means.length-1]);
+	}
+
+	/**Number of values summarized.**/
+	public long count() {return count;}
+
+	/**Smallest and largest values seen (NaN if empty).**/
+	public double min() {return min;}
+	public double max() {return max;}
+
+	public int compression() {return compression;}
+
+	/**Does the digest hold every value it has seen?**/
+	public boolean isExact() {return weights == null;}
+
+	/**Number of centroids (or values, when exact) held.**/
+	public int size() {return means.length;}
+
+	/**Accumulator starting with the contents of this digest.**/
+	public Accumulator accumulator() {return new Accumulator(this);}
+
+	/**Digest of the values in both digests (the larger compression is kept).**/
+	public static QuantileDigest merge(QuantileDigest left, QuantileDigest right) {
+		if (right.count == 0 && left.compression >= right.compression) {return left;}
+		if (left.count == 0 && right.compression >= left.compression) {return right;}
+		Accumulator acc = new Accumulator(Math.max(left.compression, right.compression));
+		acc.addAll(left);
+		acc.addAll(right);
+		return acc.freeze();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof QuantileDigest)) {return false;}
+		QuantileDigest alter = (QuantileDigest) other;
+		return alter.compression == compression
+				&& alter.count == count
+				&& Arrays.equals(alter.means, means)
+				&& Arrays.equals(alter.weights, weights);
+	}
+
+	@Override public int hashCode() {return Arrays.hashCode(means) + Long.hashCode(count);}
+
+	@Override public String toString() {
+		if (count == 0) {return "<empty>";}
+		return String.format("QuantileDigest(n=%d, %d %s, median ~%s)", count, means.length, isExact() ? "values" : "centroids", quantile(.5));
+	}
+
+	private long weight(int i) {return weights == null ? 1 : weights[i];}
+
+
+	/**Mutable digest (see Aggregator.Accumulating).
+	 * Values are buffered and folded into the centroids in batches.
+	 * Not safe for concurrent use.
+	 */
+	public static final class Accumulator {
+		private final int compression;
+		private double[] means;
+		private long[] weights;
+		private int size;
+		private double[] buffer;
+		private int buffered;
+		private long count;
+		private double min = Double.NaN, max = Double.NaN;
+
+		public Accumulator(int compression) {this(new QuantileDigest(compression));}
+
+		private Accumulator(QuantileDigest source) {
+			this.compression = source.compression;
+			this.means = source.means.clone();
+			this.weights = new long[means.length];
+			for (int i=0; i<weights.length; i++) {weights[i] = source.weight(i);}
+			this.size = means.length;
+			this.buffer = new double[4];
+			this.count = source.count;
+			this.min = source.min;
+			this.max = source.max;
+		}
+
+		public void add(double value) {
+			if (Double.isNaN(value)) {return;}
+			if (buffered == buffer.length) {
+				if (buffered >= compression*2) {flush();}
+				else {buffer = Arrays.copyOf(buffer, Math.min(buffer.length*2, compression*2));}
+			}
+			buffer[buffered++] = value;
+			count++;
+			if (count == 1 || value < min) {min = value;}
+			if (count == 1 || value > max) {max = value;}
+		}
+
+		/**Add the contents of a digest.**/
+		public void addAll(QuantileDigest other) {
+			if (other.count == 0) {return;}
+			flush();
+			long[] otherWeights = new long[other.means.length];
+			for (int i=0; i<otherWeights.length; i++) {otherWeights[i] = other.weight(i);}
+			merge(other.means, otherWeights, other.means.length);
+			include(other.count, other.min, other.max);
+		}
+
+		/**Add the contents of another accumulator.
+		 * The other accumulator is not modified: its centroids are read in place and its buffered values are merged from a sorted copy.**/
+		public void addAll(Accumulator other) {
+			if (other == this) {throw new IllegalArgumentException("Cannot add an accumulator to itself.");}
+			if (other.count == 0) {return;}
+			flush();
+			merge(other.means, other.weights, other.size);
+			if (other.buffered > 0) {
+				double[] pending = Arrays.copyOf(other.buffer, other.buffered);
+				Arrays.sort(pending);
+				merge(pending, ones(pending.length), pending.length);
+			}
+			include(other.count, other.min, other.max);
+		}
+
+		/**Immutable digest with the current contents.**/
+		public QuantileDigest freeze() {
+			flush();
+			boolean exact = true;
+			for (int i=0; i<size && exact; i++) {exact = weights[i] == 1;}
+			return new QuantileDigest(compression, Arrays.copyOf(means, size), exact ? null : Arrays.copyOf(weights, size), count, min, max);
+		}
+
+		/**Fold the buffered values into the centroids.**/
+		private void flush() {
+			if (buffered == 0) {return;}
+			Arrays.sort(buffer, 0, buffered);
+			merge(buffer, ones(buffered), buffered);
+			buffered = 0;
+			compress();
+		}
+
+		/**Account for merged centroids (already in the arrays) covering count values from min to max.**/
+		private void include(long otherCount, double otherMin, double otherMax) {
+			min = count == 0 ? otherMin : Math.min(min, otherMin);
+			max = count == 0 ? otherMax : Math.max(max, otherMax);
+			count += otherCount;
+			compress();
+		}
+
+		private static long[] ones(int length) {
+			long[] ones = new long[length];
+			Arrays.fill(ones, 1);
+			return ones;
+		}
+
+		/**Merge sorted centroids into the (sorted) centroids held.**/
+		private void merge(double[] otherMeans, long[] otherWeights, int otherSize) {
+			double[] mergedMeans = new double[size+otherSize];
+			long[] mergedWeights = new long[size+otherSize];
+			int i=0, j=0, k=0;
+			while (i<size || j<otherSize) {
+				if (j == otherSize || (i < size && means[i] <= otherMeans[j])) {
+					mergedMeans[k] = means[i];
+					mergedWeights[k++] = weights[i++];
+				} else {
+					mergedMeans[k] = otherMeans[j];
+					mergedWeights[k++] = otherWeights[j++];
+				}
+			}
+			means = mergedMeans;
+			weights = mergedWeights;
+			size = k;
+		}
+
+		/**Combine neighboring centroids while they stay within the scale function's size limit.
+		 * Nothing is combined until the count exceeds the compression (small digests stay exact).**/
+		private void compress() {
+			long total = 0;
+			for (int i=0; i<size; i++) {total += weights[i];}
+			if (total <= compression || size <= 1) {return;}
+
+			int out = 0;
+			long before = 0;	//Weight of the centroids already emitted
+			double limit = limit(0, total);
+			for (int i=1; i<size; i++) {
+				long proposed = before + weights[out] + weights[i];
+				if (proposed <= limit) {
+					long w = weights[out] + weights[i];
+					means[out] = means[out] + (means[i]-means[out]) * weights[i]/w;
+					weights[out] = w;
+				} else {
+					before += weights[out];
+					limit = limit(before, total);
+					out++;
+					means[out] = means[i];
+					weights[out] = weights[i];
+				}
+			}
+			size = out+1;
+		}
+
+		/**Cumulative weight that a centroid starting after the given weight may grow to (arcsine scale function).**/
+		private double limit(long before, long total) {
+			double q = (double) before/total;
+			double k = compression/(2*Math.PI) * Math.asin(2*q-1) + 1;
+			if (k >= compression/4d) {return total;}
+			return total * (Math.sin(k*2*Math.PI/compression)+1)/2;
+		}
+	}
+}
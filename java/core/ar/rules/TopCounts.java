@@ -0,0 +1,274 @@
+package ar.rules;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import ar.util.Util;
+
+/**Bounded summary of the most frequent categories (the Space-Saving algorithm of Metwally, Agrawal and El Abbadi).
+ *
+ * At most capacity() categories are kept, ordered by count (largest first), so
+ * Categories.NthKey, NthCount and KeyPercent see the heaviest hitters first.
+ * Counts are over-estimates: count(i)-error(i) <= true count <= count(i).
+ * Any category seen more than fullSize()/capacity() times is kept.
+ * fullSize() is the exact number of items summarized.
+ *
+ * Summaries merge by the parallel Space-Saving rule (absent categories are charged the other side's minimum),
+ * which keeps the same guarantees, so they can be rolled up in any order (e.g., by AggregateUtils.__unsafeMerge or RDDRender.Rollup).
+ * Lookups are linear in the capacity, which is expected to be small (tens to hundreds); merges index the other side once.
+ * The comparator orders categories as they are kept (by count), with categories that are not kept last.
+ *
+ * @param <T> The type of the categories
+ */
+public class TopCounts<T> extends CategoricalCounts<T> {
+	private static final long serialVersionUID = 4876237640870624411L;
+	private final int capacity;
+	private final int[] errors;
+
+	/**Empty summary that will keep (at most) capacity categories.**/
+	@SuppressWarnings("unchecked")
+	public TopCounts(int capacity) {this(capacity, (T[]) new Object[0], new int[0], new int[0], 0);}
+
+	private TopCounts(int capacity, T[] labels, int[] counts, int[] errors, int fullSize) {
+		super(new Rank<>(labels), labels, counts, fullSize);
+		if (capacity < 1) {throw new IllegalArgumentException("Must keep at least one category; requested " + capacity);}
+		this.capacity = capacity;
+		this.errors = errors;
+	}
+
+	/**Most categories kept.**/
+	@Override
+	public int capacity() {return capacity;}
+
+	/**Largest amount by which the i-th count may over-estimate its category.**/
+	public int error(int i) {return errors[i];}
+
+	/**A kept category that stays in count order only copies the counts (labels and errors are shared);
+	 * anything else goes through a summary.**/
+	@Override
+	public TopCounts<T> extend(T key, int count) {
+		int idx = indexOf(key);
+		if (idx >= 0 && (idx == 0 || count(idx) + count <= count(idx-1))) {
+			int[] counts = new int[size()];
+			for (int i=0; i<counts.length; i++) {counts[i] = count(i);}
+			counts[idx] += count;
+			return new TopCounts<>(capacity, rank().labels, counts, errors, fullSize()+count);
+		}
+
+		Summary<T> summary = summary();
+		summary.add(key, count);
+		return summary.freeze();
+	}
+
+	/**Estimated count of the category (0 if it is not kept).**/
+	@Override
+	public int count(T key) {
+		int idx = indexOf(key);
+		return idx < 0 ? 0 : count(idx);
+	}
+
+	private int indexOf(T key) {return rank().indexOf(key);}
+
+	@SuppressWarnings("unchecked")
+	private Rank<T> rank() {return (Rank<T>) comparator();}
+
+	@Override public TopCounts<T> empty() {return new TopCounts<>(capacity);}
+
+	/**Mutable copy of this summary.**/
+	public Summary<T> summary() {return new Summary<>(this);}
+
+	/**Accumulator that keeps a Space-Saving summary (starting with a copy of this one).**/
+	@Override
+	public CategoricalCounts.Accumulator<T> accumulator() {return new CategoricalCounts.Accumulator<>(summary());}
+
+	/**Merge two sets of counts, at least one of which is bounded (the larger bounded capacity is kept).
+	 * Other categorical counts are treated as exact.**/
+	public static <T> TopCounts<T> merge(CategoricalCounts<T> s1, CategoricalCounts<T> s2) {
+		int capacity = Math.max(bound(s1), bound(s2));
+		Summary<T> summary = new Summary<>(capacity);
+		summary.addAll(s1);
+		summary.addAll(s2);
+		return summary.freeze();
+	}
+
+
+	private static int bound(CategoricalCounts<?> counts) {return counts.capacity() == UNBOUNDED ? 0 : counts.capacity();}
+
+	/**Mutable Space-Saving summary (see Aggregator.Accumulating).
+	 * Entries are kept in count order, so the minimum is always last.
+	 * Not safe for concurrent use.
+	 */
+	public static final class Summary<T> {
+		private final int capacity;
+		private T[] labels;
+		private int[] counts;
+		private int[] errors;
+		private int size;
+		private int fullSize;
+
+		@SuppressWarnings("unchecked")
+		public Summary(int capacity) {
+			if (capacity < 1) {throw new IllegalArgumentException("Must keep at least one category; requested " + capacity);}
+			this.capacity = capacity;
+			this.labels = (T[]) new Object[Math.min(capacity, 4)];
+			this.counts = new int[labels.length];
+			this.errors = new int[labels.length];
+		}
+
+		private Summary(TopCounts<T> source) {
+			this(source.capacity);
+			for (int i=0; i<source.size(); i++) {append(source.key(i), source.count(i), source.errors[i]);}
+			fullSize = source.fullSize();
+		}
+
+		/**Add to the count of a category.  When full, an absent category replaces the smallest count (which becomes its error).**/
+		public void add(T key, int count) {
+			fullSize += count;
+			int idx = indexOf(key);
+			if (idx < 0 && size < capacity) {
+				append(key, count, 0);
+				return;
+			} else if (idx < 0) {
+				idx = size-1;
+				labels[idx] = key;
+				errors[idx] = counts[idx];
+			}
+			counts[idx] += count;
+			raise(idx);
+		}
+
+		/**Add another set of counts (errors and minimums are taken from TopCounts; other counts are exact).**/
+		public void addAll(CategoricalCounts<T> other) {
+			if (other instanceof TopCounts) {
+				TopCounts<T> top = (TopCounts<T>) other;
+				addAll(top, top.errors, top.size() >= top.capacity);
+			} else {
+				addAll(other, null, false);
+			}
+		}
+
+		/**Add another summary (which is not modified).**/
+		public void addAll(Summary<T> other) {
+			TopCounts<T> top = other.freeze();
+			addAll(top, top.errors, other.size >= other.capacity);
+		}
+
+		/**Number of categories kept.**/
+		public int size() {return size;}
+
+		/**Most categories kept.**/
+		public int capacity() {return capacity;}
+
+		/**Total of all items added.**/
+		public int fullSize() {return fullSize;}
+
+		/**Immutable summary with the current contents.**/
+		public TopCounts<T> freeze() {
+			return new TopCounts<>(capacity, Arrays.copyOf(labels, size), Arrays.copyOf(counts, size), Arrays.copyOf(errors, size), fullSize);
+		}
+
+		/**Parallel Space-Saving merge: a category absent from one (full) side is charged that side's minimum count,
+		 * then the largest counts are kept.**/
+		private void addAll(CategoricalCounts<T> other, int[] otherErrors, boolean otherFull) {
+			int mine = size >= capacity ? counts[size-1] : 0;
+			int theirs = otherFull ? other.count(other.size()-1) : 0;
+
+			Map<T, Integer> positions = new HashMap<>();
+			for (int k=0; k<other.size(); k++) {positions.putIfAbsent(other.key(k), k);}
+
+			boolean[] matched = new boolean[other.size()];
+			for (int i=0; i<size; i++) {
+				Integer k = positions.get(labels[i]);
+				int j = k == null || matched[k] ? -1 : k;
+				if (j >= 0) {
+					matched[j] = true;
+					counts[i] += other.count(j);
+					errors[i] += otherErrors == null ? 0 : otherErrors[j];
+				} else {
+					counts[i] += theirs;
+					errors[i] += theirs;
+				}
+			}
+
+			for (int k=0; k<other.size(); k++) {
+				if (matched[k]) {continue;}
+				int error = (otherErrors == null ? 0 : otherErrors[k]) + mine;
+				append(other.key(k), other.count(k) + mine, error);
+			}
+			fullSize += other.fullSize();
+
+			sort();
+			if (size > capacity) {
+				size = capacity;
+				Arrays.fill(labels, size, labels.length, null);
+			}
+		}
+
+		/**Add an entry at the end (growing the arrays past capacity if needed) and move it into count order.**/
+		private void append(T key, int count, int error) {
+			if (size == labels.length) {
+				int length = Math.max(size+1, labels.length*2);
+				labels = Arrays.copyOf(labels, length);
+				counts = Arrays.copyOf(counts, length);
+				errors = Arrays.copyOf(errors, length);
+			}
+			labels[size] = key;
+			counts[size] = count;
+			errors[size] = error;
+			size++;
+			raise(size-1);
+		}
+
+		private int indexOf(T key) {
+			for (int i=0; i<size; i++) {
+				if (Util.isEqual(labels[i], key)) {return i;}
+			}
+			return -1;
+		}
+
+		/**Move an entry whose count grew towards the front.**/
+		private void raise(int idx) {
+			while (idx > 0 && counts[idx] > counts[idx-1]) {
+				swap(idx, idx-1);
+				idx--;
+			}
+		}
+
+		/**Count order after a merge (insertion sort: entries were already mostly ordered).**/
+		private void sort() {
+			for (int i=1; i<size; i++) {
+				for (int j=i; j>0 && counts[j] > counts[j-1]; j--) {swap(j, j-1);}
+			}
+		}
+
+		private void swap(int a, int b) {
+			T label = labels[a]; labels[a] = labels[b]; labels[b] = label;
+			int count = counts[a]; counts[a] = counts[b]; counts[b] = count;
+			int error = errors[a]; errors[a] = errors[b]; errors[b] = error;
+		}
+	}
+
+	/**Orders categories by their position in a summary (count order); categories that are not kept come last.**/
+	private static final class Rank<T> implements Comparator<T>, Serializable {
+		private static final long serialVersionUID = -2385905118637224960L;
+		private final T[] labels;
+
+		public Rank(T[] labels) {this.labels = labels;}
+
+		public int indexOf(T key) {
+			for (int i=0; i<labels.length; i++) {
+				if (Util.isEqual(labels[i], key)) {return i;}
+			}
+			return -1;
+		}
+
+		@Override
+		public int compare(T left, T right) {
+			int l = indexOf(left), r = indexOf(right);
+			return Integer.compare(l < 0 ? labels.length : l, r < 0 ? labels.length : r);
+		}
+	}
+}
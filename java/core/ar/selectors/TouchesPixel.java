@@ -2,50 +2,158 @@ package ar.selectors;
 
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 
 import ar.Aggregates;
 import ar.Aggregator;
 import ar.Glyph;
 import ar.Glyphset;
 import ar.Selector;
+import ar.glyphsets.ColumnarGlyphs;
 
 /**Collection of selectors that modify bins that a shape touches.
  * **/
 public abstract class TouchesPixel {
 	
-	/**DESTRUCTIVELY updates the target at x/y with the value passed and the target operation.**/
-	protected static final <A,I> void update(Aggregates<A> target, I v, int x, int y, Aggregator<I,A> op) {
-		A existing = target.get(x,y);
-		A update = op.combine(existing,v);
-		target.set(x, y, update);
+	/**DESTRUCTIVELY updates the target at x/y with the value passed and the target operation (see Aggregates.accumulate).**/
+	static final <A,I> void update(Aggregates<A> target, I v, int x, int y, Aggregator<I,A> op) {
+		target.accumulate(x, y, v, op);
 	}
 	
 	
 	
+	/**How many glyphs are projected together by the batching selectors.
+	 * May be set as a system parameter (-DPROJECTION_BLOCK=x) but will default to 4096 if any value less than 1 is given.
+	 **/
+	public static final int PROJECTION_BLOCK;
+	static{
+		int size = -1;
+		if (System.getProperties().containsKey("PROJECTION_BLOCK")) {
+			size = Integer.parseInt(System.getProperty("PROJECTION_BLOCK"));
+		}
+		if (size < 1) {size = 4096;}
+		PROJECTION_BLOCK = size;	
+	}
+	
+	/**Consumer of a projected block of glyphs.
+	 * Coordinates are packed x/y pairs, in screen space; values are the glyph info in the same order.**/
+	protected static interface BlockUpdater {
+		public <I,A> void update(double[] coords, Object[] values, int count, Aggregates<A> target, Aggregator<I,A> op);
+	}
+	
+	/**The subset as a columnar glyphset of the given geometry, or null if it is not one.
+	 * Columnar glyphsets can be staged into a ProjectionBlock without building glyph objects.**/
+	@SuppressWarnings("unchecked")
+	protected static <I> ColumnarGlyphs<?, ? extends I> columnar(Iterable<?> subset, ColumnarGlyphs.Geometry geometry) {
+		if (subset instanceof ColumnarGlyphs && ((ColumnarGlyphs<?,?>) subset).geometry() == geometry) {
+			return (ColumnarGlyphs<?, ? extends I>) subset;
+		}
+		return null;
+	}
+	
+	/**Staging area for projecting glyph coordinates in bulk.
+	 * 
+	 * Glyph coordinates are copied into a flat double array and transformed with a single
+	 * AffineTransform.transform(double[],int,double[],int,int) call per block, 
+	 * avoiding a per-glyph Point2D round-trip through the transform.
+	 * Not thread-safe; allocate one per processSubset call.
+	 */
+	protected static final class ProjectionBlock<I> {
+		private final int pointsPer;
+		private final double[] coords;
+		private final Object[] values;
+		private int count = 0;
+		
+		/**@param pointsPer How many x/y pairs are stored for each glyph**/
+		public ProjectionBlock(int pointsPer) {
+			this.pointsPer = pointsPer;
+			this.coords = new double[PROJECTION_BLOCK*pointsPer*2];
+			this.values = new Object[PROJECTION_BLOCK];
+		}
+		
+		public boolean full() {return count >= values.length;}
+		
+		/**Stage a glyph described by a single point.**/
+		public void add(I value, double x, double y) {
+			int at = count*pointsPer*2;
+			coords[at] = x;
+			coords[at+1] = y;
+			values[count++] = value;
+		}
+
+		/**Stage a glyph described by two points.**/
+		public void add(I value, double x1, double y1, double x2, double y2) {
+			int at = count*pointsPer*2;
+			coords[at] = x1;
+			coords[at+1] = y1;
+			coords[at+2] = x2;
+			coords[at+3] = y2;
+			values[count++] = value;
+		}
+		
+		/**Stage glyphs straight from the columns of a columnar glyphset, starting at item 'from'.
+		 * The block must be empty; it is filled as far as the source allows.
+		 * @return Number of glyphs staged
+		 */
+		public int fill(ColumnarGlyphs<?, ? extends I> source, long from) {
+			if (count != 0) {throw new IllegalStateException("Can only fill an empty block.");}
+			if (source.geometry().points != pointsPer) {throw new IllegalArgumentException("Source geometry does not match block: " + source.geometry());}
+			count = source.fill(from, values.length, coords, values);
+			return count;
+		}
+		
+		/**Project everything staged so far and pass it to the updater.  The block is empty afterwards.**/
+		public <A> void flush(AffineTransform view, Aggregates<A> target, Aggregator<I,A> op, BlockUpdater updater) {
+			if (count == 0) {return;}
+			view.transform(coords, 0, coords, 0, count*pointsPer);
+			updater.update(coords, values, count, target, op);
+			Arrays.fill(values, 0, count, null);
+			count = 0;
+		}
+	}
+
 	public static final class Points implements Selector<Point2D> {
-		/**Sets the value at a single point in the aggregates.**/
+		/**Sets the value at a single point in the aggregates.
+		 * Points are projected in blocks (see ProjectionBlock) instead of one-at-a-time.**/
 		public <I,A> Aggregates<A> processSubset(
 				Iterable<? extends Glyph<? extends Point2D, ? extends I>> subset,
 				AffineTransform view, 
 				Aggregates<A> target, 
 				Aggregator<I, A> op) {
 			
-			Point2D scratch = new Point2D.Double();
+			ProjectionBlock<I> block = new ProjectionBlock<>(1);
+			ColumnarGlyphs<?, ? extends I> columns = columnar(subset, ColumnarGlyphs.Geometry.POINT);
+			if (columns != null) {
+				for (long i=0; i<columns.size(); ) {
+					i += block.fill(columns, i);
+					block.flush(view, target, op, Points::updateBlock);
+				}
+				return target;
+			}
+
 			for (Glyph<? extends Point2D, ? extends I> g: subset) {
 				Point2D p = g.shape();	//A point has no bounding box...so life is easy
-				view.transform(p, scratch);
-				int x = (int) scratch.getX();
-				int y = (int) scratch.getY();
-				I v = g.info();
-				
-				TouchesPixel.update(target, v, x, y, op);
+				block.add(g.info(), p.getX(), p.getY());
+				if (block.full()) {block.flush(view, target, op, Points::updateBlock);}
 			}
+			block.flush(view, target, op, Points::updateBlock);
 
 			return target;		
 		}
+		
+		private static <I,A> void updateBlock(double[] coords, Object[] values, int count, Aggregates<A> target, Aggregator<I,A> op) {
+			for (int i=0; i<count; i++) {
+				int x = (int) coords[i*2];
+				int y = (int) coords[i*2+1];
+				@SuppressWarnings("unchecked")
+				I v = (I) values[i];
+				TouchesPixel.update(target, v, x, y, op);
+			}
+		}
 
 		@Override
 		public boolean hitsBin(Glyph<? extends Point2D, ?> glyph, AffineTransform view, int x, int y) {
@@ -135,38 +243,48 @@ public abstract class TouchesPixel {
 	
 	public static final class Rectangles implements Selector<Rectangle2D> {
 		
-		/**Iterates over the projection of a rectangle (no hit-tests required).**/
+		/**Iterates over the projection of a rectangle (no hit-tests required).
+		 * Corners are projected in blocks (see ProjectionBlock) instead of one-at-a-time.**/
 		public <I,A> Aggregates<A> processSubset(
 				Iterable<? extends Glyph<? extends Rectangle2D, ? extends I>> subset,
 				AffineTransform view, 
 				Aggregates<A> target, 
 				Aggregator<I, A> op) {
 
-			Point2D lowP = new Point2D.Double();
-			Point2D highP = new Point2D.Double();
+			ProjectionBlock<I> block = new ProjectionBlock<>(2);
+			ColumnarGlyphs<?, ? extends I> columns = columnar(subset, ColumnarGlyphs.Geometry.RECTANGLE);
+			if (columns != null) {
+				for (long i=0; i<columns.size(); ) {
+					i += block.fill(columns, i);
+					block.flush(view, target, op, Rectangles::updateBlock);
+				}
+				return target;
+			}
 
 			for (Glyph<? extends Rectangle2D, ? extends I> g: subset) {
 				Rectangle2D b = g.shape();	//A rectangle is its own bounding box!
-				lowP.setLocation(b.getMinX(), b.getMinY());
-				highP.setLocation(b.getMaxX(), b.getMaxY());
-
-				view.transform(lowP, lowP);
-				view.transform(highP, highP);
-
-				int lowx = (int) Math.floor(lowP.getX());
-				int lowy = (int) Math.floor(lowP.getY());
-				int highx = (int) Math.ceil(highP.getX());
-				int highy = (int) Math.ceil(highP.getY());
-
-				I v = g.info();
+				block.add(g.info(), b.getMinX(), b.getMinY(), b.getMaxX(), b.getMaxY());
+				if (block.full()) {block.flush(view, target, op, Rectangles::updateBlock);}
+			}
+			block.flush(view, target, op, Rectangles::updateBlock);
+			return target;
+		}
+		
+		private static <I,A> void updateBlock(double[] coords, Object[] values, int count, Aggregates<A> target, Aggregator<I,A> op) {
+			for (int i=0; i<count; i++) {
+				int lowx = (int) Math.floor(coords[i*4]);
+				int lowy = (int) Math.floor(coords[i*4+1]);
+				int highx = (int) Math.ceil(coords[i*4+2]);
+				int highy = (int) Math.ceil(coords[i*4+3]);
 
+				@SuppressWarnings("unchecked")
+				I v = (I) values[i];
 				for (int x=lowx; x<highx; x++){
 					for (int y=lowy; y<highy; y++) {
 						update(target, v, x,y, op);
 					}
 				}
 			}
-			return target;
 		}
 		
 		@Override
@@ -176,6 +294,81 @@ public abstract class TouchesPixel {
 		}
 	}
 
+	/**Ellipses are rasterized analytically, one scan-line at a time.
+	 * 
+	 * Pixels are touched under the same rule as the Shapes selector (pixel x/y is
+	 * touched if the point x/y is inside the transformed ellipse), but the span on
+	 * each row is computed directly instead of hit-testing every pixel in the bounds.
+	 * If the view transform has no shear/rotation, no transformed shapes are allocated.  
+	 * Rotated/sheared views fall back to the general shape-based process.
+	 */
+	public static final class Ellipses implements Selector<Ellipse2D> {
+		private static final Shapes FALLBACK = new Shapes();
+		
+		public <I,A> Aggregates<A> processSubset(
+				Iterable<? extends Glyph<? extends Ellipse2D, ? extends I>> subset,
+				AffineTransform view, 
+				Aggregates<A> target, 
+				Aggregator<I, A> op) {
+			
+			if (!axisAligned(view)) {return FALLBACK.processSubset(subset, view, target, op);}
+
+			final double sx = view.getScaleX(), sy = view.getScaleY();
+			final double tx = view.getTranslateX(), ty = view.getTranslateY();
+			
+			for (Glyph<? extends Ellipse2D, ? extends I> g: subset) {
+				Ellipse2D e = g.shape();
+				double x0 = e.getX()*sx+tx;
+				double x1 = (e.getX()+e.getWidth())*sx+tx;
+				double y0 = e.getY()*sy+ty;
+				double y1 = (e.getY()+e.getHeight())*sy+ty;
+				
+				double w = Math.abs(x1-x0);
+				double h = Math.abs(y1-y0);
+				if (w <= 0 || h <= 0) {continue;}
+				double cx = Math.min(x0, x1) + w/2d;
+				double cy = Math.min(y0, y1) + h/2d;
+				double rx = w/2d, ry = h/2d;
+
+				I v = g.info();
+				int lowy = (int) Math.floor(cy-ry);
+				int highy = (int) Math.ceil(cy+ry);
+				for (int y=lowy; y<=highy; y++) {
+					double dy = (y-cy)/ry;
+					double span = 1-(dy*dy);
+					if (span <= 0) {continue;}
+					double half = rx*Math.sqrt(span);
+					
+					//Strictly inside: cx-half < x < cx+half
+					int lowx = (int) Math.floor(cx-half)+1;
+					int highx = (int) Math.ceil(cx+half)-1;
+					for (int x=lowx; x<=highx; x++) {
+						update(target, v, x,y, op);
+					}
+				}
+			}
+			return target;
+		}
+
+		@Override
+		public boolean hitsBin(Glyph<? extends Ellipse2D, ?> glyph, AffineTransform view, int x, int y) {
+			if (!axisAligned(view)) {return FALLBACK.hitsBin(glyph, view, x, y);}
+			
+			Ellipse2D e = glyph.shape();
+			double x0 = e.getX()*view.getScaleX()+view.getTranslateX();
+			double x1 = (e.getX()+e.getWidth())*view.getScaleX()+view.getTranslateX();
+			double y0 = e.getY()*view.getScaleY()+view.getTranslateY();
+			double y1 = (e.getY()+e.getHeight())*view.getScaleY()+view.getTranslateY();
+			Ellipse2D.Double screen = new Ellipse2D.Double(Math.min(x0,x1), Math.min(y0,y1), Math.abs(x1-x0), Math.abs(y1-y0));
+			return screen.intersects(x, y, 1, 1);
+		}
+		
+		/**Does this view only scale and translate (so ellipses stay axis-aligned ellipses)?**/
+		private static boolean axisAligned(AffineTransform view) {
+			return view.getShearX() == 0 && view.getShearY() == 0;
+		}
+	}
+
 	public static final class Shapes implements Selector<Shape> {
 		/**Iterates the bounds, with a hit-test to only set values inside of the shape.
 		 **/
@@ -242,6 +435,8 @@ public abstract class TouchesPixel {
 			return (Selector<G>) new Rectangles();
 		} else if (Line2D.class.isAssignableFrom(geometryType)) {
 			return (Selector<G>) new Lines();
+		} else if (Ellipse2D.class.isAssignableFrom(geometryType)) {
+			return (Selector<G>) new Ellipses();
 		} else if (Shape.class.isAssignableFrom(geometryType)){
 			return (Selector<G>) new Shapes();
 		} else {
@@ -10,9 +10,16 @@ import java.io.File;
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -31,6 +38,34 @@ public class Util {
 	/**Color representing clear (fully transparent).**/
 	public static final Color CLEAR = new Color(0,0,0,0);
 
+	/**Tasks to use for data-parallel work outside of a renderer (e.g., counting or bounding a glyphset).
+	 * 
+	 * May be set as a system parameter (-DPARALLELISM=x) but will default to the number of cores if
+	 * any values less than 1 is given.
+	 */
+	public static final int PARALLELISM;
+	static{
+		int size = -1;
+		if (System.getProperties().containsKey("PARALLELISM")) {
+			size = Integer.parseInt(System.getProperty("PARALLELISM"));
+		}
+		if (size < 1) {size = Runtime.getRuntime().availableProcessors();}
+		PARALLELISM = size;
+	}
+
+	/**Run tasks on a private pool of (at most) the given number of threads, rather than the common fork/join pool.
+	 * Returns once all tasks have completed, with results in task order.
+	 */
+	public static <A> List<A> invokeAll(int parallelism, List<? extends Callable<A>> tasks) {
+		if (parallelism < 1) {throw new IllegalArgumentException("Parallelism must be positive; received " + parallelism);}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, tasks.size())), new NamedThreadFactory("Util Worker", true));
+		List<A> results = new ArrayList<>();
+		try {for (Future<A> f: pool.invokeAll(tasks)) {results.add(f.get());}}
+		catch (InterruptedException | ExecutionException e) {throw new RuntimeException("Error completing tasks", e);}
+		finally {pool.shutdown();}
+		return results;
+	}
+
 	/**Lookup a key/value pair in an argument list.**/
 	public static String argKey(String[] args, String flag, String def) {
 		flag = flag.toUpperCase();
@@ -0,0 +1,474 @@
+package ar.util.memoryMapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import ar.util.memoryMapping.MemMapEncoder.TYPE;
+
+/**Compressed variant of the hbin format.
+ *
+ * Records are grouped into blocks; each block is stored column-by-column and can be
+ * decoded without reference to any other block.  Each column uses one of four encodings:
+ *
+ *   + QUANTIZED -- Floating point fields (only those requested); values become fixed-point integers (value-origin)/quantum,
+ *                  stored as zig-zag varint deltas from the previous record in the block.
+ *   + DELTA     -- Integer fields (and floating point fields that only hold integers);
+ *                  zig-zag varint deltas from the previous record in the block.
+ *   + DICTIONARY -- Integer or char fields with few distinct values; varint index into a dictionary in the header.
+ *   + EXACT     -- Other floating point fields; varint of the value's bits XOR the previous record's bits.
+ *
+ * Only QUANTIZED loses precision: decoded values are within quantum/2 of the source value.
+ * Quantization is therefore opt-in, per field (typically the coordinate fields; see write), and
+ * quantized fields must be finite (NaN and infinities are rejected when writing).
+ * Deltas work best when neighboring records are similar, so sorting first (see SpatialSort) improves compression.
+ * For example, the sample circlepoints data (two doubles and an int per record, 24 bits of quantization
+ * on the two doubles) compresses about 2.2x as written and about 2.7x after a Hilbert sort.
+ *
+ * File format:
+ *
+ * + Magic (Int), Version (Int)
+ * + Field count (Int), then per field: Type (Char), Mode (Byte), Origin (Double), Quantum (Double),
+ *   Min (Double), Max (Double), Dictionary size (Int), Dictionary entries ([Long])
+ * + Block size (Int), Block count (Int), then per block: First record (Long), Record count (Int),
+ *   File offset (Long), Byte length (Int)
+ * + Blocks: per field, Byte length (Int) followed by the encoded column
+ */
+public class CompressedHbin {
+	/**Identifies compressed hbin files (first int written).**/
+	public static final int MAGIC = 0x4843424E; //"HCBN"
+	public static final int VERSION = 2;	//Version 2 added EXACT; version 1 files are read as well
+
+	/**Integer and char fields with at most this many distinct values are dictionary encoded.**/
+	public static final int DICTIONARY_LIMIT = 256;
+
+	/**Default bits of precision over a floating point field's range.**/
+	public static final int DEFAULT_QUANTIZATION_BITS = 24;
+
+	@SuppressWarnings("javadoc")
+	public enum Mode {QUANTIZED, DELTA, DICTIONARY, EXACT}
+
+	/**Everything needed to locate and decode blocks.**/
+	@SuppressWarnings("javadoc")
+	public static final class Header {
+		public final TYPE[] types;
+		public final Mode[] modes;
+		public final double[] origins, quanta, mins, maxs;
+		public final long[][] dictionaries;
+		public final int blockSize;
+		public final long[] blockFirsts;
+		public final int[] blockCounts;
+		public final long[] blockOffsets;
+		public final int[] blockLengths;
+
+		private Header(TYPE[] types, Mode[] modes, double[] origins, double[] quanta, double[] mins, double[] maxs,
+				long[][] dictionaries, int blockSize, long[] blockFirsts, int[] blockCounts, long[] blockOffsets, int[] blockLengths) {
+			this.types = types;
+			this.modes = modes;
+			this.origins = origins;
+			this.quanta = quanta;
+			this.mins = mins;
+			this.maxs = maxs;
+			this.dictionaries = dictionaries;
+			this.blockSize = blockSize;
+			this.blockFirsts = blockFirsts;
+			this.blockCounts = blockCounts;
+			this.blockOffsets = blockOffsets;
+			this.blockLengths = blockLengths;
+		}
+
+		public int blocks() {return blockFirsts.length;}
+		public long records() {return blocks() == 0 ? 0 : blockFirsts[blocks()-1] + blockCounts[blocks()-1];}
+
+		public static Header from(File source) throws IOException {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)))) {
+				int magic = in.readInt();
+				if (magic != MAGIC) {throw new IllegalArgumentException("Not a compressed hbin file: " + source);}
+				int version = in.readInt();
+				if (version < 1 || version > VERSION) {throw new IllegalArgumentException(String.format("Unexpected version number in file %d; expected %d or earlier", version, VERSION));}
+
+				int fields = in.readInt();
+				TYPE[] types = new TYPE[fields];
+				Mode[] modes = new Mode[fields];
+				double[] origins = new double[fields], quanta = new double[fields], mins = new double[fields], maxs = new double[fields];
+				long[][] dictionaries = new long[fields][];
+				for (int f=0; f<fields; f++) {
+					types[f] = TYPE.typeFor(in.readChar());
+					modes[f] = Mode.values()[in.readByte()];
+					origins[f] = in.readDouble();
+					quanta[f] = in.readDouble();
+					mins[f] = in.readDouble();
+					maxs[f] = in.readDouble();
+					dictionaries[f] = new long[in.readInt()];
+					for (int i=0; i<dictionaries[f].length; i++) {dictionaries[f][i] = in.readLong();}
+				}
+
+				int blockSize = in.readInt();
+				int blocks = in.readInt();
+				long[] firsts = new long[blocks], offsets = new long[blocks];
+				int[] counts = new int[blocks], lengths = new int[blocks];
+				for (int b=0; b<blocks; b++) {
+					firsts[b] = in.readLong();
+					counts[b] = in.readInt();
+					offsets[b] = in.readLong();
+					lengths[b] = in.readInt();
+				}
+				return new Header(types, modes, origins, quanta, mins, maxs, dictionaries, blockSize, firsts, counts, offsets, lengths);
+			}
+		}
+	}
+
+	/**A decoded block: one primitive array per field.
+	 * Floating-point fields are held as doubles, everything else as longs.**/
+	public static final class Block {
+		private final Header header;
+		private final int count;
+		private final double[][] reals;
+		private final long[][] integers;
+
+		private Block(Header header, int count, double[][] reals, long[][] integers) {
+			this.header = header;
+			this.count = count;
+			this.reals = reals;
+			this.integers = integers;
+		}
+
+		public int count() {return count;}
+		public int fieldCount() {return header.types.length;}
+
+		/**Numeric value of a field (as a double).**/
+		public double number(int field, int record) {
+			return reals[field] != null ? reals[field][record] : integers[field][record];
+		}
+
+		/**Value of a field, boxed to match the field type (as IndexedEncoding would return it).**/
+		public Object value(int field, int record) {
+			switch (header.types[field]) {
+				case DOUBLE: return reals[field][record];
+				case FLOAT: return (float) reals[field][record];
+				case INT: return (int) integers[field][record];
+				case LONG: return integers[field][record];
+				case SHORT: return (short) integers[field][record];
+				case BYTE: return (byte) integers[field][record];
+				case CHAR: return (char) integers[field][record];
+				default: throw new IllegalArgumentException("Unhandled type " + header.types[field]);
+			}
+		}
+
+		/**Decode a block from its bytes.**/
+		public static Block decode(Header header, ByteBuffer bytes, int count) {
+			int fields = header.types.length;
+			double[][] reals = new double[fields][];
+			long[][] integers = new long[fields][];
+			for (int f=0; f<fields; f++) {
+				int length = bytes.getInt();
+				int end = bytes.position() + length;
+				long prev = 0;
+				if (header.modes[f] == Mode.QUANTIZED) {
+					double[] column = reals[f] = new double[count];
+					for (int i=0; i<count; i++) {
+						prev += unzigzag(readVarint(bytes));
+						column[i] = header.origins[f] + prev*header.quanta[f];
+					}
+				} else if (header.modes[f] == Mode.DELTA && floating(header.types[f])) {
+					double[] column = reals[f] = new double[count];
+					for (int i=0; i<count; i++) {
+						prev += unzigzag(readVarint(bytes));
+						column[i] = prev;
+					}
+				} else if (header.modes[f] == Mode.DELTA) {
+					long[] column = integers[f] = new long[count];
+					for (int i=0; i<count; i++) {
+						prev += unzigzag(readVarint(bytes));
+						column[i] = prev;
+					}
+				} else if (header.modes[f] == Mode.EXACT) {
+					double[] column = reals[f] = new double[count];
+					boolean single = header.types[f] == TYPE.FLOAT;
+					for (int i=0; i<count; i++) {
+						prev ^= readVarint(bytes);
+						column[i] = single ? Float.intBitsToFloat((int) prev) : Double.longBitsToDouble(prev);
+					}
+				} else {
+					long[] column = integers[f] = new long[count];
+					long[] dictionary = header.dictionaries[f];
+					for (int i=0; i<count; i++) {column[i] = dictionary[(int) readVarint(bytes)];}
+				}
+				bytes.position(end);
+			}
+			return new Block(header, count, reals, integers);
+		}
+	}
+
+
+	/**Compress an hbin file with default settings (lossless).**/
+	public static void write(File hbin, File target) throws IOException {
+		write(hbin, target, ZoneMap.DEFAULT_BLOCK_SIZE, DEFAULT_QUANTIZATION_BITS);
+	}
+
+	/**Compress an hbin file.
+	 *
+	 * @param hbin Source hbin file (any version)
+	 * @param target Compressed file to create
+	 * @param blockSize Records per block
+	 * @param quantizationBits Bits of precision across the range of each quantized field
+	 * @param quantized Floating point fields to quantize (lossy); all other fields are stored exactly
+	 */
+	public static void write(File hbin, File target, int blockSize, int quantizationBits, int... quantized) throws IOException {
+		if (blockSize < 1) {throw new IllegalArgumentException("Block size must be positive; received " + blockSize);}
+		if (quantizationBits < 1 || quantizationBits > 52) {throw new IllegalArgumentException("Quantization bits must be in 1..52; received " + quantizationBits);}
+
+		MemMapEncoder.Header source;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(hbin))) {source = MemMapEncoder.Header.from(in);}
+		TYPE[] types = source.types;
+		int fields = types.length;
+		boolean[] quantize = new boolean[fields];
+		for (int f: quantized) {
+			if (f < 0 || f >= fields || !floating(types[f])) {throw new IllegalArgumentException(String.format("Can only quantize floating point fields; field %d is not one", f));}
+			quantize[f] = true;
+		}
+		int recordLength = source.recordLength;
+		int[] fieldOffsets = MemMapEncoder.recordOffsets(types);
+		long entries = (hbin.length()-source.dataTableOffset)/recordLength;
+		int blocks = (int) ((entries + blockSize - 1)/blockSize);
+
+		//Pass 1: ranges and distinct values
+		double[] mins = new double[fields], maxs = new double[fields];
+		Arrays.fill(mins, Double.POSITIVE_INFINITY);
+		Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+		List<TreeSet<Long>> distinct = new ArrayList<>();
+		for (int f=0; f<fields; f++) {distinct.add(floating(types[f]) ? null : new TreeSet<>());}
+		boolean[] integral = new boolean[fields];	//Floating point fields that only hold integers (stored as DELTA)
+		for (int f=0; f<fields; f++) {integral[f] = floating(types[f]) && !quantize[f];}
+
+		try (RecordReader records = new RecordReader(hbin, source.dataTableOffset, recordLength, blockSize)) {
+			for (int b=0; b<blocks; b++) {
+				int count = records.next(entries);
+				for (int r=0; r<count; r++) {
+					for (int f=0; f<fields; f++) {
+						double v = records.number(r, fieldOffsets[f], types[f]);
+						if (quantize[f] && (Double.isNaN(v) || Double.isInfinite(v))) {
+							throw new IllegalArgumentException(String.format("Cannot quantize %s in field %d of record %d", v, f, ((long) b)*blockSize + r));
+						}
+						if (integral[f]) {integral[f] = integral(v);}
+						if (Double.isNaN(v)) {continue;}
+						mins[f] = Math.min(mins[f], v);
+						maxs[f] = Math.max(maxs[f], v);
+						TreeSet<Long> values = distinct.get(f);
+						if (values != null && values.size() <= DICTIONARY_LIMIT) {values.add(records.integer(r, fieldOffsets[f], types[f]));}
+					}
+				}
+			}
+		}
+
+		Mode[] modes = new Mode[fields];
+		double[] origins = new double[fields], quanta = new double[fields];
+		long[][] dictionaries = new long[fields][];
+		for (int f=0; f<fields; f++) {
+			dictionaries[f] = new long[0];
+			if (integral[f]) {
+				modes[f] = Mode.DELTA;
+			} else if (floating(types[f]) && !quantize[f]) {
+				modes[f] = Mode.EXACT;
+			} else if (floating(types[f])) {
+				modes[f] = Mode.QUANTIZED;
+				origins[f] = entries == 0 ? 0 : mins[f];
+				double span = entries == 0 ? 0 : maxs[f]-mins[f];
+				quanta[f] = span > 0 ? span/((1L << quantizationBits)-1) : 1;
+			} else if (distinct.get(f).size() <= DICTIONARY_LIMIT) {
+				modes[f] = Mode.DICTIONARY;
+				dictionaries[f] = distinct.get(f).stream().mapToLong(Long::longValue).toArray();
+			} else {
+				modes[f] = Mode.DELTA;
+			}
+		}
+
+		//Header with a placeholder block directory
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(fields);
+		for (int f=0; f<fields; f++) {
+			header.writeChar(typeChar(types[f]));
+			header.writeByte(modes[f].ordinal());
+			header.writeDouble(origins[f]);
+			header.writeDouble(quanta[f]);
+			header.writeDouble(mins[f]);
+			header.writeDouble(maxs[f]);
+			header.writeInt(dictionaries[f].length);
+			for (long d: dictionaries[f]) {header.writeLong(d);}
+		}
+		header.writeInt(blockSize);
+		header.writeInt(blocks);
+		long directoryOffset = headerBytes.size();
+		int directoryEntry = TYPE.LONG.bytes + TYPE.INT.bytes + TYPE.LONG.bytes + TYPE.INT.bytes;
+		header.write(new byte[blocks*directoryEntry]);
+		header.flush();
+
+		//Pass 2: encode blocks
+		long[] firsts = new long[blocks], offsets = new long[blocks];
+		int[] counts = new int[blocks], lengths = new int[blocks];
+		try (RecordReader records = new RecordReader(hbin, source.dataTableOffset, recordLength, blockSize);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+			out.write(headerBytes.toByteArray());
+			long position = headerBytes.size();
+			ByteArrayOutputStream column = new ByteArrayOutputStream();
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+			for (int b=0; b<blocks; b++) {
+				int count = records.next(entries);
+				block.reset();
+				DataOutputStream blockOut = new DataOutputStream(block);
+				for (int f=0; f<fields; f++) {
+					column.reset();
+					long prev = 0;
+					for (int r=0; r<count; r++) {
+						if (modes[f] == Mode.QUANTIZED) {
+							long q = Math.round((records.number(r, fieldOffsets[f], types[f])-origins[f])/quanta[f]);
+							writeVarint(column, zigzag(q-prev));
+							prev = q;
+						} else if (modes[f] == Mode.DELTA) {
+							long v = integral[f] ? (long) records.number(r, fieldOffsets[f], types[f]) : records.integer(r, fieldOffsets[f], types[f]);
+							writeVarint(column, zigzag(v-prev));
+							prev = v;
+						} else if (modes[f] == Mode.EXACT) {
+							long v = bits(records.number(r, fieldOffsets[f], types[f]), types[f]);
+							writeVarint(column, v ^ prev);
+							prev = v;
+						} else {
+							writeVarint(column, Arrays.binarySearch(dictionaries[f], records.integer(r, fieldOffsets[f], types[f])));
+						}
+					}
+					blockOut.writeInt(column.size());
+					column.writeTo(blockOut);
+				}
+				blockOut.flush();
+
+				firsts[b] = ((long) b)*blockSize;
+				counts[b] = count;
+				offsets[b] = position;
+				lengths[b] = block.size();
+				block.writeTo(out);
+				position += block.size();
+			}
+		}
+
+		//Fill in the block directory
+		ByteBuffer directory = ByteBuffer.allocate(blocks*directoryEntry);
+		for (int b=0; b<blocks; b++) {
+			directory.putLong(firsts[b]);
+			directory.putInt(counts[b]);
+			directory.putLong(offsets[b]);
+			directory.putInt(lengths[b]);
+		}
+		try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+			file.seek(directoryOffset);
+			file.write(directory.array());
+		}
+	}
+
+	private static boolean floating(TYPE t) {return t == TYPE.DOUBLE || t == TYPE.FLOAT;}
+
+	/**Can the value be stored as a long and read back exactly (including the sign of zero)?**/
+	private static boolean integral(double v) {
+		return v == Math.rint(v) && Math.abs(v) < (1L << 53) && Double.doubleToRawLongBits(v) != Double.doubleToRawLongBits(-0d);
+	}
+
+	/**Bits of a floating point value, at the width of its type (so floats leave the high bits clear).**/
+	private static long bits(double v, TYPE t) {
+		return t == TYPE.FLOAT ? Float.floatToRawIntBits((float) v) & 0xFFFFFFFFL : Double.doubleToRawLongBits(v);
+	}
+
+	private static char typeChar(TYPE t) {
+		switch (t) {
+			case INT: return 'i';
+			case DOUBLE: return 'd';
+			case LONG: return 'l';
+			case SHORT: return 's';
+			case BYTE: return 'b';
+			case CHAR: return 'c';
+			case FLOAT: return 'f';
+			default: throw new IllegalArgumentException("Unhandled type " + t);
+		}
+	}
+
+	/**Zig-zag encoding: small magnitudes (positive or negative) become small unsigned values.**/
+	public static long zigzag(long v) {return (v << 1) ^ (v >> 63);}
+	public static long unzigzag(long v) {return (v >>> 1) ^ -(v & 1);}
+
+	/**Write an unsigned LEB128 varint.**/
+	public static void writeVarint(ByteArrayOutputStream out, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	/**Read an unsigned LEB128 varint.**/
+	public static long readVarint(ByteBuffer in) {
+		long v = 0;
+		for (int shift=0; ; shift+=7) {
+			byte b = in.get();
+			v |= ((long) (b & 0x7F)) << shift;
+			if ((b & 0x80) == 0) {return v;}
+		}
+	}
+
+	/**Reads fixed-width hbin records a block at a time.**/
+	private static final class RecordReader implements AutoCloseable {
+		private final FileChannel channel;
+		private final int recordLength;
+		private final ByteBuffer buffer;
+		private long read = 0;
+
+		public RecordReader(File hbin, long dataTableOffset, int recordLength, int blockSize) throws IOException {
+			this.channel = new FileInputStream(hbin).getChannel();
+			this.channel.position(dataTableOffset);
+			this.recordLength = recordLength;
+			this.buffer = ByteBuffer.allocate(blockSize*recordLength);
+		}
+
+		/**Read the next block.  Returns the number of records read.**/
+		public int next(long entries) throws IOException {
+			int count = (int) Math.min(buffer.capacity()/recordLength, entries-read);
+			buffer.clear();
+			buffer.limit(count*recordLength);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {throw new IOException("Unexpected end of file after " + read + " records");}
+			}
+			read += count;
+			return count;
+		}
+
+		public double number(int record, int offset, TYPE t) {return ZoneMap.value(buffer, record*recordLength+offset, t);}
+
+		public long integer(int record, int offset, TYPE t) {
+			int at = record*recordLength+offset;
+			switch (t) {
+				case INT: return buffer.getInt(at);
+				case SHORT: return buffer.getShort(at);
+				case LONG: return buffer.getLong(at);
+				case BYTE: return buffer.get(at);
+				case CHAR: return buffer.getChar(at);
+				default: throw new IllegalArgumentException("Not an integer type " + t);
+			}
+		}
+
+		@Override public void close() throws IOException {channel.close();}
+	}
+}
@@ -2,7 +2,17 @@ package ar.util.memoryMapping;
 
 import java.nio.*;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 import java.io.*;
 
 import ar.glyphsets.implicitgeometry.IndexedEncoding;
@@ -39,11 +49,18 @@ import ar.util.DelimitedReader;
  * + Record Size (Int): How many fields are in each record
  * + Record Types ([Char]): Type characters (described above), one for each field.  Cannot include 'x'
  * + Info Records: Metadata not be required to interpret the file.  Currently two data records to provide max/min values for columns.  
+ * + Zone Map (version VERSION_ZONES only): per-block min/max values for columns (see ZoneMap)  
  */
 public class MemMapEncoder {
 	/**(Magic) Number as the first value in the file to indicate what version of the format was used.*/
 	public static final int VERSION_ID = -1;
 	
+	/**Version number for files that carry a zone map after the info records.  Files are written with this version.**/
+	public static final int VERSION_ZONES = -2;
+	
+	/**Version number for column-oriented files (see writeColumns).  Not readable as row-oriented records.**/
+	public static final int VERSION_COLUMNS = -3;
+	
 	/**Types the encoder understands.
 	 * The "X" type is used to indicate that the field is being skipped.
 	 */
@@ -77,21 +94,41 @@ public class MemMapEncoder {
 		public final int recordLength;
 		public final long maximaRecordOffset;
 		public final long minimaRecordOffset;
+		public final ZoneMap zones;
 		
 		public Header(int version, TYPE[] types, long dataTableOffset, long infoRecordOffset) {
+			this(version, types, dataTableOffset, infoRecordOffset, null);
+		}
+
+		/**@param zones Zone map from the file (null if the file has none)**/
+		public Header(int version, TYPE[] types, long dataTableOffset, long infoRecordOffset, ZoneMap zones) {
 			this.version = version;
 			this.dataTableOffset = dataTableOffset;
 			this.types = types;
 			this.recordLength = recordLength(types);
 			this.maximaRecordOffset = infoRecordOffset;
 			this.minimaRecordOffset = infoRecordOffset+recordLength;
+			this.zones = zones;
+		}
+		
+		private static void checkVersion(int version) {
+			if (version != VERSION_ID && version != VERSION_ZONES) {
+				throw new IllegalArgumentException(String.format("Unexpected version number in file %d; expected %d or %d", version, VERSION_ID, VERSION_ZONES));
+			}
 		}
 		
 		/**Parse a given file, return a Header object.**/
-		public static Header from(MappedFile buffer) {
+		public static Header from(MappedFile buffer) {return from(buffer, false);}
+		
+		/**Parse a given file, return a Header object.
+		 * @param columnar Expect a column-oriented file (VERSION_COLUMNS) instead of a row-oriented one
+		 */
+		public static Header from(MappedFile buffer, boolean columnar) {
 			int version = buffer.getInt();
-			if (version != VERSION_ID) {
-				throw new IllegalArgumentException(String.format("Unexpected version number in file %d; expected %d", version, VERSION_ID));
+			if (columnar && version != VERSION_COLUMNS) {
+				throw new IllegalArgumentException(String.format("Unexpected version number in file %d; expected %d", version, VERSION_COLUMNS));
+			} else if (!columnar) {
+				checkVersion(version);
 			}
 
 			long dataTableOffset = buffer.getLong();
@@ -109,16 +146,18 @@ public class MemMapEncoder {
 			
 			long infoRecordOffset = buffer.position();
 			
+			ZoneMap zones = null;
+			if (version == VERSION_ZONES) {
+				zones = ZoneMap.read(buffer, infoRecordOffset + 2*recordLength(types), types.length);
+			}
 			
-			return new Header(version, types, dataTableOffset, infoRecordOffset);
+			return new Header(version, types, dataTableOffset, infoRecordOffset, zones);
 		}
 		
 		/**Parse a given file, return a Header object.**/
 		public static Header from(DataInputStream stream) throws IOException {
 			int version = stream.readInt();
-			if (version != VERSION_ID) {
-				throw new IllegalArgumentException(String.format("Unexpected version number in file %d; expected %d", version, VERSION_ID));
-			}
+			checkVersion(version);
 
 			long dataTableOffset = stream.readLong();
 			
@@ -133,7 +172,13 @@ public class MemMapEncoder {
 				types[i] = TYPE.typeFor(t);
 			}
 			
-			return new Header(version, types, dataTableOffset, -1);
+			ZoneMap zones = null;
+			if (version == VERSION_ZONES) {
+				skipFully(stream, 2*recordLength(types));
+				zones = ZoneMap.read(stream, types.length);
+			}
+			
+			return new Header(version, types, dataTableOffset, -1, zones);
 		}
 	}
 	
@@ -249,24 +294,43 @@ public class MemMapEncoder {
 		}			
 	}
 
-	/**Write from source text to indicated binary files.**/ 
+	/**Write from source text to indicated binary files.
+	 * 
+	 * Space for the zone map is reserved in the header before the records are written 
+	 * (sized by a quick count of the source's lines) and the map is filled in
+	 * once the records are done, so the records are only written once.
+	 **/ 
 	public static void write(File sourceFile, int skip, File target, char[] types) throws Exception {
 		DelimitedReader source = new DelimitedReader(sourceFile, skip, DelimitedReader.CSV); 
 		
+		char[] keep = keepTypes(types);
+		int blockSize = ZoneMap.DEFAULT_BLOCK_SIZE;
+		long maxRecords = Math.max(0, lineCount(sourceFile) - skip);	//Lines can only hold fewer records (e.g., if blank)
+		int reserved = ZoneMap.bytes((int) Math.min(Integer.MAX_VALUE, (maxRecords + blockSize - 1)/blockSize), keep.length);
+		ZoneMap.Builder zones = new ZoneMap.Builder(blockSize, keep.length);
+		
+		byte[] header = makeHeader(types);
+		int infoEnd = header.length;
+		ByteBuffer patch = ByteBuffer.wrap(header);
+		patch.putInt(0, VERSION_ZONES);
+		patch.putLong(TYPE.INT.bytes, infoEnd + reserved);
 		
 		int entriesRead = 0;
 		try(FileOutputStream file = new FileOutputStream(target)) {
-			byte[] header = makeHeader(types); 
 			file.write(header);
+			file.write(new byte[reserved]);
 
+			double[] row = new double[keep.length];
 			while(source.hasNext()) {
 				String[] entry = source.next();
 				if (entry == null) {continue;}
-				for (int i=0;i<types.length;i++) {
+				for (int i=0, f=0;i<types.length;i++) {
 					if (types[i]=='x') {continue;}
 					byte[] value = asBinary(entry[i], types[i]);
-					file.write(value);						
+					file.write(value);
+					row[f++] = ZoneMap.value(ByteBuffer.wrap(value), 0, TYPE.typeFor(types[i]));
 				}
+				zones.add(row);
 				entriesRead++;
 				if (entriesRead % 100000 ==0) {System.out.printf("Processed %,d entries.\n", entriesRead);}
 			}
@@ -276,9 +340,463 @@ public class MemMapEncoder {
 		}catch (Exception e) {
 			throw new RuntimeException(String.format("Error on or near entry %,d", entriesRead), e);
 		}
+		
+		byte[] encoded = zones.build().encode();
+		if (encoded.length > reserved) {	//More records than lines (should not happen)
+			writeZones(target, blockSize);
+			return;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+			file.seek(infoEnd);
+			file.write(encoded);
+		}
+	}
+
+	/**Number of lines in a text file (a last line without a line end counts).**/
+	private static long lineCount(File source) throws IOException {
+		long lines = 0;
+		boolean open = false;
+		byte[] buffer = new byte[1<<16];
+		try (InputStream in = new FileInputStream(source)) {
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				for (int i=0; i<read; i++) {if (buffer[i] == '\n') {lines++;}}
+				if (read > 0) {open = buffer[read-1] != '\n';}
+			}
+		}
+		return open ? lines+1 : lines;
+	}
+
+	/**Nominal number of bytes of source text parsed by each writeParallel task.**/
+	public static final int CHUNK_BYTES = 1<<28;
+	
+	/**Records buffered by a writeParallel task before they are written out.**/
+	private static final int BATCH_RECORDS = 1<<14;
+
+	/**Write from source text to indicated binary file, using several threads.
+	 * 
+	 * The source is split into chunks at newline-aligned byte offsets.
+	 * A first (parallel) pass counts the records in each chunk, so every chunk's position in the
+	 * output is known before any parsing starts.  A second pass parses the chunks concurrently and
+	 * writes their records directly at those positions.  Extrema and the zone map are gathered by the
+	 * parsing tasks, so the result (version VERSION_ZONES) needs no further scans.
+	 * 
+	 * Unlike write, blank lines are skipped.  Source text is read as UTF-8.
+	 * 
+	 * @param tasks Number of threads to use
+	 */
+	public static void writeParallel(File sourceFile, int skip, File target, char[] types, int tasks) throws Exception {
+		if (tasks < 1) {throw new IllegalArgumentException("Must use at least one task; received " + tasks);}
+		long began = System.currentTimeMillis();
+		
+		char[] keep = keepTypes(types);
+		TYPE[] kept = new TYPE[keep.length];
+		for (int i=0; i<keep.length; i++) {kept[i] = TYPE.typeFor(keep[i]);}
+		int recordLength = recordLength(kept);
+		int blockSize = ZoneMap.DEFAULT_BLOCK_SIZE;
+		
+		ExecutorService pool = Executors.newFixedThreadPool(tasks);
+		try (FileChannel in = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			
+			final long length = in.size();
+			final long[] splits = splits(in, lineAfter(in, 0, skip), length, tasks);
+			
+			//Count pass
+			List<Callable<Long>> counters = new ArrayList<>();
+			for (int c=0; c<splits.length-1; c++) {
+				final long low = splits[c], high = splits[c+1];
+				counters.add(() -> lines(in.map(FileChannel.MapMode.READ_ONLY, low, high-low), null));
+			}
+			List<Long> counts = all(pool, counters);
+			long[] firsts = new long[counts.size()];
+			long entries = 0;
+			for (int c=0; c<firsts.length; c++) {
+				firsts[c] = entries;
+				entries += counts.get(c);
+			}
+			
+			//Header, sized for the zone map
+			int blocks = (int) ((entries + blockSize - 1)/blockSize);
+			byte[] header = makeHeader(types);
+			int infoEnd = header.length;
+			long dataTableOffset = infoEnd + ZoneMap.bytes(blocks, kept.length);
+			ByteBuffer patch = ByteBuffer.wrap(header);
+			patch.putInt(0, VERSION_ZONES);
+			patch.putLong(TYPE.INT.bytes, dataTableOffset);
+			
+			//Parse pass
+			List<Callable<Chunk>> parsers = new ArrayList<>();
+			for (int c=0; c<splits.length-1; c++) {
+				final Chunk chunk = new Chunk(types, kept, out, dataTableOffset, firsts[c], counts.get(c), blockSize);
+				final long low = splits[c], high = splits[c+1];
+				parsers.add(() -> {
+					try {lines(in.map(FileChannel.MapMode.READ_ONLY, low, high-low), chunk);}
+					catch (Exception e) {throw new RuntimeException(String.format("Error on or near entry %,d (chunk starting at byte %,d)", chunk.record, low), e);}
+					chunk.flush();
+					if (chunk.record != chunk.first + chunk.count) {
+						throw new IOException(String.format("Chunk at byte %,d changed while encoding (expected %,d entries, found %,d)", low, chunk.count, chunk.record-chunk.first));
+					}
+					return chunk;
+				});
+			}
+			List<Chunk> chunks = all(pool, parsers);
+			
+			//Combine extrema and zone maps
+			Number[] maxima = new Number[kept.length];
+			Number[] minima = new Number[kept.length];
+			long[] blockFirsts = new long[blocks];
+			int[] blockCounts = new int[blocks];
+			double[][] blockMax = new double[blocks][kept.length], blockMin = new double[blocks][kept.length];
+			for (int b=0; b<blocks; b++) {
+				blockFirsts[b] = ((long) b)*blockSize;
+				blockCounts[b] = (int) Math.min(blockSize, entries - blockFirsts[b]);
+				Arrays.fill(blockMin[b], Double.POSITIVE_INFINITY);
+				Arrays.fill(blockMax[b], Double.NEGATIVE_INFINITY);
+			}
+			ZoneMap zones = new ZoneMap(blockSize, blockFirsts, blockCounts, blockMin, blockMax);
+			for (Chunk chunk: chunks) {chunk.combine(maxima, minima, zones);}
+			for (int b=0; b<blocks; b++) {ZoneMap.markEmpty(blockMin[b], blockMax[b]);}
+			
+			ByteBuffer info = ByteBuffer.wrap(header);
+			if (entries > 0) {
+				info.position(infoEnd - 2*recordLength);
+				info.put(encodeArray(maxima, kept));
+				info.put(encodeArray(minima, kept));
+			}
+			info.clear();
+			while (info.hasRemaining()) {out.write(info, info.position());}
+			ByteBuffer encodedZones = ByteBuffer.wrap(zones.encode());
+			while (encodedZones.hasRemaining()) {out.write(encodedZones, infoEnd + encodedZones.position());}
+			
+			double seconds = Math.max(System.currentTimeMillis()-began, 1)/1000d;
+			System.out.printf("Processed %,d entries in %,.1f seconds with %d tasks (%,.0f entries/s, %,.1f MB/s).\n", 
+					entries, seconds, tasks, entries/seconds, length/seconds/(1024*1024));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**Run all tasks, returning results in order (or re-throwing the first failure).**/
+	private static <T> List<T> all(ExecutorService pool, List<Callable<T>> tasks) throws Exception {
+		List<Future<T>> futures = pool.invokeAll(tasks);
+		List<T> results = new ArrayList<>();
+		for (Future<T> f: futures) {
+			try {results.add(f.get());}
+			catch (ExecutionException e) {throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;}
+		}
+		return results;
+	}
+	
+	/**Chunk boundaries of [start, end): each boundary is just after a newline.
+	 * At least four chunks per task (for balance), and no more than CHUNK_BYTES per chunk (except for very long lines).
+	 */
+	private static long[] splits(FileChannel in, long start, long end, int tasks) throws IOException {
+		int chunks = (int) Math.max(tasks*4L, (end-start)/CHUNK_BYTES + 1);
+		long[] splits = new long[chunks+1];
+		splits[0] = start;
+		for (int c=1; c<chunks; c++) {
+			splits[c] = Math.max(splits[c-1], lineAfter(in, start + (end-start)*c/chunks, 1));
+		}
+		splits[chunks] = end;
+		return splits;
+	}
+	
+	/**Position just after the n-th newline at or after the given position (or the end of the file).**/
+	public static long lineAfter(FileChannel in, long position, int lines) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while (lines > 0) {
+			buffer.clear();
+			int read = in.read(buffer, position);
+			if (read < 0) {return in.size();}
+			for (int i=0; i<read && lines > 0; i++) {
+				position++;
+				if (buffer.get(i) == '\n') {lines--;}
+			}
+		}
+		return position;
+	}
+	
+	/**Receives lines of text (with line terminators removed).**/
+	private static interface LineConsumer {
+		/**@param bytes Line contents; only valid for the duration of the call
+		 * @param length Number of valid bytes**/
+		public void line(byte[] bytes, int length) throws Exception;
+	}
+	
+	/**Pass each non-blank line of text to the consumer (if not null).
+	 * A final line without a trailing newline is included.
+	 * @return Number of non-blank lines
+	 */
+	private static long lines(ByteBuffer text, LineConsumer consumer) throws Exception {
+		byte[] line = new byte[1024];
+		int length = 0;
+		byte last = 0;
+		long count = 0;
+		while (true) {
+			boolean end = !text.hasRemaining();
+			byte b = end ? (byte) '\n' : text.get();
+			if (b == '\n') {
+				int trimmed = (length > 0 && last == '\r') ? length-1 : length;
+				if (trimmed > 0) {
+					count++;
+					if (consumer != null) {consumer.line(line, trimmed);}
+				}
+				length = 0;
+				if (end) {break;}
+			} else {
+				if (consumer != null) {
+					if (length == line.length) {line = Arrays.copyOf(line, length*2);}
+					line[length] = b;
+				}
+				length++;
+				last = b;
+			}
+		}
+		return count;
+	}
+	
+	/**Parses one chunk of source text, writing records at their final position and tracking extrema.**/
+	private static final class Chunk implements LineConsumer {
+		private final Pattern splitter = Pattern.compile(DelimitedReader.CSV);
+		private final char[] types;
+		private final TYPE[] kept;
+		private final FileChannel out;
+		private final ByteBuffer batch;
+		private final int blockSize, firstBlock;
+		private final long first, count;
+		
+		//Extrema: integral fields use the long arrays, floating point fields the double arrays
+		private final long[] longMax, longMin;
+		private final double[] doubleMax, doubleMin;
+		private final double[][] zoneMax, zoneMin;
+		
+		private long record;
+		private long written;
+		
+		public Chunk(char[] types, TYPE[] kept, FileChannel out, long dataTableOffset, long first, long count, int blockSize) {
+			this.types = types;
+			this.kept = kept;
+			this.out = out;
+			this.first = first;
+			this.count = count;
+			this.record = first;
+			this.blockSize = blockSize;
+			int recordLength = recordLength(kept);
+			this.written = dataTableOffset + first*recordLength;
+			this.batch = ByteBuffer.allocate(BATCH_RECORDS*recordLength);
+			
+			longMax = new long[kept.length];
+			longMin = new long[kept.length];
+			doubleMax = new double[kept.length];
+			doubleMin = new double[kept.length];
+			Arrays.fill(longMax, Long.MIN_VALUE);
+			Arrays.fill(longMin, Long.MAX_VALUE);
+			Arrays.fill(doubleMax, Double.NEGATIVE_INFINITY);
+			Arrays.fill(doubleMin, Double.POSITIVE_INFINITY);
+			
+			firstBlock = (int) (first/blockSize);
+			int blocks = count == 0 ? 0 : (int) ((first+count-1)/blockSize) - firstBlock + 1;
+			zoneMax = new double[blocks][kept.length];
+			zoneMin = new double[blocks][kept.length];
+			for (int b=0; b<blocks; b++) {
+				Arrays.fill(zoneMax[b], Double.NEGATIVE_INFINITY);
+				Arrays.fill(zoneMin[b], Double.POSITIVE_INFINITY);
+			}
+		}
+		
+		@Override
+		public void line(byte[] bytes, int length) throws Exception {
+			String[] entry = splitter.split(new String(bytes, 0, length, StandardCharsets.UTF_8));
+			double[] zMax = zoneMax[(int) (record/blockSize) - firstBlock];
+			double[] zMin = zoneMin[(int) (record/blockSize) - firstBlock];
+			for (int i=0, f=0; i<types.length; i++) {
+				if (types[i] == 'x') {continue;}
+				String value = entry[i];
+				double zone;
+				switch (types[i]) {
+					case 's': {short v = Short.parseShort(value); batch.putShort(v); zone = integral(f, v); break;}
+					case 'i': {int v = Integer.parseInt(value); batch.putInt(v); zone = integral(f, v); break;}
+					case 'l': {long v = Long.parseLong(value); batch.putLong(v); zone = integral(f, v); break;}
+					case 'f': {float v = Float.parseFloat(value); batch.putFloat(v); zone = floating(f, v); break;}
+					case 'd': {double v = Double.parseDouble(value); batch.putDouble(v); zone = floating(f, v); break;}
+					case 'c': {batch.putChar(value.charAt(0)); zone = Double.NaN; break;}
+					default: throw new IllegalArgumentException("Unknown type: " + types[i]);
+				}
+				if (!Double.isNaN(zone)) {
+					zMax[f] = Math.max(zMax[f], zone);
+					zMin[f] = Math.min(zMin[f], zone);
+				}
+				f++;
+			}
+			record++;
+			if (!batch.hasRemaining()) {flush();}
+		}
+		
+		private double integral(int f, long v) {
+			if (v > longMax[f]) {longMax[f] = v;}
+			if (v < longMin[f]) {longMin[f] = v;}
+			return v;
+		}
+		
+		private double floating(int f, double v) {
+			if (v > doubleMax[f]) {doubleMax[f] = v;}
+			if (v < doubleMin[f]) {doubleMin[f] = v;}
+			return v;
+		}
+		
+		/**Write out buffered records.**/
+		public void flush() throws IOException {
+			batch.flip();
+			while (batch.hasRemaining()) {written += out.write(batch, written);}
+			batch.clear();
+		}
+		
+		/**Fold this chunk's extrema into the totals.**/
+		public void combine(Number[] maxima, Number[] minima, ZoneMap zones) {
+			if (count == 0) {return;}
+			for (int f=0; f<kept.length; f++) {
+				Number max = extreme(f, true), min = extreme(f, false);
+				maxima[f] = maxima[f] == null || gt(max, maxima[f]) ? max : maxima[f];
+				minima[f] = minima[f] == null || lt(min, minima[f]) ? min : minima[f];
+			}
+			for (int b=0; b<zoneMax.length; b++) {
+				double[] max = zones.max(firstBlock+b), min = zones.min(firstBlock+b);
+				for (int f=0; f<kept.length; f++) {
+					max[f] = Math.max(max[f], zoneMax[b][f]);
+					min[f] = Math.min(min[f], zoneMin[b][f]);
+				}
+			}
+		}
+		
+		private Number extreme(int f, boolean max) {
+			switch (kept[f]) {
+				case SHORT: return (short) (max ? longMax[f] : longMin[f]);
+				case INT: return (int) (max ? longMax[f] : longMin[f]);
+				case LONG: return max ? longMax[f] : longMin[f];
+				case FLOAT: return (float) (max ? doubleMax[f] : doubleMin[f]);
+				case DOUBLE: return max ? doubleMax[f] : doubleMin[f];
+				default: return null;
+			}
+		}
+	}
+
+	/**Compute and store the zone map of an hbin file.
+	 * 
+	 * If the file already has room for the zone map (a zone map at least as large, or space reserved by write),
+	 * it is overwritten in place; any space left over stays as padding before the records.
+	 * Otherwise the file is re-written (as version VERSION_ZONES) with the zone map in the header.
+	 */
+	public static void writeZones(File hbin, int blockSize) throws IOException {
+		Header header;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(hbin))) {header = Header.from(in);}
+		ZoneMap zones = ZoneMap.compute(hbin, header.dataTableOffset, header.types, blockSize);
+		byte[] encoded = zones.encode();
+		
+		//Everything up to the end of the info records (same for both versions)
+		int infoEnd = TYPE.INT.bytes + TYPE.LONG.bytes*2 + TYPE.INT.bytes + TYPE.CHAR.bytes*header.types.length + 2*header.recordLength;
+		
+		if (header.version == VERSION_ZONES && header.dataTableOffset - infoEnd >= encoded.length) {
+			try (RandomAccessFile file = new RandomAccessFile(hbin, "rw")) {
+				file.seek(infoEnd);
+				file.write(encoded);
+			}
+			return;
+		}
+		
+		byte[] start = new byte[infoEnd];
+		try (DataInputStream in = new DataInputStream(new FileInputStream(hbin))) {in.readFully(start);}
+		ByteBuffer patch = ByteBuffer.wrap(start);
+		patch.putInt(0, VERSION_ZONES);
+		patch.putLong(TYPE.INT.bytes, infoEnd + encoded.length);
+		
+		File temp = File.createTempFile("hbinZones", ".hbin", hbin.getAbsoluteFile().getParentFile());
+		try (FileOutputStream out = new FileOutputStream(temp);
+				FileChannel data = new FileInputStream(hbin).getChannel()) {
+			out.write(start);
+			out.write(encoded);
+			FileChannel target = out.getChannel();
+			long from = header.dataTableOffset, size = data.size();
+			while (from < size) {from += data.transferTo(from, size-from, target);}
+		}
+		if (!hbin.delete() || !temp.renameTo(hbin)) {
+			throw new IOException(String.format("Could not replace %s with zoned copy (left in %s)", hbin, temp));
+		}
+	}
+	
+	/**Skip exactly the given number of bytes of a stream (skip/skipBytes may skip fewer).**/
+	static void skipFully(InputStream in, long bytes) throws IOException {
+		while (bytes > 0) {
+			long skipped = in.skip(bytes);
+			if (skipped <= 0) {
+				if (in.read() < 0) {throw new EOFException(String.format("Stream ended with %,d bytes left to skip", bytes));}
+				skipped = 1;
+			}
+			bytes -= skipped;
+		}
 	}
 
 
+	/**Write a column-oriented copy of a (row-oriented) hbin file.
+	 * 
+	 * The header is the same as the source up to and including the info records (with version VERSION_COLUMNS),
+	 * followed by the record count (Long).  The data table then holds each field's values contiguously:
+	 * all values of field 0, then all values of field 1, etc.
+	 */
+	public static void writeColumns(File hbin, File target) throws IOException {
+		Header header;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(hbin))) {header = Header.from(in);}
+		int infoEnd = TYPE.INT.bytes + TYPE.LONG.bytes*2 + TYPE.INT.bytes + TYPE.CHAR.bytes*header.types.length + 2*header.recordLength;
+		long entries = (hbin.length()-header.dataTableOffset)/header.recordLength;
+		long dataTableOffset = infoEnd + TYPE.LONG.bytes;
+		
+		byte[] start = new byte[infoEnd];
+		try (DataInputStream in = new DataInputStream(new FileInputStream(hbin))) {in.readFully(start);}
+		ByteBuffer patch = ByteBuffer.wrap(start);
+		patch.putInt(0, VERSION_COLUMNS);
+		patch.putLong(TYPE.INT.bytes, dataTableOffset);
+		
+		int[] offsets = recordOffsets(header.types);
+		long[] columnPositions = new long[header.types.length];
+		long acc = dataTableOffset;
+		for (int f=0; f<header.types.length; f++) {
+			columnPositions[f] = acc;
+			acc += entries * header.types[f].bytes;
+		}
+		
+		try (FileChannel in = new FileInputStream(hbin).getChannel();
+			 FileChannel out = new RandomAccessFile(target, "rw").getChannel()) {
+			out.truncate(0);
+			out.write(ByteBuffer.wrap(start), 0);
+			out.write(ByteBuffer.wrap(longBytes(entries)), infoEnd);
+			
+			int batch = 1<<16;
+			ByteBuffer records = ByteBuffer.allocate(batch*header.recordLength);
+			ByteBuffer[] columns = new ByteBuffer[header.types.length];
+			for (int f=0; f<columns.length; f++) {columns[f] = ByteBuffer.allocate(batch*header.types[f].bytes);}
+			
+			in.position(header.dataTableOffset);
+			for (long done=0; done<entries; done+=batch) {
+				int count = (int) Math.min(batch, entries-done);
+				records.clear();
+				records.limit(count*header.recordLength);
+				while (records.hasRemaining()) {
+					if (in.read(records) < 0) {throw new IOException("Unexpected end of file after " + done + " records");}
+				}
+				
+				for (int f=0; f<columns.length; f++) {
+					ByteBuffer column = columns[f];
+					column.clear();
+					int bytes = header.types[f].bytes;
+					for (int r=0; r<count; r++) {
+						column.put(records.array(), r*header.recordLength + offsets[f], bytes);
+					}
+					column.flip();
+					while (column.hasRemaining()) {columnPositions[f] += out.write(column, columnPositions[f]);}
+				}
+			}
+		}
+	}
+
 	@SuppressWarnings("resource")
 	private static void copy(File source, File target) throws Exception {
 		if (!target.exists()) {target.createNewFile();}
@@ -382,6 +900,10 @@ public class MemMapEncoder {
 	public static void main(String[] args) throws Exception {
 		System.out.println("Usage: MemMapEncoder -in <file> -out <file> -skip <int> -types <string>");
 		System.out.println("Type string is a string made up of s/i/l/f/d/c for short/int/long/float/double/char.");
+		System.out.println("Optional: -sort <hilbert|zorder> -sortFields <int>,<int> -sortMemory <records> to order records spatially.");
+		System.out.println("Optional: -compress <file> to also write a compressed copy (see CompressedHbin); lossless unless");
+		System.out.println("          -quantize <int>,<int> lists (floating point) fields to quantize, e.g. the coordinates.");
+		System.out.println("Optional: -threads <int> to convert with several threads (see writeParallel).");
 		System.out.println();
 		
 		File temp;
@@ -392,6 +914,7 @@ public class MemMapEncoder {
 
 		if (justHeader) {
 			updateMinMax(out);
+			writeZones(out, ZoneMap.DEFAULT_BLOCK_SIZE);
 		} else {
 			if (direct) {
 				temp =out;
@@ -410,7 +933,17 @@ public class MemMapEncoder {
 			int skip = Integer.parseInt(entry(args, "-skip", null));
 			char[] types = entry(args, "-types", "").toCharArray();
 			
-			write(in, skip, temp, types);
+			int threads = Integer.parseInt(entry(args, "-threads", "1"));
+			
+			if (threads > 1) {writeParallel(in, skip, temp, types, threads);}
+			else {write(in, skip, temp, types);}
+			
+			String sort = entry(args, "-sort", null);
+			if (sort != null) {
+				String[] fields = entry(args, "-sortFields", "0,1").split(",");
+				int memory = Integer.parseInt(entry(args, "-sortMemory", "10000000"));
+				SpatialSort.sort(temp, Integer.parseInt(fields[0].trim()), Integer.parseInt(fields[1].trim()), SpatialSort.Curve.parse(sort), memory);
+			}
 			
 			if (!direct) {
 				try {
@@ -420,6 +953,13 @@ public class MemMapEncoder {
 				} catch (Exception e) {throw new RuntimeException("Error moving temporaries to final destination file.",e);}
 				if (!out.exists()) {throw new RuntimeException("File could not be moved from temporary location to permanent location for unknown reason.");}
 			}
+			
+			String compressed = entry(args, "-compress", null);
+			if (compressed != null) {
+				String[] fields = entry(args, "-quantize", "").split(",");
+				int[] quantized = Arrays.stream(fields).map(String::trim).filter(f -> !f.isEmpty()).mapToInt(Integer::parseInt).toArray();
+				CompressedHbin.write(out, new File(compressed), ZoneMap.DEFAULT_BLOCK_SIZE, CompressedHbin.DEFAULT_QUANTIZATION_BITS, quantized);
+			}
 		}
 		
 		
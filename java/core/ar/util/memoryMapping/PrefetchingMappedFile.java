@@ -0,0 +1,193 @@
+package ar.util.memoryMapping;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Read-ahead wrapper for sequential scans of a mapped file.
+ *
+ * As the reader advances, pages up to a fixed distance ahead of it are touched on a background
+ * I/O thread, so the page faults (and any disk or network reads behind them) happen off the compute thread.
+ * With a distance of zero nothing is prefetched, but stalls are still measured.
+ *
+ * Stalls are measured as the time the reading thread spends touching pages that had not been
+ * prefetched yet (i.e., the page faults it takes itself).  Totals are kept per instance (see stalls);
+ * glyphsets that read through prefetching files report them (see Measured), and renderers report
+ * the stalls of the segments they aggregated in their progress recorder message.
+ *
+ * Reads are assumed to be (mostly) forward; reads behind the furthest page reached are passed straight through.
+ * The wrapped file must support concurrent absolute reads (e.g., SharedMappedFile or FileByteBuffer).
+ * Like the wrapped file, positions are relative to filePosition().
+ */
+public class PrefetchingMappedFile implements MappedFile, Closeable {
+	/**Page size assumed for touching and accounting.**/
+	public static final int PAGE_BYTES = 4096;
+
+	/**Touched values are folded into this, so the touches are not optimized away.**/
+	private static volatile long sink;
+
+	private static final AtomicInteger threadCounter = new AtomicInteger(0);
+	private static final ExecutorService IO = Executors.newCachedThreadPool(
+			(Runnable r) -> {
+				Thread t = new Thread(r, "AR Prefetch -- " + threadCounter.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+
+	private final MappedFile base;
+	private final long distance;
+	private final AtomicBoolean running = new AtomicBoolean(false);
+	private final AtomicLong stallNanos = new AtomicLong();
+	private final AtomicLong stallPages = new AtomicLong();
+	private final AtomicLong prefetchedPages = new AtomicLong();
+
+	private long nextPage;				//Start of the first page the reader has not reached (reader thread only)
+	private volatile long reading;		//Start of the page the reader most recently reached
+	private volatile long prefetched;	//Pages before this position have been touched (by the prefetcher, or skipped because the reader got there first)
+	private volatile long wanted;		//Prefetch up to here
+
+	/**@param distance Bytes ahead of the reader to prefetch (zero to only measure stalls)**/
+	public PrefetchingMappedFile(MappedFile base, long distance) {
+		if (distance < 0) {throw new IllegalArgumentException("Prefetch distance must be non-negative; received " + distance);}
+		this.base = base;
+		this.distance = distance;
+		this.nextPage = pageStart(0);
+		this.reading = nextPage;
+		this.prefetched = nextPage;
+		this.wanted = nextPage;
+	}
+
+	/**File being read through.**/
+	public MappedFile base() {return base;}
+
+	/**Stalls taken (and pages prefetched) reading through this instance so far.**/
+	public Stalls stalls() {return new Stalls(stallNanos.get(), stallPages.get(), prefetchedPages.get());}
+
+	/**Start (relative position) of the page holding the given relative position.**/
+	private long pageStart(long pos) {return pos - Math.floorMod(base.filePosition()+pos, PAGE_BYTES);}
+
+	/**Reader reached a new page: move the prefetch target and account for the fault if the page was not prefetched.**/
+	private void reached(long pos) {
+		long page = pageStart(pos);
+		reading = page;
+		if (distance > 0) {
+			wanted = Math.min(pos + distance, base.capacity());
+			if (running.compareAndSet(false, true)) {IO.execute(this::prefetch);}
+		}
+
+		if (page >= prefetched) {
+			long start = System.nanoTime();
+			sink += base.get(pos);
+			stallNanos.addAndGet(System.nanoTime()-start);
+			stallPages.incrementAndGet();
+		}
+		nextPage = page + PAGE_BYTES;
+	}
+
+	private void prefetch() {
+		try {
+			while (true) {
+				long at = Math.max(prefetched, reading);	//Pages behind the reader are already faulted in
+				long target = wanted;
+				long touched = 0;
+				while (at < target) {
+					touched += base.get(Math.max(at, 0));
+					at += PAGE_BYTES;
+					prefetched = at;
+					prefetchedPages.incrementAndGet();
+				}
+				sink += touched;
+				running.set(false);
+				//Re-check: the reader may have moved the target after the loop ended
+				if (wanted <= prefetched || !running.compareAndSet(false, true)) {return;}
+			}
+		} catch (IllegalStateException e) {
+			running.set(false);	//Mapping released while prefetching; nothing more to do
+		}
+	}
+
+	private void check(long pos) {if (pos >= nextPage) {reached(pos);}}
+
+	@Override public byte get(long pos) {check(pos); return base.get(pos);}
+	@Override public short getShort(long pos) {check(pos); return base.getShort(pos);}
+	@Override public int getInt(long pos) {check(pos); return base.getInt(pos);}
+	@Override public long getLong(long pos) {check(pos); return base.getLong(pos);}
+	@Override public char getChar(long pos) {check(pos); return base.getChar(pos);}
+	@Override public float getFloat(long pos) {check(pos); return base.getFloat(pos);}
+	@Override public double getDouble(long pos) {check(pos); return base.getDouble(pos);}
+	@Override public byte get() {check(base.position()); return base.get();}
+	@Override public short getShort() {check(base.position()); return base.getShort();}
+	@Override public int getInt() {check(base.position()); return base.getInt();}
+	@Override public long getLong() {check(base.position()); return base.getLong();}
+	@Override public char getChar() {check(base.position()); return base.getChar();}
+	@Override public float getFloat() {check(base.position()); return base.getFloat();}
+	@Override public double getDouble() {check(base.position()); return base.getDouble();}
+	@Override public void get(byte[] target, long offset, int length) {check(offset); base.get(target, offset, length);}
+
+	@Override public long capacity() {return base.capacity();}
+	@Override public long position() {return base.position();}
+	@Override public long filePosition() {return base.filePosition();}
+	@Override public ByteOrder order() {return base.order();}
+	@Override public void order(ByteOrder order) {base.order(order);}
+
+	@Override
+	public void close() throws IOException {
+		if (base instanceof Closeable) {((Closeable) base).close();}
+	}
+
+
+	/**Glyphset (or other reader) that can report the stalls of the prefetching files it reads through.**/
+	public static interface Measured {
+		/**Stalls taken so far; NONE if nothing is read through a prefetching file.**/
+		public Stalls stalls();
+	}
+
+	/**Snapshot of stall counters.**/
+	public static final class Stalls {
+		/**No stalls and no prefetching.**/
+		public static final Stalls NONE = new Stalls(0,0,0);
+
+		/**Time reading threads spent faulting in pages themselves.**/
+		public final long nanos;
+
+		/**Number of pages faulted in by reading threads.**/
+		public final long pages;
+
+		/**Number of pages touched by the prefetcher.**/
+		public final long prefetched;
+
+		private Stalls(long nanos, long pages, long prefetched) {
+			this.nanos = nanos;
+			this.pages = pages;
+			this.prefetched = prefetched;
+		}
+
+		/**Total stalls of the items that report them (see Measured); other items are skipped.**/
+		public static Stalls of(Iterable<?> items) {
+			Stalls total = NONE;
+			for (Object item: items) {
+				if (item instanceof Measured) {total = total.plus(((Measured) item).stalls());}
+			}
+			return total;
+		}
+
+		/**Combined stalls of this and the other snapshot.**/
+		public Stalls plus(Stalls other) {return new Stalls(nanos+other.nanos, pages+other.pages, prefetched+other.prefetched);}
+
+		/**Stalls accumulated since the earlier snapshot (of the same counters).**/
+		public Stalls since(Stalls earlier) {return new Stalls(nanos-earlier.nanos, pages-earlier.pages, prefetched-earlier.prefetched);}
+
+		/**Were any pages faulted in or prefetched?**/
+		public boolean any() {return pages > 0 || prefetched > 0;}
+
+		@Override
+		public String toString() {
+			return String.format("Page-fault stall: %,.1f ms over %,d pages (%,d pages prefetched)", nanos/1e6, pages, prefetched);
+		}
+	}
+}
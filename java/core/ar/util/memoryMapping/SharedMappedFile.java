@@ -0,0 +1,227 @@
+package ar.util.memoryMapping;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**Whole-file, read-only memory map that is safe for concurrent reads.
+ *
+ * The file is mapped once, as a series of fixed-size chunks (so files of any size can be mapped with
+ * long offsets).  Chunks overlap by a few bytes so no primitive value ever straddles two chunks.
+ * All absolute reads (get(long), getInt(long), etc.) go to the shared chunks without touching any
+ * mutable state, so any number of threads may read from the same instance.
+ * (The relative reads and position() use a cursor that belongs to the instance and are NOT thread safe.)
+ *
+ * Views (see view) cover a sub-range of the file and share the mapping; creating one does not map anything.
+ * Like FileByteBuffer, absolute positions are relative to the start of the instance (see filePosition).
+ *
+ * The mapping is unmapped as soon as the original instance and all views taken from it have been closed.
+ * Close an instance only once no thread is reading from it; reading from a closed instance throws an IllegalStateException.
+ * Instances that are never closed give up their hold when they are garbage collected, but then the mapping
+ * is not unmapped explicitly (a read may still be in flight); the garbage collector releases it instead.
+ * Accessors keep their instance reachable (see Reference.reachabilityFence) until the read completes.
+ */
+public class SharedMappedFile implements MappedFile, Closeable {
+	/**Log2 of the chunk size.**/
+	public static final int CHUNK_BITS = 30;
+	private static final long CHUNK_MASK = (1L<<CHUNK_BITS)-1;
+
+	/**Bytes each chunk extends past the start of the next one (the widest primitive).**/
+	private static final int OVERLAP = MemMapEncoder.TYPE.LONG.bytes;
+
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	private final Mapping mapping;
+	private final long start, end;
+	private final AtomicBoolean closed;
+	private final Cleaner.Cleanable cleanable;
+	private ByteOrder order = ByteOrder.BIG_ENDIAN;
+	private long position;
+
+	/**Map the whole file.**/
+	public SharedMappedFile(File source) throws IOException {
+		this(new Mapping(source), 0, source.length(), ByteOrder.BIG_ENDIAN);
+	}
+
+	private SharedMappedFile(Mapping mapping, long start, long end, ByteOrder order) {
+		this.mapping = mapping;
+		this.start = start;
+		this.end = end;
+		this.order = order;
+		this.closed = new AtomicBoolean(false);
+		mapping.acquire();
+		this.cleanable = CLEANER.register(this, new Release(mapping, closed, false));
+	}
+
+	/**View of the file bytes [start, end) that shares this mapping.
+	 * Positions are absolute file positions (like MappedFile.Util.make).  Returns null for an empty range.
+	 */
+	public SharedMappedFile view(long start, long end) {
+		if (start < 0 || end > mapping.size) {throw new IllegalArgumentException(String.format("Range [%d, %d) outside of file of %d bytes", start, end, mapping.size));}
+		if (end-start <= 0) {return null;}
+		try {
+			if (closed.get() || mapping.chunks == null) {throw new IllegalStateException("Mapping of " + mapping.source + " has been released.");}
+			return new SharedMappedFile(mapping, start, end, order);
+		} finally {Reference.reachabilityFence(this);}
+	}
+
+	/**Release this instance's hold on the mapping.  Calling more than once has no effect.**/
+	@Override 
+	public void close() {
+		new Release(mapping, closed, true).run();
+		cleanable.clean();		//Deregisters; the hold is already released
+	}
+
+	/**Buffer that holds the given (instance-relative) position.**/
+	private ByteBuffer chunk(long pos) {
+		ByteBuffer[] chunks = mapping.chunks;
+		if (chunks == null || closed.get()) {throw new IllegalStateException("Mapping of " + mapping.source + " has been released.");}
+		return chunks[(int) ((start+pos) >>> CHUNK_BITS)];
+	}
+
+	private int index(long pos) {return (int) ((start+pos) & CHUNK_MASK);}
+	private boolean swap() {return order != ByteOrder.BIG_ENDIAN;}
+
+	@Override 
+	public byte get(long pos) {
+		try {return chunk(pos).get(index(pos));}
+		finally {Reference.reachabilityFence(this);}
+	}
+	
+	@Override 
+	public short getShort(long pos) {
+		try {short v = chunk(pos).getShort(index(pos)); return swap() ? Short.reverseBytes(v) : v;}
+		finally {Reference.reachabilityFence(this);}
+	}
+	
+	@Override 
+	public int getInt(long pos) {
+		try {int v = chunk(pos).getInt(index(pos)); return swap() ? Integer.reverseBytes(v) : v;}
+		finally {Reference.reachabilityFence(this);}
+	}
+	
+	@Override 
+	public long getLong(long pos) {
+		try {long v = chunk(pos).getLong(index(pos)); return swap() ? Long.reverseBytes(v) : v;}
+		finally {Reference.reachabilityFence(this);}
+	}
+	
+	@Override 
+	public char getChar(long pos) {
+		try {char v = chunk(pos).getChar(index(pos)); return swap() ? Character.reverseBytes(v) : v;}
+		finally {Reference.reachabilityFence(this);}
+	}
+	
+	@Override public float getFloat(long pos) {return Float.intBitsToFloat(getInt(pos));}
+	@Override public double getDouble(long pos) {return Double.longBitsToDouble(getLong(pos));}
+
+	@Override public byte get() {byte v = get(position); position += 1; return v;}
+	@Override public short getShort() {short v = getShort(position); position += 2; return v;}
+	@Override public int getInt() {int v = getInt(position); position += 4; return v;}
+	@Override public long getLong() {long v = getLong(position); position += 8; return v;}
+	@Override public char getChar() {char v = getChar(position); position += 2; return v;}
+	@Override public float getFloat() {float v = getFloat(position); position += 4; return v;}
+	@Override public double getDouble() {double v = getDouble(position); position += 8; return v;}
+
+	@Override
+	public void get(byte[] target, long offset, int length) {
+		try {
+			int done = 0;
+			while (done < length) {
+				ByteBuffer source = chunk(offset+done).duplicate();
+				int at = index(offset+done);
+				int count = Math.min(length-done, (1<<CHUNK_BITS) - at);
+				source.position(at);
+				source.get(target, done, count);
+				done += count;
+			}
+		} finally {Reference.reachabilityFence(this);}
+	}
+
+	@Override public long capacity() {return end-start;}
+	@Override public long position() {return position;}
+	@Override public long filePosition() {return start;}
+	@Override public ByteOrder order() {return order;}
+	@Override public void order(ByteOrder order) {this.order = order;}
+
+
+	/**Chunks and reference count shared by an instance and its views.**/
+	private static final class Mapping {
+		final File source;
+		final long size;
+		final AtomicInteger holders = new AtomicInteger();
+		volatile ByteBuffer[] chunks;
+
+		Mapping(File source) throws IOException {
+			this.source = source;
+			this.size = source.length();
+			int count = (int) ((size + CHUNK_MASK) >>> CHUNK_BITS);
+			ByteBuffer[] chunks = new ByteBuffer[count];
+			try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+				for (int c=0; c<count; c++) {
+					long from = ((long) c) << CHUNK_BITS;
+					long to = Math.min(size, from + (1L<<CHUNK_BITS) + OVERLAP);
+					chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, from, to-from);
+				}
+			}
+			this.chunks = chunks;
+		}
+
+		/**Set once any holder was released by the cleaner instead of by close.**/
+		volatile boolean collected = false;
+
+		void acquire() {holders.incrementAndGet();}
+
+		/**@param explicit Released by close (rather than by the cleaner)**/
+		void release(boolean explicit) {
+			if (!explicit) {collected = true;}
+			if (holders.decrementAndGet() == 0) {
+				ByteBuffer[] released = chunks;
+				chunks = null;
+				if (released != null && !collected) {for (ByteBuffer b: released) {unmap(b);}}
+			}
+		}
+	}
+
+	/**Release of one instance's hold on the mapping.  As a cleanup action, must not refer to the instance it cleans up after.**/
+	private static final class Release implements Runnable {
+		private final Mapping mapping;
+		private final AtomicBoolean closed;
+		private final boolean explicit;
+
+		Release(Mapping mapping, AtomicBoolean closed, boolean explicit) {
+			this.mapping = mapping;
+			this.closed = closed;
+			this.explicit = explicit;
+		}
+
+		@Override
+		public void run() {
+			if (closed.compareAndSet(false, true)) {mapping.release(explicit);}
+		}
+	}
+
+	/**Unmap a buffer immediately (if the platform allows it; otherwise it is left to the garbage collector).
+	 * Only for buffers no reader can still hold.**/
+	private static void unmap(ByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (Exception e) {
+			//Not available; the garbage collector will unmap the buffer
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package ar.util.memoryMapping;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.util.Util;
+
+/**Grid of record-range buckets over a random-access glyphset.
+ *
+ * The bounds of the glyphset are divided into a regular grid of cells.
+ * Each cell stores the runs of record ids (as [low, high) pairs) whose glyph bounds touch the cell.
+ * A bounded query gathers the runs of all cells the query touches and merges them,
+ * so only the records in those runs need to be read.
+ * The result is a superset of the glyphs in the query region (cells are coarser than the query).
+ *
+ * Runs are long when the records are spatially sorted (see MemMapEncoder sorting);
+ * on unsorted data the index still works, but holds close to one run per record.
+ *
+ * Indices can be saved next to an hbin file (see indexFile) and reloaded.
+ * A saved index records the size of the file and number of records it was built from,
+ * and is only considered valid while those match (see matches).
+ * The index is built from the glyph geometry, so it is only valid for the shaper it was built with;
+ * it also records a fingerprint of that shaper (see fingerprint) and does not match any other.
+ */
+public class SpatialIndex {
+	/**Identifies index files (first int written).**/
+	public static final int MAGIC = 0x48494458; //"HIDX"
+
+	/**Index file format written (second int written).**/
+	public static final int VERSION = 2;
+
+	/**File extension appended to the indexed hbin's name for its saved index.**/
+	public static final String EXTENSION = ".hidx";
+
+	private final Rectangle2D extent;
+	private final int cols, rows;
+	private final long sourceLength;
+	private final long records;
+	private final String shaper;
+	private final int[] cellStarts;	//Index into lows/highs where each cell's runs start (cells+1 entries)
+	private final long[] lows, highs;
+
+	private SpatialIndex(Rectangle2D extent, int cols, int rows, long sourceLength, long records, String shaper, int[] cellStarts, long[] lows, long[] highs) {
+		this.extent = extent;
+		this.cols = cols;
+		this.rows = rows;
+		this.sourceLength = sourceLength;
+		this.records = records;
+		this.shaper = shaper;
+		this.cellStarts = cellStarts;
+		this.lows = lows;
+		this.highs = highs;
+	}
+
+	/**Region covered by the grid.**/
+	public Rectangle2D extent() {return extent.getBounds2D();}
+
+	/**Number of records indexed.**/
+	public long records() {return records;}
+
+	/**Total number of runs stored (across all cells).**/
+	public int runs() {return lows.length;}
+
+	/**Fingerprint of the shaper the index was built with (see fingerprint).**/
+	public String shaper() {return shaper;}
+
+	/**Is this index valid for a source of the given length (in bytes) and record count, shaped by a shaper with the given fingerprint?**/
+	public boolean matches(long sourceLength, long records, String shaper) {
+		return this.sourceLength == sourceLength && this.records == records && this.shaper.equals(shaper);
+	}
+
+	/**Identify a shaper by its class and configuration (field indices, sizes, etc.).
+	 * Serializable shapers are identified by a checksum of their serialized form;
+	 * others only by their class (so an index built with them cannot tell configurations apart).
+	 */
+	public static String fingerprint(Object shaper) {
+		String name = shaper.getClass().getName();
+		if (!(shaper instanceof Serializable)) {return name;}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(shaper);
+		} catch (IOException e) {return name;}
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		return name + "#" + Long.toHexString(crc.getValue());
+	}
+
+	/**Runs of record ids that may intersect the query region.
+	 * Runs are sorted, non-overlapping and non-adjacent.
+	 *
+	 * @return Two arrays: low ids (inclusive) and high ids (exclusive)
+	 */
+	public long[][] query(Rectangle2D query) {
+		if (records == 0 || !intersects(extent, query)) {return new long[][]{new long[0], new long[0]};}
+
+		int lowCol = col(query.getMinX()), highCol = col(query.getMaxX());
+		int lowRow = row(query.getMinY()), highRow = row(query.getMaxY());
+
+		int count = 0;
+		for (int r=lowRow; r<=highRow; r++) {
+			count += cellStarts[cell(highCol, r)+1] - cellStarts[cell(lowCol, r)];
+		}
+
+		long[][] found = new long[count][];
+		int at=0;
+		for (int r=lowRow; r<=highRow; r++) {
+			for (int i=cellStarts[cell(lowCol, r)]; i<cellStarts[cell(highCol, r)+1]; i++) {
+				found[at++] = new long[]{lows[i], highs[i]};
+			}
+		}
+		Arrays.sort(found, (a,b) -> Long.compare(a[0], b[0]));
+
+		long[] qLows = new long[count];
+		long[] qHighs = new long[count];
+		int runs = 0;
+		for (long[] run: found) {
+			if (runs > 0 && run[0] <= qHighs[runs-1]) {
+				qHighs[runs-1] = Math.max(qHighs[runs-1], run[1]);
+			} else {
+				qLows[runs] = run[0];
+				qHighs[runs] = run[1];
+				runs++;
+			}
+		}
+		return new long[][]{Arrays.copyOf(qLows, runs), Arrays.copyOf(qHighs, runs)};
+	}
+
+	private static boolean intersects(Rectangle2D a, Rectangle2D b) {
+		return a.getMinX() <= b.getMaxX() && b.getMinX() <= a.getMaxX()
+				&& a.getMinY() <= b.getMaxY() && b.getMinY() <= a.getMaxY();
+	}
+
+	private int cell(int col, int row) {return row*cols + col;}
+	private int col(double x) {return clamp((int) Math.floor((x-extent.getMinX())/extent.getWidth()*cols), cols);}
+	private int row(double y) {return clamp((int) Math.floor((y-extent.getMinY())/extent.getHeight()*rows), rows);}
+	private static int clamp(int v, int limit) {return Math.max(0, Math.min(v, limit-1));}
+
+
+	/**Index file used for an hbin file.**/
+	public static File indexFile(File source) {return new File(source.getPath() + EXTENSION);}
+
+	/**Save the index.**/
+	public void write(File target) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceLength);
+			out.writeLong(records);
+			out.writeUTF(shaper);
+			out.writeDouble(extent.getX());
+			out.writeDouble(extent.getY());
+			out.writeDouble(extent.getWidth());
+			out.writeDouble(extent.getHeight());
+			out.writeInt(cols);
+			out.writeInt(rows);
+			for (int s: cellStarts) {out.writeInt(s);}
+			for (int i=0; i<lows.length; i++) {
+				out.writeLong(lows[i]);
+				out.writeLong(highs[i]);
+			}
+		}
+	}
+
+	/**Load a saved index.
+	 * @throws IllegalArgumentException If the file is not a spatial index in the current format
+	 */
+	public static SpatialIndex read(File source) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)))) {
+			int magic = in.readInt();
+			if (magic != MAGIC) {throw new IllegalArgumentException("Not a spatial index file: " + source);}
+			int version = in.readInt();
+			if (version != VERSION) {throw new IllegalArgumentException(String.format("Unexpected spatial index version %d in %s; expected %d", version, source, VERSION));}
+			long sourceLength = in.readLong();
+			long records = in.readLong();
+			String shaper = in.readUTF();
+			Rectangle2D extent = new Rectangle2D.Double(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+			int cols = in.readInt();
+			int rows = in.readInt();
+			int[] cellStarts = new int[cols*rows+1];
+			for (int i=0; i<cellStarts.length; i++) {cellStarts[i] = in.readInt();}
+			int runs = cellStarts[cellStarts.length-1];
+			long[] lows = new long[runs];
+			long[] highs = new long[runs];
+			for (int i=0; i<runs; i++) {
+				lows[i] = in.readLong();
+				highs[i] = in.readLong();
+			}
+			return new SpatialIndex(extent, cols, rows, sourceLength, records, shaper, cellStarts, lows, highs);
+		}
+	}
+
+
+	/**Build an index over a glyphset.
+	 * Segments of the glyphset are indexed in parallel; record ids are assigned assuming
+	 * segments are contiguous and in order (as they are for MemMapList).
+	 *
+	 * @param glyphs Glyphset to index
+	 * @param cols Grid cells across
+	 * @param rows Grid cells down
+	 * @param sourceLength Size of the backing file (used to detect stale saved indices)
+	 * @param shaper Fingerprint of the shaper that made the glyphs' geometry (see fingerprint; used to detect stale saved indices)
+	 * @param taskCount Number of segments to index in parallel
+	 */
+	public static SpatialIndex build(Glyphset.RandomAccess<?,?> glyphs, int cols, int rows, long sourceLength, String shaper, int taskCount) {
+		if (cols < 1 || rows < 1) {throw new IllegalArgumentException("Must have at least one row and column; received " + cols + "x" + rows);}
+		Rectangle2D extent = glyphs.bounds();
+
+		List<? extends Glyphset<?,?>> segments = glyphs.segment(taskCount);
+		long[] offsets = new long[segments.size()];
+		long total = 0;
+		for (int i=0; i<segments.size(); i++) {
+			offsets[i] = total;
+			total += segments.get(i).size();
+		}
+		if (total != glyphs.size()) {
+			throw new IllegalArgumentException(String.format("Segment sizes (%d) do not cover the glyphset (%d); cannot assign record ids.", total, glyphs.size()));
+		}
+
+		SpatialIndex empty = new SpatialIndex(extent, cols, rows, sourceLength, total, shaper, null, null, null);
+		List<Cells> parts = IntStream.range(0, segments.size()).parallel()
+				.mapToObj(i -> Cells.build(empty, segments.get(i), offsets[i]))
+				.collect(Collectors.toList());
+
+		//Concatenate each cell's runs in segment order (keeps runs sorted within a cell)
+		int[] cellStarts = new int[cols*rows+1];
+		int runs = 0;
+		for (int c=0; c<cols*rows; c++) {
+			cellStarts[c] = runs;
+			for (Cells part: parts) {runs += part.size(c);}
+		}
+		cellStarts[cols*rows] = runs;
+
+		long[] lows = new long[runs];
+		long[] highs = new long[runs];
+		for (int c=0; c<cols*rows; c++) {
+			int at = cellStarts[c];
+			for (Cells part: parts) {at = part.copy(c, lows, highs, at);}
+		}
+		return new SpatialIndex(extent, cols, rows, sourceLength, total, shaper, cellStarts, lows, highs);
+	}
+
+	/**Per-cell run lists for one segment.**/
+	private static final class Cells {
+		private final long[][] lows;
+		private final long[][] highs;
+		private final int[] sizes;
+
+		private Cells(int cells) {
+			lows = new long[cells][];
+			highs = new long[cells][];
+			sizes = new int[cells];
+		}
+
+		private int size(int cell) {return sizes[cell];}
+
+		private int copy(int cell, long[] lowTarget, long[] highTarget, int at) {
+			if (sizes[cell] == 0) {return at;}
+			System.arraycopy(lows[cell], 0, lowTarget, at, sizes[cell]);
+			System.arraycopy(highs[cell], 0, highTarget, at, sizes[cell]);
+			return at + sizes[cell];
+		}
+
+		private void add(int cell, long id) {
+			int size = sizes[cell];
+			if (size > 0 && highs[cell][size-1] == id) {highs[cell][size-1]++; return;}
+			if (lows[cell] == null) {
+				lows[cell] = new long[4];
+				highs[cell] = new long[4];
+			} else if (size == lows[cell].length) {
+				lows[cell] = Arrays.copyOf(lows[cell], size*2);
+				highs[cell] = Arrays.copyOf(highs[cell], size*2);
+			}
+			lows[cell][size] = id;
+			highs[cell][size] = id+1;
+			sizes[cell]++;
+		}
+
+		private static Cells build(SpatialIndex grid, Glyphset<?,?> segment, long offset) {
+			Cells cells = new Cells(grid.cols*grid.rows);
+			long id = offset;
+			for (Glyph<?,?> g: segment) {
+				Rectangle2D b = Util.boundOne(g.shape());
+				int lowCol = grid.col(b.getMinX()), highCol = grid.col(b.getMaxX());
+				int lowRow = grid.row(b.getMinY()), highRow = grid.row(b.getMaxY());
+				for (int r=lowRow; r<=highRow; r++) {
+					for (int c=lowCol; c<=highCol; c++) {cells.add(grid.cell(c, r), id);}
+				}
+				id++;
+			}
+			return cells;
+		}
+	}
+}
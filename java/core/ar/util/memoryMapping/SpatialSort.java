@@ -0,0 +1,255 @@
+package ar.util.memoryMapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import ar.util.memoryMapping.MemMapEncoder.TYPE;
+
+/**Reorder the records of an hbin file along a space-filling curve.
+ *
+ * Records are keyed by two numeric fields (usually x and y), scaled to a 2^ORDER grid
+ * using the min/max info records of the file header.  Sorting is external:
+ * at most 'memory' records (and no more than MAX_RUN_BYTES) are held at once; sorted runs are
+ * spilled to temporary files and then merged into the result.
+ *
+ * After sorting, contiguous ranges of records (e.g., segments) cover compact regions.
+ * Any saved spatial index for the file is deleted, since record ids change.
+ */
+public class SpatialSort {
+	/**Bits per coordinate in the curve key.**/
+	public static final int ORDER = 16;
+
+	/**Largest run held in memory (the largest byte array most VMs will allocate).**/
+	public static final int MAX_RUN_BYTES = Integer.MAX_VALUE-8;
+
+	/**Space-filling curves available for sorting.**/
+	public enum Curve {
+		HILBERT, ZORDER;
+
+		/**Distance along the curve for cell x/y of a 2^order grid.**/
+		public long key(long x, long y, int order) {
+			switch (this) {
+				case HILBERT: return hilbert(x, y, order);
+				case ZORDER: return zorder(x, y, order);
+				default: throw new IllegalArgumentException("Unhandled curve " + this);
+			}
+		}
+
+		public static Curve parse(String name) {
+			String n = name.toUpperCase();
+			if (n.equals("Z") || n.equals("MORTON")) {return ZORDER;}
+			return valueOf(n);
+		}
+	}
+
+	/**Hilbert distance (adapted from http://en.wikipedia.org/wiki/Hilbert_curve).**/
+	public static long hilbert(long x, long y, int order) {
+		long n = 1L << order;
+		long d = 0;
+		for (long s=n/2; s>0; s/=2) {
+			long rx = (x & s) > 0 ? 1 : 0;
+			long ry = (y & s) > 0 ? 1 : 0;
+			d += s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n-1-x;
+					y = n-1-y;
+				}
+				long t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**Z-order (Morton) key: interleaved bits of x and y.**/
+	public static long zorder(long x, long y, int order) {
+		long d = 0;
+		for (int b=0; b<order; b++) {
+			d |= ((x >> b) & 1) << (2*b);
+			d |= ((y >> b) & 1) << (2*b+1);
+		}
+		return d;
+	}
+
+
+	/**Sort an hbin file in place.
+	 *
+	 * @param hbin File to sort
+	 * @param xField Index (among the encoded fields) of the first key coordinate
+	 * @param yField Index (among the encoded fields) of the second key coordinate
+	 * @param curve Curve to order by
+	 * @param memory Maximum number of records to hold in memory at once
+	 */
+	public static void sort(File hbin, int xField, int yField, Curve curve, int memory) throws IOException {
+		if (memory < 1) {throw new IllegalArgumentException("Must allow at least one record in memory; received " + memory);}
+
+		MemMapEncoder.Header header;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(hbin))) {header = MemMapEncoder.Header.from(in);}
+		if (xField >= header.types.length || yField >= header.types.length) {
+			throw new IllegalArgumentException(String.format("Key fields (%d, %d) not in file with %d fields", xField, yField, header.types.length));
+		}
+
+		int recordLength = header.recordLength;
+		long entries = (hbin.length()-header.dataTableOffset)/recordLength;
+		byte[] headerBytes = new byte[(int) header.dataTableOffset];
+		File sorted = File.createTempFile("hbinSort", ".hbin", hbin.getAbsoluteFile().getParentFile());
+		List<File> runs = new ArrayList<>();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hbin)))) {
+			in.readFully(headerBytes);
+			Keyer keyer = new Keyer(headerBytes, header, xField, yField, curve);
+
+			int perRun = runLength(recordLength, memory);
+			if (entries <= perRun) {
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sorted)))) {
+					out.write(headerBytes);
+					sortRun(in, (int) entries, recordLength, keyer, out, false);
+				}
+			} else {
+				for (long done=0; done<entries; done+=perRun) {
+					File run = File.createTempFile("hbinSortRun", ".run");
+					run.deleteOnExit();
+					runs.add(run);
+					try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)))) {
+						sortRun(in, (int) Math.min(perRun, entries-done), recordLength, keyer, out, true);
+					}
+				}
+				merge(runs, headerBytes, recordLength, sorted);
+			}
+		} finally {
+			for (File run: runs) {run.delete();}
+		}
+
+		if (!hbin.delete() || !sorted.renameTo(hbin)) {
+			throw new IOException(String.format("Could not replace %s with sorted records (left in %s)", hbin, sorted));
+		}
+		SpatialIndex.indexFile(hbin).delete();
+		if (header.zones != null) {MemMapEncoder.writeZones(hbin, header.zones.blockSize());}
+	}
+
+	/**Records per in-memory run: the requested memory, limited so a run fits in one byte array (see MAX_RUN_BYTES).**/
+	public static int runLength(int recordLength, int memory) {
+		long bytes = (long) recordLength * memory;
+		if (bytes <= MAX_RUN_BYTES) {return memory;}
+		return Math.max(1, MAX_RUN_BYTES/recordLength);
+	}
+
+	/**Read, sort and write one run of records.  Keys are written ahead of each record if requested.**/
+	private static void sortRun(DataInputStream in, int count, int recordLength, Keyer keyer, DataOutputStream out, boolean withKeys) throws IOException {
+		long size = (long) count*recordLength;
+		if (size > MAX_RUN_BYTES) {throw new IllegalArgumentException(String.format("Run of %d records of %d bytes exceeds %d bytes", count, recordLength, MAX_RUN_BYTES));}
+		byte[] records = new byte[(int) size];
+		in.readFully(records);
+		ByteBuffer view = ByteBuffer.wrap(records);
+
+		//Key in the high bits, position in the low bits: sorting the longs sorts by key (stable)
+		long[] order = new long[count];
+		for (int i=0; i<count; i++) {order[i] = (keyer.key(view, i*recordLength) << 31) | i;}
+		Arrays.sort(order);
+
+		for (long o: order) {
+			int i = (int) (o & Integer.MAX_VALUE);
+			if (withKeys) {out.writeLong(o >>> 31);}
+			out.write(records, i*recordLength, recordLength);
+		}
+	}
+
+	private static void merge(List<File> runs, byte[] headerBytes, int recordLength, File target) throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<>((a,b) -> a.key != b.key ? Long.compare(a.key, b.key) : Integer.compare(a.id, b.id));
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+			out.write(headerBytes);
+			for (int i=0; i<runs.size(); i++) {
+				Run r = new Run(i, runs.get(i), recordLength);
+				if (r.advance()) {queue.add(r);}
+			}
+
+			while (!queue.isEmpty()) {
+				Run r = queue.poll();
+				out.write(r.record);
+				if (r.advance()) {queue.add(r);}
+				else {r.in.close();}
+			}
+		} finally {
+			for (Run r: queue) {r.in.close();}
+		}
+	}
+
+	/**Cursor over a spilled run.**/
+	private static final class Run {
+		private final int id;
+		private final DataInputStream in;
+		private final byte[] record;
+		private long key;
+
+		public Run(int id, File source, int recordLength) throws IOException {
+			this.id = id;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+			this.record = new byte[recordLength];
+		}
+
+		public boolean advance() throws IOException {
+			try {key = in.readLong();}
+			catch (EOFException e) {return false;}
+			in.readFully(record);
+			return true;
+		}
+	}
+
+	/**Computes curve keys from encoded records.**/
+	private static final class Keyer {
+		private final TYPE xType, yType;
+		private final int xOffset, yOffset;
+		private final double minX, minY, spanX, spanY;
+		private final Curve curve;
+		private final long cells = (1L << ORDER)-1;
+
+		public Keyer(byte[] headerBytes, MemMapEncoder.Header header, int xField, int yField, Curve curve) {
+			int[] offsets = MemMapEncoder.recordOffsets(header.types);
+			this.curve = curve;
+			this.xType = header.types[xField];
+			this.yType = header.types[yField];
+			this.xOffset = offsets[xField];
+			this.yOffset = offsets[yField];
+
+			//Info records follow the type list: maxima then minima
+			int infoOffset = TYPE.INT.bytes + TYPE.LONG.bytes*2 + TYPE.INT.bytes + TYPE.CHAR.bytes*header.types.length;
+			ByteBuffer info = ByteBuffer.wrap(headerBytes);
+			int maxAt = infoOffset, minAt = infoOffset+header.recordLength;
+			this.minX = read(info, minAt+xOffset, xType);
+			this.minY = read(info, minAt+yOffset, yType);
+			this.spanX = read(info, maxAt+xOffset, xType) - minX;
+			this.spanY = read(info, maxAt+yOffset, yType) - minY;
+		}
+
+		public long key(ByteBuffer records, int at) {
+			long x = scale(read(records, at+xOffset, xType), minX, spanX);
+			long y = scale(read(records, at+yOffset, yType), minY, spanY);
+			return curve.key(x, y, ORDER);
+		}
+
+		private long scale(double v, double min, double span) {
+			if (!(span > 0)) {return 0;}
+			long c = (long) ((v-min)/span*cells);
+			return Math.max(0, Math.min(c, cells));
+		}
+
+		private static double read(ByteBuffer b, int at, TYPE t) {
+			if (t == TYPE.CHAR || t == TYPE.X) {throw new IllegalArgumentException("Cannot sort on non-numeric field type " + t);}
+			return ZoneMap.value(b, at, t);
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package ar.util.memoryMapping;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ar.util.memoryMapping.MemMapEncoder.TYPE;
+
+/**Per-block minimum/maximum of every field of an hbin file ("zone map").
+ *
+ * Records are grouped into fixed-size blocks (the last block may be short).
+ * For each block the record range and the min/max of each numeric field is kept
+ * (as doubles).  NaN values are left out of the ranges; a field with no numeric value
+ * in a block (e.g., a non-numeric field) holds NaN, which tests must treat as "may match".
+ * Readers can skip any block whose
+ * ranges show it cannot contain a record of interest.
+ *
+ * Stored in the header of version VERSION_ZONES hbin files, after the info records:
+ *
+ * + Block size (Int): Records per block
+ * + Block count (Int)
+ * + Blocks: First record (Long), record count (Int), then min (Double) and max (Double) for each field
+ */
+public class ZoneMap {
+	/**Records per block used by the encoder unless specified otherwise.**/
+	public static final int DEFAULT_BLOCK_SIZE = 65536;
+
+	/**Test of a block's field ranges.**/
+	public static interface Test {
+		/**Could any record with fields in the given ranges be of interest?
+		 * @param min Minimum value of each field in the block
+		 * @param max Maximum value of each field in the block
+		 */
+		public boolean mayMatch(double[] min, double[] max);
+	}
+
+	private final int blockSize;
+	private final long[] firsts;
+	private final int[] counts;
+	private final double[][] mins, maxs;
+
+	public ZoneMap(int blockSize, long[] firsts, int[] counts, double[][] mins, double[][] maxs) {
+		this.blockSize = blockSize;
+		this.firsts = firsts;
+		this.counts = counts;
+		this.mins = mins;
+		this.maxs = maxs;
+	}
+
+	public int blockSize() {return blockSize;}
+	public int blocks() {return firsts.length;}
+	public long first(int block) {return firsts[block];}
+	public int count(int block) {return counts[block];}
+
+	/**Minimum of each field in the block.  Do not modify the returned array.**/
+	public double[] min(int block) {return mins[block];}
+
+	/**Maximum of each field in the block.  Do not modify the returned array.**/
+	public double[] max(int block) {return maxs[block];}
+
+	/**Runs of records (within [low, high)) from blocks that pass the test.
+	 * Adjacent passing blocks are merged into a single run.
+	 *
+	 * @return Two arrays: low ids (inclusive) and high ids (exclusive)
+	 */
+	public long[][] runs(Test test, long low, long high) {
+		long[] lows = new long[firsts.length];
+		long[] highs = new long[firsts.length];
+		int runs = 0;
+		for (int b=0; b<firsts.length; b++) {
+			long start = Math.max(low, firsts[b]);
+			long end = Math.min(high, firsts[b]+counts[b]);
+			if (start >= end || !test.mayMatch(mins[b], maxs[b])) {continue;}
+			if (runs > 0 && highs[runs-1] == start) {highs[runs-1] = end;}
+			else {
+				lows[runs] = start;
+				highs[runs] = end;
+				runs++;
+			}
+		}
+		return new long[][]{Arrays.copyOf(lows, runs), Arrays.copyOf(highs, runs)};
+	}
+
+	/**Bytes needed to store a zone map.**/
+	public static int bytes(int blocks, int fields) {
+		return TYPE.INT.bytes*2 + blocks*(TYPE.LONG.bytes + TYPE.INT.bytes + 2*fields*TYPE.DOUBLE.bytes);
+	}
+
+	/**Encoded form, as stored in the hbin header.**/
+	public byte[] encode() {
+		int fields = firsts.length == 0 ? 0 : mins[0].length;
+		ByteBuffer b = ByteBuffer.allocate(bytes(firsts.length, fields));
+		b.putInt(blockSize);
+		b.putInt(firsts.length);
+		for (int i=0; i<firsts.length; i++) {
+			b.putLong(firsts[i]);
+			b.putInt(counts[i]);
+			for (int f=0; f<fields; f++) {
+				b.putDouble(mins[i][f]);
+				b.putDouble(maxs[i][f]);
+			}
+		}
+		return b.array();
+	}
+
+	/**Read a zone map stored at the given offset.**/
+	public static ZoneMap read(MappedFile buffer, long offset, int fields) {
+		int blockSize = buffer.getInt(offset);
+		int blocks = buffer.getInt(offset+TYPE.INT.bytes);
+		long at = offset + TYPE.INT.bytes*2;
+
+		ZoneMap zones = empty(blockSize, blocks, fields);
+		for (int i=0; i<blocks; i++) {
+			zones.firsts[i] = buffer.getLong(at);
+			zones.counts[i] = buffer.getInt(at+TYPE.LONG.bytes);
+			at += TYPE.LONG.bytes + TYPE.INT.bytes;
+			for (int f=0; f<fields; f++) {
+				zones.mins[i][f] = buffer.getDouble(at);
+				zones.maxs[i][f] = buffer.getDouble(at+TYPE.DOUBLE.bytes);
+				at += TYPE.DOUBLE.bytes*2;
+			}
+		}
+		return zones;
+	}
+
+	/**Read a zone map from the current position of the stream.**/
+	public static ZoneMap read(DataInputStream stream, int fields) throws IOException {
+		int blockSize = stream.readInt();
+		int blocks = stream.readInt();
+		ZoneMap zones = empty(blockSize, blocks, fields);
+		for (int i=0; i<blocks; i++) {
+			zones.firsts[i] = stream.readLong();
+			zones.counts[i] = stream.readInt();
+			for (int f=0; f<fields; f++) {
+				zones.mins[i][f] = stream.readDouble();
+				zones.maxs[i][f] = stream.readDouble();
+			}
+		}
+		return zones;
+	}
+
+	private static ZoneMap empty(int blockSize, int blocks, int fields) {
+		return new ZoneMap(blockSize, new long[blocks], new int[blocks], new double[blocks][fields], new double[blocks][fields]);
+	}
+
+	/**Scan the records of an hbin file and compute the zone map.
+	 * @param dataTableOffset Where the records start in the file
+	 * @param types Field types of the records
+	 */
+	public static ZoneMap compute(File source, long dataTableOffset, TYPE[] types, int blockSize) throws IOException {
+		if (blockSize < 1) {throw new IllegalArgumentException("Block size must be positive; received " + blockSize);}
+		int recordLength = MemMapEncoder.recordLength(types);
+		int[] offsets = MemMapEncoder.recordOffsets(types);
+		long entries = (source.length()-dataTableOffset)/recordLength;
+		int blocks = (int) ((entries + blockSize - 1)/blockSize);
+
+		Builder zones = new Builder(blockSize, types.length);
+		byte[] block = new byte[blockSize*recordLength];
+		double[] row = new double[types.length];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)))) {
+			MemMapEncoder.skipFully(in, dataTableOffset);
+			for (int b=0; b<blocks; b++) {
+				int count = (int) Math.min(blockSize, entries - ((long) b)*blockSize);
+				in.readFully(block, 0, count*recordLength);
+				ByteBuffer records = ByteBuffer.wrap(block);
+				for (int r=0; r<count; r++) {
+					for (int f=0; f<types.length; f++) {row[f] = value(records, r*recordLength + offsets[f], types[f]);}
+					zones.add(row);
+				}
+			}
+		}
+		return zones.build();
+	}
+
+	/**Builds a zone map from records given in order.**/
+	public static final class Builder {
+		private final int blockSize, fields;
+		private final List<double[]> mins = new ArrayList<>(), maxs = new ArrayList<>();
+		private long records = 0;
+
+		public Builder(int blockSize, int fields) {
+			if (blockSize < 1) {throw new IllegalArgumentException("Block size must be positive; received " + blockSize);}
+			this.blockSize = blockSize;
+			this.fields = fields;
+		}
+
+		/**Add the next record's field values (see value).**/
+		public void add(double[] values) {
+			if (records % blockSize == 0) {
+				double[] min = new double[fields], max = new double[fields];
+				Arrays.fill(min, Double.POSITIVE_INFINITY);
+				Arrays.fill(max, Double.NEGATIVE_INFINITY);
+				mins.add(min);
+				maxs.add(max);
+			}
+			double[] min = mins.get(mins.size()-1), max = maxs.get(maxs.size()-1);
+			for (int f=0; f<fields; f++) {
+				if (Double.isNaN(values[f])) {continue;}
+				min[f] = Math.min(min[f], values[f]);
+				max[f] = Math.max(max[f], values[f]);
+			}
+			records++;
+		}
+
+		public ZoneMap build() {
+			int blocks = mins.size();
+			ZoneMap zones = empty(blockSize, blocks, fields);
+			for (int b=0; b<blocks; b++) {
+				zones.firsts[b] = ((long) b)*blockSize;
+				zones.counts[b] = (int) Math.min(blockSize, records - zones.firsts[b]);
+				zones.mins[b] = mins.get(b);
+				zones.maxs[b] = maxs.get(b);
+				markEmpty(zones.mins[b], zones.maxs[b]);
+			}
+			return zones;
+		}
+	}
+
+	/**Set fields that had no (non-NaN) values, still at their initial infinite range, to NaN.**/
+	public static void markEmpty(double[] min, double[] max) {
+		for (int f=0; f<min.length; f++) {
+			if (min[f] == Double.POSITIVE_INFINITY && max[f] == Double.NEGATIVE_INFINITY) {
+				min[f] = Double.NaN;
+				max[f] = Double.NaN;
+			}
+		}
+	}
+
+	/**Numeric value of a field (NaN for non-numeric fields).**/
+	public static double value(ByteBuffer b, int at, TYPE t) {
+		switch (t) {
+			case INT: return b.getInt(at);
+			case SHORT: return b.getShort(at);
+			case LONG: return b.getLong(at);
+			case DOUBLE: return b.getDouble(at);
+			case FLOAT: return b.getFloat(at);
+			case BYTE: return b.get(at);
+			default: return Double.NaN;
+		}
+	}
+}
@@ -28,12 +28,14 @@ import ar.Aggregates;
 import ar.aggregates.AggregateUtils;
 import ar.glyphsets.implicitgeometry.Valuer;
 import ar.rules.CategoricalCounts;
+import ar.rules.HyperLogLog;
 
 public class AggregateSerializer {
 	public static final String AGGREGATES_SCHEMA ="ar/ext/avro/tile.avsc";
 	public static final String COUNTS_SCHEMA="ar/ext/avro/count.avsc";
 	public static final String COC_SCHEMA="ar/ext/avro/coc.avsc";
 	public static final String COLOR_SCHEMA="ar/ext/avro/color.avsc";
+	public static final String HLL_SCHEMA="ar/ext/avro/hll.avsc";
 
 	public static enum FORMAT{BINARY,JSON}
 
@@ -143,6 +145,9 @@ public class AggregateSerializer {
 		} else if (v instanceof Color) {
 			schema = new SchemaComposer().addResource(COLOR_SCHEMA).resolved();
 			conv = (Valuer<A, GenericRecord>) new Converters.FromColor(schema);
+		} else if (v instanceof HyperLogLog) {
+			schema = new SchemaComposer().addResource(HLL_SCHEMA).resolved();
+			conv = (Valuer<A, GenericRecord>) new Converters.FromHLL(schema);
 		} else {
 			throw new IllegalArgumentException("Aggreagte type not supported in auto-detection: " + v.getClass().getName());
 		}
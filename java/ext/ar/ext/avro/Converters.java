@@ -1,6 +1,7 @@
 package ar.ext.avro;
 
 import java.awt.Color;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -14,6 +15,7 @@ import ar.Aggregator;
 import ar.glyphsets.implicitgeometry.Valuer;
 import ar.rules.CategoricalCounts;
 import ar.rules.Categories;
+import ar.rules.HyperLogLog;
 import ar.rules.Numbers;
 import ar.util.Util;
 
@@ -28,6 +30,8 @@ public class Converters {
 		} else if (aggregator instanceof Categories.CountCategories<?>
 			|| aggregator instanceof Categories.MergeCategories<?>) {
 			return (Valuer<GenericRecord, A>) new ToCoC();
+		} else if (aggregator instanceof Numbers.CountDistinct<?>) {
+			return (Valuer<GenericRecord, A>) new ToHLL();
 		} else {
 			throw new IllegalArgumentException("No converter known for aggregator " + aggregator.toString());
 		}
@@ -100,6 +104,51 @@ public class Converters {
 		}
 	}
 	
+	/**Deserialization for distinct-count sketches (see hll.avsc).
+	 * Sparse sketches have no registers, dense sketches have no sparse entries.
+	 */
+	public static class ToHLL implements Valuer<GenericRecord, HyperLogLog> {
+		private static final long serialVersionUID = -1432964180276035127L;
+
+		public HyperLogLog apply(GenericRecord from) {
+			int precision = (Integer) from.get("precision");
+			ByteBuffer buffer = (ByteBuffer) from.get("registers");
+			if (buffer.remaining() > 0) {
+				byte[] registers = new byte[buffer.remaining()];
+				buffer.duplicate().get(registers);
+				return HyperLogLog.of(precision, null, registers);
+			}
+
+			@SuppressWarnings("unchecked")
+			List<Integer> entries = (List<Integer>) from.get("sparse");
+			int[] sparse = new int[entries.size()];
+			for (int i=0; i<sparse.length; i++) {sparse[i] = entries.get(i);}
+			return HyperLogLog.of(precision, sparse, null);
+		}
+	}
+
+	/**Serialization for distinct-count sketches, keeping sparse sketches sparse.**/
+	public static class FromHLL implements Valuer<HyperLogLog, GenericRecord> {
+		private static final long serialVersionUID = 2350127758031645964L;
+		private final Schema schema;
+
+		public FromHLL(Schema s) {this.schema = s;}
+
+		public GenericRecord apply(HyperLogLog from) {
+			GenericRecord r = new GenericData.Record(schema);
+			List<Integer> sparse = new ArrayList<Integer>();
+			if (from.isSparse()) {
+				for (int entry: from.sparseEntries()) {sparse.add(entry);}
+				r.put("registers", ByteBuffer.allocate(0));
+			} else {
+				r.put("registers", ByteBuffer.wrap(from.registers()));
+			}
+			r.put("precision", from.precision());
+			r.put("sparse", sparse);
+			return r;
+		}
+	}
+	
 	public static class ToColor implements Valuer<GenericRecord, Color> {
 		private static final long serialVersionUID = -5984313789299890307L;
 
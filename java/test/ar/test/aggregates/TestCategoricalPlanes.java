@@ -0,0 +1,135 @@
+package ar.test.aggregates;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Renderer;
+import ar.aggregates.AggregateUtils;
+import ar.aggregates.implementations.CategoricalPlanes;
+import ar.aggregates.implementations.RefFlatAggregates;
+import ar.aggregates.wrappers.TouchedBoundsWrapper;
+import ar.renderers.ForkJoinRenderer;
+import ar.rules.Categories;
+import ar.rules.CategoricalCounts;
+import ar.rules.CategoryDictionary;
+
+public class TestCategoricalPlanes {
+	private static final CategoryDictionary<String> dictionary = new CategoryDictionary<>(Arrays.asList("Zero", "One", "Two", "Three"));
+
+	/**Bin (x,y) holds x of "One" and y of "Three"; the diagonal also holds one "Zero".**/
+	private static CategoricalPlanes<String> planes() {
+		CategoricalPlanes<String> planes = new CategoricalPlanes<>(0, 0, 40, 40, dictionary);
+		for (int x=planes.lowX(); x<planes.highX(); x++) {
+			for (int y=planes.lowY(); y<planes.highY(); y++) {
+				planes.add(x, y, 1, x);
+				planes.add(x, y, 3, y);
+				if (x == y) {planes.add(x, y, 0, 1);}
+			}
+		}
+		return planes;
+	}
+
+	@Test
+	public void views() {
+		CategoricalPlanes<String> planes = planes();
+		assertThat(planes.get(3, 5), is(new CategoricalCounts<>(dictionary).extend("One", 3).extend("Three", 5)));
+		assertThat(planes.get(4, 4).key(0), is("Zero"));
+		assertThat(planes.get(0, 0), is(new CategoricalCounts<>(dictionary).extend("Zero", 1)));
+		assertThat(planes.get(100, 100), is(planes.defaultValue()));
+
+		planes.set(3, 5, new CategoricalCounts<String>("Two", 2));
+		assertThat(planes.get(3, 5), is(new CategoricalCounts<>(dictionary).extend("Two", 2)));
+		assertThat(planes.total(3, 5), is(2));
+	}
+
+	@Test
+	public void sparsePlanes() {
+		CategoricalPlanes<String> planes = new CategoricalPlanes<>(0, 0, 100, 100, dictionary);
+		int bins = (100*100)/CategoricalPlanes.DENSE_RATIO + 10;	//Enough to make the plane dense part way through
+		for (int i=0; i<bins; i++) {planes.add(i%100, i/100, 2, i);}
+		for (int i=0; i<bins; i++) {
+			assertThat(planes.count(i%100, i/100, 2), is(i));
+			assertThat(planes.total(i%100, i/100), is(i));
+		}
+		assertThat(planes.count(99, 99, 2), is(0));
+	}
+
+	@Test
+	public void merge() {
+		Aggregates<CategoricalCounts<String>> merged = AggregateUtils.__unsafeMerge(planes(), planes(), new CategoricalCounts<>(dictionary), CategoricalCounts::rollupTwo);
+		assertThat(merged, instanceOf(CategoricalPlanes.class));
+		assertThat(merged.get(3, 5), is(new CategoricalCounts<>(dictionary).extend("One", 6).extend("Three", 10)));
+
+		CategoricalPlanes<String> offset = new CategoricalPlanes<>(30, 30, 50, 50, dictionary);
+		offset.add(35, 35, 2, 7);
+		offset.add(45, 45, 2, 7);
+		merged = AggregateUtils.__unsafeMerge(merged, offset, new CategoricalCounts<>(dictionary), CategoricalCounts::rollupTwo);
+		assertThat(merged.get(35, 35).count("Two"), is(7));
+		assertThat(merged.get(45, 45).count("Two"), is(7));
+		assertThat(merged.get(3, 5).count("One"), is(6));
+	}
+
+	@Test
+	public void transfersMatchViews() {
+		CategoricalPlanes<String> planes = planes();
+		Aggregates<CategoricalCounts<String>> views = new RefFlatAggregates<>(planes, planes.defaultValue());
+		for (int x=planes.lowX(); x<planes.highX(); x++) {
+			for (int y=planes.lowY(); y<planes.highY(); y++) {views.set(x, y, planes.get(x, y));}
+		}
+
+		Renderer r = new ForkJoinRenderer();
+		assertSame(r.transfer(planes, new Categories.ToCount<String>()), r.transfer(views, new Categories.ToCount<String>()));
+		assertSame(r.transfer(planes, new Categories.NthCount<String>(1, -1)), r.transfer(views, new Categories.NthCount<String>(1, -1)));
+		assertSame(r.transfer(planes, new Categories.KeyPercent<String>(.5, "Three", Color.white, Color.blue, Color.red)),
+				r.transfer(views, new Categories.KeyPercent<String>(.5, "Three", Color.white, Color.blue, Color.red)));
+	}
+
+	@Test
+	public void onlyTargetsArePlanes() {
+		CategoricalCounts<String> empty = new CategoricalCounts<>(dictionary);
+		assertThat(AggregateUtils.target(0, 0, 10, 10, empty), instanceOf(CategoricalPlanes.class));
+		assertThat(AggregateUtils.make(0, 0, 10, 10, empty), not(instanceOf(CategoricalPlanes.class)));
+
+		CategoricalPlanes<String> planes = planes();
+		Aggregates<CategoricalCounts<String>> second = new ForkJoinRenderer().transfer(planes, new Categories.NthEntry<String>(1, empty));
+		assertThat(second, not(instanceOf(CategoricalPlanes.class)));
+		assertThat(second.get(3, 5), is(empty.extend("Three", 5)));
+		assertThat(second.get(4, 4), is(empty.extend("One", 4)));
+	}
+
+	@Test
+	public void accumulateThroughWrapper() {
+		CategoricalPlanes<String> left = new CategoricalPlanes<>(0, 0, 10, 10, dictionary);
+		CategoricalPlanes<String> right = new CategoricalPlanes<>(0, 0, 10, 10, dictionary);
+		Aggregates<CategoricalCounts<String>> wrapped = new TouchedBoundsWrapper<>(right, false);
+		Categories.CountCategories<String> op = new Categories.CountCategories<>(dictionary);
+
+		left.accumulate(1, 1, "One", op);
+		wrapped.accumulate(2, 3, "Two", op);
+		wrapped.accumulate(2, 3, "Two", op);
+		wrapped.accumulate(20, 20, "Two", op);	//Out of bounds, ignored
+
+		assertThat(right.count(2, 3, dictionary.id("Two")), is(2));
+		assertThat(AggregateUtils.bounds(wrapped), is(new Rectangle(2, 3, 1, 1)));
+
+		Aggregates<CategoricalCounts<String>> merged = AggregateUtils.__unsafeMerge(left, wrapped, op.identity(), op::rollup);
+		assertThat(merged, is((Object) left));
+		assertThat(merged.get(2, 3).count("Two"), is(2));
+		assertThat(merged.get(1, 1).count("One"), is(1));
+	}
+
+	private static void assertSame(Aggregates<?> planes, Aggregates<?> views) {
+		for (int x=views.lowX(); x<views.highX(); x++) {
+			for (int y=views.lowY(); y<views.highY(); y++) {
+				assertEquals(String.format("Error at %d,%d", x,y), views.get(x, y), planes.get(x, y));
+			}
+		}
+	}
+}
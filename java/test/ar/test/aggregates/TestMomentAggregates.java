@@ -0,0 +1,134 @@
+package ar.test.aggregates;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Renderer;
+import ar.aggregates.AggregateUtils;
+import ar.aggregates.implementations.MomentAggregates;
+import ar.aggregates.implementations.RefFlatAggregates;
+import ar.glyphsets.GlyphList;
+import ar.glyphsets.SimpleGlyph;
+import ar.renderers.ForkJoinRenderer;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.Moments;
+import ar.rules.Numbers;
+import ar.selectors.TouchesPixel;
+
+public class TestMomentAggregates {
+	/**Bin (x,y) holds the values x, x+1 ... x+y (shifted by a large offset, to check for cancellation).**/
+	private static final double OFFSET = 1e9;
+
+	private static MomentAggregates moments(int lowX, int lowY, int highX, int highY, int from) {
+		MomentAggregates moments = new MomentAggregates(lowX, lowY, highX, highY);
+		for (int x=lowX; x<highX; x++) {
+			for (int y=lowY; y<highY; y++) {
+				for (int i=from; i<=y; i++) {moments.add(x, y, OFFSET + x + i);}
+			}
+		}
+		return moments;
+	}
+
+	@Test
+	public void welford() {
+		MomentAggregates moments = moments(0, 0, 10, 10, 0);
+		assertThat(AggregateUtils.make(0, 0, 10, 10, Moments.EMPTY), instanceOf(MomentAggregates.class));
+		assertThat(moments.count(3, 4), is(5L));
+		assertEquals(OFFSET + 5, moments.mean(3, 4), 1e-6);
+		assertEquals(2, moments.get(3, 4).variance(), 1e-6);		//Variance of 0..4
+		assertThat(moments.get(20, 20), is(Moments.EMPTY));
+
+		Moments reference = Moments.EMPTY;
+		for (int i=0; i<=4; i++) {reference = reference.add(OFFSET + 3 + i);}
+		assertEquals(reference.mean(), moments.get(3, 4).mean(), 1e-6);
+		assertEquals(reference.m2(), moments.get(3, 4).m2(), 1e-6);
+	}
+
+	@Test
+	public void chanMerge() {
+		Numbers.MeanVariance<Double> op = new Numbers.MeanVariance<>();
+		MomentAggregates all = moments(0, 0, 10, 10, 0);
+		Aggregates<Moments> merged = AggregateUtils.__unsafeMerge(moments(0, 0, 10, 10, 5), moments(0, 0, 10, 5, 0), op.identity(), op::rollup);
+		merged = AggregateUtils.__unsafeMerge(merged, split(0, 5, 10, 10), op.identity(), op::rollup);
+		assertThat(merged, instanceOf(MomentAggregates.class));
+		for (int x=0; x<10; x++) {
+			for (int y=0; y<10; y++) {
+				assertThat(merged.get(x, y).count(), is(all.count(x, y)));
+				assertEquals(all.mean(x, y), merged.get(x, y).mean(), 1e-6);
+				assertEquals(all.m2(x, y), merged.get(x, y).m2(), 1e-6);
+			}
+		}
+
+		Aggregates<Moments> offset = AggregateUtils.__unsafeMerge(moments(5, 5, 15, 15, 0), moments(0, 0, 10, 10, 0), op.identity(), op::rollup);
+		assertThat(offset, instanceOf(MomentAggregates.class));
+		assertThat(offset.get(7, 7).count(), is(16L));
+		assertThat(offset.get(12, 12).count(), is(13L));
+		assertThat(offset.get(2, 2).count(), is(3L));
+	}
+
+	/**Values 0..4 of rows 5 to 9 (the part that moments(0,0,10,10,5) leaves out), held as objects.**/
+	private static Aggregates<Moments> split(int lowX, int lowY, int highX, int highY) {
+		Aggregates<Moments> aggs = new RefFlatAggregates<>(lowX, lowY, highX, highY, Moments.EMPTY);
+		for (int x=lowX; x<highX; x++) {
+			for (int y=lowY; y<highY; y++) {
+				Moments m = Moments.EMPTY;
+				for (int i=0; i<5; i++) {m = m.add(OFFSET + x + i);}
+				aggs.set(x, y, m);
+			}
+		}
+		return aggs;
+	}
+
+	@Test
+	public void setEmptyLeavesUntouched() {
+		MomentAggregates aggs = new MomentAggregates(0, 0, 10, 10);
+		aggs.set(3, 4, Moments.EMPTY);
+		assertThat(aggs.empty(), is(true));
+
+		MomentAggregates target = new MomentAggregates(0, 0, 10, 10);
+		aggs.add(5, 5, 2);
+		aggs.set(5, 5, Moments.EMPTY);
+		target.addAll(aggs);
+		assertThat(target.get(5, 5), is(Moments.EMPTY));
+		assertThat(target.empty(), is(true));
+	}
+
+	@Test
+	public void crossedMerges() throws Exception {
+		MomentAggregates left = new MomentAggregates(0, 0, 10, 10);
+		MomentAggregates right = new MomentAggregates(0, 0, 10, 10);
+		left.add(1, 1, 1);
+		right.add(1, 1, 3);
+		Thread a = new Thread(() -> {for (int i=0; i<10000; i++) {left.addAll(right);}});
+		Thread b = new Thread(() -> {for (int i=0; i<10000; i++) {right.addAll(left);}});
+		a.start(); b.start();
+		a.join(10000); b.join(10000);
+		assertThat("Crossed merges deadlocked", a.isAlive() || b.isAlive(), is(false));
+	}
+
+	@Test
+	public void renderAndTransfer() {
+		GlyphList<Rectangle2D, Double> glyphs = new GlyphList<>();
+		for (int i=0; i<1000; i++) {glyphs.add(new SimpleGlyph<>(new Rectangle2D.Double(i%2, 0, .5, .5), (double) (i%2 == 0 ? 10 : i%4)));}
+		Numbers.MeanVariance<Double> op = new Numbers.MeanVariance<>();
+
+		for (Renderer r: new Renderer[]{new ThreadpoolRenderer(), new ForkJoinRenderer()}) {
+			Aggregates<Moments> aggs = r.aggregate(glyphs, TouchesPixel.make(glyphs), op, new AffineTransform());
+			assertThat(aggs.get(0, 0).count(), is(500L));
+			assertThat(r.transfer(aggs, new Numbers.Mean()).get(0, 0), is(10d));
+			assertThat(r.transfer(aggs, new Numbers.Variance()).get(0, 0), is(0d));
+			assertEquals(2, r.transfer(aggs, new Numbers.Mean()).get(1, 0), 1e-9);		//Odd values alternate between 1 and 3
+			assertEquals(1, r.transfer(aggs, new Numbers.Variance()).get(1, 0), 1e-9);
+			assertEquals(1, r.transfer(aggs, new Numbers.StdDev()).get(1, 0), 1e-9);
+			assertEquals(.5, r.transfer(aggs, new Numbers.CoefficientOfVariation()).get(1, 0), 1e-9);
+			assertEquals(Math.sqrt(500/499d), r.transfer(aggs, new Numbers.StdDev(true, -1)).get(1, 0), 1e-9);
+			assertThat(r.transfer(aggs, new Numbers.Mean(-1)).get(5, 5), is(-1d));
+		}
+	}
+}
@@ -25,6 +25,7 @@ import ar.Selector;
 import ar.renderers.ForkJoinRenderer;
 import ar.rules.CategoricalCounts;
 import ar.rules.Categories;
+import ar.rules.HyperLogLog;
 import ar.rules.Numbers;
 import ar.selectors.TouchesPixel;
 import ar.util.Util;
@@ -163,5 +164,27 @@ public class AvroAggregatesTest {
 			}
 		}
 	}
+	
+	@Test
+	public void HLLRoundTrip() throws Exception {
+		Glyphset<Rectangle2D, Color> glyphs = GlyphsetUtils.autoLoad(new File("../data/circlepoints.csv"), .1, new GlyphList<>());
+		AffineTransform vt = AffineTransform.getScaleInstance(10, 10);
+		Aggregates<HyperLogLog> ref = new ForkJoinRenderer().aggregate(glyphs, TouchesPixel.make(glyphs), new Numbers.CountDistinct<Color>(6), vt);
+		
+		File file =  new File("./testResults/hll.avro");
+		try (OutputStream out = new FileOutputStream(file)) {
+			Schema s = new SchemaComposer().addResource(AggregateSerializer.HLL_SCHEMA).resolved();
+			AggregateSerializer.serialize(ref, out, s, new Converters.FromHLL(s));
+			Aggregates<HyperLogLog> res = AggregateSerializer.deserialize(file, new Converters.ToHLL());
+	
+			assertEquals(ref.lowX(), res.lowX());
+			assertEquals(ref.highY(), res.highY());
+			for (int x=ref.lowX(); x<ref.highX(); x++) {
+				for (int y=ref.lowY(); y<ref.highY(); y++) {
+					assertEquals(String.format("Unequal sketch at (%d, %d)", x,y), ref.get(x,y), res.get(x,y));
+					assertEquals(ref.get(x,y).isSparse(), res.get(x,y).isSparse());
+				}
+			}
+		}
+	}
 }
-
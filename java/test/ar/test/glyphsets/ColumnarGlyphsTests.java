@@ -0,0 +1,121 @@
+package ar.test.glyphsets;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Glyphset;
+import ar.Selector;
+import ar.glyphsets.ColumnarGlyphs;
+import ar.glyphsets.GlyphList;
+import ar.glyphsets.implicitgeometry.Indexed;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.Numbers;
+import ar.selectors.TouchesPixel;
+import ar.util.DelimitedReader;
+import ar.util.Util;
+import ar.util.memoryMapping.MemMapEncoder.TYPE;
+import static ar.test.RectNear.rectNear;
+
+public class ColumnarGlyphsTests {
+	private static String csvName = "../data/circlepoints.csv";
+
+	private static ColumnarGlyphs<Rectangle2D, Integer> columns;
+	private static ColumnarGlyphs<Rectangle2D, Integer> dictionary;
+	private static Glyphset.RandomAccess<Rectangle2D, Integer> ref;
+
+	@BeforeClass
+	public static void load() throws Exception {
+		File csv = new File(csvName);
+		Indexed.Converter converter = new Indexed.Converter(TYPE.X, TYPE.X, TYPE.DOUBLE, TYPE.DOUBLE, TYPE.INT);
+
+		columns = ColumnarGlyphs.load(
+				new DelimitedReader(csv, 1, "\\s*,\\s*"), converter,
+				new Indexed.ToRect(.1, 2, 3), new Indexed.ToValue<Integer,Integer>(4), false);
+		dictionary = ColumnarGlyphs.load(
+				new DelimitedReader(csv, 1, "\\s*,\\s*"), converter,
+				new Indexed.ToRect(.1, 2, 3), new Indexed.ToValue<Integer,Integer>(4), true);
+		ref = (GlyphList<Rectangle2D, Integer>) Util.load(
+				new GlyphList<Rectangle2D, Integer>(),
+				new DelimitedReader(csv, 1, "\\s*,\\s*"), converter,
+				new Indexed.ToRect(.1, 2, 3), new Indexed.ToValue<Integer,Integer>(4));
+	}
+
+	@Test
+	public void matchesGlyphList() {
+		assertThat(columns.size(), is(ref.size()));
+		assertThat(columns.geometry(), is(ColumnarGlyphs.Geometry.RECTANGLE));
+		for (int i=0; i<ref.size(); i++) {
+			assertEquals("Mismatched shape at " + i, ref.get(i).shape(), columns.get(i).shape());
+			assertEquals("Mismatched value at " + i, ref.get(i).info(), columns.get(i).info());
+			assertEquals("Mismatched dictionary value at " + i, ref.get(i).info(), dictionary.get(i).info());
+		}
+		assertThat(columns.bounds(), is(rectNear(ref.bounds(), .0000001)));
+	}
+
+	@Test
+	public void dictionaryEncoded() {
+		assertThat(dictionary.values(), instanceOf(ColumnarGlyphs.Dictionary.class));
+		ColumnarGlyphs.Dictionary<Integer> values = (ColumnarGlyphs.Dictionary<Integer>) dictionary.values();
+		assertThat(values.labels(), is(2));
+	}
+
+	@Test
+	public void primitiveValues() {
+		File csv = new File(csvName);
+		Indexed.Converter converter = new Indexed.Converter(TYPE.X, TYPE.X, TYPE.DOUBLE, TYPE.DOUBLE, TYPE.INT);
+		ColumnarGlyphs<Rectangle2D, Integer> ints = ColumnarGlyphs.loadInts(
+				new DelimitedReader(csv, 1, "\\s*,\\s*"), converter,
+				new Indexed.ToRect(.1, 2, 3), new Indexed.ToValue<Integer,Integer>(4));
+		ColumnarGlyphs<Rectangle2D, Double> doubles = ColumnarGlyphs.loadDoubles(
+				new DelimitedReader(csv, 1, "\\s*,\\s*"), converter,
+				new Indexed.ToRect(.1, 2, 3), new Indexed.ToValue<Integer,Integer>(4));
+
+		assertThat(ints.values(), instanceOf(ColumnarGlyphs.Ints.class));
+		assertThat(doubles.values(), instanceOf(ColumnarGlyphs.Doubles.class));
+		assertThat(ints.size(), is(ref.size()));
+		assertThat(doubles.size(), is(ref.size()));
+		for (int i=0; i<ref.size(); i++) {
+			assertEquals("Mismatched shape at " + i, ref.get(i).shape(), ints.get(i).shape());
+			assertEquals("Mismatched value at " + i, ref.get(i).info(), ints.get(i).info());
+			assertEquals("Mismatched double value at " + i, ref.get(i).info().doubleValue(), doubles.get(i).info(), 0);
+		}
+	}
+
+	@Test
+	public void segmentsAreViews() {
+		List<Glyphset<Rectangle2D, Integer>> segments = columns.segment(7);
+		long total = 0;
+		for (Glyphset<Rectangle2D, Integer> segment: segments) {
+			Glyphset.RandomAccess<Rectangle2D, Integer> s = (Glyphset.RandomAccess<Rectangle2D, Integer>) segment;
+			for (int i=0; i<s.size(); i++) {
+				assertEquals("Mismatched shape at " + (total+i), columns.get(total+i).shape(), s.get(i).shape());
+			}
+			total += s.size();
+		}
+		assertThat(total, is(columns.size()));
+	}
+
+	@Test
+	public void renderMatchesGlyphList() {
+		ThreadpoolRenderer r = new ThreadpoolRenderer();
+		Selector<Rectangle2D> selector = TouchesPixel.make(Rectangle2D.class);
+		AffineTransform vt = Util.zoomFit(ref.bounds(), 200, 200);
+		Aggregates<Integer> expected = r.aggregate(ref, selector, new Numbers.Count<>(), vt);
+		Aggregates<Integer> actual = r.aggregate(columns, selector, new Numbers.Count<>(), vt);
+
+		for (int x=expected.lowX(); x<expected.highX(); x++) {
+			for (int y=expected.lowY(); y<expected.highY(); y++) {
+				assertEquals(String.format("Mismatch at %d,%d", x, y), expected.get(x, y), actual.get(x, y));
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package ar.test.glyphsets;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.CompressedList;
+import ar.glyphsets.MemMapList;
+import ar.glyphsets.implicitgeometry.Indexed;
+import ar.util.memoryMapping.CompressedHbin;
+import ar.util.memoryMapping.MemMapEncoder;
+
+public class CompressedListTests {
+	private static String csvName = "../data/circlepoints.csv";
+	private static File hbin = new File("../data/circlepointsCompressedTests.hbin");
+	private static File compressed = new File("../data/circlepointsCompressedTests.chbin");
+
+	private static MemMapList<Rectangle2D, Integer> ref;
+	private static CompressedList<Rectangle2D, Integer> glyphs;
+
+	@BeforeClass
+	public static void encode() throws Exception {
+		if (hbin.exists()) {hbin.delete();}
+		MemMapEncoder.write(new File(csvName), 1, hbin, "xxddi".toCharArray());
+		CompressedHbin.write(hbin, compressed, 100, CompressedHbin.DEFAULT_QUANTIZATION_BITS, 0, 1);
+
+		ref = new MemMapList<>(hbin, new Indexed.ToRect(.05, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+		glyphs = new CompressedList<>(compressed, new Indexed.ToRect(.05, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+	}
+
+	@AfterClass
+	public static void removeTemps() {
+		hbin.delete();
+		compressed.delete();
+	}
+
+	@Test
+	public void smaller() {
+		assertThat((double) hbin.length()/compressed.length(), greaterThan(2d));
+		assertThat(glyphs.header().modes[0], is(CompressedHbin.Mode.QUANTIZED));
+		assertThat(glyphs.header().modes[2], is(CompressedHbin.Mode.DICTIONARY));
+	}
+
+	@Test
+	public void losslessByDefault() throws Exception {
+		File csv = File.createTempFile("lossless", ".csv");
+		File source = File.createTempFile("lossless", ".hbin");
+		File target = File.createTempFile("lossless", ".chbin");
+		try {
+			Files.write(csv.toPath(), Arrays.asList("x,y,v,w", "0.1,2,3.25,1", "1e-300,-3,NaN,2.5", "-0.0,4,Infinity,-7", "7,5,0.3,12"));
+			source.delete();
+			MemMapEncoder.write(csv, 1, source, "dddf".toCharArray());
+			CompressedHbin.write(source, target);
+
+			MemMapList<Indexed, Indexed> expected = new MemMapList<>(source, (Indexed r) -> r, (Indexed r) -> r);
+			CompressedList<Indexed, Indexed> actual = new CompressedList<>(target, (Indexed r) -> r, (Indexed r) -> r);
+			assertThat(actual.header().modes[0], is(CompressedHbin.Mode.EXACT));
+			assertThat(actual.header().modes[1], is(CompressedHbin.Mode.DELTA));
+			assertThat(actual.header().modes[2], is(CompressedHbin.Mode.EXACT));
+			assertThat(actual.size(), is(expected.size()));
+			Iterator<Glyph<Indexed, Indexed>> it = actual.iterator();
+			for (Glyph<Indexed, Indexed> g: expected) {
+				Indexed e = g.info(), a = it.next().info();
+				for (int f=0; f<e.size(); f++) {assertThat(String.format("Field %d of %s", f, e), a.get(f), is(e.get(f)));}
+			}
+		} finally {
+			csv.delete();
+			source.delete();
+			target.delete();
+		}
+	}
+
+	@Test
+	public void decodesWithinQuantum() {
+		double tolerance = Math.max(glyphs.header().quanta[0], glyphs.header().quanta[1]);
+		assertThat(glyphs.size(), is(ref.size()));
+
+		Iterator<Glyph<Rectangle2D, Integer>> it = glyphs.iterator();
+		for (Glyph<Rectangle2D, Integer> expected: ref) {
+			Glyph<Rectangle2D, Integer> actual = it.next();
+			assertThat(actual.shape().getX(), closeTo(expected.shape().getX(), tolerance));
+			assertThat(actual.shape().getY(), closeTo(expected.shape().getY(), tolerance));
+			assertThat(actual.info(), is(expected.info()));
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void segmentsCoverBlocks() {
+		long total = 0;
+		for (Glyphset<Rectangle2D, Integer> segment: glyphs.segment(4)) {
+			long count = 0;
+			for (@SuppressWarnings("unused") Glyph<Rectangle2D, Integer> g: segment) {count++;}
+			assertThat(count, is(segment.size()));
+			total += count;
+		}
+		assertThat(total, is(ref.size()));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void rejectsNonFinite() throws Exception {
+		File csv = File.createTempFile("nonFinite", ".csv");
+		File source = File.createTempFile("nonFinite", ".hbin");
+		File target = File.createTempFile("nonFinite", ".chbin");
+		try {
+			Files.write(csv.toPath(), Arrays.asList("x,y", "1,2", "NaN,3"));
+			source.delete();
+			MemMapEncoder.write(csv, 1, source, "dd".toCharArray());
+			CompressedHbin.write(source, target, 100, CompressedHbin.DEFAULT_QUANTIZATION_BITS, 0);
+		} finally {
+			csv.delete();
+			source.delete();
+			target.delete();
+		}
+	}
+
+	@Test
+	public void varints() {
+		for (long v: new long[]{0, 1, -1, 63, -64, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE}) {
+			assertThat(CompressedHbin.unzigzag(CompressedHbin.zigzag(v)), is(v));
+		}
+	}
+}
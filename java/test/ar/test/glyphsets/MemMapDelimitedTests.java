@@ -0,0 +1,116 @@
+package ar.test.glyphsets;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.GlyphList;
+import ar.glyphsets.MemMapDelimited;
+import ar.glyphsets.implicitgeometry.Indexed;
+import ar.glyphsets.implicitgeometry.Valuer;
+import ar.util.DelimitedReader;
+import ar.util.Util;
+import ar.util.memoryMapping.MemMapEncoder.TYPE;
+
+public class MemMapDelimitedTests {
+	private static File csv = new File("../data/circlepoints.csv");
+	private static Indexed.Converter converter = new Indexed.Converter(TYPE.X, TYPE.X, TYPE.DOUBLE, TYPE.DOUBLE, TYPE.INT);
+
+	private static GlyphList<Rectangle2D, Integer> ref;
+	private static MemMapDelimited<Rectangle2D, Integer> glyphs;
+
+	@BeforeClass
+	public static void load() {
+		ref = (GlyphList<Rectangle2D, Integer>) Util.load(
+				new GlyphList<Rectangle2D, Integer>(),
+				new DelimitedReader(csv, 1, DelimitedReader.CSV),
+				converter,
+				new Indexed.ToRect(1, 2, 3), new Indexed.ToValue<Integer,Integer>(4));
+		glyphs = new MemMapDelimited<>(csv, 1, converter, new Indexed.ToRect(1, 2, 3), new Indexed.ToValue<Integer,Integer>(4));
+	}
+
+	@Test
+	public void matchesReader() {
+		assertThat(glyphs.size(), is(ref.size()));
+		assertThat(glyphs.bounds(), is(ref.bounds()));
+		for (int tasks: new int[]{1, 3, 7}) {
+			assertThat(new MemMapDelimited<>(csv, 1, converter, new Indexed.ToRect(1, 2, 3), new Indexed.ToValue<Integer,Integer>(4)).size(tasks), is(ref.size()));
+		}
+
+		Iterator<Glyph<Rectangle2D, Integer>> it = glyphs.iterator();
+		for (Glyph<Rectangle2D, Integer> expected: ref) {
+			Glyph<Rectangle2D, Integer> actual = it.next();
+			assertThat(actual.shape(), is(expected.shape()));
+			assertThat(actual.info(), is(expected.info()));
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void segmentsAreExact() {
+		for (int count: new int[]{1, 3, 16, 5000}) {
+			long total = 0;
+			for (Glyphset<Rectangle2D, Integer> segment: glyphs.segment(count)) {
+				long seen = 0;
+				for (@SuppressWarnings("unused") Glyph<Rectangle2D, Integer> g: segment) {seen++;}
+				assertThat(seen, is(segment.size()));
+				total += seen;
+			}
+			assertThat("Segmented into " + count, total, is(ref.size()));
+		}
+	}
+
+	@Test
+	public void numbersMatchParsers() {
+		Random r = new Random(7);
+		for (int i=0; i<100000; i++) {
+			String text;
+			switch (i%4) {
+				case 0: text = Double.toString(r.nextDouble() * Math.pow(10, r.nextInt(40)-20)); break;
+				case 1: text = String.format("%.6f", r.nextGaussian()*1000); break;
+				case 2: text = r.nextInt(1000) + "e" + (r.nextInt(40)-20); break;
+				default: text = Long.toString(r.nextLong());
+			}
+			byte[] bytes = (" " + text + " ").getBytes();
+			assertThat(text, MemMapDelimited.parseDouble(bytes, 0, bytes.length), is(Double.parseDouble(text)));
+			assertThat(text, MemMapDelimited.parseFloat(bytes, 0, bytes.length), is(Float.parseFloat(text)));
+			if (i%4 == 3) {assertThat(MemMapDelimited.parseLong(bytes, 0, bytes.length), is(Long.parseLong(text)));}
+		}
+	}
+
+	@Test
+	public void quotedAndBlank() throws Exception {
+		File temp = File.createTempFile("memMapDelimited", ".csv");
+		try {
+			try (PrintWriter w = new PrintWriter(temp)) {
+				w.print("id,label,count,value\n");
+				w.print("1,\"a,\"\"b\"\"\",  -7 ,2.5\r\n");
+				w.print("\n");
+				w.print("2,plain,3,1e3");
+			}
+			Indexed.Converter types = new Indexed.Converter(Indexed.Converter.TYPE.INT, Indexed.Converter.TYPE.STRING, Indexed.Converter.TYPE.LONG, Indexed.Converter.TYPE.DOUBLE);
+			MemMapDelimited<Point2D, Indexed> lines = new MemMapDelimited<>(temp, 1, types, new Indexed.ToPoint(false, 0, 3), new Valuer.Identity<Indexed>());
+
+			assertThat(lines.size(), is(2l));
+			Iterator<Glyph<Point2D, Indexed>> it = lines.iterator();
+			Indexed first = it.next().info();
+			assertThat(first.get(1), is((Object) "a,\"b\""));
+			assertThat(first.get(2), is((Object) (-7l)));
+			assertThat(it.next().shape(), is((Point2D) new Point2D.Double(2, 1000)));
+			assertFalse(it.hasNext());
+		} finally {
+			temp.delete();
+		}
+	}
+}
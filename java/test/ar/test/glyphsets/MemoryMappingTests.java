@@ -1,23 +1,41 @@
 package ar.test.glyphsets;
 
 import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.instanceOf;
 
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import ar.Aggregates;
+import ar.Glyph;
 import ar.Glyphset;
+import ar.Renderer;
+import ar.Selector;
+import ar.glyphsets.BoundingWrapper;
+import ar.glyphsets.FieldFilter;
+import ar.glyphsets.FilterGlyphs;
 import ar.glyphsets.GlyphList;
+import ar.glyphsets.MemMapColumns;
 import ar.glyphsets.MemMapList;
+import ar.glyphsets.implicitgeometry.FieldRange;
 import ar.glyphsets.implicitgeometry.Indexed;
 import ar.glyphsets.implicitgeometry.IndexedEncoding;
+import ar.renderers.ForkJoinRenderer;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.Numbers;
+import ar.selectors.TouchesPixel;
 import ar.util.DelimitedReader;
 import ar.util.memoryMapping.BigFileByteBuffer;
 import ar.util.memoryMapping.MemMapEncoder;
 import ar.util.memoryMapping.MemMapEncoder.TYPE;
+import ar.util.memoryMapping.ZoneMap;
 import ar.util.Util;
 import static ar.test.RectNear.rectNear;
 
@@ -105,4 +123,181 @@ public class MemoryMappingTests {
 		assertThat(glyphsB.bounds(), rectNear(glyphsA.bounds(), 0.1));
 	}
 	
+	@Test
+	public void columns() throws Exception {
+		File columns = new File(hbinName + ".cols");
+		try {
+			MemMapEncoder.writeColumns(new File(hbinName), columns);
+			MemMapColumns<Rectangle2D, Integer> cols = new MemMapColumns<>(columns, new Indexed.ToRect(1, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+			assertEquals(mm.size(), cols.size());
+			assertFalse("Value column mapped before use.", cols.mappedColumns()[2]);
+			for (int i=0; i< mm.size(); i++) {
+				assertEquals("Mismatched shape at " + i, mm.get(i).shape(), cols.get(i).shape());
+				assertEquals("Mismatched value at " + i, mm.get(i).info(), cols.get(i).info());
+			}
+			assertEquals(mm.bounds(), cols.bounds());
+			
+			//Numeric reads match boxed reads (through a shaper that captures the record)
+			Indexed[] record = new Indexed[1];
+			MemMapColumns<Indexed, Integer> raw = new MemMapColumns<>(columns, (Indexed r) -> {record[0] = r; return r;}, new Indexed.ToValue<Integer,Integer>(2));
+			raw.get(17);
+			assertThat(record[0], instanceOf(Indexed.Numeric.class));
+			for (int f=0; f<record[0].size(); f++) {
+				assertEquals(((Number) record[0].get(f)).doubleValue(), Indexed.Util.number(record[0], f), 0);
+			}
+			raw.close();
+			
+			//Segments keep their own hold on the mapping
+			Glyphset<Rectangle2D, Integer> segment = cols.segment(2).get(1);
+			cols.close();
+			assertEquals(mm.get(mm.size()-1).shape(), ((Glyphset.RandomAccess<Rectangle2D, Integer>) segment).get(segment.size()-1).shape());
+			try {
+				cols.get(0);
+				fail("Read from a closed list.");
+			} catch (IllegalStateException e) {/*Expected*/}
+			((MemMapColumns<?,?>) segment).close();
+		} finally {
+			columns.delete();
+		}
+	}
+	
+	@Test
+	public void parallelEncode() throws Exception {
+		File parallel = new File(hbinName + ".parallel");
+		try {
+			MemMapEncoder.writeParallel(new File(csvName), 1, parallel, "xxddi".toCharArray(), 3);
+			assertArrayEquals(Files.readAllBytes(new File(hbinName).toPath()), Files.readAllBytes(parallel.toPath()));
+		} finally {
+			parallel.delete();
+		}
+	}
+	
+	@Test
+	public void zoneMap() throws Exception {
+		BigFileByteBuffer buffer = new BigFileByteBuffer(new File(hbinName), 1000);
+		MemMapEncoder.Header header = MemMapEncoder.Header.from(buffer);
+		assertEquals(MemMapEncoder.VERSION_ZONES, header.version);
+		
+		ZoneMap zones = header.zones;
+		long records = 0;
+		for (int b=0; b<zones.blocks(); b++) {
+			assertEquals("Non-contiguous block " + b, records, zones.first(b));
+			for (long r=zones.first(b); r<zones.first(b)+zones.count(b); r++) {
+				IndexedEncoding entry = new IndexedEncoding(header.types, header.dataTableOffset + r*header.recordLength, buffer);
+				double x = (Double) entry.get(0);
+				assertTrue("Record " + r + " outside block range", x >= zones.min(b)[0] && x <= zones.max(b)[0]);
+			}
+			records += zones.count(b);
+		}
+		assertEquals(mm.size(), records);
+		assertEquals("Zone map reservation not sized to the records", 
+				header.minimaRecordOffset + header.recordLength + ZoneMap.bytes(zones.blocks(), header.types.length), header.dataTableOffset);
+		
+		MemMapEncoder.writeZones(new File(hbinName), zones.blockSize());	//Fits the space reserved by write, so no copy is made
+		assertEquals(header.dataTableOffset, MemMapEncoder.Header.from(new BigFileByteBuffer(new File(hbinName), 1000)).dataTableOffset);
+	}
+	
+	@Test
+	public void zoneSkipping() throws Exception {
+		Rectangle2D region = new Rectangle2D.Double(.2, .1, .3, .25);
+		long expected = 0, found = 0;
+		for (Glyph<Rectangle2D, Integer> g: ref) {if (region.intersects(g.shape())) {expected++;}}
+		for (@SuppressWarnings("unused") Glyph<Rectangle2D, Integer> g: new BoundingWrapper<>(mm, region)) {found++;}
+		assertEquals(expected, found);
+		
+		//Records sorted by x, in blocks of 100, so a narrow region only needs one block; that block has a NaN x
+		File csv = File.createTempFile("zones", ".csv"), hbin = File.createTempFile("zones", ".hbin");
+		try {
+			StringBuilder text = new StringBuilder("x,y,v\n");
+			for (int i=0; i<1000; i++) {text.append(i == 250 ? "NaN" : Double.toString(i/1000d)).append(",").append((i%10)/10d).append(",1\n");}
+			Files.write(csv.toPath(), text.toString().getBytes());
+			MemMapEncoder.write(csv, 1, hbin, "ddi".toCharArray());
+			MemMapEncoder.writeZones(hbin, 100);
+			
+			MemMapList<Rectangle2D, Integer> list = new MemMapList<>(hbin, new Indexed.ToRect(.001, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+			Rectangle2D narrow = new Rectangle2D.Double(.22, 0, .06, 1);
+			Glyphset.RandomAccess<Rectangle2D, Integer> candidates = list.within(narrow);
+			assertEquals("Blocks other than the one holding the region were not skipped", 100, candidates.size());
+
+			expected = 0; found = 0;
+			for (Glyph<Rectangle2D, Integer> g: list) {if (narrow.intersects(g.shape())) {expected++;}}
+			for (Glyph<Rectangle2D, Integer> g: candidates) {if (narrow.intersects(g.shape())) {found++;}}
+			assertTrue(expected > 0);
+			assertEquals(expected, found);
+			list.close();
+		} finally {
+			csv.delete();
+			hbin.delete();
+		}
+	}
+	
+	@Test
+	public void fieldPushdown() throws Exception {
+		long expected = 0;
+		for (Glyph<Rectangle2D, Integer> g: ref) {if (g.info() == 1) {expected++;}}
+
+		FilterGlyphs<Rectangle2D, Integer> filtered = new FilterGlyphs<>(mm, FieldRange.equal(2, 1));
+		long found = 0;
+		for (Glyph<Rectangle2D, Integer> g: filtered) {
+			assertEquals(Integer.valueOf(1), g.info());
+			found++;
+		}
+		assertEquals(expected, found);
+
+		long segmented = 0;
+		for (Glyphset<Rectangle2D, Integer> segment: filtered.segment(4)) {
+			for (@SuppressWarnings("unused") Glyph<Rectangle2D, Integer> g: segment) {segmented++;}
+		}
+		assertEquals(expected, segmented);
+		assertEquals(expected, ((MemMapList<Rectangle2D, Integer>) mm).where(FieldRange.equal(2, 1)).count());
+
+		File columns = new File(hbinName + ".filterCols");
+		try {
+			MemMapEncoder.writeColumns(new File(hbinName), columns);
+			MemMapColumns<Rectangle2D, Integer> cols = new MemMapColumns<>(columns, new Indexed.ToRect(1, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+			assertEquals(expected, cols.where(FieldRange.atLeast(2, 0.5)).count());
+		} finally {
+			columns.delete();
+		}
+	}
+	
+	@Test
+	public void filteredRender() throws Exception {
+		FieldRange<Rectangle2D, Integer> test = FieldRange.equal(2, 1);
+		AffineTransform view = Util.zoomFit(mm.bounds(), 300, 300);
+		Selector<Rectangle2D> selector = TouchesPixel.make(mm);
+		Numbers.Count<Integer> count = new Numbers.Count<>();
+
+		GlyphList<Rectangle2D, Integer> passing = new GlyphList<>();
+		for (Glyph<Rectangle2D, Integer> g: mm) {if (g.info() == 1) {passing.add(g);}}
+
+		File columns = new File(hbinName + ".renderCols");
+		try {
+			MemMapEncoder.writeColumns(new File(hbinName), columns);
+			MemMapColumns<Rectangle2D, Integer> cols = new MemMapColumns<>(columns, new Indexed.ToRect(1, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+			
+			for (Renderer rend: Arrays.asList(new ThreadpoolRenderer(), new ForkJoinRenderer())) {
+				Aggregates<Integer> expected = rend.aggregate(passing, selector, count, view);
+				long expectedTotal = 0;
+				for (Integer v: expected) {expectedTotal += v;}
+				assertTrue("No glyphs pass the filter.", expectedTotal > 0);
+				for (Glyphset<Rectangle2D, Integer> segment: Arrays.asList(mm.segment(1).get(0), cols.segment(1).get(0))) {
+					FieldFilter<Rectangle2D, Integer> filtered = ((FieldFilter.Source<Rectangle2D, Integer>) segment).where(test);
+					for (int rep=0; rep<3; rep++) {
+						Aggregates<Integer> result = rend.aggregate(filtered, selector, count, view);
+						long total = 0;
+						for (int x=result.lowX(); x<result.highX(); x++) {
+							for (int y=result.lowY(); y<result.highY(); y++) {
+								assertEquals(String.format("Mismatch at %d,%d (%s)", x, y, segment.getClass().getSimpleName()), expected.get(x,y), result.get(x,y));
+								total += result.get(x,y);
+							}
+						}
+						assertEquals(expectedTotal, total);
+					}
+				}
+			}
+		} finally {
+			columns.delete();
+		}
+	}
 }
@@ -0,0 +1,80 @@
+package ar.test.glyphsets;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.awt.geom.Point2D;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Glyph;
+import ar.Glyphset;
+import ar.aggregates.AggregateUtils;
+import ar.glyphsets.SampledGlyphs;
+import ar.glyphsets.SyntheticGlyphset;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.Numbers;
+
+public class SampledGlyphsTests {
+	/**Glyph i is at (i, 0).**/
+	private static final SyntheticGlyphset<Point2D, Integer> glyphs = new SyntheticGlyphset<>(1000000, i -> new Point2D.Double(i, 0), i -> 1);
+
+	@Test
+	public void bernoulliIndependentOfSegmentation() {
+		SampledGlyphs.Bernoulli<Point2D, Integer> sample = new SampledGlyphs.Bernoulli<>(glyphs, 0.01, 5);
+		Set<Double> whole = new HashSet<>();
+		for (Glyph<Point2D, Integer> g: sample) {whole.add(g.shape().getX());}
+		assertThat((double) whole.size(), closeTo(sample.size(), sample.size()*0.05));
+
+		for (int count: new int[]{1, 7, 100}) {
+			Set<Double> parts = new HashSet<>();
+			for (Glyphset<Point2D, Integer> segment: sample.segment(count)) {
+				for (Glyph<Point2D, Integer> g: segment) {assertTrue(parts.add(g.shape().getX()));}
+			}
+			assertThat("Segmented into " + count, parts, is(whole));
+		}
+	}
+
+	@Test
+	public void stratifiedOnePerStratum() {
+		SampledGlyphs.Stratified<Point2D, Integer> sample = new SampledGlyphs.Stratified<>(glyphs, 1000, 2);
+		assertThat(sample.size(), is(1000l));
+		assertThat(sample.scale(), is(1000d));
+		for (long i=0; i<sample.size(); i++) {
+			assertThat(Math.floor(sample.get(i).shape().getX()/1000), is((double) i));
+		}
+	}
+
+	@Test
+	public void reservoirExactAndDistinct() {
+		SampledGlyphs.Reservoir<Point2D, Integer> sample = new SampledGlyphs.Reservoir<>(glyphs, 20000, 3);
+		assertThat(sample.size(), is(20000l));
+
+		double last = -1;
+		int[] tenths = new int[10];
+		for (Glyph<Point2D, Integer> g: sample) {
+			double x = g.shape().getX();
+			assertThat(x, greaterThan(last));
+			last = x;
+			tenths[(int) (x/100000)]++;
+		}
+		for (int count: tenths) {assertThat(count, is(both(greaterThan(1800)).and(lessThan(2200))));}
+
+		assertThat(new SampledGlyphs.Reservoir<>(glyphs, 0, 3).size(), is(0l));
+		assertThat(new SampledGlyphs.Reservoir<>(new SyntheticGlyphset<>(10, i -> new Point2D.Double(i, 0), i -> 1), 20, 3).size(), is(10l));
+	}
+
+	@Test
+	public void scaleCounts() {
+		Aggregates<Integer> counts = AggregateUtils.make(2, 2, 0);
+		counts.set(0, 0, 3);
+		counts.set(1, 1, 5);
+		Aggregates<Integer> scaled = Numbers.Scale.make(0, 2.5).process(counts, new ThreadpoolRenderer());
+		assertThat(scaled.get(0, 0), is(8));
+		assertThat(scaled.get(1, 1), is(13));
+		assertThat(scaled.get(0, 1), is(0));
+	}
+}
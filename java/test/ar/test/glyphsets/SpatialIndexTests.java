@@ -0,0 +1,104 @@
+package ar.test.glyphsets;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.BoundingWrapper;
+import ar.glyphsets.MemMapList;
+import ar.glyphsets.RecordRuns;
+import ar.glyphsets.implicitgeometry.Indexed;
+import ar.util.memoryMapping.MemMapEncoder;
+import ar.util.memoryMapping.SpatialIndex;
+
+public class SpatialIndexTests {
+	private static String csvName = "../data/circlepoints.csv";
+	private static String hbinName = "../data/circlepointsIndexTests.hbin";
+
+	private static MemMapList<Rectangle2D, Integer> plain;
+	private static MemMapList<Rectangle2D, Integer> indexed;
+
+	@BeforeClass
+	public static void makeIndex() throws Exception {
+		File hbin = new File(hbinName);
+		if (hbin.exists()) {hbin.delete();}
+		MemMapEncoder.write(new File(csvName), 1, hbin, "xxddi".toCharArray());
+
+		plain = new MemMapList<>(hbin, new Indexed.ToRect(.05, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+		SpatialIndex.indexFile(hbin).delete();
+		assertThat(plain.index(), is(nullValue()));
+
+		indexed = new MemMapList<>(hbin, new Indexed.ToRect(.05, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+		indexed.buildIndex(16);
+	}
+
+	@AfterClass
+	public static void removeTemps() throws Exception {
+		File hbin = new File(hbinName);
+		SpatialIndex.indexFile(hbin).delete();
+		if (hbin.exists()) {hbin.delete();}
+	}
+
+	@Test
+	public void reload() throws Exception {
+		MemMapList<Rectangle2D, Integer> reloaded = new MemMapList<>(new File(hbinName), new Indexed.ToRect(.05, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+		assertThat(reloaded.index(), is(notNullValue()));
+		assertThat(reloaded.index().records(), is(reloaded.size()));
+		assertThat(reloaded.index().runs(), is(indexed.index().runs()));
+	}
+
+	@Test
+	public void shaperMismatch() throws Exception {
+		MemMapList<Rectangle2D, Integer> wider = new MemMapList<>(new File(hbinName), new Indexed.ToRect(.5, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+		assertThat(wider.index(), is(nullValue()));
+		MemMapList<Rectangle2D, Integer> swapped = new MemMapList<>(new File(hbinName), new Indexed.ToRect(.05, 1, 0), new Indexed.ToValue<Integer,Integer>(2));
+		assertThat(swapped.index(), is(nullValue()));
+	}
+
+	@Test
+	public void runOrder() {
+		Glyphset.RandomAccess<Rectangle2D, Integer> subset = indexed.within(new Rectangle2D.Double(.2, .1, .3, .25));
+		assertThat(subset, is(instanceOf(RecordRuns.class)));
+		long i = 0;
+		for (Glyph<Rectangle2D, Integer> g: subset) {
+			Glyph<Rectangle2D, Integer> ref = subset.get(i++);
+			assertThat(g.shape(), is(ref.shape()));
+			assertThat(g.info(), is(ref.info()));
+		}
+		assertThat(i, is(subset.size()));
+	}
+
+	@Test
+	public void boundedMatches() {
+		Rectangle2D[] queries = new Rectangle2D[] {
+				new Rectangle2D.Double(.2, .1, .3, .25),
+				new Rectangle2D.Double(-1, -1, .5, .5),
+				new Rectangle2D.Double(5, 5, 1, 1),
+				indexed.bounds()};
+
+		for (Rectangle2D query: queries) {
+			BoundingWrapper<Rectangle2D, Integer> ref = new BoundingWrapper<>(plain, query);
+			BoundingWrapper<Rectangle2D, Integer> test = new BoundingWrapper<>(indexed, query);
+			assertThat("Candidates for " + query, test.size(), lessThanOrEqualTo(plain.size()));
+			assertThat("Count for " + query, count(test), is(count(ref)));
+
+			long segmented = 0;
+			for (Glyphset<Rectangle2D, Integer> segment: test.segment(4)) {segmented += count(segment);}
+			assertThat("Segmented count for " + query, segmented, is(count(ref)));
+		}
+	}
+
+	private static long count(Iterable<? extends Glyph<?,?>> glyphs) {
+		long count = 0;
+		for (@SuppressWarnings("unused") Glyph<?,?> g: glyphs) {count++;}
+		return count;
+	}
+}
@@ -0,0 +1,85 @@
+package ar.test.glyphsets;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+import org.junit.Test;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.SyntheticGlyphset;
+import ar.util.Util;
+
+public class SyntheticGlyphsetTests {
+	private static SyntheticGlyphset<Point2D, Integer> clusters(long seed) {
+		return new SyntheticGlyphset<>(100000,
+				new SyntheticGlyphset.GaussianClusters(new double[]{0, 10}, new double[]{0, 5}, new double[]{1, 2}, seed),
+				new SyntheticGlyphset.ZipfCategories(5, 1, seed));
+	}
+
+	@Test
+	public void reproducible() {
+		SyntheticGlyphset<Point2D, Integer> a = clusters(42);
+		SyntheticGlyphset<Point2D, Integer> b = clusters(42);
+		SyntheticGlyphset<Point2D, Integer> c = clusters(43);
+		int same = 0;
+		for (long i=0; i<1000; i++) {
+			assertThat(a.get(i).shape(), is(b.get(i).shape()));
+			assertThat(a.get(i).info(), is(b.get(i).info()));
+			if (a.get(i).shape().equals(c.get(i).shape())) {same++;}
+		}
+		assertThat("Different seeds, different points", same, is(0));
+	}
+
+	@Test
+	public void segmentsCoverSize() {
+		SyntheticGlyphset<Point2D, Integer> glyphs = clusters(1);
+		for (int count: new int[]{1, 3, 7, 64}) {
+			long total = 0;
+			long index = 0;
+			for (Glyphset<Point2D, Integer> segment: glyphs.segment(count)) {
+				for (Glyph<Point2D, Integer> g: segment) {
+					assertThat(g.shape(), is(glyphs.get(index).shape()));
+					index++;
+					total++;
+				}
+			}
+			assertThat("Segmented into " + count, total, is(glyphs.size()));
+		}
+	}
+
+	@Test
+	public void boundsContainGlyphs() {
+		SyntheticGlyphset<Point2D, Integer> points = clusters(2);
+		assertTrue(points.bounds().contains(Util.bounds(points.iterator())));
+
+		Rectangle2D region = new Rectangle2D.Double(-5, 2, 10, 10);
+		SyntheticGlyphset<Line2D, Integer> lines = new SyntheticGlyphset<>(10000, new SyntheticGlyphset.LineSegments(region, 3, 2), i -> 0);
+		assertThat(lines.bounds(), is(region));
+		assertTrue(region.contains(Util.bounds(lines.iterator())));
+
+		SyntheticGlyphset<Point2D, Integer> computed = new SyntheticGlyphset<>(1000, i -> new Point2D.Double(i, -i), i -> 0);
+		assertThat(computed.bounds(), is((Rectangle2D) new Rectangle2D.Double(0, -999, 999, 999)));
+
+		Rectangle2D empty = new SyntheticGlyphset<Point2D, Integer>(0, i -> new Point2D.Double(i, -i), i -> 0).bounds();
+		assertNotNull(empty);
+		assertTrue(empty.isEmpty());
+		assertTrue(Double.isNaN(empty.getX()));
+	}
+
+	@Test
+	public void zipfSkew() {
+		SyntheticGlyphset.ZipfCategories zipf = new SyntheticGlyphset.ZipfCategories(5, 1, 3);
+		int[] counts = new int[5];
+		for (long i=0; i<100000; i++) {counts[zipf.apply(i)]++;}
+		for (int k=1; k<counts.length; k++) {
+			assertThat(counts[k], lessThan(counts[k-1]));
+		}
+		//Category 0 has weight 1/H(5) ~ 0.438
+		assertThat(counts[0]/100000d, closeTo(0.438, 0.01));
+	}
+}
@@ -0,0 +1,51 @@
+package ar.test.renderers;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Renderer;
+import ar.Selector;
+import ar.glyphsets.GlyphList;
+import ar.glyphsets.SimpleGlyph;
+import ar.renderers.ForkJoinRenderer;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.CategoricalCounts;
+import ar.rules.Categories;
+import ar.selectors.TouchesPixel;
+
+public class AccumulatingTests {
+	private static GlyphList<Rectangle2D, String> glyphs() {
+		GlyphList<Rectangle2D, String> glyphs = new GlyphList<>();
+		for (int i=0; i<5000; i++) {
+			glyphs.add(new SimpleGlyph<>(new Rectangle2D.Double((i*7)%101, (i*13)%97, .5, .5), "c" + (i%5)));
+		}
+		return glyphs;
+	}
+	
+	@Test
+	public void matchesImmutable() {
+		GlyphList<Rectangle2D, String> glyphs = glyphs();
+		AffineTransform view = AffineTransform.getScaleInstance(.5, .5);
+		Selector<Rectangle2D> selector = TouchesPixel.make(glyphs);
+		Categories.CountCategories<String> op = new Categories.CountCategories<>();
+		assertTrue(ThreadpoolRenderer.accumulates(op));
+		
+		Aggregates<CategoricalCounts<String>> ref = new ThreadpoolRenderer().aggregate(glyphs, selector, op, view,
+				ThreadpoolRenderer.defaultAllocator(glyphs, view), ThreadpoolRenderer.defaultMerge(op.identity(), op::rollup));
+		
+		for (Renderer r: new Renderer[]{new ThreadpoolRenderer(), new ForkJoinRenderer()}) {
+			Aggregates<CategoricalCounts<String>> res = r.aggregate(glyphs, selector, op, view);
+			for (int x=ref.lowX(); x<ref.highX(); x++) {
+				for (int y=ref.lowY(); y<ref.highY(); y++) {
+					assertThat(String.format("Mismatch at %d,%d with %s", x, y, r.getClass().getSimpleName()), res.get(x,y), is(ref.get(x,y)));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package ar.test.renderers;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Aggregator;
+import ar.Renderer;
+import ar.Selector;
+import ar.glyphsets.GlyphList;
+import ar.glyphsets.SimpleGlyph;
+import ar.renderers.ForkJoinRenderer;
+import ar.renderers.ProjectionCache;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.CategoricalCounts;
+import ar.rules.Categories;
+import ar.rules.CategoryDictionary;
+import ar.rules.Numbers;
+import ar.selectors.TouchesPixel;
+
+public class ProjectionCacheTests {
+	private static GlyphList<Rectangle2D, Integer> glyphs() {
+		GlyphList<Rectangle2D, Integer> glyphs = new GlyphList<>();
+		for (int i=0; i<5000; i++) {
+			glyphs.add(new SimpleGlyph<>(new Rectangle2D.Double((i*7)%101, (i*13)%97, .5, .5), i%5));
+		}
+		return glyphs;
+	}
+	
+	private static <A> void assertSame(Aggregates<A> ref, Aggregates<A> res) {
+		for (int x=ref.lowX(); x<ref.highX(); x++) {
+			for (int y=ref.lowY(); y<ref.highY(); y++) {
+				assertThat(String.format("Mismatch at %d,%d", x, y), res.get(x,y), is(ref.get(x,y)));
+			}
+		}
+	}
+	
+	@Test
+	public void matchesRenderer() {
+		GlyphList<Rectangle2D, Integer> glyphs = glyphs();
+		AffineTransform view = AffineTransform.getScaleInstance(3, 2);
+		Selector<Rectangle2D> selector = TouchesPixel.make(glyphs);
+		
+		Aggregator<Integer, Integer> count = new Numbers.Count<>();
+		Aggregator<Integer, Integer> sum = Numbers.Sum.make(Integer.class);
+		for (Renderer rend: Arrays.asList(new ThreadpoolRenderer(), new ForkJoinRenderer())) {
+			ProjectionCache cache = new ProjectionCache();
+			assertSame(rend.aggregate(glyphs, selector, count, view), cache.aggregate(rend, glyphs, selector, count, view));
+			assertSame(rend.aggregate(glyphs, selector, sum, view), cache.aggregate(rend, glyphs, selector, sum, view));
+		}
+	}
+	
+	@Test
+	public void categoricalTargets() {
+		GlyphList<Rectangle2D, Integer> glyphs = glyphs();
+		AffineTransform view = AffineTransform.getScaleInstance(3, 2);
+		Selector<Rectangle2D> selector = TouchesPixel.make(glyphs);
+		Renderer rend = new ThreadpoolRenderer();
+		ProjectionCache cache = new ProjectionCache();
+		
+		Aggregates<CategoricalCounts<Integer>> ref = rend.aggregate(glyphs, selector, new Categories.CountCategories<Integer>(), view);
+		Aggregates<CategoricalCounts<Integer>> accumulated = cache.aggregate(rend, glyphs, selector, new Categories.CountCategories<Integer>(), view);
+		Aggregates<CategoricalCounts<Integer>> planes = cache.aggregate(rend, glyphs, selector, new Categories.CountCategories<>(new CategoryDictionary<>(Arrays.asList(0,1,2,3,4))), view);
+		for (int x=ref.lowX(); x<ref.highX(); x++) {
+			for (int y=ref.lowY(); y<ref.highY(); y++) {
+				for (Integer key=0; key<5; key++) {
+					String msg = String.format("Mismatch at %d,%d for %d", x, y, key);
+					assertThat(msg, accumulated.get(x,y).count(key), is(ref.get(x,y).count(key)));
+					assertThat(msg, planes.get(x,y).count(key), is(ref.get(x,y).count(key)));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void eviction() {
+		GlyphList<Rectangle2D, Integer> glyphs = glyphs();
+		AffineTransform view = AffineTransform.getScaleInstance(3, 2);
+		Selector<Rectangle2D> selector = TouchesPixel.make(glyphs);
+		ProjectionCache cache = new ProjectionCache();
+		Renderer rend = new ThreadpoolRenderer();
+		
+		ProjectionCache.Projection p = cache.projection(rend, glyphs, selector, view);
+		assertTrue(p == cache.projection(rend, glyphs, selector, new AffineTransform(view)));
+		assertFalse(p == cache.projection(rend, glyphs, selector, AffineTransform.getScaleInstance(2, 2)));
+		assertFalse(p == cache.projection(rend, glyphs(), selector, view));
+		assertThat("Stale view of the first glyphset kept", cache.size(), is(2));
+	}
+
+	@Test
+	public void memoryBudget() {
+		GlyphList<Rectangle2D, Integer> glyphs = glyphs(), others = glyphs();
+		AffineTransform view = AffineTransform.getScaleInstance(3, 2);
+		Selector<Rectangle2D> selector = TouchesPixel.make(glyphs);
+		Renderer rend = new ThreadpoolRenderer();
+		long one = new ProjectionCache().projection(rend, glyphs, selector, view).bytes();
+
+		ProjectionCache cache = new ProjectionCache(0, one + one/2);
+		ProjectionCache.Projection first = cache.projection(rend, glyphs, selector, view);
+		cache.projection(rend, others, selector, view);
+		assertThat(cache.size(), is(1));
+		assertThat(cache.bytes(), is(one));
+		assertFalse("Least recently used not evicted", first == cache.projection(rend, glyphs, selector, view));
+
+		ProjectionCache tiny = new ProjectionCache(0, one/2);
+		assertSame(rend.aggregate(glyphs, selector, new Numbers.Count<>(), view), tiny.aggregate(rend, glyphs, selector, new Numbers.Count<>(), view));
+		assertThat(tiny.size(), is(0));
+	}
+}
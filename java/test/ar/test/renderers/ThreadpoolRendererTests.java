@@ -0,0 +1,32 @@
+package ar.test.renderers;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import ar.renderers.ProgressRecorder;
+import ar.renderers.ThreadpoolRenderer;
+
+public class ThreadpoolRendererTests {
+	@Test
+	public void parallelismFromPool() {
+		ExecutorService single = Executors.newFixedThreadPool(1);
+		ExecutorService three = Executors.newFixedThreadPool(3);
+		ForkJoinPool fj = new ForkJoinPool(5);
+		try {
+			assertThat(new ThreadpoolRenderer(single, 1, new ProgressRecorder.NOP()).parallelism(), is(1));
+			assertThat(new ThreadpoolRenderer(three, 2, new ProgressRecorder.NOP()).parallelism(), is(6));
+			assertThat(new ThreadpoolRenderer(fj, 2, new ProgressRecorder.NOP()).parallelism(), is(10));
+			assertThat(new ThreadpoolRenderer().parallelism(), is(ThreadpoolRenderer.RENDER_THREAD_LOAD * ThreadpoolRenderer.RENDER_POOL_SIZE));
+		} finally {
+			single.shutdown();
+			three.shutdown();
+			fj.shutdown();
+		}
+	}
+}
@@ -3,10 +3,16 @@ package ar.test.rules;
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
 import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 
 import org.junit.Test;
 
 import ar.rules.CategoricalCounts;
+import ar.rules.CategoryDictionary;
 import ar.util.Util;
 
 public class CategoricalCountsTests {
@@ -46,4 +52,70 @@ public class CategoricalCountsTests {
 		assertFalse(c1.equals(c2));
 	}
 	
+	@Test
+	public void dictionaryBacked() {
+		CategoryDictionary<String> dictionary = new CategoryDictionary<>();
+		CategoricalCounts<String> byId = new CategoricalCounts<>(dictionary);
+		CategoricalCounts<String> byLabel = new CategoricalCounts<>();
+		for (String s: new String[]{"b", "a", "c", "a", "b", "a"}) {
+			byId = byId.extend(s, 1);
+			byLabel = byLabel.extend(s, 1);
+		}
+		
+		assertThat(dictionary.labels(), is(Arrays.asList("b", "a", "c")));
+		assertThat(byId.size(), is(3));
+		assertThat(byId.fullSize(), is(6));
+		assertThat(byId.key(0), is("b"));
+		for (String s: new String[]{"a", "b", "c", "d"}) {assertThat(byId.count(s), is(byLabel.count(s)));}
+		assertTrue(byId.hasKey("c"));
+		assertFalse(byId.hasKey("d"));
+		
+		CategoricalCounts<String> merged = CategoricalCounts.rollupTwo(byId, byId.empty().extendId(dictionary.id("d"), 2));
+		assertThat(merged.count("d"), is(2));
+		assertThat(merged.fullSize(), is(8));
+		assertThat(merged.dictionary(), is(dictionary));
+	}
+	
+	@Test
+	public void accumulator() {
+		CategoricalCounts<String> immutable = new CategoricalCounts<>();
+		CategoricalCounts.Accumulator<String> acc = immutable.accumulator();
+		for (int i=0; i<100; i++) {
+			String label = "c" + ((i*7)%13);
+			immutable = immutable.extend(label, i);
+			acc.add(label, i);
+		}
+		CategoricalCounts<String> frozen = acc.freeze();
+		assertThat(frozen, is(immutable));
+		assertThat(frozen.fullSize(), is(immutable.fullSize()));
+		
+		acc.addAll(frozen);
+		assertThat("Frozen counts changed by later accumulation.", frozen, is(immutable));
+		assertThat(acc.freeze().count("c3"), is(immutable.count("c3")*2));
+		
+		CategoryDictionary<String> dictionary = new CategoryDictionary<>();
+		CategoricalCounts.Accumulator<String> ids = new CategoricalCounts<String>().accumulator();
+		ids.addAll(new CategoricalCounts<>(dictionary).extend("b", 2));
+		ids.add("a", 1);
+		assertThat(ids.freeze().dictionary(), is(dictionary));
+		assertThat(ids.freeze().key(0), is("b"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void dictionarySerializes() throws Exception {
+		CategoryDictionary<String> dictionary = new CategoryDictionary<>(Arrays.asList("a", null, "b"));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {out.writeObject(dictionary);}
+		CategoryDictionary<String> copy;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			copy = (CategoryDictionary<String>) in.readObject();
+		}
+
+		assertThat(copy.labels(), is(dictionary.labels()));
+		assertThat(copy.find(null), is(1));
+		assertThat(copy.id(null), is(1));
+		assertThat(copy.size(), is(3));
+	}
 }
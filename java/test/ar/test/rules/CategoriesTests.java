@@ -5,13 +5,16 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 
 import java.awt.Color;
+import java.util.Arrays;
 
 import ar.Aggregates;
 import ar.Renderer;
 import ar.aggregates.AggregateUtils;
+import ar.aggregates.implementations.CategoricalPlanes;
 import ar.aggregates.implementations.RefFlatAggregates;
 import ar.renderers.ForkJoinRenderer;
 import ar.rules.CategoricalCounts;
+import ar.rules.CategoryDictionary;
 import ar.rules.Categories.*;
 import ar.test.AllEqual;
 import ar.util.Util;
@@ -136,5 +139,55 @@ public class CategoriesTests {
 				new AllEqual<>(AggregateUtils.make(10, 10, 8)));
 	}
 	
-
+	@Test
+	public void countIds() {
+		CategoryDictionary<String> dictionary = new CategoryDictionary<>(Arrays.asList("Red", "Green"));
+		CountIds<String> counter = new CountIds<>(dictionary);
+		CategoricalCounts<String> left = counter.combine(counter.combine(counter.identity(), 1), dictionary.id("Blue"));
+		CategoricalCounts<String> right = counter.combine(counter.combine(counter.identity(), 0), 1);
+		CategoricalCounts<String> all = counter.rollup(left, right);
+		
+		assertEquals(3, all.size());
+		assertEquals(4, all.fullSize());
+		assertEquals("Red", all.key(0));
+		assertEquals("Blue", all.key(2));
+		assertEquals(2, all.count("Green"));
+		assertEquals(0, all.count("Purple"));
+		
+		CategoricalCounts<String> byLabel = new CategoricalCounts<String>().extend("Red", 1).extend("Green", 2).extend("Blue", 1);
+		assertEquals(byLabel.fullSize(), CategoricalCounts.rollupTwo(new CategoricalCounts<String>(), all).fullSize());
+		assertEquals(byLabel.count("Blue"), all.count("Blue"));
+		
+		Renderer r = new ForkJoinRenderer();
+		Aggregates<CategoricalCounts<String>> aggs = new RefFlatAggregates<>(10, 10, all);
+		assertThat(r.transfer(aggs, new NthKey<String>(1, null)), new AllEqual<>(AggregateUtils.make(10, 10, "Green")));
+	}
+	
+	@Test
+	public void stableOrder() {
+		Renderer r = new ForkJoinRenderer();
+		for (String[] seen: new String[][]{{"Red", "Blue", "Green"}, {"Green", "Red", "Blue"}}) {
+			CategoryDictionary<String> dictionary = new CategoryDictionary<>();
+			CategoricalCounts<String> counts = new CategoricalCounts<>(dictionary);
+			for (String label: seen) {counts = counts.extend(label, label.length());}
+			
+			Aggregates<CategoricalCounts<String>> aggs = new RefFlatAggregates<>(10, 10, counts);
+			String order = Arrays.toString(seen);
+			assertThat(order, r.transfer(aggs, new NthKey<String>(0, null)), new AllEqual<>(AggregateUtils.make(10, 10, "Blue")));
+			assertThat(order, r.transfer(aggs, new NthCount<String>(1, -1)), new AllEqual<>(AggregateUtils.make(10, 10, 5)));
+			
+			CategoricalPlanes<String> planes = new CategoricalPlanes<>(0, 0, 10, 10, dictionary);
+			for (int x=0; x<10; x++) {for (int y=0; y<10; y++) {planes.set(x, y, counts);}}
+			assertThat(order, r.transfer(planes, new NthCount<String>(2, -1)), new AllEqual<>(AggregateUtils.make(10, 10, 3)));
+		}
+		
+		CategoryDictionary<String> seeded = new CategoryDictionary<>(Arrays.asList("Red"));
+		CategoricalCounts<String> counts = CategoricalCounts.ofId(seeded, seeded.id("Green"), 2);
+		counts = CategoricalCounts.rollupTwo(counts, CategoricalCounts.ofId(seeded, seeded.id("Blue"), 1));
+		counts = CategoricalCounts.rollupTwo(counts, CategoricalCounts.ofId(seeded, seeded.id("Red"), 4));
+		assertEquals("Red", counts.key(counts.nth(0)));
+		assertEquals("Blue", counts.key(counts.nth(1)));
+		assertEquals(2, counts.count("Green"));
+		assertEquals(7, counts.fullSize());
+	}
 }
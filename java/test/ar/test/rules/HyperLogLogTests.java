@@ -0,0 +1,102 @@
+package ar.test.rules;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Renderer;
+import ar.aggregates.implementations.DoubleAggregates;
+import ar.glyphsets.GlyphList;
+import ar.glyphsets.SimpleGlyph;
+import ar.renderers.ForkJoinRenderer;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.HyperLogLog;
+import ar.rules.Numbers;
+import ar.selectors.TouchesPixel;
+
+public class HyperLogLogTests {
+	private static HyperLogLog sketch(int precision, int from, int to) {
+		HyperLogLog.Accumulator acc = new HyperLogLog.Accumulator(precision);
+		for (int i=from; i<to; i++) {acc.add("user" + i);}
+		return acc.freeze();
+	}
+
+	@Test
+	public void estimates() {
+		HyperLogLog small = sketch(12, 0, 100);
+		assertTrue(small.isSparse());
+		assertEquals(100, small.estimate(), 2);
+
+		HyperLogLog large = sketch(12, 0, 200000);
+		assertFalse(large.isSparse());
+		assertEquals(200000, large.estimate(), 200000*.05);
+
+		HyperLogLog repeated = sketch(12, 0, 100);
+		for (int i=0; i<10; i++) {repeated = HyperLogLog.merge(repeated, sketch(12, 0, 100));}
+		assertThat(repeated, is(small));
+		assertThat(new HyperLogLog(12).offer("user0"), is(sketch(12, 0, 1)));
+	}
+
+	@Test
+	public void merge() {
+		HyperLogLog all = sketch(10, 0, 5000);
+		HyperLogLog merged = HyperLogLog.merge(sketch(10, 0, 3000), sketch(10, 2000, 5000));
+		assertThat(merged, is(all));
+		assertThat(merged.estimate(), is(all.estimate()));
+
+		HyperLogLog sparse = HyperLogLog.merge(sketch(10, 0, 20), sketch(10, 10, 30));
+		assertTrue(sparse.isSparse());
+		assertThat(sparse, is(sketch(10, 0, 30)));
+
+		HyperLogLog mixed = HyperLogLog.merge(sketch(10, 0, 20), sketch(10, 10, 5000));
+		assertThat(mixed, is(all));
+		assertThat(HyperLogLog.of(10, null, all.registers()), is(all));
+		assertThat(HyperLogLog.of(10, sparse.sparseEntries(), null), is(sparse));
+	}
+
+	@Test
+	public void hashes() {
+		assertThat(HyperLogLog.hash("foo"), is(-2129773440516405919L));	//MurmurHash3_x64_128("foo", seed 0), first 64 bits
+		assertThat(HyperLogLog.hash("foo".getBytes()), is(HyperLogLog.hash("foo")));
+		assertThat(HyperLogLog.hash(new byte[]{1,2,3}), is(HyperLogLog.hash(new byte[]{1,2,3})));
+		assertThat(HyperLogLog.hash(12L), is(HyperLogLog.hash(12)));
+
+		//Longs with the same hashCode (hi ^ lo) must still be told apart
+		HyperLogLog.Accumulator acc = new HyperLogLog.Accumulator(12);
+		for (long i=0; i<100000; i++) {acc.add((i << 32) | i);}
+		assertEquals(100000, acc.freeze().estimate(), 100000*.05);
+	}
+
+	@Test
+	public void mismatchedPrecision() {
+		assertThat(HyperLogLog.merge(new HyperLogLog(11), sketch(10, 0, 10)), is(sketch(10, 0, 10)));
+		try {
+			HyperLogLog.merge(sketch(10, 0, 10), sketch(11, 0, 10));
+			fail("Merged sketches of different precision.");
+		} catch (IllegalArgumentException e) {}
+	}
+
+	@Test
+	public void render() {
+		GlyphList<Rectangle2D, String> glyphs = new GlyphList<>();
+		for (int i=0; i<40000; i++) {
+			glyphs.add(new SimpleGlyph<>(new Rectangle2D.Double(i%2, 0, .5, .5), "user" + (i%2 == 0 ? i%100 : i%5000)));
+		}
+		Numbers.CountDistinct<String> op = new Numbers.CountDistinct<>();
+		AffineTransform view = new AffineTransform();
+
+		for (Renderer r: new Renderer[]{new ThreadpoolRenderer(), new ForkJoinRenderer()}) {
+			Aggregates<HyperLogLog> aggs = r.aggregate(glyphs, TouchesPixel.make(glyphs), op, view);
+			Aggregates<Double> estimates = r.transfer(aggs, new Numbers.EstimateDistinct());
+			assertThat(estimates, instanceOf(DoubleAggregates.class));
+			assertEquals(50, estimates.get(0, 0), 2);
+			assertEquals(2500, estimates.get(1, 0), 2500*.05);
+			assertThat(estimates.get(5, 5), is(0d));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package ar.test.rules;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Renderer;
+import ar.aggregates.implementations.DoubleAggregates;
+import ar.aggregates.implementations.IntAggregates;
+import ar.renderers.ForkJoinRenderer;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.KernelDensity;
+
+public class KernelDensityTests {
+	private static final Renderer RENDERER = new ForkJoinRenderer();
+
+	/**A single count of 1000 at (50,50).**/
+	private static Aggregates<Integer> impulse() {
+		Aggregates<Integer> counts = new IntAggregates(0, 0, 100, 100, 0);
+		counts.set(50, 50, 1000);
+		return counts;
+	}
+
+	private static double total(Aggregates<Double> density) {
+		double total = 0;
+		for (Double v: density) {total += v;}
+		return total;
+	}
+
+	@Test
+	public void gaussian() {
+		for (double sigma: new double[]{2, 10}) {	//Direct and box-filtered
+			KernelDensity<Integer> kde = new KernelDensity<>(KernelDensity.Kernel.GAUSSIAN, sigma);
+			Aggregates<Double> density = RENDERER.transfer(impulse(), kde);
+			assertThat(density, instanceOf(DoubleAggregates.class));
+			assertThat(density.lowX(), is(-kde.radius()));
+			assertEquals(1000, total(density), 1e-6);
+
+			double peak = 1000/(2*Math.PI*sigma*sigma);
+			double tolerance = sigma*3 > KernelDensity.BOX_RADIUS ? .12 : .05;	//Three boxes have a flatter peak than the Gaussian
+			assertEquals(peak, density.get(50, 50), peak*tolerance);
+			assertEquals(density.get(50+(int) sigma, 50), density.get(50, 50-(int) sigma), 1e-9);
+			assertEquals(peak*Math.exp(-.5), density.get(50+(int) sigma, 50), peak*tolerance);
+		}
+	}
+
+	@Test
+	public void epanechnikov() {
+		for (double h: new double[]{5.5, 30}) {		//Direct and sliding sums
+			KernelDensity<Integer> kde = new KernelDensity<>(KernelDensity.Kernel.EPANECHNIKOV, h);
+			Aggregates<Double> density = RENDERER.transfer(impulse(), kde);
+			assertEquals(1000, total(density), 1e-6);
+
+			int r = (int) Math.floor(h);
+			double norm = 0;
+			for (int k=-r; k<=r; k++) {norm += 1-(k*k)/(h*h);}
+			for (int dx: new int[]{0, 3, r}) {
+				double expected = 1000 * (1-(dx*dx)/(h*h))/norm * 1/norm;
+				assertEquals(String.format("Offset %d with bandwidth %s", dx, h), expected, density.get(50+dx, 50), 1e-9);
+			}
+			assertThat(density.get(50+r+1, 50), is(0d));
+		}
+	}
+
+	@Test
+	public void superposition() {
+		Aggregates<Integer> counts = impulse();
+		counts.set(10, 80, 10);
+		Aggregates<Integer> single = new IntAggregates(0, 0, 100, 100, 0);
+		single.set(10, 80, 10);
+
+		KernelDensity<Integer> kde = new KernelDensity<>(KernelDensity.Kernel.GAUSSIAN, 20);
+		Aggregates<Double> both = RENDERER.transfer(counts, kde);
+		Aggregates<Double> first = RENDERER.transfer(impulse(), kde);
+		Aggregates<Double> second = RENDERER.transfer(single, kde);
+		for (int x=both.lowX(); x<both.highX(); x+=7) {
+			for (int y=both.lowY(); y<both.highY(); y+=7) {
+				assertEquals(first.get(x, y) + second.get(x, y), both.get(x, y), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void zeroBeyondReach() {
+		Random rand = new Random(3);
+		Aggregates<Integer> counts = new IntAggregates(0, 0, 600, 600, 0);
+		for (int x=0; x<100; x++) {
+			for (int y=0; y<100; y++) {counts.set(x, y, rand.nextInt(50));}
+		}
+
+		for (KernelDensity.Kernel kernel: KernelDensity.Kernel.values()) {
+			KernelDensity<Integer> kde = new KernelDensity<>(kernel, 40);	//Sliding sums for both kernels
+			for (Renderer r: new Renderer[]{RENDERER, new ThreadpoolRenderer()}) {
+				Aggregates<Double> density = r.transfer(counts, kde);
+				int reach = 100 + kde.radius();
+				for (int x=density.lowX(); x<density.highX(); x++) {
+					for (int y=density.lowY(); y<density.highY(); y++) {
+						double v = density.get(x, y);
+						assertTrue(String.format("%s negative at (%d, %d): %s", kernel, x, y, v), v >= 0);
+						if (x >= reach || y >= reach) {assertThat(String.format("%s beyond reach at (%d, %d)", kernel, x, y), v, is(0d));}
+					}
+				}
+			}
+		}
+	}
+}
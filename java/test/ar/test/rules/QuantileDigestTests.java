@@ -0,0 +1,114 @@
+package ar.test.rules;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Renderer;
+import ar.aggregates.implementations.DoubleAggregates;
+import ar.glyphsets.GlyphList;
+import ar.glyphsets.SimpleGlyph;
+import ar.renderers.ForkJoinRenderer;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.Numbers;
+import ar.rules.QuantileDigest;
+import ar.selectors.TouchesPixel;
+
+public class QuantileDigestTests {
+	/**Values 0 to n-1 (scaled to 0 to 1), in a scrambled order.**/
+	private static QuantileDigest digest(int from, int to, int n) {
+		QuantileDigest.Accumulator acc = new QuantileDigest.Accumulator(100);
+		for (int i=from; i<to; i++) {acc.add(((i*7919L)%n)/(double) n);}
+		return acc.freeze();
+	}
+
+	@Test
+	public void exactWhenSmall() {
+		QuantileDigest digest = new QuantileDigest(100);
+		for (double v: new double[]{5,1,4,2,3}) {digest = digest.offer(v);}
+		assertTrue(digest.isExact());
+		assertThat(digest.quantile(.5), is(3d));
+		assertThat(digest.quantile(0), is(1d));
+		assertThat(digest.quantile(1), is(5d));
+		assertThat(digest.offer(6).quantile(.5), is(3.5));
+		assertTrue(Double.isNaN(new QuantileDigest(100).quantile(.5)));
+	}
+
+	@Test
+	public void accurateWhenLarge() {
+		int n = 100000;
+		QuantileDigest digest = digest(0, n, n);
+		assertFalse(digest.isExact());
+		assertTrue("Too many centroids: " + digest.size(), digest.size() < 300);
+		assertThat(digest.count(), is((long) n));
+		assertEquals(.5, digest.quantile(.5), .01);
+		assertEquals(.95, digest.quantile(.95), .005);
+		assertEquals(.99, digest.quantile(.99), .002);
+		assertThat(digest.quantile(0), is(0d));
+	}
+
+	@Test
+	public void mergeGroupings() {
+		int n = 60000;
+		QuantileDigest a = digest(0, 20000, n), b = digest(20000, 40000, n), c = digest(40000, n, n);
+		QuantileDigest left = QuantileDigest.merge(QuantileDigest.merge(a, b), c);
+		QuantileDigest right = QuantileDigest.merge(a, QuantileDigest.merge(b, c));
+		assertThat(left.count(), is((long) n));
+		for (double q: new double[]{.05, .25, .5, .75, .95}) {
+			assertEquals(q, left.quantile(q), .01);
+			assertEquals(left.quantile(q), right.quantile(q), .01);
+		}
+		assertThat(QuantileDigest.merge(a, b), is(QuantileDigest.merge(b, a)));
+
+		QuantileDigest small = QuantileDigest.merge(digest(0, 10, 40), digest(10, 40, 40));
+		assertTrue(small.isExact());
+		assertThat(small, is(digest(0, 40, 40)));
+	}
+
+	@Test
+	public void mergeAccumulators() {
+		QuantileDigest.Accumulator source = new QuantileDigest.Accumulator(100);
+		for (int i=0; i<150; i++) {source.add(i);}		//Leaves values buffered
+		QuantileDigest.Accumulator target = new QuantileDigest.Accumulator(100);
+		target.add(-1);
+		target.addAll(source);
+
+		QuantileDigest merged = target.freeze();
+		assertThat(merged.count(), is(151L));
+		assertThat(merged.min(), is(-1d));
+		assertThat(merged.max(), is(149d));
+		assertThat(source.freeze().count(), is(150L));
+		assertEquals(74, merged.quantile(.5), 1);
+	}
+
+	@Test
+	public void render() {
+		Random rand = new Random(42);
+		GlyphList<Rectangle2D, Double> glyphs = new GlyphList<>();
+		for (int i=0; i<20000; i++) {
+			double value = i%2 == 0 ? rand.nextDouble() : 10 + rand.nextDouble()*10;
+			glyphs.add(new SimpleGlyph<>(new Rectangle2D.Double(i%2, 0, .5, .5), value));
+		}
+		glyphs.add(new SimpleGlyph<>(new Rectangle2D.Double(2, 0, .5, .5), 7d));
+		Numbers.Quantiles<Double> op = new Numbers.Quantiles<>();
+		AffineTransform view = new AffineTransform();
+
+		for (Renderer r: new Renderer[]{new ThreadpoolRenderer(), new ForkJoinRenderer()}) {
+			Aggregates<QuantileDigest> aggs = r.aggregate(glyphs, TouchesPixel.make(glyphs), op, view);
+			Aggregates<Double> medians = r.transfer(aggs, new Numbers.Quantile(.5, -1));
+			Aggregates<Double> p95 = r.transfer(aggs, new Numbers.Quantile(.95, -1));
+			assertThat(medians, instanceOf(DoubleAggregates.class));
+			assertEquals(.5, medians.get(0, 0), .03);
+			assertEquals(15, medians.get(1, 0), .3);
+			assertEquals(19.5, p95.get(1, 0), .1);
+			assertThat(medians.get(2, 0), is(7d));
+			assertThat(medians.get(5, 5), is(-1d));
+		}
+	}
+}
@@ -3,6 +3,10 @@ package ar.test.rules;
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
 import ar.Aggregates;
@@ -11,6 +15,8 @@ import ar.Renderer;
 import ar.Transfer.Specialized;
 import ar.aggregates.implementations.RefFlatAggregates;
 import ar.renderers.ForkJoinRenderer;
+import ar.renderers.SerialRenderer;
+import ar.renderers.ThreadpoolRenderer;
 import ar.rules.General;
 import ar.rules.General.Spread.Spreader;
 import ar.rules.Numbers;
@@ -130,4 +136,66 @@ public class SpreadTests {
 		assertThat(String.format("Failed at (%d, %d)", 6,6), rslt.get(6,6), is(0));
 		assertThat(String.format("Failed at (%d, %d)", 8,8), rslt.get(8,8), is(0));
 	}
+	
+	/**Sparse values scattered over a region wide enough to be split into tiles.**/
+	private static Aggregates<Integer> scattered() {
+		Random rand = new Random(42);
+		Aggregates<Integer> aggs = new RefFlatAggregates<Integer>(-10, 5, 400, 120, 0);
+		for (int i=0; i<2000; i++) {
+			aggs.set(aggs.lowX() + rand.nextInt(410), aggs.lowY() + rand.nextInt(115), 1 + rand.nextInt(30));
+		}
+		return aggs;
+	}
+	
+	private static <V> void assertSameAggregates(Aggregates<V> expected, Aggregates<V> actual) {
+		assertThat(actual.lowX(), is(expected.lowX()));
+		assertThat(actual.lowY(), is(expected.lowY()));
+		assertThat(actual.highX(), is(expected.highX()));
+		assertThat(actual.highY(), is(expected.highY()));
+		for (int x=expected.lowX(); x<expected.highX(); x++){
+			for (int y=expected.lowY(); y<expected.highY(); y++){
+				assertThat(String.format("Failed at (%d, %d)",x,y), actual.get(x,y), is(expected.get(x,y)));
+			}
+		}
+	}
+	
+	@Test
+	public void testTiledMatchesSerial() {
+		Aggregates<Integer> aggs = scattered();
+		Aggregator<Integer,Integer> combiner = new Numbers.Count<>();
+		Renderer serial = new SerialRenderer();
+		
+		List<Spreader<Integer>> spreaders = Arrays.asList(
+				new General.Spread.UnitRectangle<>(1, 3, 2, 5),
+				new General.Spread.UnitCircle<>(4),
+				new General.Spread.ValueCircle<>());
+		
+		for (Spreader<Integer> spreader: spreaders) {
+			General.Spread<Integer> spread = new General.Spread<>(spreader, combiner);
+			Aggregates<Integer> expected = serial.transfer(aggs, spread);
+			for (Renderer r: new Renderer[]{new ForkJoinRenderer(), new ThreadpoolRenderer()}) {
+				assertSameAggregates(expected, r.transfer(aggs, spread));
+			}
+		}
+	}
+	
+	@Test
+	public void testTiledKeepsOrder() {
+		Aggregates<Integer> aggs = scattered();
+		Aggregates<String> labels = new RefFlatAggregates<String>(aggs.lowX(), aggs.lowY(), aggs.highX(), aggs.highY(), "");
+		for (int x=aggs.lowX(); x<aggs.highX(); x++){
+			for (int y=aggs.lowY(); y<aggs.highY(); y++){
+				if (aggs.get(x,y) != 0) {labels.set(x, y, Integer.toString(x) + ",");}
+			}
+		}
+
+		//Concatenation is associative but not commutative, so tiles must be combined in order
+		General.Spread<String> spread = new General.Spread<>(new General.Spread.UnitRectangle<>(6), (a,b) -> a+b, "");
+		Aggregates<String> expected = new SerialRenderer().transfer(labels, spread);
+		assertThat(expected.get(0, 20), not(""));
+		for (Renderer r: new Renderer[]{new ForkJoinRenderer(), new ThreadpoolRenderer()}) {
+			assertThat(r.parallelism() > 1, is(true));
+			assertSameAggregates(expected, r.transfer(labels, spread));
+		}
+	}
 }
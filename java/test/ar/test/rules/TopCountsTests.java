@@ -0,0 +1,171 @@
+package ar.test.rules;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Renderer;
+import ar.aggregates.AggregateUtils;
+import ar.glyphsets.GlyphList;
+import ar.glyphsets.SimpleGlyph;
+import ar.renderers.ForkJoinRenderer;
+import ar.renderers.ThreadpoolRenderer;
+import ar.rules.CategoricalCounts;
+import ar.rules.Categories;
+import ar.rules.TopCounts;
+import ar.selectors.TouchesPixel;
+
+public class TopCountsTests {
+	/**Every third item is "heavy"; the rest are spread over many light categories.**/
+	private static String item(int i) {return i%3 == 0 ? "heavy" : "light" + (i*7)%50;}
+
+	private static void assertBounds(TopCounts<String> top, Map<String, Integer> exact) {
+		for (int i=0; i<top.size(); i++) {
+			int actual = exact.getOrDefault(top.key(i), 0);
+			assertTrue("Under-estimate for " + top.key(i), top.count(i) >= actual);
+			assertTrue("Error too small for " + top.key(i), top.count(i) - top.error(i) <= actual);
+			if (i>0) {assertTrue("Out of order at " + i, top.count(i) <= top.count(i-1));}
+		}
+	}
+
+	@Test
+	public void heavyHitters() {
+		TopCounts<String> top = new TopCounts<>(5);
+		Map<String, Integer> exact = new HashMap<>();
+		for (int i=0; i<3000; i++) {
+			top = top.extend(item(i), 1);
+			exact.merge(item(i), 1, Integer::sum);
+		}
+
+		assertThat(top.size(), is(5));
+		assertThat(top.fullSize(), is(3000));
+		assertThat(top.key(0), is("heavy"));
+		assertThat(top.count("heavy"), is(1000));
+		assertBounds(top, exact);
+	}
+
+	@Test
+	public void comparatorFollowsCounts() {
+		TopCounts<String> top = new TopCounts<String>(3).extend("a", 1).extend("b", 3).extend("c", 2).extend("a", 1);
+		assertThat(top.comparator(), is(notNullValue()));
+		assertThat(top.key(0), is("b"));
+		assertTrue(top.comparator().compare("b", "c") < 0);
+		assertTrue(top.comparator().compare("a", "c") > 0);
+		assertTrue(top.comparator().compare("c", "absent") < 0);
+		assertThat(top.key(top.nth(1)), is("c"));
+		assertThat(top.count("a"), is(2));
+		assertThat(top.count("absent"), is(0));
+		assertThat(top.fullSize(), is(7));
+	}
+
+	@Test
+	public void accumulateMatchesCombine() {
+		Categories.MergeCategories<String> op = new Categories.MergeCategories<>();
+		List<CategoricalCounts<String>> updates = new ArrayList<>();
+		updates.add(new CategoricalCounts<String>().extend("light1", 4).extend("heavy", 2));
+		for (int part=0; part<6; part++) {
+			TopCounts<String> top = new TopCounts<>(part < 3 ? 3 : 5);
+			for (int i=part*500; i<(part+1)*500; i++) {top = top.extend(item(i), 1);}
+			updates.add(top);
+		}
+		updates.add(new CategoricalCounts<String>().extend("light2", 7));
+
+		CategoricalCounts<String> combined = op.identity();
+		CategoricalCounts.Accumulator<String> acc = op.create();
+		for (CategoricalCounts<String> update: updates) {
+			combined = op.combine(combined, update);
+			op.accumulate(acc, update);
+		}
+		CategoricalCounts<String> accumulated = op.freeze(acc);
+
+		assertThat(combined, instanceOf(TopCounts.class));
+		assertThat(accumulated, instanceOf(TopCounts.class));
+		assertThat(accumulated.capacity(), is(5));
+		assertThat(accumulated.fullSize(), is(combined.fullSize()));
+		assertThat(accumulated.size(), is(combined.size()));
+		for (int i=0; i<combined.size(); i++) {
+			assertThat(accumulated.key(i), is(combined.key(i)));
+			assertThat(accumulated.count(i), is(combined.count(i)));
+			assertThat(((TopCounts<String>) accumulated).error(i), is(((TopCounts<String>) combined).error(i)));
+		}
+	}
+
+	@Test
+	public void accumulator() {
+		TopCounts<String> top = new TopCounts<>(5);
+		CategoricalCounts.Accumulator<String> acc = top.accumulator();
+		for (int i=0; i<3000; i++) {
+			top = top.extend(item(i), 1);
+			acc.add(item(i), 1);
+		}
+		assertThat(acc.freeze(), is((CategoricalCounts<String>) top));
+		assertThat(acc.freeze(), instanceOf(TopCounts.class));
+	}
+
+	@Test
+	public void merge() {
+		TopCounts<String> left = new TopCounts<>(5), right = new TopCounts<>(5);
+		Map<String, Integer> exact = new HashMap<>();
+		for (int i=0; i<3000; i++) {
+			if (i%2 == 0) {left = left.extend(item(i), 1);}
+			else {right = right.extend(item(i), 1);}
+			exact.merge(item(i), 1, Integer::sum);
+		}
+
+		TopCounts<String> merged = TopCounts.merge(left, right);
+		assertThat(merged.size(), is(5));
+		assertThat(merged.fullSize(), is(3000));
+		assertThat(merged.key(0), is("heavy"));
+		assertBounds(merged, exact);
+
+		Aggregates<TopCounts<String>> a = AggregateUtils.make(0, 0, 2, 2, new TopCounts<>(5));
+		Aggregates<TopCounts<String>> b = AggregateUtils.make(1, 1, 3, 3, new TopCounts<>(5));
+		a.set(1, 1, left);
+		b.set(1, 1, right);
+		b.set(2, 2, right);
+		Categories.TopK<String> op = new Categories.TopK<>(5);
+		Aggregates<TopCounts<String>> rolled = AggregateUtils.__unsafeMerge(a, b, op.identity(), op::rollup);
+		assertThat(rolled.get(1, 1), is(merged));
+		assertThat(rolled.get(2, 2), is(right));
+		assertThat(rolled.get(0, 0).size(), is(0));
+	}
+
+	@Test
+	public void render() {
+		GlyphList<Rectangle2D, String> glyphs = new GlyphList<>();
+		for (int i=0; i<6000; i++) {
+			glyphs.add(new SimpleGlyph<>(new Rectangle2D.Double(i%4, (i/4)%4, .5, .5), item(i)));
+		}
+		Categories.TopK<String> op = new Categories.TopK<>(4);
+		AffineTransform view = new AffineTransform();
+
+		for (Renderer r: new Renderer[]{new ThreadpoolRenderer(), new ForkJoinRenderer()}) {
+			Aggregates<TopCounts<String>> aggs = r.aggregate(glyphs, TouchesPixel.make(glyphs), op, view);
+			for (int x=0; x<4; x++) {
+				for (int y=0; y<4; y++) {
+					TopCounts<String> top = aggs.get(x, y);
+					assertThat(top.fullSize(), is(375));
+					assertTrue(top.size() <= 4);
+					assertThat(top.key(0), is("heavy"));
+				}
+			}
+
+			Aggregates<String> keys = r.transfer(aggs, new Categories.NthKey<String>(0, "none"));
+			Aggregates<Integer> counts = r.transfer(aggs, new Categories.NthCount<String>(0, -1));
+			Aggregates<Color> percents = r.transfer(aggs, new Categories.KeyPercent<String>(.3, "heavy", Color.white, Color.blue, Color.red));
+			assertThat(keys.get(1, 1), is("heavy"));
+			assertThat(counts.get(1, 1), is(aggs.get(1, 1).count(0)));
+			assertThat(percents.get(1, 1), is(Color.blue));
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package ar.test.selectors;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ar.Aggregates;
+import ar.Glyph;
+import ar.Selector;
+import ar.aggregates.AggregateUtils;
+import ar.glyphsets.ColumnarGlyphs;
+import ar.glyphsets.GlyphList;
+import ar.glyphsets.SimpleGlyph;
+import ar.rules.Numbers;
+import ar.selectors.TouchesPixel;
+import ar.util.Util;
+
+public class TouchesPixelTests {
+	
+	private static List<Glyph<Ellipse2D, Integer>> circles() {
+		List<Glyph<Ellipse2D, Integer>> glyphs = new ArrayList<>();
+		for (int i=0; i<20; i++) {
+			glyphs.add(new SimpleGlyph<>(new Ellipse2D.Double(i*2.5, (i%7)*3.1, 4+(i%3), 3+(i%4)), 1));
+		}
+		return glyphs;
+	}
+	
+	@Test
+	public void ellipseSelectorRegistered() {
+		assertThat(TouchesPixel.make(Ellipse2D.Double.class), instanceOf(TouchesPixel.Ellipses.class));
+		assertThat(TouchesPixel.make(new GlyphList<>(circles())), instanceOf(TouchesPixel.Ellipses.class));
+	}
+
+	@Test
+	public void ellipsesMatchShapes() {
+		List<Glyph<Ellipse2D, Integer>> glyphs = circles();
+		AffineTransform view = new AffineTransform(4, 0, 0, -3, 5, 120);
+
+		Aggregates<Integer> ref = AggregateUtils.make(-10, -10, 250, 150, 0);
+		Aggregates<Integer> res = AggregateUtils.make(-10, -10, 250, 150, 0);
+		new TouchesPixel.Shapes().processSubset(glyphs, view, ref, new Numbers.Count<>());
+		new TouchesPixel.Ellipses().processSubset(glyphs, view, res, new Numbers.Count<>());
+
+		//Shapes hit-tests against a curve approximation, so allow a handful of boundary pixels to disagree
+		int total=0, mismatch=0;
+		for (int x=ref.lowX(); x<ref.highX(); x++) {
+			for (int y=ref.lowY(); y<ref.highY(); y++) {
+				total += ref.get(x, y);
+				if (!ref.get(x,y).equals(res.get(x,y))) {mismatch++;}
+			}
+		}
+		assertTrue("No pixels touched", total > 0);
+		assertTrue(String.format("Too many mismatches (%d of %d)", mismatch, total), mismatch < total/100);
+	}
+	
+	@Test
+	public void rotatedViewFallsBack() {
+		List<Glyph<Ellipse2D, Integer>> glyphs = circles();
+		AffineTransform view = AffineTransform.getRotateInstance(.3);
+		view.scale(3, 3);
+
+		Aggregates<Integer> ref = AggregateUtils.make(-100, -100, 250, 250, 0);
+		Aggregates<Integer> res = AggregateUtils.make(-100, -100, 250, 250, 0);
+		new TouchesPixel.Shapes().processSubset(glyphs, view, ref, new Numbers.Count<>());
+		new TouchesPixel.Ellipses().processSubset(glyphs, view, res, new Numbers.Count<>());
+		
+		for (int x=ref.lowX(); x<ref.highX(); x++) {
+			for (int y=ref.lowY(); y<ref.highY(); y++) {
+				assertThat(String.format("Mismatch at %d, %d", x,y), res.get(x,y), is(ref.get(x,y)));
+			}
+		}
+	}
+
+	/**Per-glyph reference: every bin the selector's hitsBin reports for each glyph (bins outside the target are dropped).**/
+	private static <G> Aggregates<Integer> perGlyph(Selector<G> selector, List<? extends Glyph<? extends G, Integer>> glyphs, AffineTransform view, Aggregates<Integer> target) {
+		for (Glyph<? extends G, Integer> g: glyphs) {
+			Rectangle2D b = view.createTransformedShape(Util.boundOne(g.shape())).getBounds2D();
+			for (int x=(int) Math.floor(b.getMinX())-1; x<=Math.ceil(b.getMaxX())+1; x++) {
+				for (int y=(int) Math.floor(b.getMinY())-1; y<=Math.ceil(b.getMaxY())+1; y++) {
+					if (x < target.lowX() || x >= target.highX() || y < target.lowY() || y >= target.highY()) {continue;}
+					if (selector.hitsBin(g, view, x, y)) {target.set(x, y, target.get(x, y)+1);}
+				}
+			}
+		}
+		return target;
+	}
+
+	private static void assertMatch(Aggregates<Integer> ref, Aggregates<Integer> res) {
+		int total = 0;
+		for (int x=ref.lowX(); x<ref.highX(); x++) {
+			for (int y=ref.lowY(); y<ref.highY(); y++) {
+				assertThat(String.format("Mismatch at %d, %d", x,y), res.get(x,y), is(ref.get(x,y)));
+				total += ref.get(x, y);
+			}
+		}
+		assertTrue("No bins touched", total > 0);
+	}
+
+	@Test
+	public void batchedPointsMatchPerGlyph() {
+		//More than one projection block; on bin edges (multiples of .25 scale to integers), between them and outside the view 
+		List<Glyph<Point2D, Integer>> glyphs = new ArrayList<>();
+		for (int i=0; i<TouchesPixel.PROJECTION_BLOCK+1500; i++) {
+			double x = (i%61)*.25 - 2, y = (i%47)*.25 - 1.5;
+			if (i%3 == 0) {x += .1;}
+			glyphs.add(new SimpleGlyph<>(new Point2D.Double(x, y), 1));
+		}
+		AffineTransform view = new AffineTransform(4, 0, 0, 4, 1, 2);
+
+		Aggregates<Integer> ref = perGlyph(new TouchesPixel.Points(), glyphs, view, AggregateUtils.make(0, 0, 40, 30, 0));
+		Aggregates<Integer> res = new TouchesPixel.Points().processSubset(glyphs, view, AggregateUtils.make(0, 0, 40, 30, 0), new Numbers.Count<>());
+		assertMatch(ref, res);
+
+		ColumnarGlyphs.Builder<Integer> columns = new ColumnarGlyphs.Builder<>();
+		for (Glyph<Point2D, Integer> g: glyphs) {columns.add(g.shape(), g.info());}
+		Aggregates<Integer> cols = new TouchesPixel.Points().processSubset(columns.<Point2D>build(false), view, AggregateUtils.make(0, 0, 40, 30, 0), new Numbers.Count<>());
+		assertMatch(ref, cols);
+	}
+
+	@Test
+	public void batchedRectanglesMatchPerGlyph() {
+		List<Glyph<Rectangle2D, Integer>> glyphs = new ArrayList<>();
+		for (int i=0; i<TouchesPixel.PROJECTION_BLOCK+500; i++) {
+			double x = (i%53)*.25 - 2, y = (i%41)*.25 - 1.5;
+			double w = (i%4)*.25, h = (i%5)*.25;	//Some degenerate (zero width or height)
+			if (i%3 == 0) {x += .1; w += .3;}
+			glyphs.add(new SimpleGlyph<>(new Rectangle2D.Double(x, y, w, h), 1));
+		}
+		AffineTransform view = new AffineTransform(4, 0, 0, 4, 1, 2);
+
+		Aggregates<Integer> ref = perGlyph(new TouchesPixel.Rectangles(), glyphs, view, AggregateUtils.make(0, 0, 40, 30, 0));
+		Aggregates<Integer> res = new TouchesPixel.Rectangles().processSubset(glyphs, view, AggregateUtils.make(0, 0, 40, 30, 0), new Numbers.Count<>());
+		assertMatch(ref, res);
+
+		ColumnarGlyphs.Builder<Integer> columns = new ColumnarGlyphs.Builder<>();
+		for (Glyph<Rectangle2D, Integer> g: glyphs) {columns.add(g.shape(), g.info());}
+		Aggregates<Integer> cols = new TouchesPixel.Rectangles().processSubset(columns.<Rectangle2D>build(false), view, AggregateUtils.make(0, 0, 40, 30, 0), new Numbers.Count<>());
+		assertMatch(ref, cols);
+	}
+}
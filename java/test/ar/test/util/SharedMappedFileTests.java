@@ -0,0 +1,134 @@
+package ar.test.util;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ar.util.memoryMapping.FileByteBuffer;
+import ar.util.memoryMapping.MemMapEncoder;
+import ar.util.memoryMapping.PrefetchingMappedFile;
+import ar.util.memoryMapping.SharedMappedFile;
+
+public class SharedMappedFileTests {
+	private static File hbin = new File("../data/circlepointsSharedTests.hbin");
+
+	@BeforeClass
+	public static void encode() throws Exception {
+		if (hbin.exists()) {hbin.delete();}
+		MemMapEncoder.write(new File("../data/circlepoints.csv"), 1, hbin, "xxddi".toCharArray());
+	}
+
+	@AfterClass
+	public static void removeTemps() {hbin.delete();}
+
+	@Test
+	public void matchesFileByteBuffer() throws Exception {
+		FileByteBuffer ref = new FileByteBuffer(hbin, 0, hbin.length());
+		try (SharedMappedFile shared = new SharedMappedFile(hbin)) {
+			assertThat(shared.capacity(), is(ref.capacity()));
+			for (long i=0; i<hbin.length()-8; i+=3) {
+				assertThat(shared.get(i), is(ref.get(i)));
+				assertThat(shared.getLong(i), is(ref.getLong(i)));
+			}
+
+			shared.order(ByteOrder.LITTLE_ENDIAN);
+			ref.order(ByteOrder.LITTLE_ENDIAN);
+			assertThat(shared.getInt(7), is(ref.getInt(7)));
+		}
+	}
+
+	@Test
+	public void viewsAreRelative() throws Exception {
+		try (SharedMappedFile shared = new SharedMappedFile(hbin);
+			 SharedMappedFile view = shared.view(100, 200)) {
+			assertThat(view.filePosition(), is(100l));
+			assertThat(view.capacity(), is(100l));
+			assertThat(view.getDouble(4), is(shared.getDouble(104)));
+			assertThat(view.getInt(), is(shared.getInt(100)));
+			assertNull(shared.view(10, 10));
+		}
+	}
+
+	@Test
+	public void concurrentReads() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try (SharedMappedFile shared = new SharedMappedFile(hbin)) {
+			long expected = 0;
+			for (long i=0; i<hbin.length(); i++) {expected += shared.get(i);}
+
+			List<Future<Long>> parts = new ArrayList<>();
+			for (int t=0; t<4; t++) {
+				final int start = t;
+				parts.add(pool.submit(() -> {
+					long sum = 0;
+					for (long i=start; i<hbin.length(); i+=4) {sum += shared.get(i);}
+					return sum;
+				}));
+			}
+			long actual = 0;
+			for (Future<Long> f: parts) {actual += f.get();}
+			assertThat(actual, is(expected));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void prefetchingPassesThrough() throws Exception {
+		try (SharedMappedFile shared = new SharedMappedFile(hbin);
+			 PrefetchingMappedFile prefetching = new PrefetchingMappedFile(shared.view(0, hbin.length()), PrefetchingMappedFile.PAGE_BYTES*2)) {
+			for (long i=0; i<hbin.length()-8; i+=8) {
+				assertThat(prefetching.getLong(i), is(shared.getLong(i)));
+			}
+			PrefetchingMappedFile.Stalls spent = prefetching.stalls();
+			assertThat(spent.pages + spent.prefetched, greaterThan(0l));
+			try (PrefetchingMappedFile unread = new PrefetchingMappedFile(shared.view(0, hbin.length()), PrefetchingMappedFile.PAGE_BYTES*2)) {
+				assertThat("Counters shared between files.", unread.stalls().any(), is(false));
+			}
+		}
+	}
+	
+	@Test
+	public void releasedWhenAllClosed() throws Exception {
+		SharedMappedFile shared = new SharedMappedFile(hbin);
+		SharedMappedFile view = shared.view(0, 100);
+		shared.close();
+		assertThat(view.getInt(0), is(MemMapEncoder.VERSION_ZONES));
+		view.close();
+		view.close();
+		try {
+			view.getInt(0);
+			fail("Read from released mapping.");
+		} catch (IllegalStateException e) {}
+	}
+
+	@Test
+	public void collectedViewsKeepMapping() throws Exception {
+		try (SharedMappedFile shared = new SharedMappedFile(hbin)) {
+			long expected = 0;
+			for (long i=0; i<hbin.length(); i++) {expected += shared.get(i);}
+			
+			for (int i=0; i<1000; i++) {
+				SharedMappedFile view = shared.view(i, hbin.length());
+				assertThat(view.get(0), is(shared.get(i)));		//Dropped without closing
+			}
+			System.gc();
+			Thread.sleep(100);
+
+			long actual = 0;
+			for (long i=0; i<hbin.length(); i++) {actual += shared.get(i);}
+			assertThat(actual, is(expected));
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package ar.test.util;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ar.Glyph;
+import ar.Glyphset;
+import ar.glyphsets.MemMapList;
+import ar.glyphsets.implicitgeometry.Indexed;
+import ar.util.memoryMapping.MemMapEncoder;
+import ar.util.memoryMapping.SpatialSort;
+
+public class SpatialSortTests {
+	private static String csvName = "../data/circlepoints.csv";
+	private static File unsorted = new File("../data/circlepointsSortTests.hbin");
+	private static File inMemory = new File("../data/circlepointsSortTests-memory.hbin");
+	private static File external = new File("../data/circlepointsSortTests-external.hbin");
+
+	@BeforeClass
+	public static void encode() throws Exception {
+		for (File f: new File[]{unsorted, inMemory, external}) {
+			if (f.exists()) {f.delete();}
+			MemMapEncoder.write(new File(csvName), 1, f, "xxddi".toCharArray());
+		}
+		SpatialSort.sort(inMemory, 0, 1, SpatialSort.Curve.HILBERT, Integer.MAX_VALUE);
+		SpatialSort.sort(external, 0, 1, SpatialSort.Curve.HILBERT, 100);
+	}
+
+	@AfterClass
+	public static void removeTemps() {
+		for (File f: new File[]{unsorted, inMemory, external}) {f.delete();}
+	}
+
+	@Test
+	public void hilbertOrder() {
+		assertThat(SpatialSort.hilbert(0, 0, 1), is(0L));
+		assertThat(SpatialSort.hilbert(0, 1, 1), is(1L));
+		assertThat(SpatialSort.hilbert(1, 1, 1), is(2L));
+		assertThat(SpatialSort.hilbert(1, 0, 1), is(3L));
+		assertThat(SpatialSort.zorder(1, 1, 1), is(3L));
+		assertThat(SpatialSort.zorder(2, 0, 2), is(4L));
+	}
+
+	@Test
+	public void runLength() {
+		assertThat(SpatialSort.runLength(24, 1000), is(1000));
+		assertThat(SpatialSort.runLength(24, Integer.MAX_VALUE), is(SpatialSort.MAX_RUN_BYTES/24));
+		assertTrue((long) SpatialSort.runLength(1<<20, 1<<20) * (1<<20) <= SpatialSort.MAX_RUN_BYTES);
+	}
+
+	@Test
+	public void externalMatchesInMemory() throws Exception {
+		assertArrayEquals(Files.readAllBytes(inMemory.toPath()), Files.readAllBytes(external.toPath()));
+	}
+
+	@Test
+	public void sameRecords() {
+		assertThat(records(list(inMemory)), is(records(list(unsorted))));
+	}
+
+	@Test
+	public void compactSegments() {
+		assertThat(segmentArea(list(inMemory)), lessThan(segmentArea(list(unsorted))));
+	}
+
+	private static MemMapList<Point2D, Integer> list(File f) {
+		return new MemMapList<>(f, new Indexed.ToPoint(false, 0, 1), new Indexed.ToValue<Integer,Integer>(2));
+	}
+
+	private static List<String> records(MemMapList<Point2D, Integer> glyphs) {
+		List<String> items = new ArrayList<>();
+		for (Glyph<Point2D, Integer> g: glyphs) {items.add(g.shape() + ":" + g.info());}
+		Collections.sort(items);
+		return items;
+	}
+
+	private static double segmentArea(MemMapList<Point2D, Integer> glyphs) {
+		double area = 0;
+		for (Glyphset<Point2D, Integer> s: glyphs.segment(16)) {area += s.bounds().getWidth() * s.bounds().getHeight();}
+		return area;
+	}
+}